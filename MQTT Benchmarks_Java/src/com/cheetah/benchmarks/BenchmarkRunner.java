@@ -0,0 +1,269 @@
+package com.cheetah.benchmarks;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A small stand-in for JMH: runs an operation in a loop on one or more threads, first to warm up,
+ * then over several timed iterations, and reports throughput and the bytes allocated per
+ * operation (what JMH's <i>gc</i> profiler reports as <i>gc.alloc.rate.norm</i>).
+ * <p>
+ * Allocation is read from each benchmark thread's allocation counter
+ * (<i>com.sun.management.ThreadMXBean.getThreadAllocatedBytes()</i>), so garbage made by other
+ * threads, e.g. a writer thread the operation hands work to, is not counted. Results of every
+ * operation should be passed to <i>consume()</i> so the JIT can't remove the work.
+ * @version 1.0.0, 2026-10-16
+ * @since 1.1.0
+ *
+ */
+public class BenchmarkRunner {
+
+	/** Operations run between checks of the stop flag and updates of the operation counter. */
+	private static final int BATCH = 256;
+
+	/**
+	 * One benchmarked operation. Each thread gets its own instance, so per-thread state (e.g. a
+	 * reused parser) may be kept in fields.
+	 */
+	public interface Operation {
+		/**
+		 * Runs the operation once.
+		 * @throws Exception If the operation fails; the benchmark is aborted.
+		 */
+		void run() throws Exception;
+	}
+
+	/**
+	 * Creates the operation run by each benchmark thread.
+	 */
+	public interface OperationFactory {
+		/**
+		 * Creates one thread's operation.
+		 * @param thread The index of the thread, from 0.
+		 * @return The operation the thread will run.
+		 * @throws Exception If the setup fails.
+		 */
+		Operation create(int thread) throws Exception;
+	}
+
+	private static volatile long sink;
+
+	/**
+	 * Keeps a result alive, so that the work producing it can't be optimized away.
+	 * @param value Any result of the benchmarked operation.
+	 */
+	public static void consume(Object value){
+		if(value != null && System.identityHashCode(value) == 0x5EED){
+			sink++;
+		}
+	}
+
+	/**
+	 * Keeps a result alive, so that the work producing it can't be optimized away.
+	 * @param value Any result of the benchmarked operation.
+	 */
+	public static void consume(long value){
+		if(value == 0x5EED5EEDL){
+			sink++;
+		}
+	}
+
+	private final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+	private final long warmupMillis;
+	private final int iterations;
+	private final long iterationMillis;
+
+	/**
+	 * The initialization constructor for the <i>BenchmarkRunner</i> class.
+	 * @param warmupMillis How long to run each benchmark before measuring.
+	 * @param iterations The number of measured iterations.
+	 * @param iterationMillis The length of each measured iteration.
+	 */
+	public BenchmarkRunner(long warmupMillis, int iterations, long iterationMillis){
+		this.warmupMillis = warmupMillis;
+		this.iterations = iterations;
+		this.iterationMillis = iterationMillis;
+		this.threadBean.setThreadAllocatedMemoryEnabled(true);
+	}
+
+	/**
+	 * Runs one benchmark and prints its results.
+	 * @param name The name to report the benchmark under.
+	 * @param threads The number of threads running the operation concurrently.
+	 * @param factory Creates each thread's operation.
+	 * @return The results.
+	 * @throws Exception If the setup or an operation fails.
+	 */
+	public Result run(String name, int threads, OperationFactory factory) throws Exception{
+		final Worker[] workers = new Worker[threads];
+		for(int i = 0; i < threads; i++){
+			workers[i] = new Worker(factory.create(i));
+		}
+
+		final CountDownLatch started = new CountDownLatch(threads);
+		for(int i = 0; i < threads; i++){
+			final Worker worker = workers[i];
+			worker.thread = new Thread(new Runnable(){
+				@Override
+				public void run(){
+					started.countDown();
+					worker.loop();
+				}
+			}, "benchmark-" + name + "-" + i);
+			worker.thread.setDaemon(true);
+			worker.thread.start();
+		}
+		started.await();
+
+		Thread.sleep(this.warmupMillis);
+
+		double[] opsPerSecond = new double[this.iterations];
+		long totalOps = 0;
+		long totalBytes = 0;
+		for(int it = 0; it < this.iterations; it++){
+			long ops = sumOps(workers);
+			long bytes = sumAllocatedBytes(workers);
+			long start = System.nanoTime();
+			Thread.sleep(this.iterationMillis);
+			long elapsed = System.nanoTime() - start;
+			long iterationOps = sumOps(workers) - ops;
+			long iterationBytes = sumAllocatedBytes(workers) - bytes;
+
+			opsPerSecond[it] = iterationOps * 1e9 / elapsed;
+			totalOps += iterationOps;
+			totalBytes += iterationBytes;
+		}
+
+		for(Worker worker : workers){
+			worker.running = false;
+		}
+		for(Worker worker : workers){
+			worker.thread.join();
+			if(worker.failure != null){
+				throw worker.failure;
+			}
+		}
+
+		Result result = new Result(name, threads, opsPerSecond, totalOps == 0 ? 0 : (double) totalBytes / totalOps,
+				totalBytes * 1000.0 / (this.iterations * this.iterationMillis) / (1024 * 1024));
+		System.out.println(result);
+		return result;
+	}
+
+	private static long sumOps(Worker[] workers){
+		long sum = 0;
+		for(Worker worker : workers){
+			sum += worker.ops;
+		}
+		return sum;
+	}
+
+	private long sumAllocatedBytes(Worker[] workers){
+		long sum = 0;
+		for(Worker worker : workers){
+			sum += this.threadBean.getThreadAllocatedBytes(worker.thread.getId());
+		}
+		return sum;
+	}
+
+	/**
+	 * One benchmark thread.
+	 */
+	private static final class Worker {
+
+		private final Operation operation;
+		private Thread thread;
+		private volatile boolean running = true;
+		/** Operations completed so far, only written by the worker's thread. */
+		private volatile long ops;
+		private Exception failure;
+
+		private Worker(Operation operation){
+			this.operation = operation;
+		}
+
+		private void loop(){
+			try{
+				while(this.running){
+					for(int i = 0; i < BATCH; i++){
+						this.operation.run();
+					}
+					this.ops += BATCH;
+				}
+			}
+			catch(Exception e){
+				this.failure = e;
+			}
+		}
+	}
+
+	/**
+	 * The measured results of one benchmark.
+	 */
+	public static final class Result {
+
+		private final String name;
+		private final int threads;
+		private final double meanOpsPerSecond;
+		private final double errorOpsPerSecond;
+		private final double bytesPerOp;
+		private final double allocMBPerSecond;
+
+		private Result(String name, int threads, double[] opsPerSecond, double bytesPerOp, double allocMBPerSecond){
+			this.name = name;
+			this.threads = threads;
+			this.bytesPerOp = bytesPerOp;
+			this.allocMBPerSecond = allocMBPerSecond;
+
+			double sum = 0;
+			for(double ops : opsPerSecond){
+				sum += ops;
+			}
+			this.meanOpsPerSecond = sum / opsPerSecond.length;
+			double squares = 0;
+			for(double ops : opsPerSecond){
+				squares += (ops - this.meanOpsPerSecond) * (ops - this.meanOpsPerSecond);
+			}
+			this.errorOpsPerSecond = opsPerSecond.length > 1 ? Math.sqrt(squares / (opsPerSecond.length - 1)) : 0;
+		}
+
+		/**
+		 * Returns the mean throughput over the measured iterations, all threads together.
+		 * @return Operations per second.
+		 */
+		public double getOpsPerSecond(){
+			return this.meanOpsPerSecond;
+		}
+
+		/**
+		 * Returns the bytes allocated per operation by the benchmark threads.
+		 * @return Bytes per operation.
+		 */
+		public double getBytesPerOp(){
+			return this.bytesPerOp;
+		}
+
+		@Override
+		public String toString(){
+			return String.format("%-40s %3d thr  %,16.0f +/- %,12.0f ops/s  %10.1f B/op  %9.1f MB/s alloc",
+					this.name, this.threads, this.meanOpsPerSecond, this.errorOpsPerSecond, this.bytesPerOp, this.allocMBPerSecond);
+		}
+	}
+
+	/**
+	 * Returns the names of the benchmarks matching the filter, keeping their order.
+	 * @param names Every benchmark name.
+	 * @param filter A substring of the names to run, or null for all.
+	 * @return The matching names.
+	 */
+	public static List<String> select(List<String> names, String filter){
+		List<String> selected = new ArrayList<String>();
+		for(String name : names){
+			if(filter == null || name.contains(filter)){
+				selected.add(name);
+			}
+		}
+		return selected;
+	}
+}
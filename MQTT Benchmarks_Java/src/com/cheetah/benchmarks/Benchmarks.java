@@ -0,0 +1,331 @@
+package com.cheetah.benchmarks;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import com.cheetah.recorder.AsyncCsvWriter;
+import com.cheetah.recorder.BucketResults;
+import com.cheetah.recorder.CsvWriter;
+import com.cheetah.recorder.LatencyBucket;
+import com.cheetah.recorder.LatencyHistogram;
+import com.cheetah.recorder.PayloadScanner;
+import com.cheetah.recorder.ResultsSink;
+import com.cheetah.recorder.ResultsStore;
+import com.cheetah.recorder.StatsShard;
+import com.cheetahnetworks.JsonPayload;
+
+/**
+ * Micro-benchmarks of the hot paths between a device and the results file: building and parsing
+ * the publisher's JSON payload, the recorder's parse of each arriving message, recording
+ * latencies into the shared bucket and into per-connection shards, and appending a bucket's
+ * results to the CSV file or the binary results store. Each benchmark reports its throughput and the bytes allocated per
+ * operation; the aggregation benchmarks run at 1, 4 and 16 threads to show contention.
+ * <p>
+ * Compile and run with both the publisher's and the recorder's classes and their libraries on
+ * the classpath (Java 11 or newer):
+ * <pre>
+ * java -cp bench:recorder:publisher:json-simple-3.1.0.jar com.cheetah.benchmarks.Benchmarks [FILTER] [ITERATIONS] [ITERATION_MS]
+ * </pre>
+ * where FILTER is a substring of the names of the benchmarks to run.
+ * @version 1.0.0, 2026-10-16
+ * @since 1.1.0
+ *
+ */
+public class Benchmarks {
+
+	static final int[] AGGREGATION_THREADS = {1, 4, 16};
+	/** Distinct devices the aggregation benchmarks record for, per thread. */
+	static final int DEVICES_PER_THREAD = 64;
+
+	static final String SERIALIZE = "json.serialize";
+	static final String DESERIALIZE = "json.deserialize";
+	static final String SCAN_JSON = "scan.json";
+	static final String SCAN_BINARY = "scan.binary";
+	static final String ADD_TO_BUCKET = "bucket.addToBucket";
+	static final String SHARD_RECORD = "bucket.shardRecord";
+	static final String CSV_APPEND = "csv.appendBucketResults";
+	static final String ASYNC_CSV_APPEND = "csv.asyncAppendBucketResults";
+	static final String STORE_APPEND = "store.appendBucketResults";
+
+	static final List<String> ALL = Arrays.asList(SERIALIZE, DESERIALIZE, SCAN_JSON, SCAN_BINARY,
+			ADD_TO_BUCKET, SHARD_RECORD, CSV_APPEND, ASYNC_CSV_APPEND, STORE_APPEND);
+
+	/**
+	 * Runs the benchmarks.
+	 * @param args Command-line arguments, [FILTER] [ITERATIONS] [ITERATION_MS].
+	 * @throws Exception If a benchmark fails.
+	 */
+	public static void main(String[] args) throws Exception{
+
+		String filter = args.length > 0 && !args[0].isEmpty() ? args[0] : null;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		long iterationMillis = args.length > 2 ? Long.parseLong(args[2]) : 1000;
+
+		BenchmarkRunner runner = new BenchmarkRunner(iterationMillis, iterations, iterationMillis);
+		System.out.println("Warmup " + iterationMillis + " ms, " + iterations + " x " + iterationMillis + " ms iterations");
+
+		for(String name : BenchmarkRunner.select(ALL, filter)){
+			switch(name){
+			case SERIALIZE:
+				runner.run(name, 1, serialize());
+				break;
+			case DESERIALIZE:
+				runner.run(name, 1, deserialize());
+				break;
+			case SCAN_JSON:
+				runner.run(name, 1, scan(jsonPayload("device-0042", 17)));
+				break;
+			case SCAN_BINARY:
+				runner.run(name, 1, scan(binaryPayload("device-0042", 17)));
+				break;
+			case ADD_TO_BUCKET:
+				for(int threads : AGGREGATION_THREADS){
+					runner.run(name, threads, addToBucket(new LatencyBucket(new NullSink())));
+				}
+				break;
+			case SHARD_RECORD:
+				for(int threads : AGGREGATION_THREADS){
+					runner.run(name, threads, shardRecord(new LatencyBucket(new NullSink())));
+				}
+				break;
+			case CSV_APPEND:
+				runCsv(runner, name, false);
+				break;
+			case ASYNC_CSV_APPEND:
+				runCsv(runner, name, true);
+				break;
+			case STORE_APPEND:
+				runStore(runner, name);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Builds a JSON report the way a simulated device does.
+	 */
+	static BenchmarkRunner.OperationFactory serialize(){
+		return new BenchmarkRunner.OperationFactory(){
+			@Override
+			public BenchmarkRunner.Operation create(int thread){
+				return new BenchmarkRunner.Operation(){
+					private final JsonPayload payload = new JsonPayload();
+					private long sequence;
+
+					@Override
+					public void run(){
+						this.payload.setDeviceID("device-0042");
+						this.payload.setTimestamp(1760000000000L + this.sequence);
+						this.payload.setLastLatency(this.sequence++ & 1023);
+						BenchmarkRunner.consume(this.payload.serialize());
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * Parses a JSON reply the way a simulated device does.
+	 */
+	static BenchmarkRunner.OperationFactory deserialize(){
+		final String message = new String(jsonPayload("device-0042", 17), StandardCharsets.UTF_8);
+		return new BenchmarkRunner.OperationFactory(){
+			@Override
+			public BenchmarkRunner.Operation create(int thread){
+				return new BenchmarkRunner.Operation(){
+					@Override
+					public void run() throws Exception{
+						JsonPayload payload = new JsonPayload();
+						payload.deserialize(message);
+						BenchmarkRunner.consume(payload.getLastLatency());
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * The recorder's parse of an arriving message, as done in <i>messageArrived()</i>.
+	 */
+	static BenchmarkRunner.OperationFactory scan(final byte[] payload){
+		return new BenchmarkRunner.OperationFactory(){
+			@Override
+			public BenchmarkRunner.Operation create(int thread){
+				return new BenchmarkRunner.Operation(){
+					private final PayloadScanner scanner = new PayloadScanner();
+
+					@Override
+					public void run(){
+						if(!this.scanner.scan(payload)){
+							throw new IllegalStateException("Benchmark payload rejected");
+						}
+						BenchmarkRunner.consume(this.scanner.getLastLatency() + this.scanner.getDeviceIdOffset());
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * All threads recording into one shared bucket, as a single-connection recorder does.
+	 */
+	static BenchmarkRunner.OperationFactory addToBucket(final LatencyBucket bucket){
+		return new BenchmarkRunner.OperationFactory(){
+			@Override
+			public BenchmarkRunner.Operation create(final int thread){
+				return new DeviceOperation(thread){
+					@Override
+					void record(long value, byte[] id){
+						bucket.addToBucket(value, id, 0, id.length);
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * Each thread recording into its own shard of a bucket, as a <i>ShardedRecorder</i>
+	 * connection does.
+	 */
+	static BenchmarkRunner.OperationFactory shardRecord(final LatencyBucket bucket){
+		return new BenchmarkRunner.OperationFactory(){
+			@Override
+			public BenchmarkRunner.Operation create(final int thread){
+				final StatsShard shard = bucket.newShard();
+				return new DeviceOperation(thread){
+					@Override
+					void record(long value, byte[] id){
+						shard.record(value, id, 0, id.length);
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * Appends one bucket's results per operation to a CSV file, with the line each append
+	 * prints to the console discarded.
+	 */
+	static void runCsv(BenchmarkRunner runner, String name, boolean async) throws Exception{
+		File file = File.createTempFile("benchmark-", ".csv");
+		file.deleteOnExit();
+		ResultsSink sink = async ? new AsyncCsvWriter(file) : new CsvWriter(file);
+		runSink(runner, name, sink, new BucketResults(12.5, 1000.0, 1, 11, 19, 42, 97, 130));
+		if(!file.delete()){
+			System.out.println("[WARNING] Could not delete '" + file.getAbsolutePath() + "'");
+		}
+	}
+
+	/**
+	 * Appends one bucket's results per operation to a <i>ResultsStore</i>, each a histogram of
+	 * a thousand spread-out latencies.
+	 */
+	static void runStore(BenchmarkRunner runner, String name) throws Exception{
+		File directory = Files.createTempDirectory("benchmark-").toFile();
+		LatencyHistogram histogram = new LatencyHistogram(3600000, 7);
+		for(int i = 0; i < 1000; i++){
+			histogram.recordValue(5 + (i * 7919L) % 300);
+		}
+
+		runSink(runner, name, new ResultsStore(directory), BucketResults.fromHistogram(histogram));
+		File[] files = directory.listFiles();
+		for(File file : files == null ? new File[0] : files){
+			file.delete();
+		}
+		if(!directory.delete()){
+			System.out.println("[WARNING] Could not delete '" + directory.getAbsolutePath() + "'");
+		}
+	}
+
+	/**
+	 * Appends the same results to a sink once per operation, with the line each append prints
+	 * to the console discarded, then closes the sink.
+	 */
+	static void runSink(BenchmarkRunner runner, String name, final ResultsSink sink, final BucketResults results) throws Exception{
+		PrintStream console = System.out;
+		System.setOut(new PrintStream(new OutputStream(){
+			@Override
+			public void write(int b){
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len){
+			}
+		}));
+		BenchmarkRunner.Result result;
+		try{
+			result = runner.run(name, 1, new BenchmarkRunner.OperationFactory(){
+				@Override
+				public BenchmarkRunner.Operation create(int thread){
+					return new BenchmarkRunner.Operation(){
+						@Override
+						public void run(){
+							sink.appendBucketResults(results);
+						}
+					};
+				}
+			});
+		}
+		finally{
+			System.setOut(console);
+			sink.close();
+		}
+		System.out.println(result);
+	}
+
+	/**
+	 * Records a cycle of latencies for a fixed set of devices; each thread has its own devices.
+	 */
+	abstract static class DeviceOperation implements BenchmarkRunner.Operation {
+
+		private final byte[][] ids = new byte[DEVICES_PER_THREAD][];
+		private long sequence;
+
+		DeviceOperation(int thread){
+			for(int i = 0; i < this.ids.length; i++){
+				this.ids[i] = ("device-" + thread + "-" + i).getBytes(StandardCharsets.US_ASCII);
+			}
+		}
+
+		@Override
+		public void run(){
+			long s = this.sequence++;
+			record(1 + (s & 1023), this.ids[(int) (s % DEVICES_PER_THREAD)]);
+		}
+
+		abstract void record(long value, byte[] id);
+	}
+
+	static byte[] jsonPayload(String deviceId, long lastLatency){
+		JsonPayload payload = new JsonPayload();
+		payload.setDeviceID(deviceId);
+		payload.setTimestamp(1760000000000L);
+		payload.setLastLatency(lastLatency);
+		return payload.serialize().getBytes(StandardCharsets.UTF_8);
+	}
+
+	static byte[] binaryPayload(String deviceId, long lastLatency){
+		byte[] id = com.cheetahnetworks.BinaryPayload.encodeDeviceID(deviceId);
+		byte[] buf = new byte[com.cheetahnetworks.BinaryPayload.length(id)];
+		com.cheetahnetworks.BinaryPayload.encode(buf, id, 1, 1760000000000L, lastLatency);
+		return buf;
+	}
+
+	/**
+	 * Discards every result, so that only the recording is measured.
+	 */
+	static final class NullSink implements ResultsSink {
+
+		@Override
+		public void appendBucketResults(BucketResults br){
+		}
+
+		@Override
+		public void close(){
+		}
+	}
+}
@@ -0,0 +1,513 @@
+package com.cheetah.benchmarks;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A minimal, embeddable MQTT 3.1.1 broker for running the recorder (and publishers) on the
+ * loopback interface, without a VerneMQ installation. Supports what the latency test uses:
+ * CONNECT, SUBSCRIBE/UNSUBSCRIBE with <i>+</i>/<i>#</i> wildcards and <i>$share/[GROUP]/</i>
+ * shared subscriptions, PUBLISH at QoS 0, 1 and 2 (delivered at most at QoS 1), PINGREQ and
+ * DISCONNECT. Sessions are always clean; retained messages and wills are ignored.
+ * <p>
+ * Each shared group hands its messages to its members in turn. Every connection is served by
+ * one reader thread, and packets to a connection are written under its lock, so a slow
+ * subscriber holds up its publishers: a test harness for the benchmarks, not a broker to deploy.
+ * @version 1.0.0, 2026-10-16
+ * @since 1.1.0
+ *
+ */
+public class LoopbackBroker {
+
+	private static final String SHARE_PREFIX = "$share/";
+
+	private final ServerSocket serverSocket;
+	private final Thread acceptThread;
+	private volatile boolean running = true;
+
+	/** Every open connection. */
+	private final CopyOnWriteArrayList<Session> sessions = new CopyOnWriteArrayList<Session>();
+	/** Subscriptions without wildcards, by topic. */
+	private final ConcurrentHashMap<String, CopyOnWriteArrayList<Subscription>> exact = new ConcurrentHashMap<String, CopyOnWriteArrayList<Subscription>>();
+	/** Subscriptions with wildcards, matched against every topic. */
+	private final CopyOnWriteArrayList<Subscription> wildcards = new CopyOnWriteArrayList<Subscription>();
+	/** Shared subscriptions, by "[GROUP]/[FILTER]". */
+	private final ConcurrentHashMap<String, SharedGroup> shared = new ConcurrentHashMap<String, SharedGroup>();
+
+	private final AtomicLong messagesIn = new AtomicLong();
+	private final AtomicLong messagesOut = new AtomicLong();
+
+	/**
+	 * Starts a broker listening on the loopback interface.
+	 * @param port The port to listen on, 0 for any free port (see <i>getPort()</i>).
+	 * @throws IOException If the port can't be bound.
+	 */
+	public LoopbackBroker(int port) throws IOException{
+		this.serverSocket = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress());
+		this.acceptThread = new Thread(new Runnable(){
+			@Override
+			public void run(){
+				acceptLoop();
+			}
+		}, "loopback-broker");
+		this.acceptThread.setDaemon(true);
+		this.acceptThread.start();
+	}
+
+	/**
+	 * Returns the port the broker listens on.
+	 * @return The local port.
+	 */
+	public int getPort(){
+		return this.serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Returns the broker's address, in the form Paho expects.
+	 * @return "tcp://127.0.0.1:[PORT]".
+	 */
+	public String getAddress(){
+		return "tcp://" + this.serverSocket.getInetAddress().getHostAddress() + ":" + getPort();
+	}
+
+	/**
+	 * Returns the number of messages published to the broker.
+	 * @return The number of PUBLISH packets received.
+	 */
+	public long getMessagesIn(){
+		return this.messagesIn.get();
+	}
+
+	/**
+	 * Returns the number of messages delivered to subscribers.
+	 * @return The number of PUBLISH packets sent.
+	 */
+	public long getMessagesOut(){
+		return this.messagesOut.get();
+	}
+
+	/**
+	 * Returns the number of open connections.
+	 * @return The number of connected clients.
+	 */
+	public int getConnectionCount(){
+		return this.sessions.size();
+	}
+
+	/**
+	 * Stops accepting connections and closes every open one.
+	 */
+	public void close(){
+		this.running = false;
+		try{
+			this.serverSocket.close();
+		}
+		catch(IOException e){
+			// Closing anyway
+		}
+		for(Session session : this.sessions){
+			session.close();
+		}
+	}
+
+	private void acceptLoop(){
+		while(this.running){
+			try{
+				Socket socket = this.serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				final Session session = new Session(socket);
+				this.sessions.add(session);
+				Thread reader = new Thread(new Runnable(){
+					@Override
+					public void run(){
+						session.readLoop();
+					}
+				}, "loopback-broker-session");
+				reader.setDaemon(true);
+				reader.start();
+			}
+			catch(IOException e){
+				if(this.running){
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Delivers a message to every matching subscription, and to one member of every matching
+	 * shared group.
+	 */
+	private void route(String topic, byte[] payload, int qos){
+		List<Subscription> direct = this.exact.get(topic);
+		if(direct != null){
+			for(Subscription sub : direct){
+				sub.session.sendPublish(topic, payload, Math.min(qos, sub.qos));
+			}
+		}
+		for(Subscription sub : this.wildcards){
+			if(matches(sub.filter, topic)){
+				sub.session.sendPublish(topic, payload, Math.min(qos, sub.qos));
+			}
+		}
+		for(SharedGroup group : this.shared.values()){
+			if(matches(group.filter, topic)){
+				group.deliver(topic, payload, qos);
+			}
+		}
+	}
+
+	/**
+	 * Matches a topic against a filter which may contain <i>+</i> and <i>#</i> wildcards.
+	 * @param filter The subscription's topic filter.
+	 * @param topic The published topic.
+	 * @return True if the topic matches.
+	 */
+	static boolean matches(String filter, String topic){
+		int f = 0;
+		int t = 0;
+		while(f < filter.length()){
+			char c = filter.charAt(f);
+			if(c == '#'){
+				return true;
+			}
+			if(c == '+'){
+				while(t < topic.length() && topic.charAt(t) != '/'){
+					t++;
+				}
+				f++;
+				continue;
+			}
+			if(t >= topic.length() || topic.charAt(t) != c){
+				// "a/#" also matches "a"
+				return t == topic.length() && filter.startsWith("/#", f);
+			}
+			f++;
+			t++;
+		}
+		return t == topic.length();
+	}
+
+	private static boolean isWildcard(String filter){
+		return filter.indexOf('+') >= 0 || filter.indexOf('#') >= 0;
+	}
+
+	/**
+	 * The members of one shared subscription, served in turn.
+	 */
+	private static final class SharedGroup {
+
+		private final String filter;
+		private final CopyOnWriteArrayList<Subscription> members = new CopyOnWriteArrayList<Subscription>();
+		private final AtomicInteger next = new AtomicInteger();
+
+		private SharedGroup(String filter){
+			this.filter = filter;
+		}
+
+		private void deliver(String topic, byte[] payload, int qos){
+			int size = this.members.size();
+			if(size == 0){
+				return;
+			}
+			try{
+				Subscription sub = this.members.get((this.next.getAndIncrement() & Integer.MAX_VALUE) % size);
+				sub.session.sendPublish(topic, payload, Math.min(qos, sub.qos));
+			}
+			catch(IndexOutOfBoundsException e){
+				// A member left meanwhile; the message is lost, as with a broker dropping a session
+			}
+		}
+	}
+
+	/**
+	 * One session's subscription to a filter.
+	 */
+	private static final class Subscription {
+
+		private final Session session;
+		private final String filter;
+		private final int qos;
+
+		private Subscription(Session session, String filter, int qos){
+			this.session = session;
+			this.filter = filter;
+			this.qos = qos;
+		}
+	}
+
+	/**
+	 * One client connection: reads and handles its packets, and writes packets to it.
+	 */
+	private final class Session {
+
+		private final Socket socket;
+		private final OutputStream out;
+		private final List<Subscription> subscriptions = new ArrayList<Subscription>();
+		private int nextPacketId = 1;
+		private volatile boolean open = true;
+
+		private Session(Socket socket) throws IOException{
+			this.socket = socket;
+			this.out = new BufferedOutputStream(socket.getOutputStream(), 8192);
+		}
+
+		private void readLoop(){
+			try{
+				DataInputStream in = new DataInputStream(new BufferedInputStream(this.socket.getInputStream(), 8192));
+				while(this.open){
+					int header = in.read();
+					if(header < 0){
+						break;
+					}
+					byte[] body = new byte[readRemainingLength(in)];
+					in.readFully(body);
+					if(!handle(header, body)){
+						break;
+					}
+				}
+			}
+			catch(IOException e){
+				// Connection dropped
+			}
+			close();
+		}
+
+		/**
+		 * Handles one packet.
+		 * @return False once the client has disconnected.
+		 */
+		private boolean handle(int header, byte[] body) throws IOException{
+			int type = header >>> 4;
+			switch(type){
+			case 1: // CONNECT
+				write(new byte[] {0x20, 2, 0, 0});
+				return true;
+			case 3: // PUBLISH
+				int qos = (header >>> 1) & 3;
+				int topicLength = ((body[0] & 0xFF) << 8) | (body[1] & 0xFF);
+				String topic = new String(body, 2, topicLength, StandardCharsets.UTF_8);
+				int pos = 2 + topicLength;
+				if(qos > 0){
+					int packetId = ((body[pos] & 0xFF) << 8) | (body[pos + 1] & 0xFF);
+					pos += 2;
+					write(new byte[] {(byte) (qos == 1 ? 0x40 : 0x50), 2, (byte) (packetId >>> 8), (byte) packetId});
+				}
+				byte[] payload = new byte[body.length - pos];
+				System.arraycopy(body, pos, payload, 0, payload.length);
+				messagesIn.incrementAndGet();
+				route(topic, payload, qos);
+				return true;
+			case 6: // PUBREL
+				write(new byte[] {0x70, 2, body[0], body[1]});
+				return true;
+			case 8: // SUBSCRIBE
+				subscribe(body);
+				return true;
+			case 10: // UNSUBSCRIBE
+				unsubscribe(body);
+				return true;
+			case 12: // PINGREQ
+				write(new byte[] {(byte) 0xD0, 0});
+				return true;
+			case 14: // DISCONNECT
+				return false;
+			default: // PUBACK, PUBREC, PUBCOMP for messages sent: nothing is kept for redelivery
+				return true;
+			}
+		}
+
+		private void subscribe(byte[] body) throws IOException{
+			List<Integer> granted = new ArrayList<Integer>();
+			int pos = 2;
+			while(pos < body.length){
+				int length = ((body[pos] & 0xFF) << 8) | (body[pos + 1] & 0xFF);
+				String filter = new String(body, pos + 2, length, StandardCharsets.UTF_8);
+				int qos = Math.min(body[pos + 2 + length] & 3, 1);
+				pos += 3 + length;
+				addSubscription(filter, qos);
+				granted.add(qos);
+			}
+
+			byte[] suback = new byte[4 + granted.size()];
+			suback[0] = (byte) 0x90;
+			suback[1] = (byte) (2 + granted.size());
+			suback[2] = body[0];
+			suback[3] = body[1];
+			for(int i = 0; i < granted.size(); i++){
+				suback[4 + i] = (byte) (int) granted.get(i);
+			}
+			write(suback);
+		}
+
+		private void addSubscription(String filter, int qos){
+			synchronized(this.subscriptions){
+				if(filter.startsWith(SHARE_PREFIX)){
+					int slash = filter.indexOf('/', SHARE_PREFIX.length());
+					String groupFilter = filter.substring(slash + 1);
+					SharedGroup group = shared.get(filter.substring(SHARE_PREFIX.length()));
+					if(group == null){
+						SharedGroup created = new SharedGroup(groupFilter);
+						group = shared.putIfAbsent(filter.substring(SHARE_PREFIX.length()), created);
+						group = group == null ? created : group;
+					}
+					Subscription sub = new Subscription(this, filter, qos);
+					group.members.add(sub);
+					this.subscriptions.add(sub);
+				}
+				else if(isWildcard(filter)){
+					Subscription sub = new Subscription(this, filter, qos);
+					wildcards.add(sub);
+					this.subscriptions.add(sub);
+				}
+				else{
+					Subscription sub = new Subscription(this, filter, qos);
+					CopyOnWriteArrayList<Subscription> subs = exact.get(filter);
+					if(subs == null){
+						CopyOnWriteArrayList<Subscription> created = new CopyOnWriteArrayList<Subscription>();
+						subs = exact.putIfAbsent(filter, created);
+						subs = subs == null ? created : subs;
+					}
+					subs.add(sub);
+					this.subscriptions.add(sub);
+				}
+			}
+		}
+
+		private void unsubscribe(byte[] body) throws IOException{
+			int pos = 2;
+			while(pos < body.length){
+				int length = ((body[pos] & 0xFF) << 8) | (body[pos + 1] & 0xFF);
+				String filter = new String(body, pos + 2, length, StandardCharsets.UTF_8);
+				pos += 2 + length;
+				synchronized(this.subscriptions){
+					for(Subscription sub : new ArrayList<Subscription>(this.subscriptions)){
+						if(sub.filter.equals(filter)){
+							removeSubscription(sub);
+						}
+					}
+				}
+			}
+			write(new byte[] {(byte) 0xB0, 2, body[0], body[1]});
+		}
+
+		private void removeSubscription(Subscription sub){
+			this.subscriptions.remove(sub);
+			wildcards.remove(sub);
+			List<Subscription> subs = exact.get(sub.filter);
+			if(subs != null){
+				subs.remove(sub);
+			}
+			for(SharedGroup group : shared.values()){
+				group.members.remove(sub);
+			}
+		}
+
+		/**
+		 * Sends a PUBLISH to this client. QoS 1 deliveries get a packet ID; their PUBACK is ignored.
+		 */
+		private void sendPublish(String topic, byte[] payload, int qos){
+			byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+			int remaining = 2 + topicBytes.length + (qos > 0 ? 2 : 0) + payload.length;
+			try{
+				synchronized(this.out){
+					this.out.write(0x30 | (qos << 1));
+					writeRemainingLength(this.out, remaining);
+					this.out.write(topicBytes.length >>> 8);
+					this.out.write(topicBytes.length);
+					this.out.write(topicBytes);
+					if(qos > 0){
+						int packetId = this.nextPacketId;
+						this.nextPacketId = packetId == 0xFFFF ? 1 : packetId + 1;
+						this.out.write(packetId >>> 8);
+						this.out.write(packetId);
+					}
+					this.out.write(payload);
+					this.out.flush();
+				}
+				messagesOut.incrementAndGet();
+			}
+			catch(IOException e){
+				close();
+			}
+		}
+
+		private void write(byte[] packet) throws IOException{
+			synchronized(this.out){
+				this.out.write(packet);
+				this.out.flush();
+			}
+		}
+
+		private void close(){
+			if(!this.open && !sessions.contains(this)){
+				return;
+			}
+			this.open = false;
+			sessions.remove(this);
+			synchronized(this.subscriptions){
+				for(Subscription sub : new ArrayList<Subscription>(this.subscriptions)){
+					removeSubscription(sub);
+				}
+			}
+			try{
+				this.socket.close();
+			}
+			catch(IOException e){
+				// Closing anyway
+			}
+		}
+	}
+
+	private static int readRemainingLength(InputStream in) throws IOException{
+		int value = 0;
+		int multiplier = 1;
+		int b;
+		do{
+			b = in.read();
+			if(b < 0){
+				throw new EOFException();
+			}
+			value += (b & 0x7F) * multiplier;
+			multiplier *= 128;
+		}while((b & 0x80) != 0);
+		return value;
+	}
+
+	private static void writeRemainingLength(OutputStream out, int length) throws IOException{
+		do{
+			int b = length % 128;
+			length /= 128;
+			out.write(length > 0 ? b | 0x80 : b);
+		}while(length > 0);
+	}
+
+	/**
+	 * Runs a standalone loopback broker until killed.
+	 * @param args Command-line arguments, [PORT] (default 1883).
+	 * @throws IOException If the port can't be bound.
+	 * @throws InterruptedException If interrupted while running.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException{
+		LoopbackBroker broker = new LoopbackBroker(args.length > 0 ? Integer.parseInt(args[0]) : 1883);
+		System.out.println("[INFO] Loopback broker listening on " + broker.getAddress());
+		while(true){
+			Thread.sleep(1000);
+			System.out.println("\tConnections = " + broker.getConnectionCount() + " | In = " + broker.getMessagesIn() + " | Out = " + broker.getMessagesOut());
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package com.cheetah.benchmarks;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.cheetah.recorder.ShardedRecorder;
+import com.cheetahnetworks.Coordinator;
+
+/**
+ * End-to-end test of a coordinated cluster of testbeds on one machine: starts a
+ * <i>LoopbackBroker</i> on 127.0.0.1 and the recorder as a <i>ShardedRecorder</i> in this JVM,
+ * then launches TESTBEDS publisher JVMs, each running the publisher's <i>Main</i> on a profile
+ * of its own with "coordinated" set, and runs a <i>Coordinator</i> against them. The coordinator
+ * starts, ramps and stops the testbeds together and prints the cluster-wide and per-testbed
+ * rates and round trips; the recorder's entry count is printed next to them to check nothing was
+ * lost between the testbeds' counters and the recorder.
+ * <pre>
+ * java -cp bench:recorder:publisher:json-simple-3.1.0.jar:org.eclipse.paho.client.mqttv3-1.2.0.jar com.cheetah.benchmarks.LoopbackCluster
+ *      [TESTBEDS] [DEVICES_PER_TESTBED] [DURATION_S] [RATE] [RAMP_TO] [RAMP_S] [DEVICES_PER_CONNECTION]
+ * </pre>
+ * RATE is the open-loop rate of every device in messages per second, ramped to RAMP_TO over the
+ * first RAMP_S seconds. Each testbed's console output is written to a log file in a temporary
+ * directory, printed at the end.
+ * @version 1.0.0, 2026-10-16
+ * @since 1.1.0
+ *
+ */
+public class LoopbackCluster {
+
+	private static final long EXIT_TIMEOUT_SECONDS = 30;
+
+	/**
+	 * Runs the cluster test.
+	 * @param args Command-line arguments, see the class description.
+	 * @throws Exception If the broker or a testbed can't be started or the test is interrupted.
+	 */
+	public static void main(String[] args) throws Exception{
+
+		final int testbeds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+		final int devices = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		final int durationSeconds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+		final double rate = args.length > 3 ? Double.parseDouble(args[3]) : 10;
+		final double rampTo = args.length > 4 ? Double.parseDouble(args[4]) : rate;
+		final double rampSeconds = args.length > 5 ? Double.parseDouble(args[5]) : 0;
+		final int devicesPerConnection = args.length > 6 ? Integer.parseInt(args[6]) : 10;
+
+		System.out.println("Testbeds = " + testbeds + " | Devices = " + devices + " per testbed (" + devicesPerConnection + " per connection)"
+				+ " | Rate = " + rate + (rampTo != rate ? " to " + rampTo + " over " + rampSeconds + " s" : "") + " msg/s per device"
+				+ " | Duration = " + durationSeconds + " s");
+
+		LoopbackBroker broker = new LoopbackBroker(0);
+		LoopbackLoadTest.CountingSink sink = new LoopbackLoadTest.CountingSink();
+		ShardedRecorder recorder = new ShardedRecorder(broker.getAddress(), "cluster-recorder", LoopbackLoadTest.SHARE_GROUP,
+				LoopbackLoadTest.REPORT_TOPIC, 1, ShardedRecorder.DEFAULT_CONNECTIONS, sink);
+
+		Path directory = Files.createTempDirectory("loopback-cluster");
+		String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+		List<Process> processes = new ArrayList<Process>();
+		for(int i = 1; i <= testbeds; i++){
+			String testbed = "testbed-" + i;
+			Path profile = directory.resolve(testbed + ".json");
+			Files.write(profile, profile(broker.getAddress(), testbed, devices, devicesPerConnection, rate).getBytes(StandardCharsets.UTF_8));
+
+			ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "com.cheetahnetworks.Main",
+					profile.toString());
+			builder.redirectErrorStream(true);
+			builder.redirectOutput(new File(directory.toFile(), testbed + ".log"));
+			processes.add(builder.start());
+		}
+
+		Coordinator coordinator = new Coordinator(broker.getAddress(), testbeds, durationSeconds, rate, rampTo, rampSeconds);
+		coordinator.run();
+		System.out.println("Recorder: " + sink.getEntries() + " entries");
+
+		for(Process process : processes){
+			if(!process.waitFor(EXIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)){
+				System.out.println("[ERROR] Testbed " + process.pid() + " did not exit, stopping it.");
+				process.destroyForcibly();
+			}
+		}
+		System.out.println("Testbed logs: " + directory);
+
+		recorder.close();
+		broker.close();
+		System.exit(coordinator.report() == null ? 1 : 0);
+	}
+
+	/**
+	 * Writes the profile of one testbed: a single open-loop group of timed binary reports.
+	 */
+	private static String profile(String broker, String testbed, int devices, int devicesPerConnection, double rate){
+		return "{\n"
+				+ "  \"broker\": \"" + broker + "\",\n"
+				+ "  \"deviceIdPrefix\": \"" + testbed + "-\",\n"
+				+ "  \"devicesPerConnection\": " + devicesPerConnection + ",\n"
+				+ "  \"testbedId\": \"" + testbed + "\",\n"
+				+ "  \"coordinated\": true,\n"
+				+ "  \"groups\": [ { \"name\": \"cluster\", \"devices\": " + devices + ", \"format\": \"BINARY_TIMED\", \"rate\": " + rate + " } ]\n"
+				+ "}\n";
+	}
+}
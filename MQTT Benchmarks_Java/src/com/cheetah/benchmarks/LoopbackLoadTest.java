@@ -0,0 +1,351 @@
+package com.cheetah.benchmarks;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.cheetah.recorder.BucketResults;
+import com.cheetah.recorder.ResultsSink;
+import com.cheetah.recorder.ShardedRecorder;
+import com.cheetahnetworks.BatchMetrics;
+import com.cheetahnetworks.Client;
+import com.cheetahnetworks.DeviceGroup;
+import com.cheetahnetworks.EdgeAggregator;
+import com.cheetahnetworks.LatencyHistogram;
+import com.cheetahnetworks.LoadEngine;
+import com.cheetahnetworks.PayloadFormat;
+import com.cheetahnetworks.PipelineMetrics;
+import com.cheetahnetworks.PublishMetrics;
+import com.cheetahnetworks.RoundTripTimer;
+import com.cheetahnetworks.SendSchedule;
+
+/**
+ * End-to-end load test of the whole pipeline on one machine, with no network: starts a
+ * <i>LoopbackBroker</i> on 127.0.0.1, the recorder as a <i>ShardedRecorder</i>, and the
+ * publisher's simulated devices on a <i>LoadEngine</i>, all in this JVM and all unchanged from
+ * how they run against the real broker.
+ * <p>
+ * Every second it prints the publisher's send rate, the recorder's record rate, the broker's
+ * message rates, the recorder's latency percentiles, the process CPU and the heap. After a warmup
+ * it measures for the requested duration, then prints the sustained throughput, the round-trip
+ * percentiles (<i>BINARY_TIMED</i> payloads only), the average CPU and the peak heap.
+ * <pre>
+ * java -cp bench:recorder:publisher:json-simple-3.1.0.jar:org.eclipse.paho.client.mqttv3-1.2.0.jar com.cheetah.benchmarks.LoopbackLoadTest
+ *      [DEVICES] [DURATION_S] [WARMUP_S] [DEVICES_PER_CONNECTION] [RECORDER_CONNECTIONS] [RATE] [WAIT_MS] [FORMAT] [RECORDER_QOS] [WINDOW] [EDGE] [BATCH_SIZE] [LINGER_MS]
+ * </pre>
+ * RATE is the total open-loop send rate of all devices in messages per second, or 0 for
+ * closed-loop devices that wait WAIT_MS after each reply. FORMAT is one of JSON, BINARY or
+ * BINARY_TIMED. WINDOW is the number of messages each closed-loop device keeps in flight; run
+ * with several to see how per-connection throughput grows with it. EDGE set to true has the
+ * publisher aggregate its round trips and send the recorder one summary per second instead of
+ * every report (see <i>EdgeAggregator</i>); compare the recorder's message rate with and without.
+ * BATCH_SIZE above 1 packs up to that many reports of the devices sharing a connection into one
+ * publish, waiting at most LINGER_MS for a batch to fill (see <i>ReportBatcher</i>); compare the
+ * throughput and round trips with and without.
+ * @version 1.0.0, 2026-10-16
+ * @since 1.1.0
+ *
+ */
+public class LoopbackLoadTest {
+
+	static final String REPORT_TOPIC = "/devices/+/latency/report";
+	static final String SHARE_GROUP = "latency-recorders";
+
+	/**
+	 * Runs the load test.
+	 * @param args Command-line arguments, see the class description.
+	 * @throws Exception If the broker can't be started or the test is interrupted.
+	 */
+	public static void main(String[] args) throws Exception{
+
+		final int devices = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		final int durationSeconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+		final int warmupSeconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		final int devicesPerConnection = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+		final int recorderConnections = args.length > 4 ? Integer.parseInt(args[4]) : ShardedRecorder.DEFAULT_CONNECTIONS;
+		final double rate = args.length > 5 ? Double.parseDouble(args[5]) : 0;
+		final int waitPeriod = args.length > 6 ? Integer.parseInt(args[6]) : 0;
+		final PayloadFormat format = args.length > 7 ? PayloadFormat.valueOf(args[7]) : PayloadFormat.BINARY_TIMED;
+		final int recorderQos = args.length > 8 ? Integer.parseInt(args[8]) : 1;
+		final int window = args.length > 9 ? Integer.parseInt(args[9]) : 1;
+		final boolean edge = args.length > 10 && Boolean.parseBoolean(args[10]);
+		final int batchSize = args.length > 11 ? Integer.parseInt(args[11]) : 1;
+		final int lingerMillis = args.length > 12 ? Integer.parseInt(args[12]) : DeviceGroup.DEFAULT_LINGER_MILLIS;
+
+		System.out.println("Devices = " + devices + " (" + devicesPerConnection + " per connection) | Recorder connections = " + recorderConnections
+				+ " | " + (rate > 0 ? "Open loop, " + rate + " msg/s" : "Closed loop, wait " + waitPeriod + " ms, window " + window)
+				+ " | Format = " + format + " | Recorder QoS = " + recorderQos + (edge ? " | Edge aggregation" : "")
+				+ (batchSize > 1 ? " | Batches of " + batchSize + " within " + lingerMillis + " ms" : "")
+				+ " | Warmup = " + warmupSeconds + " s | Duration = " + durationSeconds + " s");
+
+		LoopbackBroker broker = new LoopbackBroker(0);
+		CountingSink sink = new CountingSink();
+		ShardedRecorder recorder = new ShardedRecorder(broker.getAddress(), "loopback-recorder", SHARE_GROUP, REPORT_TOPIC,
+				recorderQos, recorderConnections, sink);
+
+		LoadEngine engine = new LoadEngine(Runtime.getRuntime().availableProcessors());
+		if(edge){
+			engine.enableEdgeAggregation("loopback", broker.getAddress());
+		}
+		SendSchedule schedule = rate > 0 ? SendSchedule.aggregate(rate, devices) : null;
+		DeviceGroup group = new DeviceGroup("loopback", devices, 0, DeviceGroup.DEFAULT_QOS, format, waitPeriod, rate > 0 ? 1 : window, null,
+				DeviceGroup.DEFAULT_REPORT_TOPIC, 1, batchSize, lingerMillis, 0, 0);
+		List<Client> clients = new ArrayList<Client>();
+		for(int i = 0; i < devices; i += devicesPerConnection){
+			List<String> deviceIDs = new ArrayList<String>();
+			for(int d = i; d < Math.min(i + devicesPerConnection, devices); d++){
+				deviceIDs.add("loopback-device-" + d);
+			}
+			clients.add(new Client(broker.getAddress(), deviceIDs.get(0), deviceIDs, i, group, schedule, engine));
+		}
+		for(Client client : clients){
+			engine.start(client);
+		}
+
+		Monitor monitor = new Monitor(engine.getPublishMetrics(), sink, broker, engine.getRoundTripTimer(), engine.getPipelineMetrics(),
+				engine.getEdgeAggregator(), engine.getBatchMetrics());
+		for(int s = 0; s < warmupSeconds; s++){
+			Thread.sleep(1000);
+			monitor.interval("warmup");
+		}
+
+		monitor.startMeasuring();
+		for(int s = 0; s < durationSeconds; s++){
+			Thread.sleep(1000);
+			monitor.interval("measure");
+		}
+		monitor.summary();
+
+		for(Client client : clients){
+			client.close();
+		}
+		engine.shutdown();
+		recorder.close();
+		broker.close();
+		System.exit(0);
+	}
+
+	/**
+	 * Counts the entries the recorder logs, in place of the CSV file.
+	 */
+	static final class CountingSink implements ResultsSink {
+
+		private long entries;
+		private BucketResults last;
+
+		@Override
+		public synchronized void appendBucketResults(BucketResults br){
+			this.entries += br.getNumEntries().longValue();
+			this.last = br;
+		}
+
+		synchronized long getEntries(){
+			return this.entries;
+		}
+
+		synchronized BucketResults getLast(){
+			return this.last;
+		}
+
+		@Override
+		public void close(){
+		}
+	}
+
+	/**
+	 * Samples every counter once per interval and keeps the totals of the measured part of the
+	 * run.
+	 */
+	static final class Monitor {
+
+		private final PublishMetrics publishMetrics;
+		private final CountingSink sink;
+		private final LoopbackBroker broker;
+		private final RoundTripTimer roundTripTimer;
+		private final LatencyHistogram roundTrips;
+		private final PipelineMetrics pipelineMetrics;
+		private final EdgeAggregator edgeAggregator;
+		private final BatchMetrics batchMetrics;
+
+		private final com.sun.management.OperatingSystemMXBean osBean =
+				(com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+		private final MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+		private final int cores = Runtime.getRuntime().availableProcessors();
+
+		private boolean measuring;
+		private long peakHeap;
+
+		// Readings at the end of the last interval
+		private long time;
+		private long sent;
+		private long recorded;
+		private long brokerIn;
+		private long brokerOut;
+		private long cpuTime;
+		private long replies;
+		private long batches;
+		private long batchedReports;
+
+		// Readings when measuring started
+		private long startTime;
+		private long startSent;
+		private long startRecorded;
+		private long startBrokerIn;
+		private long startBrokerOut;
+		private long startCpuTime;
+		private long startReplies;
+		private long startBatches;
+		private long startBatchedReports;
+		private long startGcCount;
+		private long startGcTime;
+
+		Monitor(PublishMetrics publishMetrics, CountingSink sink, LoopbackBroker broker, RoundTripTimer roundTripTimer, PipelineMetrics pipelineMetrics,
+				EdgeAggregator edgeAggregator, BatchMetrics batchMetrics){
+			this.publishMetrics = publishMetrics;
+			this.pipelineMetrics = pipelineMetrics;
+			this.edgeAggregator = edgeAggregator;
+			this.batchMetrics = batchMetrics;
+			this.sink = sink;
+			this.broker = broker;
+			this.roundTripTimer = roundTripTimer;
+			this.roundTrips = roundTripTimer.newHistogram();
+			this.time = System.nanoTime();
+			this.cpuTime = this.osBean.getProcessCpuTime();
+		}
+
+		/**
+		 * Takes the readings the measured totals are counted from.
+		 */
+		void startMeasuring(){
+			this.measuring = true;
+			this.peakHeap = 0;
+			this.startTime = this.time;
+			this.startSent = this.sent;
+			this.startRecorded = this.recorded;
+			this.startBrokerIn = this.brokerIn;
+			this.startBrokerOut = this.brokerOut;
+			this.startCpuTime = this.cpuTime;
+			this.startReplies = this.replies;
+			this.startBatches = this.batches;
+			this.startBatchedReports = this.batchedReports;
+			this.startGcCount = gcCount();
+			this.startGcTime = gcTime();
+		}
+
+		/**
+		 * Reads every counter and prints the rates since the last interval.
+		 * @param phase The phase of the test, printed at the start of the line.
+		 */
+		void interval(String phase){
+			long now = System.nanoTime();
+			long sentNow = this.publishMetrics.getAcknowledgedTotal();
+			long recordedNow = this.sink.getEntries();
+			long brokerInNow = this.broker.getMessagesIn();
+			long brokerOutNow = this.broker.getMessagesOut();
+			long cpuNow = this.osBean.getProcessCpuTime();
+			long heap = this.memoryBean.getHeapMemoryUsage().getUsed();
+			this.peakHeap = Math.max(this.peakHeap, heap);
+
+			double seconds = (now - this.time) / 1e9;
+			BucketResults last = this.sink.getLast();
+			System.out.println(String.format("[%s] Sent: %.0f/s | Recorded: %.0f/s | Broker in/out: %.0f/%.0f msg/s | Recorder p50/p99: %s ms | CPU: %.0f%% | Heap: %d MB",
+					phase, (sentNow - this.sent) / seconds, (recordedNow - this.recorded) / seconds,
+					(brokerInNow - this.brokerIn) / seconds, (brokerOutNow - this.brokerOut) / seconds,
+					last == null ? "-" : last.getP50() + "/" + last.getP99(),
+					cpuPercent(cpuNow - this.cpuTime, now - this.time), heap >> 20));
+
+			System.out.println("\t" + this.publishMetrics.report());
+			String timing = this.roundTripTimer.report(this.measuring ? this.roundTrips : null);
+			if(timing != null){
+				System.out.println("\t" + timing);
+			}
+			String pipelines = this.pipelineMetrics.report();
+			if(pipelines != null){
+				System.out.println("\t" + pipelines);
+			}
+			if(this.edgeAggregator != null){
+				System.out.println("\t" + this.edgeAggregator.report());
+			}
+			String batches = this.batchMetrics.report();
+			if(batches != null){
+				System.out.println("\t" + batches);
+			}
+
+			this.time = now;
+			this.sent = sentNow;
+			this.recorded = recordedNow;
+			this.brokerIn = brokerInNow;
+			this.brokerOut = brokerOutNow;
+			this.cpuTime = cpuNow;
+			this.replies = pipelinedReplies();
+			this.batches = this.batchMetrics.getBatchesTotal();
+			this.batchedReports = this.batchMetrics.getReportsTotal();
+		}
+
+		/**
+		 * Prints the totals of the measured part of the run.
+		 */
+		void summary(){
+			double seconds = (this.time - this.startTime) / 1e9;
+			System.out.println("==== Loopback load test, " + String.format("%.1f", seconds) + " s measured ====");
+			System.out.println(String.format("Throughput: sent %.0f msg/s | recorded %.0f msg/s | broker in %.0f msg/s, out %.0f msg/s",
+					(this.sent - this.startSent) / seconds, (this.recorded - this.startRecorded) / seconds,
+					(this.brokerIn - this.startBrokerIn) / seconds, (this.brokerOut - this.startBrokerOut) / seconds));
+			List<PipelineMetrics.Window> windows = this.pipelineMetrics.getWindows();
+			if(!windows.isEmpty()){ // A single group, so a single window size
+				PipelineMetrics.Window window = windows.get(0);
+				double replyRate = (this.replies - this.startReplies) / seconds;
+				System.out.println(String.format("Pipelined: window %d | %.0f replies/s | %.2f replies/s per device | %d timed out",
+						window.getWindow(), replyRate, replyRate / Math.max(1, window.getDevices()), window.getTimedOutTotal()));
+			}
+			if(this.batches > this.startBatches){
+				long reports = this.batchedReports - this.startBatchedReports;
+				long publishes = this.batches - this.startBatches;
+				System.out.println(String.format("Batched: %.0f reports/s in %.0f publishes/s | %.1f reports per publish | batch wait mean %.2f ms (whole run)",
+						reports / seconds, publishes / seconds, (double) reports / publishes, this.batchMetrics.getMeanWaitMillis()));
+			}
+			if(this.roundTrips.getCount() > 0){
+				System.out.println(String.format("Round trip (us): p50 %.1f | p90 %.1f | p99 %.1f | p99.9 %.1f | max %.1f | mean %.1f | samples %d",
+						this.roundTrips.getValueAtPercentile(50) / 1e3, this.roundTrips.getValueAtPercentile(90) / 1e3,
+						this.roundTrips.getValueAtPercentile(99) / 1e3, this.roundTrips.getValueAtPercentile(99.9) / 1e3,
+						this.roundTrips.getMax() / 1e3, this.roundTrips.getMean() / 1e3, this.roundTrips.getCount()));
+			}
+			else{
+				System.out.println("Round trip: use the BINARY_TIMED format for round-trip percentiles");
+			}
+			System.out.println(String.format("CPU: %.0f%% of %d cores | Heap: peak %d MB of %d MB | GC: %d collections, %d ms",
+					cpuPercent(this.cpuTime - this.startCpuTime, this.time - this.startTime), this.cores,
+					this.peakHeap >> 20, this.memoryBean.getHeapMemoryUsage().getMax() >> 20,
+					gcCount() - this.startGcCount, gcTime() - this.startGcTime));
+		}
+
+		private long pipelinedReplies(){
+			long total = 0;
+			for(PipelineMetrics.Window window : this.pipelineMetrics.getWindows()){
+				total += window.getRepliesTotal();
+			}
+			return total;
+		}
+
+		private double cpuPercent(long cpuNanos, long wallNanos){
+			return wallNanos == 0 ? 0 : 100.0 * cpuNanos / wallNanos / this.cores;
+		}
+
+		private static long gcCount(){
+			long count = 0;
+			for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()){
+				count += Math.max(0, gc.getCollectionCount());
+			}
+			return count;
+		}
+
+		private static long gcTime(){
+			long time = 0;
+			for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()){
+				time += Math.max(0, gc.getCollectionTime());
+			}
+			return time;
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package com.cheetahnetworks;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retry delays with "decorrelated jitter": each delay is drawn at random between the base delay and three times the
+ * previous one, capped. Delays still grow roughly exponentially, but clients that failed together don't retry
+ * together, so a broker coming back isn't hit by every client at the same instant. One instance per retrying client,
+ * not thread-safe.
+ * <p>
+ * Only fleets of connections need this. A single connection can leave reconnecting to Paho's automatic reconnect, as
+ * one connection can't stampede the broker.
+ */
+public class Backoff {
+    private final long baseMillis;
+    private final long capMillis;
+
+    private long previousMillis;
+    private int attempts;
+
+    /**
+     * @param baseMillis The shortest delay, also the first delay's lower bound
+     * @param capMillis  The longest delay
+     */
+    public Backoff(long baseMillis, long capMillis) {
+        if (baseMillis < 1 || capMillis < baseMillis)
+            throw new IllegalArgumentException("Invalid backoff range [" + baseMillis + ", " + capMillis + "]");
+
+        this.baseMillis = baseMillis;
+        this.capMillis = capMillis;
+        reset();
+    }
+
+    /**
+     * @return the number of milliseconds to wait before the next attempt
+     */
+    public long nextDelayMillis() {
+        long upper = Math.min(capMillis, previousMillis * 3);
+        previousMillis = upper <= baseMillis ? baseMillis : ThreadLocalRandom.current().nextLong(baseMillis, upper + 1);
+        attempts++;
+        return previousMillis;
+    }
+
+    /**
+     * @return the number of delays handed out since the last reset
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Starts over from the base delay, e.g. once an attempt succeeds.
+     */
+    public void reset() {
+        previousMillis = baseMillis;
+        attempts = 0;
+    }
+}
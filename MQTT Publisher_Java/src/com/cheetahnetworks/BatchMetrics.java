@@ -0,0 +1,110 @@
+package com.cheetahnetworks;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What batching reports (see ReportBatcher) saves and costs: batches and reports per second, reports and bytes per
+ * batch, how many batches were flushed full rather than by their linger time, and how long reports waited in a batch,
+ * which is added to every round trip the recorder measures. Batches are flushed by the devices and the engine's workers
+ * alike, so the counters are striped LongAdders.
+ * <p>
+ * The engine ends an interval every second, after which report() shows that interval's rates and averages.
+ */
+public class BatchMetrics {
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder reports = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder lingered = new LongAdder(); // Batches flushed by their linger time rather than full
+    private final LongAdder waitNanos = new LongAdder(); // Summed over every report
+    private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0); // Of the interval, reset by endInterval()
+
+    // The last complete interval, only changed by endInterval()
+    private long intervalStart = System.nanoTime();
+    private long lastBatches;
+    private long lastReports;
+    private long lastBytes;
+    private long lastLingered;
+    private long lastWaitNanos;
+    private volatile String last;
+
+    /**
+     * Counts one batch, once it is closed and queued to be published.
+     *
+     * @param count    The number of reports in it
+     * @param length   Its size in bytes
+     * @param lingered Whether it was flushed by its linger time rather than full
+     * @param waitSum  Nanoseconds its reports waited in it, summed
+     * @param waitMax  Nanoseconds its first report waited in it
+     */
+    void onFlushed(int count, int length, boolean lingered, long waitSum, long waitMax) {
+        batches.increment();
+        reports.add(count);
+        bytes.add(length);
+        if (lingered)
+            this.lingered.increment();
+        waitNanos.add(waitSum);
+        maxWaitNanos.accumulate(waitMax);
+    }
+
+    /**
+     * Closes the current interval. Called by the engine once a second.
+     */
+    synchronized void endInterval() {
+        long now = System.nanoTime();
+        long batchesNow = batches.sum();
+        long reportsNow = reports.sum();
+        long bytesNow = bytes.sum();
+        long lingeredNow = lingered.sum();
+        long waitNow = waitNanos.sum();
+        long maxWait = maxWaitNanos.getThenReset();
+
+        long intervalBatches = batchesNow - lastBatches;
+        long intervalReports = reportsNow - lastReports;
+        if (batchesNow > 0) {
+            double seconds = Math.max(1, now - intervalStart) / 1e9;
+            last = String.format("Batches: %.0f/s | Reports: %.0f/s | Per batch: %.1f reports, %d B | Lingered: %.0f%% | Batch wait mean/max: %.2f/%.2f ms",
+                    intervalBatches / seconds, intervalReports / seconds,
+                    intervalBatches == 0 ? 0.0 : (double) intervalReports / intervalBatches,
+                    intervalBatches == 0 ? 0 : (bytesNow - lastBytes) / intervalBatches,
+                    intervalBatches == 0 ? 0.0 : 100.0 * (lingeredNow - lastLingered) / intervalBatches,
+                    intervalReports == 0 ? 0.0 : (waitNow - lastWaitNanos) / 1e6 / intervalReports, maxWait / 1e6);
+        }
+
+        intervalStart = now;
+        lastBatches = batchesNow;
+        lastReports = reportsNow;
+        lastBytes = bytesNow;
+        lastLingered = lingeredNow;
+        lastWaitNanos = waitNow;
+    }
+
+    /**
+     * @return a one line summary of the last complete interval, or null if no batch was ever published
+     */
+    public String report() {
+        return last;
+    }
+
+    /**
+     * @return the batches published so far
+     */
+    public long getBatchesTotal() {
+        return batches.sum();
+    }
+
+    /**
+     * @return the reports published in batches so far
+     */
+    public long getReportsTotal() {
+        return reports.sum();
+    }
+
+    /**
+     * @return the mean time a report waited in its batch so far, in milliseconds
+     */
+    public double getMeanWaitMillis() {
+        long count = reports.sum();
+        return count == 0 ? 0.0 : waitNanos.sum() / 1e6 / count;
+    }
+}
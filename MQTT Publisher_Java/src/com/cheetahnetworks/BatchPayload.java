@@ -0,0 +1,65 @@
+package com.cheetahnetworks;
+
+/**
+ * Several reports framed into one payload, so they share a single PUBLISH (see ReportBatcher). Each report is complete
+ * and unchanged, JSON or BinaryPayload, and the recorder replies to each one on its device's reply topic as if it had
+ * been published alone. The layout must match the recorder's com.cheetah.recorder.BatchPayload; all numbers are
+ * big-endian.
+ *
+ * <pre>
+ *  offset  size  field
+ *       0     1  MAGIC, neither '{', BinaryPayload.MAGIC nor EdgeSummary.MAGIC
+ *       1     1  VERSION
+ *       2     2  report count
+ *       4        the reports, each:
+ *                    4  length n in bytes
+ *                    n  the report
+ * </pre>
+ */
+public final class BatchPayload {
+    public static final byte MAGIC = (byte) 0xC9;
+    public static final byte VERSION = 1;
+
+    public static final int HEADER_LENGTH = 4;
+    public static final int FRAME_HEADER_LENGTH = 4;
+    public static final int MAX_REPORTS = 0xFFFF;
+
+    private static final int COUNT_OFFSET = 2;
+
+    private BatchPayload() {
+    }
+
+    /**
+     * Writes the header, once the number of reports is known.
+     *
+     * @param batch The batch, with room for the header at offset 0
+     * @param count The number of reports framed after it
+     */
+    public static void putHeader(byte[] batch, int count) {
+        if (count > MAX_REPORTS)
+            throw new IllegalArgumentException("Too many reports for one batch: " + count);
+
+        batch[0] = MAGIC;
+        batch[1] = VERSION;
+        batch[COUNT_OFFSET] = (byte) (count >>> 8);
+        batch[COUNT_OFFSET + 1] = (byte) count;
+    }
+
+    /**
+     * Frames one report.
+     *
+     * @param batch  The batch, with at least FRAME_HEADER_LENGTH + report.length bytes free at offset
+     * @param offset Where the frame starts
+     * @param report The report
+     * @return the offset just after the frame
+     */
+    public static int putFrame(byte[] batch, int offset, byte[] report) {
+        int length = report.length;
+        batch[offset] = (byte) (length >>> 24);
+        batch[offset + 1] = (byte) (length >>> 16);
+        batch[offset + 2] = (byte) (length >>> 8);
+        batch[offset + 3] = (byte) length;
+        System.arraycopy(report, 0, batch, offset + FRAME_HEADER_LENGTH, length);
+        return offset + FRAME_HEADER_LENGTH + length;
+    }
+}
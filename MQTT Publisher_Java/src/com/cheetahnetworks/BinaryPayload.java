@@ -0,0 +1,216 @@
+package com.cheetahnetworks;
+
+import com.cheetahnetworks.exceptions.InvalidMqttMessageException;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Fixed-layout binary alternative to JsonPayload. Fields are read and written in place at fixed offsets of a caller
+ * supplied byte[], so encoding and decoding never allocate. All numbers are big-endian.
+ *
+ * <pre>
+ *  offset  size  field
+ *       0     1  MAGIC, never '{' so a receiver can tell the formats apart from the first byte
+ *       1     1  VERSION
+ *       2     8  sequence number
+ *      10     8  timestamp (ms since epoch)
+ *      18     8  last_latency (ms, -1 if there was no previous message)
+ *      26     2  device_id length in bytes
+ *      28     n  device_id (UTF-8)
+ * </pre>
+ *
+ * VERSION_TIMED payloads (PayloadFormat.BINARY_TIMED) carry three more timestamps, in nanoseconds since epoch by
+ * each side's PreciseClock, before the device ID. The recorder fills in the last two before echoing the payload:
+ *
+ * <pre>
+ *      28     8  send_nanos, when the publisher sent the report
+ *      36     8  receive_nanos, when the recorder received it
+ *      44     8  reply_nanos, when the recorder sent the reply
+ *      52     n  device_id (UTF-8)
+ * </pre>
+ *
+ * Either may be followed by padding, to bring reports up to a workload profile's payload size (see DeviceGroup). It
+ * is never read, and the recorder echoes it back with the rest of the payload.
+ */
+public final class BinaryPayload {
+    public static final byte MAGIC = (byte) 0xC7;
+    public static final byte VERSION = 1;
+    public static final byte VERSION_TIMED = 2;
+
+    private static final int SEQUENCE_OFFSET = 2;
+    private static final int TIMESTAMP_OFFSET = 10;
+    private static final int LAST_LATENCY_OFFSET = 18;
+    private static final int DEVICE_ID_LENGTH_OFFSET = 26;
+    public static final int HEADER_LENGTH = 28;
+    private static final int SEND_NANOS_OFFSET = 28;
+    private static final int RECEIVE_NANOS_OFFSET = 36;
+    private static final int REPLY_NANOS_OFFSET = 44;
+    public static final int TIMED_HEADER_LENGTH = 52;
+
+    private BinaryPayload() {
+    }
+
+    /**
+     * @param deviceID The device ID to encode, done once per device so the bytes can be reused for every message
+     * @return the device ID's bytes
+     */
+    public static byte[] encodeDeviceID(String deviceID) {
+        byte[] bytes = deviceID.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF)
+            throw new IllegalArgumentException("Device ID too long: " + deviceID);
+        return bytes;
+    }
+
+    /**
+     * @param deviceID The encoded device ID
+     * @return the size of a payload carrying the device ID
+     */
+    public static int length(byte[] deviceID) {
+        return HEADER_LENGTH + deviceID.length;
+    }
+
+    /**
+     * @param deviceID The encoded device ID
+     * @return the size of a timed payload carrying the device ID
+     */
+    public static int timedLength(byte[] deviceID) {
+        return TIMED_HEADER_LENGTH + deviceID.length;
+    }
+
+    /**
+     * Writes a complete payload at the start of buffer.
+     *
+     * @param buffer      The buffer to write to, at least length(deviceID) bytes
+     * @param deviceID    The encoded device ID, see encodeDeviceID()
+     * @param sequence    The sequence number of the message
+     * @param timestamp   The send time, in milliseconds since epoch
+     * @param lastLatency The last measured latency, or -1 if there was no previous message
+     * @return the number of bytes written
+     */
+    public static int encode(byte[] buffer, byte[] deviceID, long sequence, long timestamp, long lastLatency) {
+        buffer[0] = MAGIC;
+        buffer[1] = VERSION;
+        putLong(buffer, SEQUENCE_OFFSET, sequence);
+        putLong(buffer, TIMESTAMP_OFFSET, timestamp);
+        putLong(buffer, LAST_LATENCY_OFFSET, lastLatency);
+        buffer[DEVICE_ID_LENGTH_OFFSET] = (byte) (deviceID.length >>> 8);
+        buffer[DEVICE_ID_LENGTH_OFFSET + 1] = (byte) deviceID.length;
+        System.arraycopy(deviceID, 0, buffer, HEADER_LENGTH, deviceID.length);
+        return HEADER_LENGTH + deviceID.length;
+    }
+
+    /**
+     * Writes a complete timed payload at the start of buffer, with the recorder's timestamps left at 0.
+     *
+     * @param buffer      The buffer to write to, at least timedLength(deviceID) bytes
+     * @param deviceID    The encoded device ID, see encodeDeviceID()
+     * @param sequence    The sequence number of the message
+     * @param timestamp   The send time, in milliseconds since epoch
+     * @param lastLatency The last measured latency, or -1 if there was no previous message
+     * @param sendNanos   The send time, in nanoseconds since epoch (see PreciseClock)
+     * @return the number of bytes written
+     */
+    public static int encodeTimed(byte[] buffer, byte[] deviceID, long sequence, long timestamp, long lastLatency, long sendNanos) {
+        encode(buffer, deviceID, sequence, timestamp, lastLatency);
+        buffer[1] = VERSION_TIMED;
+        putLong(buffer, SEND_NANOS_OFFSET, sendNanos);
+        putLong(buffer, RECEIVE_NANOS_OFFSET, 0);
+        putLong(buffer, REPLY_NANOS_OFFSET, 0);
+        System.arraycopy(deviceID, 0, buffer, TIMED_HEADER_LENGTH, deviceID.length);
+        return TIMED_HEADER_LENGTH + deviceID.length;
+    }
+
+    /**
+     * @param payload A received payload
+     * @return whether the payload is in this format, as opposed to JSON
+     */
+    public static boolean isBinary(byte[] payload) {
+        return payload.length > 0 && payload[0] == MAGIC;
+    }
+
+    /**
+     * Checks that a received payload is a complete binary payload of a known version.
+     *
+     * @param payload A received payload
+     * @throws InvalidMqttMessageException if the payload is not valid
+     */
+    public static void validate(byte[] payload) throws InvalidMqttMessageException {
+        if (payload.length < HEADER_LENGTH || payload[0] != MAGIC || (payload[1] != VERSION && payload[1] != VERSION_TIMED)
+                || payload.length < headerLength(payload) + getDeviceIDLength(payload))
+            throw new InvalidMqttMessageException("Invalid binary payload of " + payload.length + " bytes");
+    }
+
+    /**
+     * @param payload A binary payload
+     * @return whether the payload carries the nanosecond timestamps of VERSION_TIMED
+     */
+    public static boolean isTimed(byte[] payload) {
+        return payload[1] == VERSION_TIMED;
+    }
+
+    /**
+     * @param payload A binary payload
+     * @return the offset of the device ID, which follows the header
+     */
+    public static int headerLength(byte[] payload) {
+        return isTimed(payload) ? TIMED_HEADER_LENGTH : HEADER_LENGTH;
+    }
+
+    public static long getSequence(byte[] payload) {
+        return getLong(payload, SEQUENCE_OFFSET);
+    }
+
+    public static void setSequence(byte[] payload, long sequence) {
+        putLong(payload, SEQUENCE_OFFSET, sequence);
+    }
+
+    public static long getTimestamp(byte[] payload) {
+        return getLong(payload, TIMESTAMP_OFFSET);
+    }
+
+    public static void setTimestamp(byte[] payload, long timestamp) {
+        putLong(payload, TIMESTAMP_OFFSET, timestamp);
+    }
+
+    public static long getLastLatency(byte[] payload) {
+        return getLong(payload, LAST_LATENCY_OFFSET);
+    }
+
+    public static void setLastLatency(byte[] payload, long lastLatency) {
+        putLong(payload, LAST_LATENCY_OFFSET, lastLatency);
+    }
+
+    public static long getSendNanos(byte[] payload) {
+        return getLong(payload, SEND_NANOS_OFFSET);
+    }
+
+    public static void setSendNanos(byte[] payload, long sendNanos) {
+        putLong(payload, SEND_NANOS_OFFSET, sendNanos);
+    }
+
+    public static long getReceiveNanos(byte[] payload) {
+        return getLong(payload, RECEIVE_NANOS_OFFSET);
+    }
+
+    public static long getReplyNanos(byte[] payload) {
+        return getLong(payload, REPLY_NANOS_OFFSET);
+    }
+
+    public static int getDeviceIDLength(byte[] payload) {
+        return ((payload[DEVICE_ID_LENGTH_OFFSET] & 0xFF) << 8) | (payload[DEVICE_ID_LENGTH_OFFSET + 1] & 0xFF);
+    }
+
+    private static long getLong(byte[] buffer, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++)
+            value = (value << 8) | (buffer[offset + i] & 0xFF);
+        return value;
+    }
+
+    private static void putLong(byte[] buffer, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            buffer[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+}
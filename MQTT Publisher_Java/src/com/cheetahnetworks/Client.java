@@ -1,15 +1,20 @@
 package com.cheetahnetworks;
 
-import com.cheetahnetworks.exceptions.InvalidMqttMessageException;
 import org.eclipse.paho.client.mqttv3.*;
 import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * This class is a wrapper for Paho's MqttAsyncClient class. It creates, configures, and manages an instance of this class.
  *
  * @author Michael Boulerice
  */
-public class Client implements Runnable { //TODO - Extend java.util.Thread
+public class Client implements Runnable { // Run by the LoadEngine's workers rather than a dedicated thread
     /* MqttAsyncClient is the default, non-blocking client. Each instance of MqttAsyncClient spawns a separate thread for event handling and message processing
      * MqttClient on the other hand is simply a wrapper around MqttAsyncClient that is single threaded and blocking.
      * However, it is possible to use blocking calls in MqttAsyncClient by adding .waitForCompletion() to the end of any call.
@@ -22,6 +27,10 @@ public class Client implements Runnable { //TODO - Extend java.util.Thread
     private String broker; // Broker URI
     private String clientID; // ID used to connect to broker - must be unique to the broker or will disconnect the last device to use this ID
 
+    // The devices multiplexed onto this connection, and a lookup from each of their subscribed topics back to the device
+    private List<SimulatedDevice> devices;
+    private Map<String, SimulatedDevice> devicesByTopic;
+
     /*
      * Quality-of-Service level:
      *  0 - Send once, no guarantees. Comparable to UDP
@@ -30,45 +39,119 @@ public class Client implements Runnable { //TODO - Extend java.util.Thread
      */
     private int qos;
 
-    // Name of physical device emulating virtual devices. Allows the use of multiple testbeds adding another layer to the topic structure.
-    private String testbedID;
+    public static final String RATE_COMMAND = "RATE"; // Followed by a space and the messages per second per device, see rateCommand()
 
-    // The topic the client will receive commands on, e.g. STOP
-    private String commandTopic;
-    // The topic the client will publish messages to
-    private String latencyReportTopic;
-    // The topic on which the client will receive responses from the CSV writer client
-    private String latencyReplyTopic;
+    private static final int MAX_INFLIGHT = 100;
+    private static final int QOS0_QUEUE_LENGTH = 64; // Most QoS 0 publishes held back while the previous one is written, see publish()
+    private static final long RECONNECT_BASE_MILLIS = 500; // Shortest wait before reconnecting, see Backoff
+    private static final long RECONNECT_CAP_MILLIS = 30000; // Longest wait before reconnecting
 
-    // Added to every time the client sends a message
-    private int numSentMessages;
-    // The amount of milliseconds the client will wait after receiving a message before sending the next one, essentially throttles performance.
-    // TODO - Move to a schedule based system so the message rate can be set to a fixed, accurate number
-    private int waitPeriod;
+    // Name of physical device emulating virtual devices. Allows the use of multiple testbeds adding another layer to the topic structure.
+    // Set when the testbed aggregates its round trips itself, naming its summaries (see EdgeAggregator), or is run by a
+    // Coordinator, naming its reports (see TestbedAgent)
+    private final String testbedID;
+
+    // Counts and times every publish, shared by all the engine's clients
+    private final PublishMetrics metrics;
+    // Send times of the publishes in flight, see publish()
+    private final PublishTimes publishTimes;
+    // The QoS 0 publish Paho is writing, null if none, and those queued behind it, see publish(). Guarded by publishTimes
+    private IMqttDeliveryToken lastQos0Token;
+    private final ArrayDeque<Map.Entry<String, MqttMessage>> qos0Queue = new ArrayDeque<Map.Entry<String, MqttMessage>>();
+    // Packs the devices' reports into batches, one batcher per {shard} keyed by the report topics of its devices. Empty if
+    // reports are published one by one
+    private final Map<String, ReportBatcher> batchers;
+
+    // Reconnecting, in place of Paho's automatic reconnect. Attempts are paced on the engine's workers
+    private final LoadEngine engine;
+    private final ReconnectMetrics reconnectMetrics;
+    private final Backoff reconnectBackoff;
+    private volatile long lostAtNanos; // When the connection was lost, 0 while connected
+    private volatile boolean closed;
 
     /**
-     * Creates and configures a Paho client instance
+     * Creates and configures a Paho client instance carrying a single device, known by the same ID as the connection
      *
      * @param broker     The URI of the MQTT Broker to connect to
      * @param clientID   The unique ID the client will use to connect to the Broker
      * @param waitPeriod The number of milliseconds the client should wait after receiving a message before sending the next - serves to throttle message rate
+     * @param engine     The engine whose workers run and pace the client
+     * @throws MqttException will be thrown in the case of failure during the creation of the internal Paho client instance
+     */
+    Client(String broker, String clientID, int waitPeriod, LoadEngine engine) throws MqttException {
+        this(broker, clientID, List.of(clientID), waitPeriod, null, PayloadFormat.JSON, engine);
+    }
+
+    /**
+     * Creates and configures a Paho client instance that multiplexes several simulated devices onto one connection
+     *
+     * @param broker     The URI of the MQTT Broker to connect to
+     * @param clientID   The unique ID the client will use to connect to the Broker
+     * @param deviceIDs  The unique IDs of the devices sharing this connection
+     * @param waitPeriod The number of milliseconds each device should wait after receiving a message before sending the next - serves to throttle message rate
+     * @param schedule   The open-loop schedule the devices send on, or null to have each device wait for its replies (closed-loop)
+     * @param format     The format of the payloads the devices send
+     * @param engine     The engine whose workers run and pace the client
      * @throws MqttException will be thrown in the case of failure during the creation of the internal Paho client instance
      */
-    Client(String broker, String clientID, int waitPeriod) throws MqttException {
+    public Client(String broker, String clientID, List<String> deviceIDs, int waitPeriod, SendSchedule schedule, PayloadFormat format, LoadEngine engine) throws MqttException {
+        this(broker, clientID, deviceIDs, 0, DeviceGroup.closedLoop("default", deviceIDs.size(), waitPeriod, format), schedule, engine);
+    }
+
+    /**
+     * Creates and configures a Paho client instance carrying some of a workload profile's devices, see WorkloadRunner
+     *
+     * @param broker      The URI of the MQTT Broker to connect to
+     * @param clientID    The unique ID the client will use to connect to the Broker
+     * @param deviceIDs   The unique IDs of the devices sharing this connection
+     * @param firstIndex  The index of the first device within its group, the others follow on
+     * @param group       The group the devices belong to, which sets their payloads, QoS, topics and wait period
+     * @param schedule    The open-loop schedule the devices send on, or null to have each device wait for its replies (closed-loop)
+     * @param engine      The engine whose workers run and pace the client
+     * @throws MqttException will be thrown in the case of failure during the creation of the internal Paho client instance
+     */
+    public Client(String broker, String clientID, List<String> deviceIDs, int firstIndex, DeviceGroup group, SendSchedule schedule, LoadEngine engine) throws MqttException {
         this.broker = broker;
         this.clientID = clientID;
         System.out.println(this.clientID);
         persistence = new MemoryPersistence();
         connectOptions = new MqttConnectOptions();
 
-        commandTopic = this.clientID + "/command";
-        latencyReportTopic = this.clientID + "/latency/report";
-        latencyReplyTopic = this.clientID + "/latency/report";
-
-        qos = 0;
+        devices = new ArrayList<SimulatedDevice>(deviceIDs.size());
+        devicesByTopic = new HashMap<String, SimulatedDevice>();
+        EdgeAggregator edge = engine.getEdgeAggregator();
+        TestbedAgent agent = engine.getTestbedAgent();
+        testbedID = edge != null ? edge.getTestbedID() : agent != null ? agent.getTestbedID() : null;
+        for (int i = 0; i < deviceIDs.size(); i++) {
+            String deviceID = deviceIDs.get(i);
+            SimulatedDevice device = new SimulatedDevice(this, engine, deviceID, group.reportTopic(deviceID, firstIndex + i), group, schedule);
+            devices.add(device);
+            devicesByTopic.put(device.getCommandTopic(), device);
+            devicesByTopic.put(device.getLatencyReplyTopic(), device);
+        }
 
-        numSentMessages = 0;
-        this.waitPeriod = waitPeriod;
+        qos = group.getQos();
+        // Pipelined devices need room for their whole window each, or publishes fail with the window full
+        int maxInflight = Math.max(MAX_INFLIGHT, group.getWindow() * deviceIDs.size());
+
+        metrics = engine.getPublishMetrics();
+        publishTimes = new PublishTimes(maxInflight);
+
+        this.engine = engine;
+        reconnectMetrics = engine.getReconnectMetrics();
+        reconnectBackoff = new Backoff(RECONNECT_BASE_MILLIS, RECONNECT_CAP_MILLIS);
+        // A shard's batches go to the report topic of its first device, which the recorder's subscription matches like any report
+        batchers = new HashMap<String, ReportBatcher>();
+        if (group.getBatchSize() > 1 && edge == null) {
+            ReportBatcher[] shards = new ReportBatcher[group.getTopicFanOut()];
+            for (int i = 0; i < deviceIDs.size(); i++) {
+                String topic = group.reportTopic(deviceIDs.get(i), firstIndex + i);
+                int shard = (firstIndex + i) % shards.length;
+                if (shards[shard] == null)
+                    shards[shard] = new ReportBatcher(this, engine, topic, qos, group.getBatchSize(), group.getLingerMillis());
+                batchers.put(topic, shards[shard]);
+            }
+        }
 
         // Anonymous class to implement the IMqttCallback interface
         callback = new MqttCallback() {
@@ -76,6 +159,7 @@ public class Client implements Runnable { //TODO - Extend java.util.Thread
             @Override
             public void connectionLost(Throwable cause) {
                 System.out.println(clientID + " Connect lost: " + cause.getCause());
+                onConnectionLost();
             }
 
             // Called every time the client receives a message.
@@ -84,30 +168,42 @@ public class Client implements Runnable { //TODO - Extend java.util.Thread
 
                 // System.out.println("Received message: " + message.toString());
 
-                // Sends next message only after receiving the last
-                if (topic.equalsIgnoreCase(latencyReplyTopic))
-                    sendNextMessage(message);
+                SimulatedDevice device = devicesByTopic.get(topic);
+                if (device == null)
+                    return;
 
-                // Currently stops the client if any message is received on the command topic.
-                if (topic.equalsIgnoreCase(commandTopic))
-                    close();
+                if (topic.equals(device.getLatencyReplyTopic()))
+                    device.onReply(message);
+
+                if (topic.equals(device.getCommandTopic()))
+                    onCommand(new String(message.getPayload()));
             }
 
             // Called every time the client sends a message, at QoS > 0 will be called on acknowledgement rather than on send.
             @Override
             public void deliveryComplete(IMqttDeliveryToken token) {
-                // System.out.println("Message delivery complete");
-                numSentMessages++;
+                if (token.getMessageId() == 0) { // QoS 0, already counted by publish()
+                    onQos0Written(token);
+                    return;
+                }
+
+                long now = System.nanoTime();
+                long sendNanos;
+                synchronized (publishTimes) {
+                    sendNanos = publishTimes.take(token.getMessageId());
+                }
+                metrics.onAcknowledged(sendNanos < 0 ? -1 : now - sendNanos);
             }
         };
 
-        // If the client disconnects, attempt to reconnect.
-        connectOptions.setAutomaticReconnect(true);
+        // Reconnecting is left to reconnect(), which backs off with jitter and restores the devices. Paho's automatic
+        // reconnect retries every client on the same doubling schedule, so after a broker restart they all come back at once
+        connectOptions.setAutomaticReconnect(false);
 
         // If set to false, the broker will attempt to send any messages bound for this deviceID that couldn't be sent last session.
         connectOptions.setCleanSession(true);
 
-        connectOptions.setMaxInflight(100);
+        connectOptions.setMaxInflight(maxInflight);
         /* I think Paho uses an array to store its in flight messages rather than a more complex data structure
          * like a linked list. The results of this are that Paho will allocate all the memory needed to
          * hold the max number of in flight messages when .setMaxInflight() is called rather than allocating
@@ -117,13 +213,51 @@ public class Client implements Runnable { //TODO - Extend java.util.Thread
          * - 10 likely enough when rate limited to <1 message/second
          */
 
-        client = new MqttAsyncClient(broker, this.clientID, persistence);
+        // Keep-alive pings are scheduled on the engine's workers instead of a Timer thread per client
+        client = new MqttAsyncClient(broker, this.clientID, persistence, new ScheduledExecutorPingSender(engine.getScheduler()));
 
         client.setCallback(callback);
 
     }
 
-    private void connect() {
+    /**
+     * @param msgsPerSecond The number of messages each device should send per second
+     * @return the payload of a command setting the rate of every open-loop device on the receiving client
+     */
+    public static String rateCommand(double msgsPerSecond) {
+        return RATE_COMMAND + " " + msgsPerSecond;
+    }
+
+    // A rate command changes the rate of every device on the connection, see rateCommand(). Anything else stops the client
+    private void onCommand(String command) {
+        if (!command.startsWith(RATE_COMMAND + " ")) {
+            close();
+            return;
+        }
+
+        try {
+            if (!setRate(Double.parseDouble(command.substring(RATE_COMMAND.length() + 1).trim())))
+                System.out.println(clientID + " Closed-loop, ignoring " + command);
+        } catch (IllegalArgumentException iae) { // Including NumberFormatException
+            System.out.println(clientID + " Invalid command: " + command);
+        }
+    }
+
+    /**
+     * Changes the rate of every open-loop device on the connection, and so of their groups' schedules.
+     *
+     * @param msgsPerSecond The number of messages each device sends per second
+     * @return false if the devices are closed-loop, and have no rate to change
+     */
+    boolean setRate(double msgsPerSecond) {
+        for (SimulatedDevice device : devices) {
+            if (!device.setRate(msgsPerSecond))
+                return false;
+        }
+        return true;
+    }
+
+    private boolean connect() {
         try {
             System.out.println(clientID + " Connecting to " + broker);
             client.connect(connectOptions).waitForCompletion(); // .waitForCompletion() = blocking call - program only regains control after the function returns
@@ -131,21 +265,128 @@ public class Client implements Runnable { //TODO - Extend java.util.Thread
                 throw new MqttException(MqttException.REASON_CODE_SERVER_CONNECT_ERROR);
 
             System.out.println(clientID + " Connected");
-
-            client.subscribe(commandTopic, qos);
-            client.subscribe(latencyReplyTopic, qos);
-
-            //client.subscribe("#", 1); // Subscribe to all topics
+            subscribe();
+            return true;
         } catch (Exception e) {
             System.out.println(clientID + " Unable to connect");
             close();
+            return false;
+        }
+    }
+
+    private void subscribe() throws MqttException {
+        for (SimulatedDevice device : devices) {
+            client.subscribe(device.getCommandTopic(), qos);
+            client.subscribe(device.getLatencyReplyTopic(), qos);
+        }
+
+        //client.subscribe("#", 1); // Subscribe to all topics
+    }
+
+    // The publishes in flight are gone with the connection: the session is clean, so they won't be resent
+    private void onConnectionLost() {
+        if (closed)
+            return;
+
+        int inFlight;
+        int queued;
+        synchronized (publishTimes) {
+            inFlight = publishTimes.clear();
+            queued = qos0Queue.size();
+            qos0Queue.clear();
+            lastQos0Token = null; // Never written, so deliveryComplete() won't come for it
+        }
+        metrics.onLost(inFlight);
+        for (int i = 0; i < queued; i++) { // Never handed to Paho
+            metrics.onFailed();
+            reconnectMetrics.onLostWhileDown();
         }
+        lostAtNanos = System.nanoTime();
+        reconnectMetrics.onConnectionLost(inFlight);
+        scheduleReconnect();
+    }
+
+    private void scheduleReconnect() {
+        engine.schedule(this::reconnect, reconnectBackoff.nextDelayMillis());
+    }
+
+    // One reconnect attempt, run on a worker. A failed attempt schedules the next
+    private void reconnect() {
+        if (closed)
+            return;
+
+        try {
+            client.connect(connectOptions, null, new IMqttActionListener() {
+                @Override
+                public void onSuccess(IMqttToken token) {
+                    long outage = System.nanoTime() - lostAtNanos;
+                    lostAtNanos = 0;
+                    reconnectBackoff.reset();
+                    reconnectMetrics.onReconnected(outage);
+                    System.out.println(clientID + " Reconnected after " + outage / 1_000_000 + " ms");
+                    engine.schedule(Client.this::onReconnected, 0);
+                }
+
+                @Override
+                public void onFailure(IMqttToken token, Throwable exception) {
+                    reconnectMetrics.onReconnectFailed();
+                    scheduleReconnect();
+                }
+            });
+        } catch (MqttException me) {
+            reconnectMetrics.onReconnectFailed();
+            scheduleReconnect();
+        }
+    }
+
+    // The clean session dropped the subscriptions, and closed-loop devices may have lost the message or reply they were waiting on
+    private void onReconnected() {
+        try {
+            subscribe();
+        } catch (MqttException me) {
+            System.out.println(clientID + " Unable to subscribe: " + me);
+            return;
+        }
+
+        for (SimulatedDevice device : devices)
+            device.restart();
+    }
+
+    /**
+     * Starts connecting without waiting for the result, see ConnectRamp. Once connected, onConnected() must be called
+     * to subscribe and start the devices.
+     *
+     * @param callback Told when the CONNACK arrives or the attempt fails
+     * @throws MqttException if Paho refuses to start the attempt, e.g. while another one is in progress
+     */
+    void connect(IMqttActionListener callback) throws MqttException {
+        client.connect(connectOptions, null, callback);
+    }
+
+    /**
+     * Subscribes to the devices' topics and starts them, after a successful connect(IMqttActionListener).
+     */
+    void onConnected() {
+        try {
+            subscribe();
+        } catch (MqttException me) {
+            System.out.println(clientID + " Unable to subscribe: " + me);
+            close();
+            return;
+        }
+
+        for (SimulatedDevice device : devices)
+            device.start();
     }
 
     /**
      * Disconnects and closes client.
      */
     public void close() {
+        closed = true;
+        for (SimulatedDevice device : devices)
+            device.stop();
+
         try {
             if (client.isConnected())
                 client.disconnect();
@@ -158,31 +399,119 @@ public class Client implements Runnable { //TODO - Extend java.util.Thread
         }
     }
 
-    /*
-     * Creates and sends a new message based on the one that was just received.
-     * Gets the timestamp from last message and compares it to the current time, and stores the difference in the last_latency field.
-     * Then sets a new timestamp, and publishes new message.
+    /**
+     * Publishes a message on behalf of one of the devices sharing this connection. QoS 0 publishes count as acknowledged
+     * once Paho takes them: there is no acknowledgement, and Paho 1.2.0 keys all their tokens by message ID 0, so
+     * deliveryComplete() can't be matched to them. For the same reason a second one handed over before the first is
+     * written loses the first's token and leaks an in-flight slot for good, so they go to Paho one at a time: one made
+     * while another is being written is queued, and handed over from deliveryComplete() without the caller waiting. Once
+     * QOS0_QUEUE_LENGTH are queued, further ones fail as if the in-flight window were full.
+     *
+     * @param topic   The topic to publish to
+     * @param message The message to publish
+     * @throws MqttException if Paho refuses the publish, e.g. when disconnected or the in-flight window is full
      */
-    private void sendNextMessage(MqttMessage message) throws InvalidMqttMessageException {
-        try {
+    void publish(String topic, MqttMessage message) throws MqttException {
+        if (message.getQos() == 0) {
+            publishQos0(topic, message);
+            return;
+        }
 
-            long receiveTime = System.currentTimeMillis(); // Set time message was received
+        // Held across the publish so that deliveryComplete(), on Paho's callback thread, can't look for the send time first
+        synchronized (publishTimes) {
+            long sendNanos = System.nanoTime();
+            IMqttDeliveryToken token;
+            try {
+                token = client.publish(topic, message);
+            } catch (MqttException me) {
+                onPublishFailed();
+                throw me;
+            }
+            publishTimes.put(token.getMessageId(), sendNanos);
+        }
+        metrics.onPublished();
+    }
+
+    private void publishQos0(String topic, MqttMessage message) throws MqttException {
+        synchronized (publishTimes) {
+            if (lastQos0Token != null) {
+                if (qos0Queue.size() >= QOS0_QUEUE_LENGTH) {
+                    onPublishFailed();
+                    throw new MqttException(MqttException.REASON_CODE_MAX_INFLIGHT);
+                }
+                qos0Queue.add(Map.entry(topic, message));
+                return;
+            }
+
+            try {
+                lastQos0Token = client.publish(topic, message);
+            } catch (MqttException me) {
+                onPublishFailed();
+                throw me;
+            }
+        }
+        metrics.onPublished();
+        metrics.onAcknowledged(-1);
+    }
 
-            Thread.sleep(waitPeriod); // Wait before sending next message
+    // Called on Paho's callback thread once a QoS 0 publish is written: hands Paho the next one queued, if any
+    private void onQos0Written(IMqttDeliveryToken token) {
+        boolean handedOver = false;
+        synchronized (publishTimes) {
+            if (token != lastQos0Token) // Not the one being written, e.g. from before the connection was lost
+                return;
+
+            lastQos0Token = null;
+            while (lastQos0Token == null && !qos0Queue.isEmpty()) {
+                Map.Entry<String, MqttMessage> next = qos0Queue.poll();
+                try {
+                    lastQos0Token = client.publish(next.getKey(), next.getValue());
+                    handedOver = true;
+                } catch (MqttException me) {
+                    onPublishFailed();
+                }
+            }
+        }
+        if (handedOver) {
+            metrics.onPublished();
+            metrics.onAcknowledged(-1);
+        }
+    }
 
-            JsonPayload json = new JsonPayload();
-            json.deserialize(new String(message.getPayload())); // converting byte[] -> String requires passing to String through constructor
+    private void onPublishFailed() {
+        metrics.onFailed();
+        if (lostAtNanos != 0)
+            reconnectMetrics.onLostWhileDown();
+    }
 
-            json.setLastLatency(receiveTime - json.getTimestamp()); // Set new last_latency field
-            json.setTimestamp(System.currentTimeMillis()); // Set timestamp field
+    /**
+     * Publishes a device's report, on its own or in the next batch of the device's shard, see ReportBatcher.
+     *
+     * @param topic   The device's report topic, which picks its batch when batching
+     * @param message The report, whose payload may be reused once this returns
+     * @throws MqttException if Paho refuses the publish of the report, or of a batch it filled
+     */
+    void publishReport(String topic, MqttMessage message) throws MqttException {
+        metrics.onReport();
+        ReportBatcher batcher = batchers.get(topic);
+        if (batcher == null)
+            publish(topic, message);
+        else
+            batcher.add(message.getPayload());
+    }
 
-            message.setPayload(json.serialize().getBytes());
-            client.publish(latencyReportTopic, message);
+    /**
+     * @return whether close() has been called
+     */
+    boolean isClosed() {
+        return closed;
+    }
 
-        } catch (Exception e) {
-            System.out.println(e);
-            throw new InvalidMqttMessageException(message);
-        }
+    /**
+     * @return the topic the client takes commands on, that of its first device
+     */
+    public String getCommandTopic() {
+        return devices.get(0).getCommandTopic();
     }
 
     /**
@@ -192,44 +521,30 @@ public class Client implements Runnable { //TODO - Extend java.util.Thread
         return clientID;
     }
 
-    /*
-     * Creates the first message to send the the CSV writer client
-     * We use a JSON payload to organize our data
-     * Sets the device_id, and time of creation in milliseconds
-     * Sets the last_latency field to -1.0, indicating to the CSV writer that there has been no previous message.
-     */
-    private void sendInitialMessage() {
-        JsonPayload msg = new JsonPayload();
-        MqttMessage mqttMessage = new MqttMessage();
-
-        // Create initial message payload String
-        String json = "{"
-                + "\"device_id\":\"" + clientID
-                + "\"\"timestamp\":" + System.currentTimeMillis()
-                + "\"last_latency\":" + -1.0
-                + "}";
-
-        try {
-
-            msg.deserialize(json);
-            mqttMessage.setPayload(msg.serialize().getBytes());
-            client.publish(latencyReportTopic, mqttMessage);
-
-        } catch (Exception e) {
-            System.out.println(e);
-        }
+    /**
+     * @return the testbed the client's round trips are summarized or reported under, or null if the testbed runs on its own
+     * and its devices report every message
+     */
+    public String getTestbedID() {
+        return testbedID;
     }
 
     /**
-     * Override for Runnable's run() method. called by Thread.start()
+     * Override for Runnable's run() method. called by one of the LoadEngine's workers
      */
     @Override
     public void run() {
-        connect();
-        sendInitialMessage();
+        if (!connect())
+            return;
+
+        for (SimulatedDevice device : devices)
+            device.start();
     }
 
-    int getNumSentMessages() {
-        return numSentMessages;
+    /**
+     * @return the number of simulated devices multiplexed onto this connection
+     */
+    public int getNumDevices() {
+        return devices.size();
     }
 }
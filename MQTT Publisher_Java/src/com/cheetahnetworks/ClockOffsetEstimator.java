@@ -0,0 +1,80 @@
+package com.cheetahnetworks;
+
+/**
+ * Estimates the offset between the publisher's and the recorder's clocks the way NTP does, from the four timestamps
+ * of every timed report and its reply:
+ *
+ * <pre>
+ *  t0  publisher sends the report       (publisher clock)
+ *  t1  recorder receives it             (recorder clock)
+ *  t2  recorder sends the reply         (recorder clock)
+ *  t3  publisher receives the reply     (publisher clock)
+ *
+ *  offset = ((t1 - t0) + (t2 - t3)) / 2     recorder clock minus publisher clock
+ *  delay  = (t3 - t0) - (t2 - t1)           time spent on the wire and in the broker, both ways
+ * </pre>
+ *
+ * A single exchange only pins the offset down to within delay / 2, because the split between the two legs is
+ * unknown. Queueing only ever adds delay, so like NTP's clock filter the estimator keeps the most recent exchanges
+ * and trusts the one with the smallest delay: its offset is the estimate, and half its delay the error bound.
+ */
+public class ClockOffsetEstimator {
+    private final long[] offsets;
+    private final long[] delays;
+    private int next;
+    private int size;
+
+    /**
+     * @param window The number of most recent exchanges to pick the best one from. Larger windows ride out longer
+     *               bursts of queueing, smaller ones follow clock drift more closely
+     */
+    public ClockOffsetEstimator(int window) {
+        offsets = new long[window];
+        delays = new long[window];
+    }
+
+    /**
+     * Adds one exchange, all times in nanoseconds since epoch.
+     *
+     * @param t0 When the publisher sent the report, by its clock
+     * @param t1 When the recorder received the report, by its clock
+     * @param t2 When the recorder sent the reply, by its clock
+     * @param t3 When the publisher received the reply, by its clock
+     */
+    public synchronized void addSample(long t0, long t1, long t2, long t3) {
+        offsets[next] = ((t1 - t0) + (t2 - t3)) / 2;
+        delays[next] = Math.max(0, (t3 - t0) - (t2 - t1));
+        next = (next + 1) % offsets.length;
+        size = Math.min(size + 1, offsets.length);
+    }
+
+    private int best() {
+        int best = 0;
+        for (int i = 1; i < size; i++) {
+            if (delays[i] < delays[best])
+                best = i;
+        }
+        return best;
+    }
+
+    /**
+     * @return whether any exchange has been seen yet
+     */
+    public synchronized boolean hasEstimate() {
+        return size > 0;
+    }
+
+    /**
+     * @return the recorder's clock minus the publisher's, in nanoseconds, or 0 without an estimate
+     */
+    public synchronized long getOffsetNanos() {
+        return size == 0 ? 0 : offsets[best()];
+    }
+
+    /**
+     * @return how far, in nanoseconds, the true offset may be from getOffsetNanos(), or 0 without an estimate
+     */
+    public synchronized long getErrorBoundNanos() {
+        return size == 0 ? 0 : delays[best()] / 2;
+    }
+}
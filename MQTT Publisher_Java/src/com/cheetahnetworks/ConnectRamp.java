@@ -0,0 +1,235 @@
+package com.cheetahnetworks;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds and connects a large number of clients under admission control, instead of one after another with a fixed
+ * pause. Clients are built in parallel on the engine's workers and queued; a dispatcher on the same workers then admits
+ * them to connect at a steady rate (a token bucket, so short bursts are allowed but the average is held), with no more
+ * than a set number of CONNECTs outstanding at once. Connects don't block a thread: a failed one is retried after a
+ * Backoff delay, and a successful one subscribes and starts the client's devices.
+ * <p>
+ * The time from each CONNECT to its CONNACK goes into a histogram, and the time until every client is connected is
+ * kept, so the broker's connection capacity can be measured on its own.
+ */
+public class ConnectRamp {
+    private static final long TICK_MILLIS = 10; // How often the dispatcher admits waiting clients
+    private static final long HIGHEST_TRACKABLE_NANOS = 600_000_000_000L;
+    private static final int SUB_BUCKET_BITS = 7;
+
+    /**
+     * Builds the client at the given index, on one of the engine's workers.
+     */
+    public interface ClientFactory {
+        Client create(int index) throws MqttException;
+    }
+
+    private final LoadEngine engine;
+    private final double connectsPerSecond;
+    private final double burst; // Most connects the token bucket can save up
+    private final int maxConnecting; // Most CONNECTs outstanding at once
+    private final int maxAttempts; // Attempts per client before giving up, 0 for no limit
+    private final long backoffBaseMillis;
+    private final long backoffCapMillis;
+
+    private final ConcurrentLinkedQueue<Pending> ready = new ConcurrentLinkedQueue<Pending>(); // Built, waiting to be admitted
+    private final AtomicInteger connecting = new AtomicInteger(); // CONNECTs outstanding
+    private final AtomicInteger connected = new AtomicInteger();
+    private final AtomicInteger abandoned = new AtomicInteger(); // Failed to build, or ran out of attempts
+    private final AtomicInteger retries = new AtomicInteger();
+
+    private final LatencyHistogram connectLatency = new LatencyHistogram(HIGHEST_TRACKABLE_NANOS, SUB_BUCKET_BITS); // Guarded by itself
+
+    // Token bucket, only touched by the dispatcher
+    private double tokens;
+    private long lastRefillNanos;
+
+    private int numClients;
+    private long startNanos;
+    private volatile long fullyConnectedNanos; // 0 until every client has connected or been abandoned
+    private volatile ScheduledFuture<?> dispatcher;
+
+    /**
+     * @param engine            The engine whose workers build, connect and then run the clients
+     * @param connectsPerSecond The average number of CONNECTs to send per second
+     * @param maxConnecting     The most CONNECTs allowed to be waiting for a CONNACK at once
+     * @param maxAttempts       The number of times to try each client before giving up on it, 0 to keep trying
+     * @param backoffBaseMillis The shortest wait before retrying a failed connect
+     * @param backoffCapMillis  The longest wait before retrying a failed connect
+     */
+    public ConnectRamp(LoadEngine engine, double connectsPerSecond, int maxConnecting, int maxAttempts, long backoffBaseMillis, long backoffCapMillis) {
+        if (connectsPerSecond <= 0 || maxConnecting < 1)
+            throw new IllegalArgumentException("Connect rate and concurrency must be positive");
+
+        this.engine = engine;
+        this.connectsPerSecond = connectsPerSecond;
+        this.burst = Math.max(1, connectsPerSecond * TICK_MILLIS / 1000.0 * 2);
+        this.maxConnecting = maxConnecting;
+        this.maxAttempts = maxAttempts;
+        this.backoffBaseMillis = backoffBaseMillis;
+        this.backoffCapMillis = backoffCapMillis;
+    }
+
+    /**
+     * Starts building and connecting the clients, and returns straight away.
+     *
+     * @param numClients The number of clients to build
+     * @param factory    Builds each client
+     */
+    public synchronized void start(int numClients, ClientFactory factory) {
+        if (dispatcher != null)
+            throw new IllegalStateException("Ramp already started");
+
+        this.numClients = numClients;
+        startNanos = System.nanoTime();
+        lastRefillNanos = startNanos;
+        if (numClients == 0) {
+            fullyConnectedNanos = startNanos;
+            return;
+        }
+
+        for (int i = 0; i < numClients; i++) {
+            final int index = i;
+            engine.getScheduler().execute(() -> build(index, factory));
+        }
+        dispatcher = engine.getScheduler().scheduleAtFixedRate(this::dispatch, 0, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void build(int index, ClientFactory factory) {
+        try {
+            Client client = factory.create(index);
+            engine.add(client);
+            ready.add(new Pending(client, new Backoff(backoffBaseMillis, backoffCapMillis)));
+        } catch (Exception e) {
+            System.out.println("Unable to build client " + index + ": " + e);
+            finished(abandoned);
+        }
+    }
+
+    // Admits as many waiting clients as the token bucket and the limit on outstanding CONNECTs allow
+    private void dispatch() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefillNanos) / 1e9 * connectsPerSecond);
+        lastRefillNanos = now;
+
+        while (tokens >= 1 && connecting.get() < maxConnecting) {
+            Pending pending = ready.poll();
+            if (pending == null)
+                break;
+
+            tokens--;
+            connecting.incrementAndGet();
+            connect(pending);
+        }
+
+        ScheduledFuture<?> self = dispatcher;
+        if (fullyConnectedNanos != 0 && self != null)
+            self.cancel(false);
+    }
+
+    private void connect(Pending pending) {
+        pending.connectNanos = System.nanoTime();
+        try {
+            pending.client.connect(pending);
+        } catch (MqttException me) {
+            pending.onFailure(null, me);
+        }
+    }
+
+    // Counts a client as connected or abandoned, and notes the time if it was the last one
+    private void finished(AtomicInteger outcome) {
+        outcome.incrementAndGet();
+        if (connected.get() + abandoned.get() == numClients)
+            fullyConnectedNanos = System.nanoTime();
+    }
+
+    /**
+     * @return whether every client has either connected or been given up on
+     */
+    public boolean isFinished() {
+        return fullyConnectedNanos != 0;
+    }
+
+    /**
+     * @return the number of clients connected by the ramp
+     */
+    public int getConnected() {
+        return connected.get();
+    }
+
+    /**
+     * @return the milliseconds from start() until every client connected or was given up on, or -1 if still ramping
+     */
+    public long getTimeToFullyConnectedMillis() {
+        long end = fullyConnectedNanos;
+        return end == 0 ? -1 : (end - startNanos) / 1_000_000;
+    }
+
+    /**
+     * @return a one line summary of the ramp, for the performance reporting loop
+     */
+    public String report() {
+        String latency;
+        synchronized (connectLatency) {
+            latency = String.format("%.1f/%.1f/%.1f/%.1f", connectLatency.getValueAtPercentile(50) / 1e6, connectLatency.getValueAtPercentile(90) / 1e6,
+                    connectLatency.getValueAtPercentile(99) / 1e6, connectLatency.getMax() / 1e6);
+        }
+        long full = getTimeToFullyConnectedMillis();
+        return "Connected: " + connected.get() + "/" + numClients
+                + " | Connecting: " + connecting.get()
+                + " | Waiting: " + ready.size()
+                + " | Retries: " + retries.get()
+                + " | Abandoned: " + abandoned.get()
+                + " | Connect p50/p90/p99/max: " + latency + " ms"
+                + " | " + (full < 0 ? "Ramping for " + (System.nanoTime() - startNanos) / 1_000_000 + " ms" : "Fully connected in " + full + " ms");
+    }
+
+    // One client's way through the ramp, also the listener of its connect attempts
+    private final class Pending implements IMqttActionListener {
+        final Client client;
+        final Backoff backoff;
+        long connectNanos;
+
+        Pending(Client client, Backoff backoff) {
+            this.client = client;
+            this.backoff = backoff;
+        }
+
+        @Override
+        public void onSuccess(IMqttToken token) {
+            long latency = System.nanoTime() - connectNanos;
+            connecting.decrementAndGet();
+            synchronized (connectLatency) {
+                connectLatency.recordValue(latency);
+            }
+
+            engine.getScheduler().execute(client::onConnected); // Subscribing and the first sends are left off Paho's callback thread
+            finished(connected);
+        }
+
+        @Override
+        public void onFailure(IMqttToken token, Throwable exception) {
+            connecting.decrementAndGet();
+            if (client.isClosed()) { // E.g. its workload group ended while it was still waiting
+                finished(abandoned);
+                return;
+            }
+            if (maxAttempts > 0 && backoff.getAttempts() + 1 >= maxAttempts) {
+                System.out.println(client.getClientID() + " Unable to connect after " + maxAttempts + " attempts: " + exception);
+                client.close();
+                finished(abandoned);
+                return;
+            }
+
+            retries.incrementAndGet();
+            engine.schedule(() -> ready.add(this), backoff.nextDelayMillis()); // Goes back through admission, it doesn't jump the queue
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package com.cheetahnetworks;
+
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs several testbeds as one cluster, each a publisher process with "coordinated" set in its profile (see
+ * TestbedAgent). The coordinator waits for the expected number of testbeds to report in, starts them all at the same
+ * instant, optionally sets or ramps their open-loop rate, and stops them once the duration is up. Commands go out
+ * START_LEAD_MILLIS ahead of the time they carry, so every testbed acts on them together.
+ * <p>
+ * Every interval it merges the testbeds' TestbedReports into one cluster-wide line: devices, publish, acknowledge and
+ * failure rates, worked out from each testbed's running totals, and round trip percentiles from the sum of their
+ * histograms, followed by a line per testbed. An interval is printed once every testbed has reported it, or GRACE_MILLIS
+ * after the last was due. At the end it prints the same for the whole run.
+ * <pre>
+ * java -cp publisher:json-simple-3.1.0.jar:org.eclipse.paho.client.mqttv3-1.2.0.jar com.cheetahnetworks.Coordinator
+ *      [BROKER] [TESTBEDS] [DURATION_S] [RATE] [RAMP_TO] [RAMP_S]
+ * </pre>
+ * RATE is messages per second per open-loop device, 0 to leave the groups' own rates; with RAMP_TO the rate is ramped
+ * from RATE to RAMP_TO over the first RAMP_S seconds.
+ */
+public class Coordinator implements Runnable {
+    public static final String REPORTS_TOPIC = TestbedAgent.REPORT_TOPIC.replace("{testbed}", "+");
+
+    private static final long START_LEAD_MILLIS = 2000; // Time for a command to reach every testbed before it takes effect
+    private static final long DISCOVERY_TIMEOUT_MILLIS = 60000; // Longest the expected testbeds are waited for
+    private static final long GRACE_MILLIS = 1500; // How long after its end an interval waits for late testbeds
+    private static final long STOP_TIMEOUT_MILLIS = 30000; // Longest the testbeds are waited for to report being stopped
+    private static final int QOS = 1;
+
+    private final String broker;
+    private final int numTestbeds;
+    private final int durationSeconds;
+    private final double rate;
+    private final double rampTo;
+    private final double rampSeconds;
+
+    private final LinkedBlockingQueue<TestbedReport> incoming = new LinkedBlockingQueue<TestbedReport>();
+
+    // Only touched by the thread running the coordinator
+    private final Map<String, Testbed> testbeds = new TreeMap<String, Testbed>();
+    private final TreeMap<Long, Map<String, TestbedInterval>> pending = new TreeMap<Long, Map<String, TestbedInterval>>(); // By interval end
+    private final LatencyHistogram clusterRoundTrips = new LatencyHistogram(EdgeAggregator.HIGHEST_TRACKABLE_MILLIS, EdgeAggregator.SUB_BUCKET_BITS);
+    private long startMillis;
+    private long stopMillis;
+
+    private volatile String summary;
+
+    /**
+     * @param broker          The URI of the broker the testbeds' agents are connected to
+     * @param numTestbeds     The number of testbeds to wait for before starting
+     * @param durationSeconds How long the testbeds run for
+     * @param rate            The rate of each open-loop device in messages per second, or 0 to leave the groups' own
+     * @param rampTo          The rate to ramp to from rate, or rate to hold it
+     * @param rampSeconds     The length of the ramp
+     */
+    public Coordinator(String broker, int numTestbeds, int durationSeconds, double rate, double rampTo, double rampSeconds) {
+        if (numTestbeds < 1 || durationSeconds < 1 || rate < 0 || rampTo < 0 || rampSeconds < 0)
+            throw new IllegalArgumentException("Invalid coordinator settings");
+
+        this.broker = broker;
+        this.numTestbeds = numTestbeds;
+        this.durationSeconds = durationSeconds;
+        this.rate = rate;
+        this.rampTo = rampTo;
+        this.rampSeconds = rampSeconds;
+    }
+
+    public static void main(String[] args) {
+        String broker = args.length > 0 ? args[0] : "tcp://localhost:1883";
+        int testbeds = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        int durationSeconds = args.length > 2 ? Integer.parseInt(args[2]) : 60;
+        double rate = args.length > 3 ? Double.parseDouble(args[3]) : 0;
+        double rampTo = args.length > 4 ? Double.parseDouble(args[4]) : rate;
+        double rampSeconds = args.length > 5 ? Double.parseDouble(args[5]) : 0;
+
+        Coordinator coordinator = new Coordinator(broker, testbeds, durationSeconds, rate, rampTo, rampSeconds);
+        coordinator.run();
+        System.exit(coordinator.report() == null ? 1 : 0);
+    }
+
+    /**
+     * Runs the testbeds from discovery to their last report, then returns.
+     */
+    @Override
+    public void run() {
+        MqttAsyncClient client = null;
+        try {
+            client = connect();
+            if (!discover())
+                return;
+
+            startMillis = System.currentTimeMillis() + START_LEAD_MILLIS;
+            stopMillis = startMillis + TimeUnit.SECONDS.toMillis(durationSeconds);
+            send(client, TestbedAgent.startCommand(startMillis));
+            if (rate > 0)
+                send(client, TestbedAgent.rampCommand(rate, rampTo, rampSeconds, startMillis));
+            System.out.println(String.format("Coordinator: starting %d testbeds in %d ms, for %d s%s", testbeds.size(), START_LEAD_MILLIS,
+                    durationSeconds, rate == 0 ? "" : String.format(", at %.2f msg/s per device", rate)
+                            + (rampTo == rate ? "" : String.format(" ramping to %.2f over %.0f s", rampTo, rampSeconds))));
+
+            boolean stopSent = false;
+            long deadline = stopMillis + STOP_TIMEOUT_MILLIS;
+            while (System.currentTimeMillis() < deadline && !(stopSent && allStopped())) {
+                if (!stopSent && System.currentTimeMillis() >= stopMillis - START_LEAD_MILLIS) {
+                    send(client, TestbedAgent.stopCommand(stopMillis));
+                    stopSent = true;
+                }
+                TestbedReport report = incoming.poll(100, TimeUnit.MILLISECONDS);
+                if (report != null)
+                    accept(report);
+                printDueIntervals(false);
+            }
+            if (!allStopped())
+                System.out.println("Coordinator: not every testbed reported being stopped");
+            printDueIntervals(true);
+
+            summary = summarize();
+            System.out.println(summary);
+        } catch (MqttException me) {
+            System.out.println("Coordinator failed: " + me);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (client != null) {
+                try {
+                    client.disconnect().waitForCompletion(1000);
+                    client.close();
+                } catch (MqttException me) {
+                    System.out.println(me);
+                }
+            }
+        }
+    }
+
+    private MqttAsyncClient connect() throws MqttException {
+        MqttAsyncClient client = new MqttAsyncClient(broker, "coordinator-" + System.nanoTime(), new MemoryPersistence());
+        client.setCallback(new MqttCallback() {
+            @Override
+            public void connectionLost(Throwable cause) {
+                System.out.println("Coordinator lost its connection: " + cause);
+            }
+
+            @Override
+            public void messageArrived(String topic, MqttMessage message) {
+                try {
+                    incoming.add(TestbedReport.decode(message.getPayload()));
+                } catch (IllegalArgumentException iae) {
+                    System.out.println("Coordinator: ignoring report on " + topic + ": " + iae.getMessage());
+                }
+            }
+
+            @Override
+            public void deliveryComplete(IMqttDeliveryToken token) {
+            }
+        });
+
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setAutomaticReconnect(true);
+        client.connect(options).waitForCompletion();
+        client.subscribe(REPORTS_TOPIC, QOS).waitForCompletion();
+        return client;
+    }
+
+    // Waits for numTestbeds testbeds to report in, returning false if they don't in time
+    private boolean discover() throws InterruptedException {
+        System.out.println("Coordinator: waiting for " + numTestbeds + " testbeds on " + REPORTS_TOPIC);
+        long deadline = System.currentTimeMillis() + DISCOVERY_TIMEOUT_MILLIS;
+        while (testbeds.size() < numTestbeds) {
+            long remaining = deadline - System.currentTimeMillis();
+            TestbedReport report = remaining > 0 ? incoming.poll(remaining, TimeUnit.MILLISECONDS) : null;
+            if (report == null) {
+                System.out.println("Coordinator: only " + testbeds.size() + " of " + numTestbeds + " testbeds reported in " + testbeds.keySet());
+                return false;
+            }
+            if (!testbeds.containsKey(report.getTestbedID()))
+                System.out.println("Coordinator: " + report.getTestbedID() + " " + report.getState() + " (" + (testbeds.size() + 1) + "/" + numTestbeds + ")");
+            accept(report);
+        }
+        pending.clear(); // Nothing ran before the start
+        return true;
+    }
+
+    private static void send(MqttAsyncClient client, String command) throws MqttException {
+        MqttMessage message = new MqttMessage(command.getBytes());
+        message.setQos(QOS);
+        client.publish(TestbedAgent.CONTROL_TOPIC, message).waitForCompletion();
+    }
+
+    private void accept(TestbedReport report) {
+        Testbed testbed = testbeds.get(report.getTestbedID());
+        if (testbed == null) {
+            testbed = new Testbed(report.getTestbedID());
+            testbeds.put(report.getTestbedID(), testbed);
+        }
+        TestbedInterval interval = testbed.accept(report);
+        if (interval != null && report.getIntervalEnd() > startMillis) // Before the start, only while discovering
+            pending.computeIfAbsent(report.getIntervalEnd(), end -> new TreeMap<String, TestbedInterval>()).put(report.getTestbedID(), interval);
+    }
+
+    private boolean allStopped() {
+        for (Testbed testbed : testbeds.values()) {
+            if (testbed.last.getState() != TestbedReport.State.STOPPED)
+                return false;
+        }
+        return true;
+    }
+
+    // Prints intervals oldest first, once every testbed has reported them or they are past their grace period
+    private void printDueIntervals(boolean all) {
+        long now = System.currentTimeMillis();
+        while (!pending.isEmpty()) {
+            Map.Entry<Long, Map<String, TestbedInterval>> first = pending.firstEntry();
+            if (!all && first.getValue().size() < testbeds.size() && now < first.getKey() + GRACE_MILLIS)
+                return;
+            pending.pollFirstEntry();
+            print(first.getKey(), first.getValue());
+        }
+    }
+
+    private void print(long intervalEnd, Map<String, TestbedInterval> intervals) {
+        LatencyHistogram roundTrips = clusterRoundTrips.copyEmpty();
+        int devices = 0;
+        double published = 0;
+        double acknowledged = 0;
+        double failed = 0;
+        List<String> lines = new ArrayList<String>();
+        for (TestbedInterval interval : intervals.values()) {
+            roundTrips.add(interval.report.getRoundTrips());
+            devices += interval.report.getDevices();
+            published += interval.publishRate;
+            acknowledged += interval.acknowledgeRate;
+            failed += interval.failureRate;
+            lines.add("    " + interval);
+        }
+
+        System.out.println(String.format("Cluster t+%ds | Testbeds: %d/%d | Devices: %d | Published: %.0f/s | Acked: %.0f/s | Failed: %.0f/s | %s",
+                Math.round((intervalEnd - startMillis) / 1000.0), intervals.size(), testbeds.size(), devices, published, acknowledged, failed,
+                roundTrips(roundTrips)));
+        for (String line : lines)
+            System.out.println(line);
+    }
+
+    // The whole run, from the start to each testbed's last report
+    private String summarize() {
+        StringBuilder summary = new StringBuilder();
+        double seconds = Math.max(1, stopMillis - startMillis) / 1000.0;
+        long published = 0;
+        long acknowledged = 0;
+        long failed = 0;
+        for (Testbed testbed : testbeds.values()) {
+            TestbedReport last = testbed.last;
+            published += last.getPublished();
+            acknowledged += last.getAcknowledged();
+            failed += last.getFailed();
+            summary.append(System.lineSeparator()).append(String.format("    %s | Devices: %d | Published: %d (%.0f/s) | Acked: %d | Failed: %d | %s",
+                    testbed.id, testbed.maxDevices, last.getPublished(), last.getPublished() / seconds, last.getAcknowledged(), last.getFailed(),
+                    roundTrips(testbed.runRoundTrips)));
+        }
+        return String.format("==== Cluster of %d testbeds, %.0f s ====", testbeds.size(), seconds) + System.lineSeparator()
+                + String.format("Published: %d (%.0f/s) | Acked: %d (%.0f/s) | Failed: %d | %s", published, published / seconds, acknowledged,
+                acknowledged / seconds, failed, roundTrips(clusterRoundTrips)) + summary;
+    }
+
+    private static String roundTrips(LatencyHistogram histogram) {
+        return String.format("RTT p50/p90/p99/p99.9/max: %d/%d/%d/%d/%d ms (%d)", histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(90),
+                histogram.getValueAtPercentile(99), histogram.getValueAtPercentile(99.9), histogram.getMax(), histogram.getCount());
+    }
+
+    /**
+     * @return the summary of the whole run, or null if the testbeds never started
+     */
+    public String report() {
+        return summary;
+    }
+
+    // Everything heard from one testbed
+    private final class Testbed {
+        final String id;
+        final LatencyHistogram runRoundTrips = clusterRoundTrips.copyEmpty();
+        TestbedReport last;
+        int maxDevices;
+
+        Testbed(String id) {
+            this.id = id;
+        }
+
+        // Returns null unless the report starts a new interval
+        TestbedInterval accept(TestbedReport report) {
+            TestbedReport previous = last;
+            if (previous != null && report.getIntervalEnd() < previous.getIntervalEnd()) // Redelivered after a reconnect
+                return null;
+
+            last = report;
+            maxDevices = Math.max(maxDevices, report.getDevices());
+            if (startMillis > 0 && report.getIntervalEnd() > startMillis) {
+                runRoundTrips.add(report.getRoundTrips());
+                clusterRoundTrips.add(report.getRoundTrips());
+            }
+            if (previous != null && report.getIntervalEnd() == previous.getIntervalEnd()) // The agent's last report, sent on close
+                return null;
+            return new TestbedInterval(report, previous);
+        }
+    }
+
+    // One testbed's report, with its rates since the one before
+    private static final class TestbedInterval {
+        final TestbedReport report;
+        final double publishRate;
+        final double acknowledgeRate;
+        final double failureRate;
+
+        TestbedInterval(TestbedReport report, TestbedReport previous) {
+            this.report = report;
+            double seconds = previous == null ? 0 : Math.max(1, report.getIntervalEnd() - previous.getIntervalEnd()) / 1000.0;
+            publishRate = previous == null ? 0 : (report.getPublished() - previous.getPublished()) / seconds;
+            acknowledgeRate = previous == null ? 0 : (report.getAcknowledged() - previous.getAcknowledged()) / seconds;
+            failureRate = previous == null ? 0 : (report.getFailed() - previous.getFailed()) / seconds;
+        }
+
+        @Override
+        public String toString() {
+            LatencyHistogram roundTrips = report.getRoundTrips();
+            return String.format("%s %s | Devices: %d | Connections: %d | Published: %.0f/s | Acked: %.0f/s | Failed: %.0f/s | RTT p50/p99/max: %d/%d/%d ms (%d)",
+                    report.getTestbedID(), report.getState(), report.getDevices(), report.getConnections(), publishRate, acknowledgeRate, failureRate,
+                    roundTrips.getValueAtPercentile(50), roundTrips.getValueAtPercentile(99), roundTrips.getMax(), roundTrips.getCount());
+        }
+    }
+}
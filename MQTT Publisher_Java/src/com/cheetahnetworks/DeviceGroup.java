@@ -0,0 +1,218 @@
+package com.cheetahnetworks;
+
+/**
+ * A set of devices that behave alike, one entry of a WorkloadProfile. Each group has its own size, payload, QoS, topic
+ * layout and pacing: either closed-loop, waiting a set time after each reply, or open-loop on a RateCurve. Closed-loop
+ * devices may keep a window of several messages in flight instead of one, see SimulatedDevice. The reports of the devices
+ * sharing a connection may be packed into batches, see ReportBatcher. Groups can start later than the run and stop
+ * before it, to layer traffic shapes on top of each other.
+ */
+public class DeviceGroup {
+    public static final String DEFAULT_REPORT_TOPIC = "/devices/{device}/latency/report";
+    public static final int DEFAULT_QOS = 1; // What reports have always been sent at, MqttMessage's default
+    public static final int DEFAULT_LINGER_MILLIS = 5;
+
+    private final String name;
+    private final int devices;
+    private final int payloadBytes;
+    private final int qos;
+    private final PayloadFormat format;
+    private final int waitMillis;
+    private final int window;
+    private final RateCurve rate;
+    private final String reportTopic;
+    private final int topicFanOut;
+    private final int batchSize;
+    private final int lingerMillis;
+    private final double startSeconds;
+    private final double durationSeconds;
+
+    /**
+     * @param name            The group's name, part of its device IDs
+     * @param devices         The number of devices in the group
+     * @param payloadBytes    The size to pad reports up to, 0 to send them as they are
+     * @param qos             The QoS of the reports and of the devices' subscriptions
+     * @param format          The format of the reports
+     * @param waitMillis      The closed-loop wait after each reply, unused when rate is set
+     * @param window          The most messages each closed-loop device keeps in flight, 1 to wait for each reply before
+     *                        sending the next
+     * @param rate            The open-loop rate of each device, or null for closed-loop
+     * @param reportTopic     The topic reports are published to. {device} is replaced by the device ID, and {shard} by the
+     *                        device's index modulo topicFanOut. The recorder must subscribe to a filter that matches it
+     * @param topicFanOut     The number of {shard} values, i.e. topics the group's devices are spread over
+     * @param batchSize       The most reports packed into one publish by each connection, 1 to publish every report on
+     *                        its own. Ignored with edge aggregation, where reports are echoed straight back by the broker
+     * @param lingerMillis    The longest a report waits for its batch to fill, unused when batchSize is 1
+     * @param startSeconds    When the group starts connecting, from the start of the run
+     * @param durationSeconds How long the group runs before its clients are closed, 0 to run until the program stops
+     */
+    public DeviceGroup(String name, int devices, int payloadBytes, int qos, PayloadFormat format, int waitMillis, int window, RateCurve rate,
+                       String reportTopic, int topicFanOut, int batchSize, int lingerMillis, double startSeconds, double durationSeconds) {
+        if (name == null || name.isEmpty())
+            throw new IllegalArgumentException("Device group needs a name");
+        if (devices < 0 || payloadBytes < 0 || waitMillis < 0 || topicFanOut < 1 || lingerMillis < 0 || startSeconds < 0 || durationSeconds < 0)
+            throw new IllegalArgumentException("Invalid settings for device group " + name);
+        if (qos < 0 || qos > 2)
+            throw new IllegalArgumentException("Invalid QoS for device group " + name + ": " + qos);
+        if (window < 1 || (window > 1 && rate != null))
+            throw new IllegalArgumentException("Window of device group " + name + " must be positive, and 1 when open-loop: " + window);
+        if (rate != null && rate.isConstant() && rate.rateAt(0) <= 0)
+            throw new IllegalArgumentException("Constant rate of device group " + name + " must be positive");
+        if (batchSize < 1 || batchSize > BatchPayload.MAX_REPORTS)
+            throw new IllegalArgumentException("Batch size of device group " + name + " must be between 1 and " + BatchPayload.MAX_REPORTS + ": " + batchSize);
+        checkDeviceID(name);
+        if (!reportTopic.contains("{device}"))
+            throw new IllegalArgumentException("Report topic of device group " + name + " must contain {device}: " + reportTopic);
+
+        this.name = name;
+        this.devices = devices;
+        this.payloadBytes = payloadBytes;
+        this.qos = qos;
+        this.format = format;
+        this.waitMillis = waitMillis;
+        this.window = window;
+        this.rate = rate;
+        this.reportTopic = reportTopic;
+        this.topicFanOut = topicFanOut;
+        this.batchSize = batchSize;
+        this.lingerMillis = lingerMillis;
+        this.startSeconds = startSeconds;
+        this.durationSeconds = durationSeconds;
+    }
+
+    /**
+     * @param name       The group's name, part of its device IDs
+     * @param devices    The number of devices in the group
+     * @param waitMillis The wait after each reply
+     * @param format     The format of the reports
+     * @return a group of closed-loop devices with the defaults for everything else, as run before workload profiles
+     */
+    public static DeviceGroup closedLoop(String name, int devices, int waitMillis, PayloadFormat format) {
+        return pipelined(name, devices, 1, waitMillis, format);
+    }
+
+    /**
+     * @param name       The group's name, part of its device IDs
+     * @param devices    The number of devices in the group
+     * @param window     The most messages each device keeps in flight
+     * @param waitMillis The wait after each reply before sending the message that replaces it
+     * @param format     The format of the reports
+     * @return a group of closed-loop devices keeping a window of messages in flight, with the defaults for everything else
+     */
+    public static DeviceGroup pipelined(String name, int devices, int window, int waitMillis, PayloadFormat format) {
+        return new DeviceGroup(name, devices, 0, DEFAULT_QOS, format, waitMillis, window, null, DEFAULT_REPORT_TOPIC, 1, 1, DEFAULT_LINGER_MILLIS, 0, 0);
+    }
+
+    /**
+     * @param prefix The profile's device ID prefix, e.g. the testbed's name
+     * @param index  The index of the device within the group
+     * @return the device's unique ID
+     */
+    public String deviceID(String prefix, int index) {
+        return prefix + name + "-" + index;
+    }
+
+    /**
+     * Device IDs stand for {device} in topics, which the recorder matches with a single-level '+', so they must be one
+     * topic level of their own.
+     *
+     * @param id A device ID, or a part of one such as a prefix or group name
+     * @throws IllegalArgumentException if it contains '/', '+' or '#'
+     */
+    static void checkDeviceID(String id) {
+        if (id.indexOf('/') >= 0 || id.indexOf('+') >= 0 || id.indexOf('#') >= 0)
+            throw new IllegalArgumentException("Device ID must not contain '/', '+' or '#': " + id);
+    }
+
+    /**
+     * @param deviceID The ID of one of the group's devices
+     * @param index    The index of the device within the group
+     * @return the topic the device publishes its reports to
+     */
+    public String reportTopic(String deviceID, int index) {
+        return reportTopic.replace("{device}", deviceID).replace("{shard}", Integer.toString(index % topicFanOut));
+    }
+
+    /**
+     * @return a new schedule for the group's devices to send on, starting now, or null if they are closed-loop
+     */
+    public SendSchedule newSchedule() {
+        return rate == null ? null : SendSchedule.following(rate, devices);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getDevices() {
+        return devices;
+    }
+
+    public int getPayloadBytes() {
+        return payloadBytes;
+    }
+
+    public int getQos() {
+        return qos;
+    }
+
+    public PayloadFormat getFormat() {
+        return format;
+    }
+
+    public int getWaitMillis() {
+        return waitMillis;
+    }
+
+    /**
+     * @return the most messages each device keeps in flight, 1 for strict request and reply
+     */
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * @return the open-loop rate of each device, or null if the group is closed-loop
+     */
+    public RateCurve getRate() {
+        return rate;
+    }
+
+    /**
+     * @return the number of {shard} values in the report topic
+     */
+    public int getTopicFanOut() {
+        return topicFanOut;
+    }
+
+    /**
+     * @return the most reports packed into one publish, 1 if reports are published on their own
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getLingerMillis() {
+        return lingerMillis;
+    }
+
+    public double getStartSeconds() {
+        return startSeconds;
+    }
+
+    /**
+     * @return how long the group runs, 0 if it runs until the program stops
+     */
+    public double getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    @Override
+    public String toString() {
+        return name + ": " + devices + " devices, " + format + (payloadBytes > 0 ? " padded to " + payloadBytes + " B" : "")
+                + ", QoS " + qos + ", " + (rate == null ? "closed-loop, wait " + waitMillis + " ms" + (window > 1 ? ", window " + window : "") : "open-loop")
+                + (topicFanOut > 1 ? ", " + topicFanOut + " topics" : "")
+                + (batchSize > 1 ? ", batches of " + batchSize + " within " + lingerMillis + " ms" : "")
+                + ", from " + startSeconds + " s" + (durationSeconds > 0 ? " for " + durationSeconds + " s" : "");
+    }
+}
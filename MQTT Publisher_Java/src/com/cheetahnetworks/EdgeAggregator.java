@@ -0,0 +1,205 @@
+package com.cheetahnetworks;
+
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregates the round trips of every device on this testbed into one histogram per interval, and publishes it as a
+ * single EdgeSummary, so the recorder's load grows with the number of testbeds rather than the message rate. With
+ * edge aggregation enabled (see LoadEngine.enableEdgeAggregation()) devices publish their reports to their own reply
+ * topic and the broker echoes them straight back; the round trip then spans the broker alone, without the recorder.
+ * <p>
+ * Round trips are recorded from the connections' callback threads and the engine's workers, so the histogram is split
+ * into stripes picked by thread, as in PublishMetrics. Intervals are cut on the engine's workers half an interval off
+ * the wall clock's boundaries, which the recorder empties its bucket on, so each summary reliably lands in the
+ * recorder interval after the one it is stamped with rather than racing it. Summaries are published at QoS 1 on a
+ * connection of their own; one that can't be published is counted as skipped, and its round trips are lost.
+ */
+public class EdgeAggregator {
+    public static final String SUMMARY_TOPIC = "/testbeds/{testbed}/latency/summary"; // The recorder subscribes to /testbeds/+/latency/summary
+
+    // The shape of the recorder's LatencyBucket histogram; summaries of any other are rejected
+    static final long HIGHEST_TRACKABLE_MILLIS = 3_600_000;
+    static final int SUB_BUCKET_BITS = 7;
+
+    private static final long INTERVAL_MILLIS = 1000;
+    private static final int QOS = 1;
+
+    private final String testbedID;
+    private final byte[] encodedTestbedID;
+    private final String topic;
+
+    private final LatencyHistogram[] stripes;
+    private final int stripeMask;
+
+    private final PublishMetrics publishMetrics; // Counts the reports sent by the devices
+    private final MqttAsyncClient client;
+    private ScheduledFuture<?> intervals;
+
+    // Only touched while cutting an interval
+    private final LatencyHistogram interval;
+    private final ByteBuffer buffer;
+    private long lastPublished;
+
+    private volatile long summaries;
+    private volatile long skipped;
+    private volatile String last;
+
+    /**
+     * Starts connecting to the broker in the background; Paho reconnects on its own.
+     *
+     * @param testbedID      The name of this testbed, unique among the testbeds sharing a recorder
+     * @param broker         The URI of the broker
+     * @param stripes        The number of histogram stripes, rounded up to a power of two
+     * @param publishMetrics The publish counters of the testbed's clients
+     * @throws MqttException if the connection can't be created
+     */
+    EdgeAggregator(String testbedID, String broker, int stripes, PublishMetrics publishMetrics) throws MqttException {
+        this.testbedID = testbedID;
+        encodedTestbedID = BinaryPayload.encodeDeviceID(testbedID);
+        topic = SUMMARY_TOPIC.replace("{testbed}", testbedID);
+
+        int numStripes = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripes = new LatencyHistogram[numStripes];
+        for (int i = 0; i < numStripes; i++)
+            this.stripes[i] = new LatencyHistogram(HIGHEST_TRACKABLE_MILLIS, SUB_BUCKET_BITS);
+        stripeMask = numStripes - 1;
+
+        interval = this.stripes[0].copyEmpty();
+        buffer = ByteBuffer.allocate(EdgeSummary.maxLength(encodedTestbedID, interval));
+        this.publishMetrics = publishMetrics;
+        lastPublished = publishMetrics.getPublishedTotal();
+        last = "Edge " + testbedID + ": no complete interval yet";
+
+        client = new MqttAsyncClient(broker, testbedID + "-edge-" + System.nanoTime(), new MemoryPersistence());
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setAutomaticReconnect(true);
+        client.connect(options);
+    }
+
+    /**
+     * Starts cutting and publishing intervals on the engine's workers.
+     *
+     * @param engine The engine running the testbed's devices
+     */
+    synchronized void start(LoadEngine engine) {
+        long now = System.currentTimeMillis();
+        long firstMillis = now - now % INTERVAL_MILLIS + INTERVAL_MILLIS / 2; // The next half-way point
+        if (firstMillis <= now)
+            firstMillis += INTERVAL_MILLIS;
+        intervals = engine.scheduleAtFixedRate(this::publishInterval, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(firstMillis - now),
+                TimeUnit.MILLISECONDS.toNanos(INTERVAL_MILLIS));
+    }
+
+    /**
+     * Records one device's round trip.
+     *
+     * @param roundTripMillis Milliseconds from sending a report to receiving it back
+     */
+    void record(long roundTripMillis) {
+        LatencyHistogram stripe = stripes[(int) Thread.currentThread().getId() & stripeMask];
+        synchronized (stripe) {
+            stripe.recordValue(roundTripMillis);
+        }
+    }
+
+    // Run by the engine every INTERVAL_MILLIS: merges the stripes and publishes the interval, unless disconnected
+    private synchronized void publishInterval() {
+        long now = System.currentTimeMillis();
+        long intervalEnd = now - Math.floorMod(now - INTERVAL_MILLIS / 2, INTERVAL_MILLIS); // The boundary just passed, despite a late worker
+        interval.reset();
+        for (LatencyHistogram stripe : stripes) {
+            synchronized (stripe) {
+                interval.add(stripe);
+                stripe.reset();
+            }
+        }
+        long published = publishMetrics.getPublishedTotal();
+        long sent = published - lastPublished;
+        lastPublished = published;
+
+        buffer.clear();
+        EdgeSummary.encode(buffer, encodedTestbedID, intervalEnd, sent, interval);
+        byte[] payload = new byte[buffer.position()]; // A fresh array, Paho holds on to it until the PUBACK
+        buffer.flip();
+        buffer.get(payload);
+
+        String outcome;
+        if (!client.isConnected()) {
+            skipped++;
+            outcome = "skipped, disconnected";
+        } else {
+            MqttMessage message = new MqttMessage(payload);
+            message.setQos(QOS);
+            try {
+                client.publish(topic, message);
+                summaries++;
+                outcome = payload.length + " B";
+            } catch (MqttException e) {
+                skipped++;
+                outcome = "skipped, " + e.getMessage();
+            }
+        }
+
+        last = String.format("Edge %s: %d round trips, p50/p99/max: %d/%d/%d ms | Sent: %d | Summary: %s | Published: %d, skipped: %d",
+                testbedID, interval.getCount(), interval.getValueAtPercentile(50), interval.getValueAtPercentile(99), interval.getMax(),
+                sent, outcome, summaries, skipped);
+    }
+
+    /**
+     * @return a one line summary of the last interval
+     */
+    public String report() {
+        return last;
+    }
+
+    /**
+     * @return the name the testbed's summaries are published under
+     */
+    public String getTestbedID() {
+        return testbedID;
+    }
+
+    /**
+     * @return the topic the testbed's summaries are published to
+     */
+    public String getTopic() {
+        return topic;
+    }
+
+    /**
+     * @return the summaries published so far
+     */
+    public long getSummaries() {
+        return summaries;
+    }
+
+    /**
+     * @return the summaries not published so far
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Stops publishing and disconnects.
+     */
+    synchronized void close() {
+        if (intervals != null)
+            intervals.cancel(false);
+        try {
+            if (client.isConnected())
+                client.disconnect().waitForCompletion(1000);
+            client.close();
+        } catch (MqttException e) {
+            System.out.println("Unable to disconnect edge aggregator: " + e);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.cheetahnetworks;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One testbed's interval of round trips, as published by an EdgeAggregator in place of a report per message. The
+ * recorder merges the histogram into its own interval, so the layout and the histogram's shape must match the
+ * recorder's com.cheetah.recorder.EdgeSummary and LatencyBucket. Fixed-size numbers are big-endian.
+ *
+ * <pre>
+ *  offset  size  field
+ *       0     1  MAGIC, neither '{' nor BinaryPayload.MAGIC, so the recorder can tell it from a report
+ *       1     1  VERSION
+ *       2     8  interval_end (ms since epoch)
+ *      10     8  sent, the reports the testbed's devices published during the interval
+ *      18     8  highest trackable value of the histogram (ms)
+ *      26     1  sub-bucket bits of the histogram
+ *      27     2  testbed_id length in bytes
+ *      29     n  testbed_id (UTF-8)
+ *    29+n     -  histogram of the interval's round trips (ms), see LatencyHistogram.encodeInto()
+ * </pre>
+ */
+public final class EdgeSummary {
+    public static final byte MAGIC = (byte) 0xC8;
+    public static final byte VERSION = 1;
+
+    public static final int HEADER_LENGTH = 29;
+
+    private EdgeSummary() {
+    }
+
+    /**
+     * @param testbedID The encoded testbed ID, see BinaryPayload.encodeDeviceID()
+     * @param histogram The histogram to be summarized
+     * @return the most bytes encode() may write
+     */
+    public static int maxLength(byte[] testbedID, LatencyHistogram histogram) {
+        return HEADER_LENGTH + testbedID.length + histogram.getMaxEncodedLength();
+    }
+
+    /**
+     * Writes a summary at the buffer's position.
+     *
+     * @param buffer      The buffer to write to, with at least maxLength() bytes remaining
+     * @param testbedID   The encoded testbed ID
+     * @param intervalEnd The end of the interval, in ms since epoch
+     * @param sent        The reports published during the interval
+     * @param histogram   The interval's round trips, in ms
+     */
+    public static void encode(ByteBuffer buffer, byte[] testbedID, long intervalEnd, long sent, LatencyHistogram histogram) {
+        buffer.put(MAGIC);
+        buffer.put(VERSION);
+        buffer.putLong(intervalEnd);
+        buffer.putLong(sent);
+        buffer.putLong(histogram.getHighestTrackableValue());
+        buffer.put((byte) histogram.getSubBucketBits());
+        buffer.putShort((short) testbedID.length);
+        buffer.put(testbedID);
+        histogram.encodeInto(buffer);
+    }
+}
@@ -0,0 +1,107 @@
+package com.cheetahnetworks;
+
+/**
+ * The send times of one pipelined device's messages awaiting a reply, keyed by sequence number, which the recorder
+ * echoes back and so serves as the correlation ID. Holds at most the device's window of messages. A message is looked
+ * for first at the slot its sequence number maps to, which is free nearly every time as sequence numbers are handed
+ * out in order, and then in the slots after it. Callers synchronize on the owning device.
+ */
+class InFlightWindow {
+    private final long[] sequences; // 0 marks a free slot, sequence numbers start at 1
+    private final long[] sendNanos;
+    private int size;
+
+    /**
+     * @param window The most messages in flight at once
+     */
+    InFlightWindow(int window) {
+        if (window < 1)
+            throw new IllegalArgumentException("Window must be positive: " + window);
+
+        sequences = new long[window];
+        sendNanos = new long[window];
+        size = 0;
+    }
+
+    /**
+     * @return whether another message may be sent
+     */
+    boolean isFull() {
+        return size == sequences.length;
+    }
+
+    /**
+     * @return the number of messages in flight
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param sequence The sequence number of the message just sent
+     * @param nanos    When it was sent, from System.nanoTime()
+     */
+    void put(long sequence, long nanos) {
+        if (isFull())
+            throw new IllegalStateException("Window of " + sequences.length + " is full");
+
+        int slot = (int) (sequence % sequences.length);
+        while (sequences[slot] != 0)
+            slot = (slot + 1) % sequences.length;
+        sequences[slot] = sequence;
+        sendNanos[slot] = nanos;
+        size++;
+    }
+
+    /**
+     * @param sequence The sequence number echoed by a reply
+     * @return when the message was sent, from System.nanoTime(), or -1 if it isn't in flight: a duplicate reply, or a
+     * reply to a message already given up on
+     */
+    long take(long sequence) {
+        if (sequence <= 0)
+            return -1;
+
+        int slot = (int) (sequence % sequences.length);
+        for (int i = 0; i < sequences.length; i++) {
+            if (sequences[slot] == sequence) {
+                sequences[slot] = 0;
+                size--;
+                return sendNanos[slot];
+            }
+            slot = (slot + 1) % sequences.length;
+        }
+        return -1;
+    }
+
+    /**
+     * Gives up on the messages sent before the given time, freeing their slots.
+     *
+     * @param beforeNanos The oldest send time, from System.nanoTime(), still waited on
+     * @return the number of messages given up on
+     */
+    int expire(long beforeNanos) {
+        int expired = 0;
+        for (int i = 0; i < sequences.length; i++) {
+            if (sequences[i] != 0 && sendNanos[i] - beforeNanos < 0) {
+                sequences[i] = 0;
+                expired++;
+            }
+        }
+        size -= expired;
+        return expired;
+    }
+
+    /**
+     * Forgets every message in flight, e.g. when the connection is lost.
+     *
+     * @return the number of messages there were
+     */
+    int clear() {
+        int cleared = size;
+        for (int i = 0; i < sequences.length; i++)
+            sequences[i] = 0;
+        size = 0;
+        return cleared;
+    }
+}
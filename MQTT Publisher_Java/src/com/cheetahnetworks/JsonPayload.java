@@ -18,6 +18,8 @@ public class JsonPayload {
     private String deviceID;
     private Long timestamp;
     private Long lastLatency;
+    private Long sequence; // The device's count of messages sent, so the recorder can spot lost, duplicate and reordered ones
+    private String padding; // Filler to bring the payload up to a set size, ignored by the recorder
 
     public String getDeviceID() {
         return deviceID;
@@ -43,6 +45,28 @@ public class JsonPayload {
         this.lastLatency = lastLatency;
     }
 
+    public Long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(Long sequence) {
+        this.sequence = sequence;
+    }
+
+    public void setPadding(String padding) {
+        this.padding = padding;
+    }
+
+    /**
+     * @param length The length of a serialized payload without padding
+     * @param target The length to pad it up to
+     * @return the padding that brings it to the target, or null if it is already there
+     */
+    public static String padding(int length, int target) {
+        int filler = target - length - ",\"padding\":\"\"".length();
+        return filler < 0 ? null : "x".repeat(filler);
+    }
+
     /**
      * @param msg The serialized String to convert into a JSON object
      * @throws InvalidMqttMessageException Throws if the payload of the message is not valid.
@@ -53,6 +77,8 @@ public class JsonPayload {
             deviceID = (String) this.msg.get("device_id");
             timestamp = ((BigDecimal) this.msg.get("timestamp")).longValue();
             lastLatency = ((BigDecimal) this.msg.get("last_latency")).longValue();
+            BigDecimal sequence = (BigDecimal) this.msg.get("sequence"); // Missing from older publishers
+            this.sequence = sequence == null ? null : sequence.longValue();
         } catch (JsonException je) {
             System.out.println(je);
             throw new InvalidMqttMessageException(msg);
@@ -63,13 +89,16 @@ public class JsonPayload {
      * @return The payload of the Json message in serialized String format for transmission
      */
     public String serialize() {
-        if (msg != null) {
-            msg.put("device_id", deviceID);
-            msg.put("timestamp", timestamp);
-            msg.put("last_latency", lastLatency);
-            return msg.toJson();
-        } else {
-            return null;
-        }
+        if (msg == null) // Building a new payload rather than updating a received one
+            msg = new JsonObject();
+
+        msg.put("device_id", deviceID);
+        msg.put("timestamp", timestamp);
+        msg.put("last_latency", lastLatency);
+        if (sequence != null)
+            msg.put("sequence", sequence);
+        if (padding != null)
+            msg.put("padding", padding);
+        return msg.toJson();
     }
 }
\ No newline at end of file
@@ -0,0 +1,234 @@
+package com.cheetahnetworks;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A fixed-memory, log-linear histogram in the style of HdrHistogram, the same one the recorder uses. Values below
+ * 2 * 2^subBucketBits are counted exactly, above that each power of two is split into 2^subBucketBits sub-buckets,
+ * so a reported value is always within 1 / 2^subBucketBits of the recorded one. Recording never allocates.
+ * Not thread-safe.
+ */
+public class LatencyHistogram {
+    private final int subBucketBits;
+    private final long highestTrackableValue; // Larger values are counted in the last bucket, the exact max is still kept
+
+    private final long[] counts;
+    private long totalCount;
+    private long sum;
+    private long min;
+    private long max;
+
+    /**
+     * @param highestTrackableValue The largest value which should be counted accurately
+     * @param subBucketBits         log2 of the number of sub-buckets per power of two, 7 gives better than 1% precision
+     */
+    public LatencyHistogram(long highestTrackableValue, int subBucketBits) {
+        if (highestTrackableValue < 1 || subBucketBits < 1 || subBucketBits > 30)
+            throw new IllegalArgumentException("Invalid histogram range [" + highestTrackableValue + ", " + subBucketBits + "]");
+
+        this.subBucketBits = subBucketBits;
+        this.highestTrackableValue = highestTrackableValue;
+        counts = new long[indexOf(highestTrackableValue) + 1];
+        reset();
+    }
+
+    /**
+     * @return a new, empty histogram with the same range and precision
+     */
+    public LatencyHistogram copyEmpty() {
+        return new LatencyHistogram(highestTrackableValue, subBucketBits);
+    }
+
+    private int indexOf(long value) {
+        int magnitude = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - subBucketBits);
+        return (int) ((magnitude << subBucketBits) + (value >>> magnitude));
+    }
+
+    private long highestValueAt(int index) {
+        int magnitude = Math.max(0, (index >> subBucketBits) - 1);
+        long lowest = (long) (index - (magnitude << subBucketBits)) << magnitude;
+        return lowest + (1L << magnitude) - 1;
+    }
+
+    /**
+     * Records a value. Negative values (e.g. from clock skew) are counted as zero.
+     *
+     * @param value The value to record
+     */
+    public void recordValue(long value) {
+        if (value < 0)
+            value = 0;
+
+        counts[indexOf(Math.min(value, highestTrackableValue))]++;
+        totalCount++;
+        sum += value;
+        if (value < min)
+            min = value;
+        if (value > max)
+            max = value;
+    }
+
+    /**
+     * Adds another histogram of the same shape to this one.
+     *
+     * @param other The histogram to add
+     */
+    public void add(LatencyHistogram other) {
+        if (other.counts.length != counts.length || other.subBucketBits != subBucketBits)
+            throw new IllegalArgumentException("Cannot add histograms of different shapes.");
+
+        for (int i = 0; i < counts.length; i++)
+            counts[i] += other.counts[i];
+        totalCount += other.totalCount;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Empties the histogram without releasing its buckets.
+     */
+    public void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    /**
+     * @param percentile The percentile to look up, between 0 and 100
+     * @return the smallest value such that at least percentile percent of the values are less than or equal to it, or 0 if empty
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0)
+            return 0;
+
+        long countAtPercentile = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= countAtPercentile) {
+                if (i == counts.length - 1)
+                    return max; // The last bucket also holds everything above the trackable range
+                return Math.max(min, Math.min(highestValueAt(i), max));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return the most bytes encodeInto() may write for a histogram of this shape
+     */
+    public int getMaxEncodedLength() {
+        return 5 * 10 + counts.length * (5 + 10);
+    }
+
+    /**
+     * Writes the histogram in the recorder's format, so it can be merged there without re-binning: the count, sum,
+     * minimum and maximum, then only the non-empty buckets, as (index gap, count) pairs, every number a variable-length
+     * integer.
+     *
+     * @param buffer The buffer to write to, with at least getMaxEncodedLength() bytes remaining
+     */
+    public void encodeInto(ByteBuffer buffer) {
+        int nonEmpty = 0;
+        for (long count : counts) {
+            if (count != 0)
+                nonEmpty++;
+        }
+
+        putVarLong(buffer, totalCount);
+        putVarLong(buffer, sum);
+        putVarLong(buffer, getMin());
+        putVarLong(buffer, max);
+        putVarLong(buffer, nonEmpty);
+        int previous = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) {
+                putVarLong(buffer, i - previous);
+                putVarLong(buffer, counts[i]);
+                previous = i;
+            }
+        }
+    }
+
+    /**
+     * Adds a histogram written by encodeInto(), e.g. by another testbed. It must have the same shape as this one.
+     *
+     * @param buffer The buffer to read from, positioned at the encoded histogram
+     * @throws IllegalArgumentException if a bucket is out of range or a number is malformed
+     * @throws java.nio.BufferUnderflowException if the histogram runs past the end of the buffer
+     */
+    public void decodeAndAdd(ByteBuffer buffer) {
+        long count = getVarLong(buffer);
+        long encodedSum = getVarLong(buffer);
+        long encodedMin = getVarLong(buffer);
+        long encodedMax = getVarLong(buffer);
+        long nonEmpty = getVarLong(buffer);
+
+        int index = 0;
+        for (long i = 0; i < nonEmpty; i++) {
+            index += (int) getVarLong(buffer);
+            if (index < 0 || index >= counts.length)
+                throw new IllegalArgumentException("Encoded bucket " + index + " is out of range");
+            counts[index] += getVarLong(buffer);
+        }
+
+        if (count > 0) {
+            totalCount += count;
+            sum += encodedSum;
+            min = Math.min(min, encodedMin);
+            max = Math.max(max, encodedMax);
+        }
+    }
+
+    // 7 bits at a time, low first, the top bit marking more to come
+    private static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IllegalArgumentException("Malformed variable-length integer");
+    }
+
+    public long getHighestTrackableValue() {
+        return highestTrackableValue;
+    }
+
+    public int getSubBucketBits() {
+        return subBucketBits;
+    }
+
+    public long getCount() {
+        return totalCount;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public double getMean() {
+        return totalCount == 0 ? 0.0 : (double) sum / totalCount;
+    }
+
+    public long getMin() {
+        return totalCount == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+}
@@ -0,0 +1,281 @@
+package com.cheetahnetworks;
+
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives every simulated device from a small, fixed pool of worker threads instead of a thread per Client.
+ * Connecting, pacing between messages and Paho's keep-alive pings are all scheduled on the same workers,
+ * so the number of simulated devices is no longer tied to the number of JVM threads.
+ */
+public class LoadEngine {
+    /* Paho 1.2.0 still runs a receiver, sender and callback loop for every open connection, and closing a client
+     * shuts down whatever executor it was given, so those three threads cannot be pooled. The engine removes
+     * everything else: the Runnable's own thread, the Timer thread every TimerPingSender starts, and the
+     * Thread.sleep() that used to block Paho's callback thread between messages. Multiplexing several devices
+     * onto one connection (see Client) is what takes the remaining per-connection threads out of the equation.
+     */
+    private final ScheduledThreadPoolExecutor workers;
+    private final List<Client> clients;
+    private int numDevices;
+
+    private final RoundTripTimer roundTripTimer; // Shared by every device, timed payloads only
+    private final PublishMetrics publishMetrics; // Shared by every client, intervals are ended by the workers
+    private final ReconnectMetrics reconnectMetrics; // Shared by every client
+    private final PipelineMetrics pipelineMetrics; // Shared by every pipelined device, intervals are ended by the workers
+    private final BatchMetrics batchMetrics; // Shared by every client batching its reports, intervals are ended by the workers
+    private volatile EdgeAggregator edgeAggregator; // Null unless the testbed aggregates its own round trips
+    private volatile TestbedAgent testbedAgent; // Null unless the testbed is run by a Coordinator
+
+    private final ThreadMXBean threadBean;
+    private final MemoryMXBean memoryBean;
+
+    /**
+     * Creates the engine and its worker pool. Workers are daemon threads so a stuck broker can't keep the JVM alive.
+     *
+     * @param numWorkers The number of worker threads shared by all simulated devices, usually the number of cores
+     */
+    public LoadEngine(int numWorkers) {
+        workers = new ScheduledThreadPoolExecutor(numWorkers, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "load-engine-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        workers.setRemoveOnCancelPolicy(true); // Don't let cancelled sends pile up in the work queue
+
+        clients = new ArrayList<Client>();
+        numDevices = 0;
+        roundTripTimer = new RoundTripTimer();
+        publishMetrics = new PublishMetrics(2 * numWorkers);
+        workers.scheduleAtFixedRate(publishMetrics::endInterval, 1, 1, TimeUnit.SECONDS);
+        reconnectMetrics = new ReconnectMetrics();
+        pipelineMetrics = new PipelineMetrics(2 * numWorkers);
+        workers.scheduleAtFixedRate(pipelineMetrics::endInterval, 1, 1, TimeUnit.SECONDS);
+        batchMetrics = new BatchMetrics();
+        workers.scheduleAtFixedRate(batchMetrics::endInterval, 1, 1, TimeUnit.SECONDS);
+
+        threadBean = ManagementFactory.getThreadMXBean();
+        memoryBean = ManagementFactory.getMemoryMXBean();
+    }
+
+    /**
+     * @return the scheduler backing the worker pool, shared with Paho for keep-alive pings
+     */
+    ScheduledExecutorService getScheduler() {
+        return workers;
+    }
+
+    /**
+     * Queues the client's connection and initial messages on the worker pool.
+     *
+     * @param client The client to start
+     */
+    public synchronized void start(Client client) {
+        add(client);
+        workers.execute(client);
+    }
+
+    /**
+     * Counts a client that is connected some other way, e.g. by a ConnectRamp, as one of the engine's.
+     *
+     * @param client The client to add
+     */
+    synchronized void add(Client client) {
+        clients.add(client);
+        numDevices += client.getNumDevices();
+    }
+
+    /**
+     * Runs a task on one of the workers after the given delay.
+     *
+     * @param task        The task to run
+     * @param delayMillis The number of milliseconds to wait before running it
+     * @return the pending task, which can be used to cancel it
+     */
+    public ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+        return workers.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs a task on one of the workers at the given time.
+     *
+     * @param task  The task to run
+     * @param nanos The monotonic time, in nanoseconds, to run it at
+     * @return the pending task, which can be used to cancel it
+     */
+    public ScheduledFuture<?> scheduleAt(Runnable task, long nanos) {
+        return workers.schedule(task, nanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Runs a task repeatedly at a fixed rate. Runs are planned from the first run time rather than from when the
+     * previous run finished, so the schedule doesn't drift when workers fall behind.
+     *
+     * @param task         The task to run
+     * @param initialNanos The monotonic time, in nanoseconds, of the first run
+     * @param periodNanos  The number of nanoseconds between runs
+     * @return the pending task, which can be used to cancel it
+     */
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long initialNanos, long periodNanos) {
+        return workers.scheduleAtFixedRate(task, initialNanos - System.nanoTime(), periodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the timings of every device's timed reports, see PayloadFormat.BINARY_TIMED
+     */
+    public RoundTripTimer getRoundTripTimer() {
+        return roundTripTimer;
+    }
+
+    /**
+     * @return the publish counters and acknowledgement latencies of every client
+     */
+    public PublishMetrics getPublishMetrics() {
+        return publishMetrics;
+    }
+
+    /**
+     * @return the lost connections and reconnects of every client
+     */
+    public ReconnectMetrics getReconnectMetrics() {
+        return reconnectMetrics;
+    }
+
+    /**
+     * @return the throughput and round trips of pipelined devices, by window size
+     */
+    public PipelineMetrics getPipelineMetrics() {
+        return pipelineMetrics;
+    }
+
+    /**
+     * @return the batches and batched reports of every client batching its reports
+     */
+    public BatchMetrics getBatchMetrics() {
+        return batchMetrics;
+    }
+
+    /**
+     * Has the testbed aggregate its devices' round trips itself, publishing one summary per interval instead of a
+     * report per message, see EdgeAggregator. Must be enabled before any client is created, as devices pick their
+     * report topic when they are.
+     *
+     * @param testbedID The name of this testbed, unique among the testbeds sharing a recorder
+     * @param broker    The URI of the broker the summaries are published through
+     * @return the aggregator
+     * @throws MqttException if its connection can't be created
+     */
+    public synchronized EdgeAggregator enableEdgeAggregation(String testbedID, String broker) throws MqttException {
+        if (edgeAggregator != null || !clients.isEmpty())
+            throw new IllegalStateException("Edge aggregation must be enabled once, before any client is started");
+
+        EdgeAggregator aggregator = new EdgeAggregator(testbedID, broker, 2 * workers.getCorePoolSize(), publishMetrics);
+        aggregator.start(this);
+        edgeAggregator = aggregator;
+        return aggregator;
+    }
+
+    /**
+     * @return the testbed's round trip aggregator, or null if devices report every message to the recorder
+     */
+    public EdgeAggregator getEdgeAggregator() {
+        return edgeAggregator;
+    }
+
+    /**
+     * Has a Coordinator start, ramp and stop the workload, and report the testbed's counters and round trips to it, see
+     * TestbedAgent. Must be enabled before any client is created, as devices pick up the agent when they are; the
+     * runner must not be started, the coordinator's START does that.
+     *
+     * @param testbedID The name of this testbed, unique among the testbeds of the coordinator
+     * @param broker    The URI of the broker the coordinator is reached through
+     * @param runner    The workload to run
+     * @return the agent
+     * @throws MqttException if its connection can't be created
+     */
+    public synchronized TestbedAgent enableCoordination(String testbedID, String broker, WorkloadRunner runner) throws MqttException {
+        if (testbedAgent != null || !clients.isEmpty())
+            throw new IllegalStateException("Coordination must be enabled once, before any client is started");
+
+        TestbedAgent agent = new TestbedAgent(testbedID, broker, 2 * workers.getCorePoolSize(), runner, this);
+        agent.start();
+        testbedAgent = agent;
+        return agent;
+    }
+
+    /**
+     * @return the testbed's link to its coordinator, or null if the testbed runs on its own
+     */
+    public TestbedAgent getTestbedAgent() {
+        return testbedAgent;
+    }
+
+    /**
+     * @return every client started by the engine so far
+     */
+    public synchronized List<Client> getClients() {
+        return new ArrayList<Client>(clients);
+    }
+
+    /**
+     * @return the number of simulated devices across all started clients
+     */
+    public synchronized int getNumDevices() {
+        return numDevices;
+    }
+
+    /**
+     * @return the number of live threads in the JVM, including Paho's per-connection threads
+     */
+    public int getThreadCount() {
+        return threadBean.getThreadCount();
+    }
+
+    /**
+     * @return the average number of heap bytes in use per simulated device, or 0 if none have been started
+     */
+    public long getHeapPerDevice() {
+        int devices = getNumDevices();
+        if (devices == 0)
+            return 0;
+        return memoryBean.getHeapMemoryUsage().getUsed() / devices;
+    }
+
+    /**
+     * @return a one line summary of how far the engine has scaled, for the performance reporting loop
+     */
+    public String report() {
+        return "Devices: " + getNumDevices()
+                + " | Connections: " + getClients().size()
+                + " | Workers: " + workers.getPoolSize()
+                + " | Threads: " + getThreadCount() + " (peak " + threadBean.getPeakThreadCount() + ")"
+                + " | Heap/device: " + getHeapPerDevice() + " B";
+    }
+
+    /**
+     * Stops the worker pool, and the edge aggregator and testbed agent if there are any. Clients should be closed first.
+     */
+    public void shutdown() {
+        if (edgeAggregator != null)
+            edgeAggregator.close();
+        if (testbedAgent != null)
+            testbedAgent.close();
+        workers.shutdownNow();
+    }
+}
@@ -1,11 +1,19 @@
 package com.cheetahnetworks;
 
+import com.cheetahnetworks.exceptions.InvalidProfileException;
+
 import org.eclipse.paho.client.mqttv3.MqttException;
 
-import java.util.ArrayList;
+import javax.management.JMException;
+import java.nio.file.Path;
+import java.util.List;
 
 /**
- * Configures a set amount of Clients, starts them, and reports on their performance.
+ * Runs a workload profile on the LoadEngine and reports on its performance. The profile is read from the file named by
+ * the first argument (see WorkloadProfile); without one, a single closed-loop group is run with the defaults below.
+ * With SATURATION_SEARCH set, the open-loop groups' rates are instead driven by a SaturationSearch once every group has
+ * connected, and the program ends with the search. With COORDINATED set, or "coordinated" in the profile, the workload
+ * waits for a Coordinator to start it, follows its ramps, and runs until it is stopped, see TestbedAgent.
  *
  * @author Michael Boulerice
  */
@@ -14,61 +22,147 @@ public class Main {
     public static void main(String[] args) {
 
         final String BROKER = "tcp://35.209.240.115:1883"; // The Broker URI
-        String clientID = "mike-desktop/test-device-"; // Stub String for creating device ID's
-        final int NUM_CLIENTS = 15000; // Number of clients and threads to spawn. Each client has 2 threads: the master thread and the internal client thread
-        int numSentMessages = 0; // Used to store the total number of sent messages across all clients
-        long startTime = System.currentTimeMillis();
-        double elapsedTime;
-        boolean running = true;
-        int waitPeriod = 5000; // milliseconds
-
-        ArrayList<Client> clients = new ArrayList<Client>();
-        ArrayList<Thread> threads = new ArrayList<Thread>(); //Currently two lists, because the Client class only implements Runnable as opposed to extending java.util.Thread
+        String clientID = "mike-desktop-"; // Stub String for creating device ID's, followed by the group name and the device's index. No '/', '+' or '#'
+        final String TESTBED_ID = "mike-desktop"; // Name of this testbed, unique among the testbeds sharing a recorder
+        final boolean EDGE_AGGREGATION = false; // Aggregate round trips here and send the recorder one summary per second, see EdgeAggregator
+        final boolean COORDINATED = false; // Wait for a Coordinator to start the workload, and report to it under TESTBED_ID
+        final int NUM_DEVICES = 15000; // Number of simulated devices to run
+        final int DEVICES_PER_CONNECTION = 1; // Devices multiplexed onto each MQTT connection. Paho runs 3 threads per connection, so raise this to go past the thread limit
+        final int NUM_WORKERS = Runtime.getRuntime().availableProcessors(); // Threads shared by every device for connecting and pacing
+        int waitPeriod = 5000; // milliseconds, used by closed-loop devices only
+        final int WINDOW = 1; // Messages each closed-loop device keeps in flight, 1 to wait for each reply before sending the next
+        final int BATCH_SIZE = 1; // Reports packed into one publish by each connection, 1 to publish each on its own. Needs DEVICES_PER_CONNECTION above 1 to pay off
+        final int LINGER_MILLIS = DeviceGroup.DEFAULT_LINGER_MILLIS; // Longest a report waits for its batch to fill
+        final double CONNECTS_PER_SECOND = 500; // Average rate new connections are opened at while ramping up
+        final int MAX_CONNECTING = 100; // Most connections allowed to be waiting for the broker's CONNACK at once
+        final int MAX_CONNECT_ATTEMPTS = 10; // Attempts per connection before giving up on it, 0 to keep trying
+        final PayloadFormat PAYLOAD_FORMAT = PayloadFormat.JSON; // BINARY for the compact format, the recorder detects it per message. BINARY_TIMED adds nanosecond round trips and one-way latencies
+
+        // Saturation search, see SaturationSearch. Needs the recorder to publish its interval summaries on STATS_TOPIC
+        final boolean SATURATION_SEARCH = false; // Search for the highest rate the broker sustains, rather than run the groups' own rates
+        final String STATS_TOPIC = "/latency/stats"; // Where the recorder publishes its interval summaries
+        final SaturationSearch.Mode SEARCH_MODE = SaturationSearch.Mode.BINARY;
+        final double SEARCH_START_RATE = 1000; // Total msg/s of the first level, across all open-loop devices
+        final double SEARCH_STEP = 500; // msg/s added per level (STEP), or the precision of the result (BINARY)
+        final double SEARCH_MAX_RATE = 1_000_000; // Highest total msg/s tried
+        final long P99_SLO_MILLIS = 100; // Highest p99 latency of a sustained level
+        final double MAX_LOSS_RATE = 0.001; // Highest share of messages lost at a sustained level
+        final long SEARCH_MAX_HOLD_MILLIS = 60000; // Longest a level is held waiting for the recorder's results to settle
+
+        // Open-loop rates, payload sizes, QoS, topics and several groups are set through a profile file. A search needs open-loop devices
+        DeviceGroup defaultGroup = SATURATION_SEARCH
+                ? new DeviceGroup("test-device", NUM_DEVICES, 0, DeviceGroup.DEFAULT_QOS, PAYLOAD_FORMAT, 0, 1,
+                RateCurve.constant(SEARCH_START_RATE / NUM_DEVICES), DeviceGroup.DEFAULT_REPORT_TOPIC, 1, BATCH_SIZE, LINGER_MILLIS, 0, 0)
+                : new DeviceGroup("test-device", NUM_DEVICES, 0, DeviceGroup.DEFAULT_QOS, PAYLOAD_FORMAT, waitPeriod, WINDOW, null,
+                DeviceGroup.DEFAULT_REPORT_TOPIC, 1, BATCH_SIZE, LINGER_MILLIS, 0, 0);
+        WorkloadProfile profile = new WorkloadProfile(BROKER, clientID, DEVICES_PER_CONNECTION, CONNECTS_PER_SECOND, MAX_CONNECTING,
+                MAX_CONNECT_ATTEMPTS, TESTBED_ID, EDGE_AGGREGATION, COORDINATED, List.of(defaultGroup));
+        if (args.length > 0) {
+            try {
+                profile = WorkloadProfile.load(Path.of(args[0]), profile);
+            } catch (InvalidProfileException ipe) {
+                System.out.println(ipe.getMessage());
+                System.exit(1);
+            }
+        }
 
-        try {
-            // Configure and spawn clients
-            for (int i = 0; i < NUM_CLIENTS; i++) {
-                clients.add(new Client(BROKER, clientID + i, waitPeriod));
-                threads.add(new Thread(clients.get(i)));
+        LoadEngine engine = new LoadEngine(NUM_WORKERS);
+        if (profile.isEdgeAggregation()) {
+            try {
+                engine.enableEdgeAggregation(profile.getTestbedId(), profile.getBroker());
+            } catch (MqttException me) {
+                System.out.println("Unable to start edge aggregation: " + me);
+                System.exit(1);
+            }
+        }
+        WorkloadRunner runner = new WorkloadRunner(profile, engine);
+        if (profile.isCoordinated()) {
+            try {
+                engine.enableCoordination(profile.getTestbedId(), profile.getBroker(), runner);
+            } catch (MqttException me) {
+                System.out.println("Unable to reach the coordinator: " + me);
+                System.exit(1);
             }
+        }
 
-            // Start the threads/clients
-            for (int i = 0; i < NUM_CLIENTS; i++) { // Different for loops to prioritize client and thread creation
-                threads.get(i).start();
-                Thread.sleep(1); // Spread out the rate at which clients connect, helps avoid overloading the broker - TODO: Exponential Backoff
+        SaturationSearch search = null;
+        if (SATURATION_SEARCH) {
+            int openLoopDevices = 0;
+            for (DeviceGroup group : profile.getGroups()) {
+                if (group.getRate() != null)
+                    openLoopDevices += group.getDevices();
             }
+            if (openLoopDevices == 0) {
+                System.out.println("A saturation search needs open-loop device groups");
+                System.exit(1);
+            }
+            if (profile.isCoordinated()) {
+                System.out.println("A saturation search can't run on a coordinated testbed, the coordinator sets the rates");
+                System.exit(1);
+            }
+            search = new SaturationSearch(engine, profile.getBroker(), STATS_TOPIC, openLoopDevices, SEARCH_MODE, SEARCH_START_RATE,
+                    SEARCH_STEP, SEARCH_MAX_RATE, P99_SLO_MILLIS, MAX_LOSS_RATE, SEARCH_MAX_HOLD_MILLIS, Path.of("saturation_curve.csv"));
+        }
+        Thread searchThread = null;
 
-            // Performance reporting loop
-            while (running) {
-                numSentMessages = 0;
-                // Grab each clients' number of sent messages
-                for (int i = 0; i < NUM_CLIENTS; i++) {
-                    numSentMessages += clients.get(i).getNumSentMessages();
-                }
+        try {
+            engine.getPublishMetrics().registerMBean(); // Also visible in JConsole or VisualVM while the test runs
+            engine.getReconnectMetrics().registerMBean();
+        } catch (JMException je) {
+            System.out.println("Unable to register the metrics MBean: " + je);
+        }
 
-                // Calculate the time the program has been running in seconds
-                elapsedTime = (System.currentTimeMillis() - startTime) / 1000.0;
+        try {
+            System.out.println("Broker: " + profile.getBroker());
+            if (engine.getEdgeAggregator() != null)
+                System.out.println("Edge aggregation: " + engine.getEdgeAggregator().getTopic());
+            for (DeviceGroup group : profile.getGroups())
+                System.out.println(group);
+            if (engine.getTestbedAgent() == null)
+                runner.start();
+
+            // Performance reporting loop, until every group with a duration has run its course, or the search is over
+            while (!runner.isFinished() && (search == null || !search.isFinished())) {
+                if (search != null && searchThread == null && runner.isRampedUp()) {
+                    searchThread = new Thread(search, "saturation-search");
+                    searchThread.setDaemon(true);
+                    searchThread.start();
+                }
 
-                // Display results
-                System.out.println("Sent messages: " + numSentMessages + " | Elapsed time: " + elapsedTime + "s" + " | Send rate: " + numSentMessages / elapsedTime + "/s");
+                // Display the last second's results, counted by the clients as they go rather than summed here
+                System.out.println(engine.getPublishMetrics().report());
+                System.out.println(engine.report());
+                String ramps = runner.report();
+                if (!ramps.isEmpty())
+                    System.out.println(ramps);
+                String pipelines = engine.getPipelineMetrics().report();
+                if (pipelines != null)
+                    System.out.println(pipelines);
+                String batches = engine.getBatchMetrics().report();
+                if (batches != null)
+                    System.out.println(batches);
+                if (engine.getEdgeAggregator() != null)
+                    System.out.println(engine.getEdgeAggregator().report());
+                if (engine.getTestbedAgent() != null)
+                    System.out.println(engine.getTestbedAgent().report());
+                String reconnects = engine.getReconnectMetrics().report();
+                if (reconnects != null)
+                    System.out.println(reconnects);
+                String timing = engine.getRoundTripTimer().report();
+                if (timing != null)
+                    System.out.println(timing);
 
                 // Wait for a second before repeating
                 Thread.sleep(1000);
             }
 
             // When done, clean up
-            for (int i = 0; i < NUM_CLIENTS; i++) {
-                clients.get(i).close();
-                threads.get(i).join();
+            for (Client client : engine.getClients()) {
+                client.close();
             }
+            engine.shutdown();
+            System.exit(0); // Paho finishes closed clients' disconnects in the background, on threads that would keep the JVM up for their quiesce timeout
 
-        } catch (MqttException me) { // For issues encountered by the clients
-            System.out.println("reason " + me.getReasonCode());
-            System.out.println("msg " + me.getMessage());
-            System.out.println("loc " + me.getLocalizedMessage());
-            System.out.println("cause " + me.getCause());
-            System.out.println("excep " + me);
-            me.printStackTrace();
         } catch (InterruptedException ie) { // For issues encountered by the threads
             System.out.println(ie);
             ie.printStackTrace();
@@ -76,4 +170,4 @@ public class Main {
 
 
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,11 @@
+package com.cheetahnetworks;
+
+/**
+ * The wire format of the latency report payloads. The recorder tells the two apart from the first byte of each
+ * message and replies in the same format, so only the publisher needs to be configured.
+ */
+public enum PayloadFormat {
+    JSON, // JsonPayload - human readable, kept for compatibility with older recorders
+    BINARY, // BinaryPayload - fixed layout, read and written in place without allocating
+    BINARY_TIMED // BinaryPayload.VERSION_TIMED - adds nanosecond timestamps from both sides, see RoundTripTimer
+}
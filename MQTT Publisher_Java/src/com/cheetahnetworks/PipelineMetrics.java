@@ -0,0 +1,208 @@
+package com.cheetahnetworks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput and round trips of pipelined devices (see DeviceGroup's window), kept apart for each window size so runs
+ * with several can be compared: replies per second in total and per device, round trip percentiles, and the messages
+ * in flight against what the windows allow. Replies arrive on every connection's callback thread, so the counters are
+ * striped LongAdders and each window's histogram is split into stripes picked by thread, as in PublishMetrics.
+ * <p>
+ * The engine ends an interval every second, after which report() shows that interval's rates and percentiles.
+ */
+public class PipelineMetrics {
+    private static final long HIGHEST_TRACKABLE_NANOS = 60_000_000_000L;
+    private static final int SUB_BUCKET_BITS = 7;
+
+    private final int stripes;
+    private final Map<Integer, Window> windows = new TreeMap<Integer, Window>(); // By window size, guarded by this
+
+    /**
+     * @param stripes The number of histogram stripes per window size, rounded up to a power of two
+     */
+    public PipelineMetrics(int stripes) {
+        this.stripes = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+    }
+
+    /**
+     * Counts a device using the given window size. Called once per device, when it is created.
+     *
+     * @param window The device's window
+     * @return where the device counts its messages
+     */
+    synchronized Window addDevice(int window) {
+        Window stats = windows.get(window);
+        if (stats == null) {
+            stats = new Window(window, stripes);
+            windows.put(window, stats);
+        }
+        stats.devices++;
+        return stats;
+    }
+
+    /**
+     * Closes the current interval of every window size. Called by the engine once a second.
+     */
+    synchronized void endInterval() {
+        for (Window window : windows.values())
+            window.endInterval();
+    }
+
+    /**
+     * @return the statistics of every window size in use, smallest first
+     */
+    public synchronized List<Window> getWindows() {
+        return new ArrayList<Window>(windows.values());
+    }
+
+    /**
+     * @return one line per window size, summarizing the last complete interval, or null if no device is pipelined
+     */
+    public synchronized String report() {
+        if (windows.isEmpty())
+            return null;
+
+        StringBuilder report = new StringBuilder();
+        for (Window window : windows.values()) {
+            if (report.length() > 0)
+                report.append(System.lineSeparator());
+            report.append(window.report());
+        }
+        return report.toString();
+    }
+
+    /**
+     * The devices sharing one window size.
+     */
+    public static final class Window {
+        private final int window;
+        private volatile int devices; // Only counted up under the PipelineMetrics' lock
+
+        private final LongAdder replies = new LongAdder();
+        private final LongAdder inFlight = new LongAdder();
+        private final LongAdder timedOut = new LongAdder();
+        private final LongAdder unmatched = new LongAdder();
+
+        private final LatencyHistogram[] stripes;
+        private final int stripeMask;
+
+        // The last complete interval, only changed by endInterval()
+        private final LatencyHistogram interval;
+        private long intervalStart;
+        private long lastReplies;
+        private volatile String last;
+
+        private Window(int window, int stripes) {
+            this.window = window;
+            this.stripes = new LatencyHistogram[stripes];
+            for (int i = 0; i < stripes; i++)
+                this.stripes[i] = new LatencyHistogram(HIGHEST_TRACKABLE_NANOS, SUB_BUCKET_BITS);
+            stripeMask = stripes - 1;
+
+            interval = this.stripes[0].copyEmpty();
+            intervalStart = System.nanoTime();
+            last = "Window " + window + ": no complete interval yet";
+        }
+
+        /**
+         * Counts messages sent into the window.
+         *
+         * @param count The number of messages
+         */
+        void onSent(int count) {
+            inFlight.add(count);
+        }
+
+        /**
+         * Counts a reply matched to its message, and records the round trip.
+         *
+         * @param roundTripNanos Nanoseconds from sending the message to receiving its reply
+         */
+        void onReply(long roundTripNanos) {
+            replies.increment();
+            inFlight.decrement();
+
+            LatencyHistogram stripe = stripes[(int) Thread.currentThread().getId() & stripeMask];
+            synchronized (stripe) {
+                stripe.recordValue(roundTripNanos);
+            }
+        }
+
+        /**
+         * Counts messages given up on: unanswered for too long, or in flight when the connection was lost.
+         *
+         * @param count The number of messages
+         */
+        void onTimedOut(int count) {
+            timedOut.add(count);
+            inFlight.add(-count);
+        }
+
+        /**
+         * Counts a reply that matched no message in flight, e.g. one arriving after its message was given up on.
+         */
+        void onUnmatched() {
+            unmatched.increment();
+        }
+
+        private synchronized void endInterval() {
+            long now = System.nanoTime();
+            interval.reset();
+            for (LatencyHistogram stripe : stripes) {
+                synchronized (stripe) {
+                    interval.add(stripe);
+                    stripe.reset();
+                }
+            }
+
+            long repliesNow = replies.sum();
+            double seconds = Math.max(1, now - intervalStart) / 1e9;
+            double rate = (repliesNow - lastReplies) / seconds;
+            int numDevices = getDevices();
+
+            last = String.format("Window %d: %d devices | Replies: %.0f/s (%.2f/s per device) | RTT p50/p99/max: %d/%d/%d us | In flight: %d of %d | Timed out: %d | Unmatched: %d",
+                    window, numDevices, rate, numDevices == 0 ? 0.0 : rate / numDevices,
+                    interval.getValueAtPercentile(50) / 1000, interval.getValueAtPercentile(99) / 1000, interval.getMax() / 1000,
+                    Math.max(0, inFlight.sum()), (long) window * numDevices, timedOut.sum(), unmatched.sum());
+
+            intervalStart = now;
+            lastReplies = repliesNow;
+        }
+
+        private String report() {
+            return last;
+        }
+
+        /**
+         * @return the most messages each device keeps in flight
+         */
+        public int getWindow() {
+            return window;
+        }
+
+        /**
+         * @return the number of devices using this window size
+         */
+        public int getDevices() {
+            return devices;
+        }
+
+        /**
+         * @return the replies matched to their message so far
+         */
+        public long getRepliesTotal() {
+            return replies.sum();
+        }
+
+        /**
+         * @return the messages given up on so far
+         */
+        public long getTimedOutTotal() {
+            return timedOut.sum();
+        }
+    }
+}
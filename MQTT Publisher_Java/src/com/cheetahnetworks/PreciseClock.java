@@ -0,0 +1,30 @@
+package com.cheetahnetworks;
+
+import java.time.Instant;
+
+/**
+ * Wall-clock time with nanosecond resolution. The wall clock is read once, and from then on time advances with the
+ * monotonic System.nanoTime(), so differences between two readings are exact round-trip times and are never
+ * affected by the wall clock being stepped. The recorder keeps an identical clock, the offset between the two is
+ * estimated by ClockOffsetEstimator.
+ */
+public final class PreciseClock {
+    private static final long BASE_NANO_TIME;
+    private static final long BASE_EPOCH_NANOS;
+
+    static {
+        Instant now = Instant.now();
+        BASE_NANO_TIME = System.nanoTime();
+        BASE_EPOCH_NANOS = now.getEpochSecond() * 1_000_000_000L + now.getNano();
+    }
+
+    private PreciseClock() {
+    }
+
+    /**
+     * @return the current time, in nanoseconds since epoch
+     */
+    public static long epochNanos() {
+        return BASE_EPOCH_NANOS + (System.nanoTime() - BASE_NANO_TIME);
+    }
+}
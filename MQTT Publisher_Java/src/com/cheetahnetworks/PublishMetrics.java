@@ -0,0 +1,251 @@
+package com.cheetahnetworks;
+
+import com.cheetahnetworks.jmx.PublishMetricsMBean;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts every publish made by the engine's clients and times each one from the call to publish() until Paho's
+ * deliveryComplete(): at QoS 1 and 2 that is the broker's PUBACK or PUBCOMP, on its own and without the recorder's
+ * part of the round trip. Shared by every Client, so the counters are striped LongAdders and the histogram is split
+ * into stripes picked by thread, as Paho completes deliveries on one callback thread per connection.
+ * <p>
+ * The engine ends an interval every second, after which report() and the MBean show that interval's rates and
+ * percentiles.
+ */
+public class PublishMetrics implements PublishMetricsMBean {
+    private static final long HIGHEST_TRACKABLE_NANOS = 60_000_000_000L;
+    private static final int SUB_BUCKET_BITS = 7;
+
+    public static final String OBJECT_NAME = "com.cheetahnetworks:type=PublishMetrics";
+
+    private final LongAdder reports = new LongAdder(); // Device reports, one each whether sent alone, batched or refused
+    private final LongAdder published = new LongAdder();
+    private final LongAdder acknowledged = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder lost = new LongAdder(); // Handed to Paho but never acknowledged, e.g. in flight when a connection dropped
+
+    // Each stripe is locked on its own, a completing thread always lands on the same one
+    private final LatencyHistogram[] stripes;
+    private final int stripeMask;
+
+    // The last complete interval, only changed by endInterval()
+    private final LatencyHistogram interval;
+    private long intervalStart;
+    private long lastPublished;
+    private long lastAcknowledged;
+    private long lastFailed;
+    private volatile Snapshot last = new Snapshot(0, 0, 0, 0, 0, 0, 0, 0, 0);
+
+    /**
+     * @param stripes The number of histogram stripes, rounded up to a power of two. Around twice the number of cores
+     *                keeps threads from waiting on each other
+     */
+    public PublishMetrics(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripes = new LatencyHistogram[size];
+        for (int i = 0; i < size; i++)
+            this.stripes[i] = new LatencyHistogram(HIGHEST_TRACKABLE_NANOS, SUB_BUCKET_BITS);
+        stripeMask = size - 1;
+
+        interval = this.stripes[0].copyEmpty();
+        intervalStart = System.nanoTime();
+    }
+
+    /**
+     * Counts a report made by a device, before it is published or batched.
+     */
+    void onReport() {
+        reports.increment();
+    }
+
+    /**
+     * Counts a publish handed to Paho.
+     */
+    void onPublished() {
+        published.increment();
+    }
+
+    /**
+     * Counts a publish Paho refused, e.g. when disconnected or the in-flight window is full.
+     */
+    void onFailed() {
+        failed.increment();
+    }
+
+    /**
+     * Counts publishes that will never be acknowledged, so they no longer count as in flight.
+     *
+     * @param count The number of publishes lost
+     */
+    void onLost(int count) {
+        lost.add(count);
+    }
+
+    /**
+     * Counts a completed delivery and records how long it took.
+     *
+     * @param ackNanos Nanoseconds from publish() to deliveryComplete(), or a negative value if unknown
+     */
+    void onAcknowledged(long ackNanos) {
+        acknowledged.increment();
+        if (ackNanos < 0)
+            return;
+
+        LatencyHistogram stripe = stripes[(int) Thread.currentThread().getId() & stripeMask];
+        synchronized (stripe) {
+            stripe.recordValue(ackNanos);
+        }
+    }
+
+    /**
+     * Closes the current interval: works out its rates and percentiles, and starts the next one. Called by the engine
+     * once a second.
+     */
+    synchronized void endInterval() {
+        long now = System.nanoTime();
+        interval.reset();
+        for (LatencyHistogram stripe : stripes) {
+            synchronized (stripe) {
+                interval.add(stripe);
+                stripe.reset();
+            }
+        }
+
+        long publishedNow = published.sum();
+        long acknowledgedNow = acknowledged.sum();
+        long failedNow = failed.sum();
+        double seconds = Math.max(1, now - intervalStart) / 1e9;
+
+        last = new Snapshot((now - intervalStart) / 1_000_000,
+                (publishedNow - lastPublished) / seconds, (acknowledgedNow - lastAcknowledged) / seconds, (failedNow - lastFailed) / seconds,
+                interval.getValueAtPercentile(50) / 1000, interval.getValueAtPercentile(90) / 1000,
+                interval.getValueAtPercentile(99) / 1000, interval.getValueAtPercentile(99.9) / 1000, interval.getMax() / 1000);
+
+        intervalStart = now;
+        lastPublished = publishedNow;
+        lastAcknowledged = acknowledgedNow;
+        lastFailed = failedNow;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, under OBJECT_NAME.
+     *
+     * @throws JMException if the name is already taken, e.g. by a second engine in the same JVM
+     */
+    public void registerMBean() throws JMException {
+        // The interface lives in its own package, so it has to be named rather than found by the naming convention
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(this, PublishMetricsMBean.class), new ObjectName(OBJECT_NAME));
+    }
+
+    /**
+     * @return a one line summary of the last complete interval, for the performance reporting loop
+     */
+    public String report() {
+        Snapshot s = last;
+        return String.format("Published: %.0f/s | Acked: %.0f/s | Failed: %.0f/s | In flight: %d | Ack p50/p90/p99/p99.9/max: %d/%d/%d/%d/%d us | Total acked: %d",
+                s.publishRate, s.acknowledgeRate, s.failureRate, getInFlight(), s.p50, s.p90, s.p99, s.p999, s.max, getAcknowledgedTotal());
+    }
+
+    @Override
+    public long getReportsTotal() {
+        return reports.sum();
+    }
+
+    @Override
+    public long getPublishedTotal() {
+        return published.sum();
+    }
+
+    @Override
+    public long getAcknowledgedTotal() {
+        return acknowledged.sum();
+    }
+
+    @Override
+    public long getFailedTotal() {
+        return failed.sum();
+    }
+
+    /**
+     * @return publishes handed to Paho but not yet acknowledged, approximate while publishes are being made
+     */
+    @Override
+    public long getInFlight() {
+        return Math.max(0, published.sum() - acknowledged.sum() - lost.sum());
+    }
+
+    @Override
+    public double getPublishRate() {
+        return last.publishRate;
+    }
+
+    @Override
+    public double getAcknowledgeRate() {
+        return last.acknowledgeRate;
+    }
+
+    @Override
+    public double getFailureRate() {
+        return last.failureRate;
+    }
+
+    @Override
+    public long getAckLatencyP50Micros() {
+        return last.p50;
+    }
+
+    @Override
+    public long getAckLatencyP90Micros() {
+        return last.p90;
+    }
+
+    @Override
+    public long getAckLatencyP99Micros() {
+        return last.p99;
+    }
+
+    @Override
+    public long getAckLatencyP999Micros() {
+        return last.p999;
+    }
+
+    @Override
+    public long getAckLatencyMaxMicros() {
+        return last.max;
+    }
+
+    @Override
+    public long getIntervalMillis() {
+        return last.intervalMillis;
+    }
+
+    // The results of one interval, replaced as a whole so readers never see two intervals mixed
+    private static final class Snapshot {
+        final long intervalMillis;
+        final double publishRate;
+        final double acknowledgeRate;
+        final double failureRate;
+        final long p50;
+        final long p90;
+        final long p99;
+        final long p999;
+        final long max;
+
+        Snapshot(long intervalMillis, double publishRate, double acknowledgeRate, double failureRate, long p50, long p90, long p99, long p999, long max) {
+            this.intervalMillis = intervalMillis;
+            this.publishRate = publishRate;
+            this.acknowledgeRate = acknowledgeRate;
+            this.failureRate = failureRate;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.p999 = p999;
+            this.max = max;
+        }
+    }
+}
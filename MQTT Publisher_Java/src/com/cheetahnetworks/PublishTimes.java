@@ -0,0 +1,64 @@
+package com.cheetahnetworks;
+
+import java.util.Arrays;
+
+/**
+ * The send times of one connection's in-flight publishes, keyed by message ID, so that deliveryComplete() can tell how
+ * long each one took. A fixed table slightly larger than the in-flight window: Paho hands out message IDs in order, so
+ * the IDs in flight at once rarely share a slot, and when they do the older send time is dropped rather than the table
+ * growing. Callers synchronize on the table.
+ */
+class PublishTimes {
+    private final int[] ids;
+    private final long[] sendNanos;
+    private final int mask;
+
+    /**
+     * @param maxInflight The connection's in-flight window
+     */
+    PublishTimes(int maxInflight) {
+        int size = Integer.highestOneBit(Math.max(1, maxInflight)) << 1;
+        ids = new int[size];
+        sendNanos = new long[size];
+        mask = size - 1;
+        Arrays.fill(ids, -1);
+    }
+
+    /**
+     * @param messageID The ID Paho gave the publish
+     * @param nanos     When publish() was called, from System.nanoTime()
+     */
+    void put(int messageID, long nanos) {
+        int slot = messageID & mask;
+        ids[slot] = messageID;
+        sendNanos[slot] = nanos;
+    }
+
+    /**
+     * Forgets every send time, e.g. when the connection is lost.
+     *
+     * @return the number of send times there were
+     */
+    int clear() {
+        int count = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] != -1)
+                count++;
+            ids[i] = -1;
+        }
+        return count;
+    }
+
+    /**
+     * @param messageID The ID of the completed publish
+     * @return when it was sent, from System.nanoTime(), or -1 if the send time was dropped
+     */
+    long take(int messageID) {
+        int slot = messageID & mask;
+        if (ids[slot] != messageID)
+            return -1;
+
+        ids[slot] = -1;
+        return sendNanos[slot];
+    }
+}
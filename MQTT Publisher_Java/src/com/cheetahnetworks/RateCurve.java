@@ -0,0 +1,101 @@
+package com.cheetahnetworks;
+
+import java.util.Arrays;
+
+/**
+ * The message rate of one device over the course of a run, as given by a workload profile (see WorkloadProfile).
+ * Time is counted from the start of the device's group, rates are in messages per second per device.
+ */
+public interface RateCurve {
+    /**
+     * @param seconds The time since the group started
+     * @return the rate at that time, 0 while the device should stay quiet
+     */
+    double rateAt(double seconds);
+
+    /**
+     * @return whether the rate never changes, so a fixed-rate SendSchedule can be used
+     */
+    default boolean isConstant() {
+        return false;
+    }
+
+    /**
+     * @param rate The rate
+     * @return a curve that stays at the same rate
+     */
+    static RateCurve constant(double rate) {
+        checkRate(rate);
+        return new RateCurve() {
+            @Override
+            public double rateAt(double seconds) {
+                return rate;
+            }
+
+            @Override
+            public boolean isConstant() {
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @param from    The rate at the start
+     * @param to      The rate at the end of the ramp, held from then on
+     * @param seconds The length of the ramp
+     * @return a curve that changes linearly from one rate to the other
+     */
+    static RateCurve ramp(double from, double to, double seconds) {
+        checkRate(from);
+        checkRate(to);
+        if (seconds <= 0)
+            throw new IllegalArgumentException("Ramp length must be positive");
+
+        return s -> s >= seconds ? to : from + (to - from) * Math.max(s, 0) / seconds;
+    }
+
+    /**
+     * @param at    The times each rate starts at, in ascending order. The first rate is also used before the first time
+     * @param rates The rates, one per time
+     * @return a curve that holds each rate until the next one starts
+     */
+    static RateCurve steps(double[] at, double[] rates) {
+        if (at.length == 0 || at.length != rates.length)
+            throw new IllegalArgumentException("Steps need as many times as rates, at least one");
+        for (int i = 0; i < at.length; i++) {
+            checkRate(rates[i]);
+            if (i > 0 && at[i] <= at[i - 1])
+                throw new IllegalArgumentException("Step times must be ascending");
+        }
+
+        double[] times = at.clone();
+        double[] values = rates.clone();
+        return s -> {
+            int i = Arrays.binarySearch(times, s);
+            if (i < 0)
+                i = -i - 2; // The step started before s
+            return values[Math.max(i, 0)];
+        };
+    }
+
+    /**
+     * @param base    The rate outside the spike
+     * @param peak    The rate during the spike
+     * @param at      When the spike starts
+     * @param seconds How long the spike lasts
+     * @return a curve that jumps to a peak for a while, then drops back
+     */
+    static RateCurve spike(double base, double peak, double at, double seconds) {
+        checkRate(base);
+        checkRate(peak);
+        if (seconds <= 0)
+            throw new IllegalArgumentException("Spike length must be positive");
+
+        return s -> s >= at && s < at + seconds ? peak : base;
+    }
+
+    private static void checkRate(double rate) {
+        if (!(rate >= 0) || Double.isInfinite(rate))
+            throw new IllegalArgumentException("Invalid rate: " + rate);
+    }
+}
@@ -0,0 +1,143 @@
+package com.cheetahnetworks;
+
+import com.cheetahnetworks.jmx.ReconnectMetricsMBean;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts lost connections and how they were recovered, for every client of an engine: the number of outages, how long
+ * each lasted from connectionLost() until the reconnect's CONNACK, failed reconnect attempts, and the messages lost to
+ * the outage, both those in flight when the connection dropped and those the devices tried to send while it was down.
+ */
+public class ReconnectMetrics implements ReconnectMetricsMBean {
+    private static final long HIGHEST_TRACKABLE_MILLIS = 3_600_000L;
+    private static final int SUB_BUCKET_BITS = 7;
+
+    public static final String OBJECT_NAME = "com.cheetahnetworks:type=ReconnectMetrics";
+
+    private final LongAdder outages = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+    private final LongAdder failedAttempts = new LongAdder();
+    private final LongAdder lostInFlight = new LongAdder();
+    private final LongAdder lostWhileDown = new LongAdder();
+    private final AtomicInteger disconnected = new AtomicInteger();
+
+    private final LatencyHistogram outageMillis = new LatencyHistogram(HIGHEST_TRACKABLE_MILLIS, SUB_BUCKET_BITS); // Guarded by itself
+
+    /**
+     * Counts a lost connection.
+     *
+     * @param inFlight The number of publishes in flight when it was lost, which won't be completed
+     */
+    void onConnectionLost(int inFlight) {
+        outages.increment();
+        disconnected.incrementAndGet();
+        lostInFlight.add(inFlight);
+    }
+
+    /**
+     * Counts a publish refused because the connection was down.
+     */
+    void onLostWhileDown() {
+        lostWhileDown.increment();
+    }
+
+    /**
+     * Counts a reconnect attempt that failed.
+     */
+    void onReconnectFailed() {
+        failedAttempts.increment();
+    }
+
+    /**
+     * Counts a recovered connection.
+     *
+     * @param outageNanos The time since the connection was lost
+     */
+    void onReconnected(long outageNanos) {
+        reconnects.increment();
+        disconnected.decrementAndGet();
+        synchronized (outageMillis) {
+            outageMillis.recordValue(outageNanos / 1_000_000);
+        }
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, under OBJECT_NAME.
+     *
+     * @throws JMException if the name is already taken, e.g. by a second engine in the same JVM
+     */
+    public void registerMBean() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(this, ReconnectMetricsMBean.class), new ObjectName(OBJECT_NAME));
+    }
+
+    /**
+     * @return a one line summary since the start, for the performance reporting loop, or null if no connection has
+     * been lost
+     */
+    public String report() {
+        if (outages.sum() == 0)
+            return null;
+
+        return "Outages: " + getOutagesTotal() + " | Down: " + getDisconnected() + " | Reconnects: " + getReconnectsTotal()
+                + " | Failed attempts: " + getFailedAttemptsTotal()
+                + " | Outage p50/p99/max: " + getOutageP50Millis() + "/" + getOutageP99Millis() + "/" + getOutageMaxMillis() + " ms"
+                + " | Lost in flight: " + getLostInFlightTotal() + " | Lost while down: " + getLostWhileDownTotal();
+    }
+
+    @Override
+    public long getOutagesTotal() {
+        return outages.sum();
+    }
+
+    @Override
+    public long getReconnectsTotal() {
+        return reconnects.sum();
+    }
+
+    @Override
+    public long getFailedAttemptsTotal() {
+        return failedAttempts.sum();
+    }
+
+    @Override
+    public int getDisconnected() {
+        return disconnected.get();
+    }
+
+    @Override
+    public long getLostInFlightTotal() {
+        return lostInFlight.sum();
+    }
+
+    @Override
+    public long getLostWhileDownTotal() {
+        return lostWhileDown.sum();
+    }
+
+    @Override
+    public long getOutageP50Millis() {
+        synchronized (outageMillis) {
+            return outageMillis.getValueAtPercentile(50);
+        }
+    }
+
+    @Override
+    public long getOutageP99Millis() {
+        synchronized (outageMillis) {
+            return outageMillis.getValueAtPercentile(99);
+        }
+    }
+
+    @Override
+    public long getOutageMaxMillis() {
+        synchronized (outageMillis) {
+            return outageMillis.getMax();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.cheetahnetworks;
+
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Packs the reports of the devices of one Client and {shard} into BatchPayloads, so many reports share one PUBLISH: its fixed header,
+ * topic and, above QoS 0, its acknowledgement. A batch is published once it holds batchSize reports, before it would
+ * grow past MAX_BATCH_BYTES, or lingerMillis after its first report, whichever comes first. Reports are copied in, so
+ * devices may reuse their payloads straight away.
+ * <p>
+ * Closed batches are queued in the order they were filled and published by one thread at a time, whichever closed a
+ * batch while none was publishing, so they leave in that order and a device's reports keep theirs. No lock is held
+ * across a publish, so a device adding a report never waits on another's publish. A batch that fails to publish loses
+ * all of its reports: closed-loop devices then wait for a reconnect, and pipelined ones for their window timeout, as
+ * with any lost report.
+ */
+class ReportBatcher {
+    static final int MAX_BATCH_BYTES = 256 * 1024; // A soft cap, a single larger report is still sent, alone
+    private static final int INITIAL_BUFFER_BYTES = 4096;
+
+    private final Client client;
+    private final LoadEngine engine;
+    private final String topic;
+    private final int qos;
+    private final int batchSize;
+    private final long lingerMillis;
+    private final BatchMetrics metrics;
+
+    // The batch being filled, guarded by this
+    private byte[] buffer;
+    private int length;
+    private int count;
+    private long firstAddNanos;
+    private long addOffsetSum; // Nanoseconds from firstAddNanos to each report's add, summed
+    private long generation; // Bumped on every flush, so a linger flush for a batch that already left does nothing
+    private ScheduledFuture<?> lingerFlush;
+
+    // Closed batches waiting to be published, and whether a thread is publishing them. Guarded by this
+    private final ArrayDeque<byte[]> ready = new ArrayDeque<byte[]>();
+    private boolean publishing;
+
+    /**
+     * @param client       The connection batches are published through
+     * @param engine       The engine that runs linger flushes
+     * @param topic        The topic batches are published to
+     * @param qos          The QoS of the batches
+     * @param batchSize    The most reports per batch
+     * @param lingerMillis The longest a report waits for its batch to fill
+     */
+    ReportBatcher(Client client, LoadEngine engine, String topic, int qos, int batchSize, int lingerMillis) {
+        if (batchSize < 2 || batchSize > BatchPayload.MAX_REPORTS || lingerMillis < 0)
+            throw new IllegalArgumentException("Invalid batching [" + batchSize + ", " + lingerMillis + "]");
+
+        this.client = client;
+        this.engine = engine;
+        this.topic = topic;
+        this.qos = qos;
+        this.batchSize = batchSize;
+        this.lingerMillis = lingerMillis;
+        metrics = engine.getBatchMetrics();
+
+        buffer = new byte[INITIAL_BUFFER_BYTES];
+        length = BatchPayload.HEADER_LENGTH;
+        count = 0;
+    }
+
+    /**
+     * Adds a report to the batch being filled, publishing the batch if that fills it.
+     *
+     * @param report A complete report
+     * @throws MqttException if this call published batches and Paho refused one of them
+     */
+    void add(byte[] report) throws MqttException {
+        int frameLength = BatchPayload.FRAME_HEADER_LENGTH + report.length;
+        boolean overflows;
+        synchronized (this) {
+            overflows = count > 0 && (count >= batchSize || length + frameLength > MAX_BATCH_BYTES); // Filled by another device meanwhile
+        }
+        if (overflows)
+            flush(-1);
+
+        boolean full;
+        synchronized (this) {
+            if (length + frameLength > buffer.length)
+                buffer = Arrays.copyOf(buffer, Math.max(2 * buffer.length, length + frameLength));
+            length = BatchPayload.putFrame(buffer, length, report);
+
+            long now = System.nanoTime();
+            if (count == 0) {
+                firstAddNanos = now;
+                long batch = generation;
+                lingerFlush = engine.schedule(() -> flushLingering(batch), lingerMillis);
+            }
+            addOffsetSum += now - firstAddNanos;
+            count++;
+            full = count >= batchSize;
+        }
+        if (full)
+            flush(-1);
+    }
+
+    // Run by the engine lingerMillis after a batch's first report, unless the batch has already left
+    private void flushLingering(long batch) {
+        try {
+            flush(batch);
+        } catch (MqttException me) {
+            System.out.println(client.getClientID() + " Unable to publish batch: " + me);
+        }
+    }
+
+    // Closes the batch being filled, if it has any reports and, for a linger flush, is still the given one, and publishes it
+    // unless another thread is already publishing, which then publishes it too
+    private void flush(long lingeringBatch) throws MqttException {
+        synchronized (this) {
+            if (count == 0 || (lingeringBatch >= 0 && lingeringBatch != generation))
+                return;
+
+            BatchPayload.putHeader(buffer, count);
+            byte[] batch = Arrays.copyOf(buffer, length); // Paho holds on to the payload until it is written or acknowledged
+            long waitMax = System.nanoTime() - firstAddNanos;
+            metrics.onFlushed(count, batch.length, lingeringBatch >= 0, count * waitMax - addOffsetSum, waitMax);
+            ready.add(batch);
+
+            if (lingeringBatch < 0 && lingerFlush != null)
+                lingerFlush.cancel(false);
+            lingerFlush = null;
+            generation++;
+            length = BatchPayload.HEADER_LENGTH;
+            count = 0;
+            addOffsetSum = 0;
+
+            if (publishing)
+                return;
+            publishing = true;
+        }
+        publishReady();
+    }
+
+    // Publishes the ready batches in order until none are left, outside the lock. Failures are counted by the client; the
+    // first is thrown once the queue is empty, so the batches behind it still go out
+    private void publishReady() throws MqttException {
+        MqttException failure = null;
+        while (true) {
+            byte[] batch;
+            synchronized (this) {
+                batch = ready.poll();
+                if (batch == null) {
+                    publishing = false;
+                    break;
+                }
+            }
+
+            MqttMessage message = new MqttMessage(batch);
+            message.setQos(qos);
+            try {
+                client.publish(topic, message);
+            } catch (MqttException me) {
+                if (failure == null)
+                    failure = me;
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+}
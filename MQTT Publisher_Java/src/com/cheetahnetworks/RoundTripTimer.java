@@ -0,0 +1,98 @@
+package com.cheetahnetworks;
+
+/**
+ * Collects the nanosecond timings of timed reports (PayloadFormat.BINARY_TIMED) for every device of the publisher:
+ * the round trip measured on the monotonic clock, the time the recorder held the report, and the two one-way legs,
+ * publisher to recorder and recorder to publisher. The legs depend on the clock offset, estimated from the same
+ * exchanges by a ClockOffsetEstimator, and are only known to within its error bound.
+ */
+public class RoundTripTimer {
+    private static final long HIGHEST_TRACKABLE_NANOS = 60_000_000_000L;
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int OFFSET_WINDOW = 256; // Exchanges the offset estimate is picked from
+
+    private final ClockOffsetEstimator clockOffset = new ClockOffsetEstimator(OFFSET_WINDOW);
+
+    // Per interval, emptied by report()
+    private final LatencyHistogram roundTrip = new LatencyHistogram(HIGHEST_TRACKABLE_NANOS, SUB_BUCKET_BITS);
+    private final LatencyHistogram residence = roundTrip.copyEmpty();
+    private final LatencyHistogram toRecorder = roundTrip.copyEmpty();
+    private final LatencyHistogram fromRecorder = roundTrip.copyEmpty();
+
+    /**
+     * Records one exchange, all times in nanoseconds since epoch (see PreciseClock).
+     *
+     * @param t0 When the publisher sent the report
+     * @param t1 When the recorder received the report, by the recorder's clock
+     * @param t2 When the recorder sent the reply, by the recorder's clock
+     * @param t3 When the publisher received the reply
+     */
+    public synchronized void record(long t0, long t1, long t2, long t3) {
+        clockOffset.addSample(t0, t1, t2, t3);
+        long offset = clockOffset.getOffsetNanos();
+
+        roundTrip.recordValue(t3 - t0);
+        residence.recordValue(t2 - t1);
+        toRecorder.recordValue(t1 - t0 - offset);
+        fromRecorder.recordValue(t3 - t2 + offset);
+    }
+
+    /**
+     * @return the estimator of the recorder's clock offset
+     */
+    public ClockOffsetEstimator getClockOffset() {
+        return clockOffset;
+    }
+
+    /**
+     * @return a new, empty histogram of the same shape as the round trips, see report(LatencyHistogram)
+     */
+    public LatencyHistogram newHistogram() {
+        return roundTrip.copyEmpty();
+    }
+
+    /**
+     * Summarizes the exchanges since the last call and starts a new interval.
+     *
+     * @return a one line summary in microseconds, or null if there were no timed exchanges
+     */
+    public String report() {
+        return report(null);
+    }
+
+    /**
+     * Summarizes the exchanges since the last call and starts a new interval, first adding the interval's round trips
+     * to a longer running total.
+     *
+     * @param roundTrips The histogram to add the interval's round trip times to, in nanoseconds, or null. Must come
+     *                   from newHistogram()
+     * @return a one line summary in microseconds, or null if there were no timed exchanges
+     */
+    public synchronized String report(LatencyHistogram roundTrips) {
+        if (roundTrip.getCount() == 0)
+            return null;
+
+        if (roundTrips != null)
+            roundTrips.add(roundTrip);
+
+        long error = clockOffset.getErrorBoundNanos();
+        String summary = "RTT p50/p99: " + micros(roundTrip.getValueAtPercentile(50)) + "/" + micros(roundTrip.getValueAtPercentile(99)) + " us"
+                + " | Recorder hold p50: " + micros(residence.getValueAtPercentile(50)) + " us"
+                + " | Pub->Rec p50/p99: " + micros(toRecorder.getValueAtPercentile(50)) + "/" + micros(toRecorder.getValueAtPercentile(99))
+                + " +/- " + micros(error) + " us"
+                + " | Rec->Pub p50/p99: " + micros(fromRecorder.getValueAtPercentile(50)) + "/" + micros(fromRecorder.getValueAtPercentile(99))
+                + " +/- " + micros(error) + " us"
+                + " | Clock offset: " + micros(clockOffset.getOffsetNanos()) + " +/- " + micros(error) + " us"
+                + " | Samples: " + roundTrip.getCount();
+
+        roundTrip.reset();
+        residence.reset();
+        toRecorder.reset();
+        fromRecorder.reset();
+        return summary;
+    }
+
+    private static String micros(long nanos) {
+        return String.format("%.1f", nanos / 1000.0);
+    }
+}
@@ -0,0 +1,466 @@
+package com.cheetahnetworks;
+
+import com.github.cliftonlabs.json_simple.JsonException;
+import com.github.cliftonlabs.json_simple.JsonObject;
+import com.github.cliftonlabs.json_simple.Jsoner;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the highest total message rate the broker sustains. The search offers the open-loop devices of the engine a
+ * series of rates, sent live to every client as a rate command on its command topic (see Client), and judges each
+ * level by the interval summaries the recorder publishes on its stats topic. A level is held until SETTLE_INTERVALS
+ * summaries in a row agree, and is sustained if they do, their p99 is within the SLO, their loss within the limit, and
+ * the recorder sees at least MIN_DELIVERED of the offered rate.
+ * <p>
+ * Loss is the share of the engine's reports made over those intervals that the recorder didn't see in them, counted as
+ * each summary arrives. The recorder's own lost count can't be used: it only confirms a gap once the device has sent a
+ * sequence window of later messages, long after a level is judged at low per-device rates. So the recorder must see no
+ * devices but the engine's, and a backlog that grows over the intervals counts as lost, which is how saturation shows.
+ * With edge aggregation the recorder sees no sequence numbers and loss isn't judged.
+ * <ul>
+ * <li>STEP raises the rate by the step until a level isn't sustained.</li>
+ * <li>BINARY doubles the rate until a level isn't sustained, then halves the gap between the last sustained and the
+ * first unsustained rate until it is narrower than the step.</li>
+ * </ul>
+ * Each level is written to a CSV file as it is measured, giving the throughput against latency curve. At the end the
+ * devices are left at the highest sustained rate, and the knee of the curve is reported next to it: the level after
+ * which latency grows fastest against throughput, found as the point furthest below the line from the first level to
+ * the last, once both axes are scaled to [0, 1].
+ */
+public class SaturationSearch implements Runnable {
+    public enum Mode {
+        STEP,
+        BINARY
+    }
+
+    private static final int SETTLE_INTERVALS = 5; // Summaries in a row that must agree before a level is judged
+    private static final double SETTLE_TOLERANCE = 0.1; // How far apart they may be, as a share of their mean
+    private static final long SETTLE_P99_SLACK_MILLIS = 1; // Recorder latencies are whole ms, so small p99s always differ by one
+    private static final double MIN_DELIVERED = 0.9; // Share of the offered rate the recorder must see
+    private static final int MAX_COMMANDS_IN_FLIGHT = 100; // Rate commands waiting for their PUBACK at once
+
+    private final LoadEngine engine;
+    private final String broker;
+    private final String statsTopic;
+    private final int numDevices;
+    private final Mode mode;
+    private final double startRate;
+    private final double step;
+    private final double maxRate;
+    private final long p99SloMillis;
+    private final double maxLossRate;
+    private final long maxHoldMillis;
+    private final Path curveFile;
+
+    private final LinkedBlockingQueue<Interval> intervals = new LinkedBlockingQueue<Interval>();
+    private final Semaphore commandWindow = new Semaphore(MAX_COMMANDS_IN_FLIGHT);
+    private final List<Level> curve = Collections.synchronizedList(new ArrayList<Level>());
+    private volatile Level best;
+    private volatile Level knee;
+    private volatile boolean finished;
+
+    /**
+     * @param engine        The engine whose clients the rate commands are sent to
+     * @param broker        The URI of the broker the recorder publishes its summaries through
+     * @param statsTopic    The topic the recorder publishes its interval summaries to
+     * @param numDevices    The number of open-loop devices sharing the offered rate
+     * @param mode          How the rate is raised, see the class description
+     * @param startRate     The total rate of the first level, in messages per second
+     * @param step          STEP: the rate added at each level. BINARY: the width the search narrows the gap down to
+     * @param maxRate       The highest total rate tried
+     * @param p99SloMillis  The highest p99 latency of a sustained level
+     * @param maxLossRate   The highest share of messages lost at a sustained level
+     * @param maxHoldMillis How long a level is held for its summaries to settle; one that doesn't isn't sustained
+     * @param curveFile     The CSV file the levels are written to
+     */
+    public SaturationSearch(LoadEngine engine, String broker, String statsTopic, int numDevices, Mode mode, double startRate, double step,
+                            double maxRate, long p99SloMillis, double maxLossRate, long maxHoldMillis, Path curveFile) {
+        if (numDevices < 1 || startRate <= 0 || step <= 0 || maxRate < startRate)
+            throw new IllegalArgumentException("Invalid saturation search settings");
+
+        this.engine = engine;
+        this.broker = broker;
+        this.statsTopic = statsTopic;
+        this.numDevices = numDevices;
+        this.mode = mode;
+        this.startRate = startRate;
+        this.step = step;
+        this.maxRate = maxRate;
+        this.p99SloMillis = p99SloMillis;
+        this.maxLossRate = maxLossRate;
+        this.maxHoldMillis = maxHoldMillis;
+        this.curveFile = curveFile;
+    }
+
+    /**
+     * Runs the whole search, then returns. Run on a thread of its own: each level takes seconds.
+     */
+    @Override
+    public void run() {
+        MqttAsyncClient client = null;
+        try (PrintWriter csv = new PrintWriter(new FileWriter(curveFile.toFile()))) {
+            client = connect();
+            csv.println("offered_msgs_per_s,delivered_msgs_per_s,p50_ms,p99_ms,loss_rate,settled,sustained");
+
+            double rate = startRate;
+            double failedRate = -1;
+            while (rate <= maxRate) {
+                Level level = measure(client, rate, csv);
+                if (!level.sustained) {
+                    failedRate = rate;
+                    break;
+                }
+                best = level;
+                rate = mode == Mode.STEP ? rate + step : rate * 2;
+            }
+
+            if (mode == Mode.BINARY && best != null && failedRate > 0) {
+                double low = best.offered;
+                double high = failedRate;
+                while (high - low > step) {
+                    Level level = measure(client, (low + high) / 2, csv);
+                    if (level.sustained) {
+                        best = level;
+                        low = level.offered;
+                    } else {
+                        high = level.offered;
+                    }
+                }
+            }
+
+            knee = findKnee();
+            if (best != null)
+                sendRate(client, best.offered); // Leave the broker at the highest sustained rate
+            finished = true;
+            System.out.println(report());
+        } catch (IOException | MqttException e) {
+            System.out.println("Saturation search failed: " + e);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } finally {
+            finished = true;
+            if (client != null) {
+                try {
+                    client.disconnect().waitForCompletion(1000);
+                    client.close();
+                } catch (MqttException me) {
+                    System.out.println(me);
+                }
+            }
+        }
+    }
+
+    private MqttAsyncClient connect() throws MqttException {
+        MqttAsyncClient client = new MqttAsyncClient(broker, "saturation-search-" + System.nanoTime(), new MemoryPersistence());
+        client.setCallback(new MqttCallback() {
+            @Override
+            public void connectionLost(Throwable cause) {
+                System.out.println("Saturation search lost its connection: " + cause);
+            }
+
+            @Override
+            public void messageArrived(String topic, MqttMessage message) {
+                Interval interval = Interval.parse(new String(message.getPayload()));
+                if (interval != null) {
+                    interval.reportsTotal = engine.getPublishMetrics().getReportsTotal();
+                    intervals.add(interval);
+                }
+            }
+
+            @Override
+            public void deliveryComplete(IMqttDeliveryToken token) {
+            }
+        });
+
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setAutomaticReconnect(true);
+        options.setMaxInflight(MAX_COMMANDS_IN_FLIGHT);
+        client.connect(options).waitForCompletion();
+        client.subscribe(statsTopic, 0).waitForCompletion();
+        return client;
+    }
+
+    // Sends the per-device share of a total rate to every client, at most MAX_COMMANDS_IN_FLIGHT at a time
+    private void sendRate(MqttAsyncClient client, double totalRate) throws MqttException, InterruptedException {
+        byte[] command = Client.rateCommand(totalRate / numDevices).getBytes();
+        IMqttActionListener release = new IMqttActionListener() {
+            @Override
+            public void onSuccess(IMqttToken token) {
+                commandWindow.release();
+            }
+
+            @Override
+            public void onFailure(IMqttToken token, Throwable exception) {
+                commandWindow.release();
+            }
+        };
+
+        for (Client target : engine.getClients()) {
+            commandWindow.acquire();
+            MqttMessage message = new MqttMessage(command);
+            message.setQos(1);
+            try {
+                client.publish(target.getCommandTopic(), message, null, release);
+            } catch (MqttException me) {
+                commandWindow.release();
+                throw me;
+            }
+        }
+    }
+
+    // Offers one rate and holds it until the recorder's summaries settle, or for maxHoldMillis
+    private Level measure(MqttAsyncClient client, double rate, PrintWriter csv) throws MqttException, InterruptedException {
+        System.out.println(String.format("Saturation search: offering %.0f msg/s", rate));
+        sendRate(client, rate);
+        intervals.clear();
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxHoldMillis);
+        Deque<Interval> recent = new ArrayDeque<Interval>();
+        long reportsTotal = -1;
+        boolean settled = false;
+        while (!settled) {
+            long remaining = deadline - System.nanoTime();
+            Interval interval = remaining > 0 ? intervals.poll(remaining, TimeUnit.NANOSECONDS) : null;
+            if (interval == null)
+                break;
+            if (reportsTotal < 0) { // Straddles the change of rate
+                reportsTotal = interval.reportsTotal;
+                continue;
+            }
+
+            interval.reports = interval.reportsTotal - reportsTotal;
+            reportsTotal = interval.reportsTotal;
+            recent.addLast(interval);
+            if (recent.size() > SETTLE_INTERVALS)
+                recent.removeFirst();
+            settled = recent.size() == SETTLE_INTERVALS && isSettled(recent);
+        }
+
+        Level level = new Level(rate, recent, settled, p99SloMillis, maxLossRate);
+        curve.add(level);
+        csv.println(String.format("%.1f,%.1f,%.1f,%.1f,%.6f,%b,%b", level.offered, level.delivered, level.p50, level.p99, level.lossRate,
+                level.settled, level.sustained));
+        csv.flush();
+        System.out.println("Saturation search: " + level);
+        return level;
+    }
+
+    private static boolean isSettled(Deque<Interval> recent) {
+        double minRate = Double.MAX_VALUE, maxRate = 0, sumRate = 0;
+        long minP99 = Long.MAX_VALUE, maxP99 = 0, sumP99 = 0;
+        for (Interval interval : recent) {
+            double rate = interval.rate();
+            minRate = Math.min(minRate, rate);
+            maxRate = Math.max(maxRate, rate);
+            sumRate += rate;
+            minP99 = Math.min(minP99, interval.p99);
+            maxP99 = Math.max(maxP99, interval.p99);
+            sumP99 += interval.p99;
+        }
+        return maxRate - minRate <= SETTLE_TOLERANCE * sumRate / recent.size()
+                && maxP99 - minP99 <= SETTLE_TOLERANCE * sumP99 / recent.size() + SETTLE_P99_SLACK_MILLIS;
+    }
+
+    // The level furthest below the line from the first level to the last, with delivered rate and p99 scaled to [0, 1]
+    private Level findKnee() {
+        List<Level> levels;
+        synchronized (curve) {
+            levels = new ArrayList<Level>(curve);
+        }
+        levels.removeIf(level -> level.delivered <= 0);
+        if (levels.size() < 3)
+            return best;
+
+        levels.sort((a, b) -> Double.compare(a.offered, b.offered));
+        double minX = Double.MAX_VALUE, maxX = 0, minY = Double.MAX_VALUE, maxY = 0;
+        for (Level level : levels) {
+            minX = Math.min(minX, level.delivered);
+            maxX = Math.max(maxX, level.delivered);
+            minY = Math.min(minY, level.p99);
+            maxY = Math.max(maxY, level.p99);
+        }
+        if (maxX == minX || maxY == minY)
+            return best;
+
+        Level knee = null;
+        double furthest = -1;
+        for (Level level : levels) {
+            double distance = (level.delivered - minX) / (maxX - minX) - (level.p99 - minY) / (maxY - minY);
+            if (distance > furthest) {
+                furthest = distance;
+                knee = level;
+            }
+        }
+        return knee;
+    }
+
+    /**
+     * @return whether the search is over, successfully or not
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * @return the highest sustained level, or null if not even the first one was
+     */
+    public Level getBest() {
+        return best;
+    }
+
+    /**
+     * @return every level measured so far, in the order they were measured
+     */
+    public List<Level> getCurve() {
+        synchronized (curve) {
+            return new ArrayList<Level>(curve);
+        }
+    }
+
+    /**
+     * @return a summary of the search's outcome
+     */
+    public String report() {
+        Level best = this.best;
+        Level knee = this.knee;
+        return "Saturation search " + (finished ? "finished" : "running") + " after " + curve.size() + " levels, curve in " + curveFile
+                + " | Max sustained: " + (best == null ? "none" : best)
+                + " | Knee: " + (knee == null ? "none" : knee);
+    }
+
+    /**
+     * One offered rate and what the recorder saw of it, averaged over the last intervals held.
+     */
+    public static final class Level {
+        private final double offered;
+        private final double delivered;
+        private final double p50;
+        private final double p99;
+        private final double lossRate;
+        private final boolean settled;
+        private final boolean sustained;
+
+        private Level(double offered, Deque<Interval> intervals, boolean settled, long p99SloMillis, double maxLossRate) {
+            double seconds = 0, delivered = 0, p50 = 0, p99 = 0;
+            long reports = 0, sequenced = 0, received = 0;
+            for (Interval interval : intervals) {
+                seconds += interval.intervalMillis / 1000.0;
+                delivered += interval.messages();
+                p50 += interval.p50;
+                p99 += interval.p99;
+                reports += interval.reports;
+                sequenced += interval.sequenced;
+                received += interval.sequenced - interval.duplicates;
+            }
+            int count = Math.max(1, intervals.size());
+            this.offered = offered;
+            this.delivered = seconds == 0 ? 0 : delivered / seconds;
+            this.p50 = p50 / count;
+            this.p99 = p99 / count;
+            // Without sequence numbers, e.g. with edge aggregation, the recorder can't tell what it received
+            this.lossRate = sequenced == 0 || reports <= 0 ? 0 : (double) Math.max(0, reports - received) / reports;
+            this.settled = settled;
+            sustained = settled && this.p99 <= p99SloMillis && lossRate <= maxLossRate && this.delivered >= MIN_DELIVERED * offered;
+        }
+
+        public double getOffered() {
+            return offered;
+        }
+
+        public double getDelivered() {
+            return delivered;
+        }
+
+        public double getP50Millis() {
+            return p50;
+        }
+
+        public double getP99Millis() {
+            return p99;
+        }
+
+        public double getLossRate() {
+            return lossRate;
+        }
+
+        public boolean isSettled() {
+            return settled;
+        }
+
+        public boolean isSustained() {
+            return sustained;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.0f msg/s offered, %.0f msg/s delivered, p50/p99 %.1f/%.1f ms, lost %.3f%%%s%s", offered, delivered, p50, p99,
+                    lossRate * 100, settled ? "" : ", not settled", sustained ? "" : ", not sustained");
+        }
+    }
+
+    // One interval summary published by the recorder's StatsPublisher
+    private static final class Interval {
+        long intervalMillis;
+        long entries;
+        long p50;
+        long p99;
+        long sequenced;
+        long duplicates;
+        long reportsTotal; // The engine's reports made by the time the summary arrived
+        long reports; // The engine's reports made since the summary before, set by measure()
+
+        // Every message carries a sequence number, but only those reporting a latency are entries
+        long messages() {
+            return sequenced > 0 ? sequenced : entries;
+        }
+
+        double rate() {
+            return messages() * 1000.0 / Math.max(1, intervalMillis);
+        }
+
+        // Returns null for a payload that isn't a summary
+        static Interval parse(String json) {
+            try {
+                JsonObject summary = (JsonObject) Jsoner.deserialize(json);
+                Interval interval = new Interval();
+                interval.intervalMillis = number(summary, "interval_ms");
+                interval.entries = number(summary, "entries");
+                interval.p50 = number(summary, "p50");
+                interval.p99 = number(summary, "p99");
+                interval.sequenced = number(summary, "sequenced");
+                interval.duplicates = number(summary, "duplicates");
+                return interval;
+            } catch (JsonException | ClassCastException e) {
+                System.out.println("Saturation search: ignoring invalid summary " + json);
+                return null;
+            }
+        }
+
+        private static long number(JsonObject json, String key) {
+            Object value = json.get(key);
+            return value == null ? 0 : ((BigDecimal) value).longValue();
+        }
+    }
+}
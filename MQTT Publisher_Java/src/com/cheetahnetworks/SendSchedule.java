@@ -0,0 +1,168 @@
+package com.cheetahnetworks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed-rate, open-loop send schedule shared by every device. Each device sends on its own slot of the schedule,
+ * regardless of whether its previous message has been answered, so a slow broker can't slow down the offered load.
+ * Intended send times are worked out from the schedule rather than read off the clock when a send actually happens,
+ * which lets latency be measured against when a message should have gone out (coordinated omission correction).
+ * <p>
+ * A schedule can also follow a RateCurve, for the ramps, steps and spikes of a workload profile. The rate is then looked
+ * up at each intended send time, and sets the gap to the next one. The same goes for a rate set live by setRate(), e.g.
+ * by a rate command (see Client), which overrides the fixed rate or curve from then on.
+ */
+public class SendSchedule {
+    private static final long IDLE_NANOS = 100_000_000; // How often a device checks whether a curve's rate has picked up again
+
+    private final long periodNanos; // Time between two sends from the same device, unused when following a curve
+    private final RateCurve curve; // The rate of each device over time, or null for a fixed rate
+    private final int numDevices; // Used to spread devices evenly across one period
+    private volatile double controlledRate = -1; // Messages per second per device set by setRate(), -1 until then
+
+    // The schedule's origin, on both the monotonic clock used for scheduling and the wall clock carried in payloads
+    private final long startNanos;
+    private final long startMillis;
+
+    private final AtomicInteger nextSlot; // Hands out staggered start slots to devices as they start
+
+    private SendSchedule(long periodNanos, RateCurve curve, int numDevices) {
+        if (periodNanos <= 0)
+            throw new IllegalArgumentException("Message rate must be positive");
+
+        this.periodNanos = periodNanos;
+        this.curve = curve;
+        this.numDevices = Math.max(numDevices, 1);
+
+        startMillis = System.currentTimeMillis();
+        startNanos = System.nanoTime();
+        nextSlot = new AtomicInteger();
+    }
+
+    /**
+     * @param msgsPerSecond The number of messages each device sends per second
+     * @param numDevices    The number of devices following the schedule
+     * @return a schedule where every device sends at the same fixed rate
+     */
+    public static SendSchedule perDevice(double msgsPerSecond, int numDevices) {
+        return new SendSchedule((long) (TimeUnit.SECONDS.toNanos(1) / msgsPerSecond), null, numDevices);
+    }
+
+    /**
+     * @param totalMsgsPerSecond The number of messages per second to send across all devices
+     * @param numDevices         The number of devices sharing the load
+     * @return a schedule where the devices together send at the given aggregate rate
+     */
+    public static SendSchedule aggregate(double totalMsgsPerSecond, int numDevices) {
+        return perDevice(totalMsgsPerSecond / Math.max(numDevices, 1), numDevices);
+    }
+
+    /**
+     * @param perDevice  The number of messages each device sends per second, over time
+     * @param numDevices The number of devices following the schedule
+     * @return a schedule where every device follows the same rate curve, starting now
+     */
+    public static SendSchedule following(RateCurve perDevice, int numDevices) {
+        if (perDevice.isConstant())
+            return perDevice(perDevice.rateAt(0), numDevices);
+
+        return new SendSchedule(IDLE_NANOS, perDevice, numDevices);
+    }
+
+    /**
+     * Changes the rate of every device on the schedule, from each one's next send.
+     *
+     * @param msgsPerSecond The number of messages each device sends per second, 0 to pause them
+     */
+    public void setRate(double msgsPerSecond) {
+        if (msgsPerSecond < 0 || Double.isNaN(msgsPerSecond))
+            throw new IllegalArgumentException("Invalid message rate: " + msgsPerSecond);
+        controlledRate = msgsPerSecond;
+    }
+
+    /**
+     * @return whether every send is the same period after the last, see getPeriodNanos(). Never true once setRate()
+     * has been called
+     */
+    public boolean isFixedRate() {
+        return curve == null && controlledRate < 0;
+    }
+
+    /**
+     * @return the number of nanoseconds between two sends from the same device, on a fixed-rate schedule
+     */
+    public long getPeriodNanos() {
+        return periodNanos;
+    }
+
+    /**
+     * Devices are staggered evenly across a period so the aggregate rate is smooth rather than bursting once per period.
+     *
+     * @param deviceIndex The index of the device, from 0 to numDevices - 1
+     * @return the monotonic time, in nanoseconds, of the device's first send
+     */
+    public long firstSendNanos(int deviceIndex) {
+        return startNanos + (periodAt(startNanos) / numDevices) * (deviceIndex % numDevices);
+    }
+
+    /**
+     * Gives the calling device the next free slot of the schedule. Devices that connect after their slot has already
+     * come around start on its next occurrence, since they owed no messages before they were running.
+     *
+     * @return the monotonic time, in nanoseconds, of the device's first send
+     */
+    public long claimFirstSendNanos() {
+        int slot = nextSlot.getAndIncrement();
+        long now = System.nanoTime();
+        if (!isFixedRate()) // The rate may have changed since the start, so stagger across the current period instead
+            return now + (periodAt(now) / numDevices) * (slot % numDevices);
+
+        long first = firstSendNanos(slot);
+        if (first < now)
+            first += ((now - first) / periodNanos + 1) * periodNanos;
+        return first;
+    }
+
+    /**
+     * @param intendedNanos The intended time of a device's last send, or last check while the rate was 0
+     * @return the monotonic time, in nanoseconds, of the device's next send
+     */
+    public long nextSendNanos(long intendedNanos) {
+        return intendedNanos + periodAt(intendedNanos);
+    }
+
+    /**
+     * @param intendedNanos A time on the monotonic clock
+     * @return whether devices send at that time, false while a curve's rate is 0 and they only check back later
+     */
+    public boolean isSending(long intendedNanos) {
+        double rate = controlledRate;
+        if (rate >= 0)
+            return rate > 0;
+        return curve == null || rateAt(intendedNanos) > 0;
+    }
+
+    private double rateAt(long nanos) {
+        return curve.rateAt((nanos - startNanos) / 1e9);
+    }
+
+    // The gap between two sends at the given time, or IDLE_NANOS while the rate is 0
+    private long periodAt(long nanos) {
+        double rate = controlledRate;
+        if (rate < 0) {
+            if (curve == null)
+                return periodNanos;
+            rate = rateAt(nanos);
+        }
+        return rate <= 0 ? IDLE_NANOS : (long) Math.max(1, TimeUnit.SECONDS.toNanos(1) / rate);
+    }
+
+    /**
+     * @param intendedNanos A send time on the monotonic clock
+     * @return the same instant on the wall clock, in milliseconds, as carried in the payload's timestamp field
+     */
+    public long toWallMillis(long intendedNanos) {
+        return startMillis + TimeUnit.NANOSECONDS.toMillis(intendedNanos - startNanos);
+    }
+}
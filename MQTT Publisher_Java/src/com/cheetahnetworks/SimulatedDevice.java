@@ -0,0 +1,534 @@
+package com.cheetahnetworks;
+
+import com.cheetahnetworks.exceptions.InvalidMqttMessageException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One emulated device. Several devices can share a single Client connection; the device only holds its own
+ * topics and message logic, and leaves pacing to the LoadEngine so it never blocks a thread while waiting.
+ * <p>
+ * A closed-loop device normally has one message in flight and sends the next once it has the reply. With a window
+ * above 1 (see DeviceGroup) it is pipelined instead: it keeps up to that many messages in flight, matches each reply to
+ * its message by the sequence number the recorder echoes back, and sends a replacement for every reply. Its
+ * throughput is then bound by the broker rather than by the round trip.
+ */
+public class SimulatedDevice {
+    private static final long WINDOW_TIMEOUT_MILLIS = 10000; // How long a pipelined message may go unanswered before its slot is reused
+
+    private final Client client; // The connection this device is multiplexed onto
+    private final LoadEngine engine; // Schedules the wait between messages
+
+    private final String deviceID;
+    private final byte[] encodedDeviceID; // Encoded once, copied into every binary payload
+
+    private final PayloadFormat format; // Format of the payloads the device sends
+    private final int payloadBytes; // Size payloads are padded up to, 0 for no padding
+    private String jsonPadding; // Built with the first JSON payload, the same for every one after
+    private final int qos; // QoS of the reports
+    private long sequence; // Sequence number of the last message sent, carried by every payload so the recorder can count losses. Guarded by this
+
+    // The topic the device will receive commands on, e.g. STOP
+    private final String commandTopic;
+    // The topic the device will publish messages to
+    private final String latencyReportTopic;
+    // The topic on which the device will receive responses from the CSV writer client
+    private final String latencyReplyTopic;
+
+    // The amount of milliseconds the device will wait after receiving a message before sending the next one, essentially throttles performance.
+    // Only used in closed-loop mode, see schedule.
+    private final int waitPeriod;
+    // Bumped when a closed loop is restarted, so a send still scheduled by the old loop doesn't start a second one
+    private volatile int loop;
+    // The messages in flight of a pipelined device, null when it waits for each reply or is open-loop
+    private final InFlightWindow inFlight;
+    private final PipelineMetrics.Window pipelineMetrics;
+    // Records every round trip when the testbed aggregates them itself, null when the recorder is sent every report
+    private final EdgeAggregator edgeAggregator;
+    // Records every round trip for the coordinator's cluster-wide view, null when the testbed runs on its own
+    private final TestbedAgent testbedAgent;
+
+    // When set, the device sends open-loop on this fixed schedule instead of waiting for each reply
+    private final SendSchedule schedule;
+    private ScheduledFuture<?> scheduledSends;
+    private boolean fixedRateSends; // Whether scheduledSends is a fixed-rate task, rather than the next send alone
+    private long sendCount; // Sends made so far on a fixed-rate schedule, used to work out the next intended send time. Guarded by this
+    private long firstSendNanos;
+    private long nextSendNanos; // Intended time of the next send on a schedule following a rate curve
+    private boolean stopped;
+
+    // Latencies measured from replies that haven't been reported yet. Small and fixed, oldest are dropped if replies outpace sends.
+    private final long[] pendingLatencies;
+    private int pendingHead;
+    private int pendingSize;
+
+    /**
+     * @param client      The connection the device publishes and subscribes through
+     * @param engine      The engine that paces the device's messages
+     * @param deviceID    The unique ID of the device, used to build its topics
+     * @param reportTopic The topic the device publishes its reports to
+     * @param group       The device's group, which sets its payloads, QoS and closed-loop wait period
+     * @param schedule    The open-loop schedule to send on, or null to wait for each reply (closed-loop)
+     */
+    SimulatedDevice(Client client, LoadEngine engine, String deviceID, String reportTopic, DeviceGroup group, SendSchedule schedule) {
+        this.client = client;
+        this.engine = engine;
+        DeviceGroup.checkDeviceID(deviceID);
+        this.deviceID = deviceID;
+        this.waitPeriod = group.getWaitMillis();
+        this.schedule = schedule;
+        this.format = group.getFormat();
+        this.payloadBytes = group.getPayloadBytes();
+        this.qos = group.getQos();
+
+        encodedDeviceID = BinaryPayload.encodeDeviceID(deviceID);
+        sequence = 0;
+
+        if (schedule == null && group.getWindow() > 1) {
+            inFlight = new InFlightWindow(group.getWindow());
+            pipelineMetrics = engine.getPipelineMetrics().addDevice(group.getWindow());
+        } else {
+            inFlight = null;
+            pipelineMetrics = null;
+        }
+
+        edgeAggregator = engine.getEdgeAggregator();
+        testbedAgent = engine.getTestbedAgent();
+
+        pendingLatencies = new long[16];
+        pendingHead = 0;
+        pendingSize = 0;
+
+        // The recorder subscribes to /devices/+/latency/report (by default, see DeviceGroup) and answers each device on its own
+        // reply topic. Replies used to be taken from the broker echoing the device's own report back, which never reached the recorder.
+        // Aggregating at the edge does just that on purpose: the round trips reach the recorder as the testbed's summaries instead
+        commandTopic = deviceID + "/command";
+        latencyReplyTopic = "/devices/" + deviceID + "/latency/reply";
+        latencyReportTopic = edgeAggregator != null ? latencyReplyTopic : reportTopic;
+    }
+
+    /**
+     * @return the unique ID of the device
+     */
+    public String getDeviceID() {
+        return deviceID;
+    }
+
+    String getCommandTopic() {
+        return commandTopic;
+    }
+
+    String getLatencyReplyTopic() {
+        return latencyReplyTopic;
+    }
+
+    /**
+     * Starts the device: closed-loop devices send their initial message, or fill their window, and open-loop devices
+     * take a slot on the schedule.
+     */
+    void start() {
+        if (inFlight != null) {
+            synchronized (this) {
+                long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(WINDOW_TIMEOUT_MILLIS);
+                scheduledSends = engine.scheduleAtFixedRate(this::expireInFlight, System.nanoTime() + timeoutNanos, timeoutNanos);
+            }
+            fillWindow(-1);
+            return;
+        }
+
+        if (schedule == null) {
+            sendInitialMessage();
+            return;
+        }
+
+        synchronized (this) {
+            firstSendNanos = schedule.claimFirstSendNanos();
+            sendCount = 0;
+            fixedRateSends = schedule.isFixedRate();
+            if (fixedRateSends) {
+                scheduledSends = engine.scheduleAtFixedRate(this::sendScheduledMessage, firstSendNanos, schedule.getPeriodNanos());
+            } else {
+                nextSendNanos = firstSendNanos;
+                scheduledSends = engine.scheduleAt(this::sendCurveMessage, nextSendNanos);
+            }
+        }
+    }
+
+    /**
+     * Resumes the device after its connection was re-established. Closed-loop devices start a new loop, since the message
+     * or reply they were waiting on may have been lost with the connection, and pipelined devices refill their window
+     * for the same reason; open-loop devices never stopped sending.
+     */
+    void restart() {
+        if (schedule != null)
+            return;
+
+        loop++;
+        if (inFlight != null) {
+            int lost;
+            synchronized (this) {
+                lost = inFlight.clear();
+            }
+            pipelineMetrics.onTimedOut(lost);
+            fillWindow(-1);
+            return;
+        }
+        sendInitialMessage();
+    }
+
+    /**
+     * Changes the rate of an open-loop device, from its next send. The schedule is shared by the device's group, so this
+     * changes the rate of the whole group; a device on a fixed-rate task moves on to working out each send from the rate
+     * at the time, as if following a curve.
+     *
+     * @param msgsPerSecond The number of messages the device sends per second
+     * @return false if the device is closed-loop, and has no rate to change
+     */
+    synchronized boolean setRate(double msgsPerSecond) {
+        if (schedule == null)
+            return false;
+
+        schedule.setRate(msgsPerSecond);
+        if (fixedRateSends && !stopped) {
+            scheduledSends.cancel(false);
+            fixedRateSends = false;
+            nextSendNanos = sendCount == 0 ? firstSendNanos
+                    : schedule.nextSendNanos(firstSendNanos + (sendCount - 1) * schedule.getPeriodNanos());
+            scheduledSends = engine.scheduleAt(this::sendCurveMessage, nextSendNanos);
+        }
+        return true;
+    }
+
+    /**
+     * Stops any scheduled sends, and the closed loop.
+     */
+    synchronized void stop() {
+        stopped = true;
+        loop++;
+        if (scheduledSends != null)
+            scheduledSends.cancel(false);
+    }
+
+    /**
+     * Called for every reply received by the device.
+     *
+     * @param message The reply, echoing the payload the device sent
+     * @throws InvalidMqttMessageException if the reply's payload is not valid
+     */
+    void onReply(MqttMessage message) throws InvalidMqttMessageException {
+        long receiveNanos = PreciseClock.epochNanos(); // Before anything else, the reply's time on this side ends here
+
+        byte[] payload = message.getPayload();
+        if (BinaryPayload.isBinary(payload) && BinaryPayload.isTimed(payload)) {
+            BinaryPayload.validate(payload);
+            if (BinaryPayload.getReceiveNanos(payload) != 0 && BinaryPayload.getReplyNanos(payload) != 0) // 0 from recorders that don't stamp replies
+                engine.getRoundTripTimer().record(BinaryPayload.getSendNanos(payload), BinaryPayload.getReceiveNanos(payload),
+                        BinaryPayload.getReplyNanos(payload), receiveNanos);
+        }
+
+        if (inFlight != null) {
+            replaceInFlight(payload);
+            return;
+        }
+
+        if (schedule == null) {
+            sendNextMessage(message, receiveNanos); // Sends next message only after receiving the last
+            return;
+        }
+
+        // Open-loop: the echoed timestamp is the intended send time, so stalls are counted from when the message should have gone out
+        long receiveTime = System.currentTimeMillis();
+        long latency = receiveTime - readTimestamp(message.getPayload());
+        recordRoundTrip(latency);
+        addPendingLatency(latency);
+    }
+
+    // Hands a measured round trip to the testbed's aggregator and agent, if it has them
+    private void recordRoundTrip(long millis) {
+        if (edgeAggregator != null)
+            edgeAggregator.record(millis);
+        if (testbedAgent != null)
+            testbedAgent.record(millis);
+    }
+
+    // Replies are read in whichever format they arrive in, the recorder answers in the format it was sent
+    private static long readTimestamp(byte[] payload) throws InvalidMqttMessageException {
+        if (BinaryPayload.isBinary(payload)) {
+            BinaryPayload.validate(payload);
+            return BinaryPayload.getTimestamp(payload);
+        }
+
+        JsonPayload json = new JsonPayload();
+        json.deserialize(new String(payload));
+        return json.getTimestamp();
+    }
+
+    // The sequence number is the reply's correlation ID, see InFlightWindow
+    private static long readSequence(byte[] payload) throws InvalidMqttMessageException {
+        if (BinaryPayload.isBinary(payload)) {
+            BinaryPayload.validate(payload);
+            return BinaryPayload.getSequence(payload);
+        }
+
+        JsonPayload json = new JsonPayload();
+        json.deserialize(new String(payload));
+        return json.getSequence() == null ? -1 : json.getSequence();
+    }
+
+    // Hands out the next sequence number. A restarted closed loop can send while a send of the old one is still running
+    private synchronized long nextSequence() {
+        return ++sequence;
+    }
+
+    // Builds a complete payload in the device's format, padded up to payloadBytes. The recorder echoes the padding back
+    private byte[] buildPayload(long sequence, long timestamp, long lastLatency) {
+        if (format == PayloadFormat.BINARY) {
+            byte[] payload = new byte[Math.max(BinaryPayload.length(encodedDeviceID), payloadBytes)];
+            BinaryPayload.encode(payload, encodedDeviceID, sequence, timestamp, lastLatency);
+            return payload;
+        }
+
+        if (format == PayloadFormat.BINARY_TIMED) {
+            byte[] payload = new byte[Math.max(BinaryPayload.timedLength(encodedDeviceID), payloadBytes)];
+            BinaryPayload.encodeTimed(payload, encodedDeviceID, sequence, timestamp, lastLatency, PreciseClock.epochNanos());
+            return payload;
+        }
+
+        JsonPayload json = new JsonPayload();
+        json.setDeviceID(deviceID);
+        json.setTimestamp(timestamp);
+        json.setLastLatency(lastLatency);
+        json.setSequence(sequence);
+        if (payloadBytes > 0) {
+            if (jsonPadding == null) // Sized off the first payload; numbers of other lengths make later ones a few bytes off
+                jsonPadding = JsonPayload.padding(json.serialize().getBytes().length, payloadBytes);
+            json.setPadding(jsonPadding);
+        }
+        return json.serialize().getBytes();
+    }
+
+    // Wraps a payload in a message at the device's QoS
+    private MqttMessage newMessage(byte[] payload) {
+        MqttMessage message = new MqttMessage(payload);
+        message.setQos(qos);
+        return message;
+    }
+
+    /*
+     * Run by the engine on every tick of the device's schedule. The timestamp is the slot's intended send time, not the
+     * time the worker got around to it, so a late worker or a blocked publish adds to the measured latency. The slot is
+     * claimed under the lock, so a run that setRate() didn't stop in time leaves its slot to the rate curve instead.
+     */
+    private void sendScheduledMessage() {
+        long intendedNanos;
+        synchronized (this) {
+            if (!fixedRateSends || stopped)
+                return;
+            intendedNanos = firstSendNanos + sendCount * schedule.getPeriodNanos();
+            sendCount++;
+        }
+
+        try {
+            // A fresh payload per send: with several messages in flight Paho may still be holding on to the previous one
+            MqttMessage message = newMessage(buildPayload(nextSequence(), schedule.toWallMillis(intendedNanos), pollPendingLatency()));
+            client.publishReport(latencyReportTopic, message);
+        } catch (Exception e) {
+            System.out.println(deviceID + " " + e);
+        }
+    }
+
+    /*
+     * The same, on a schedule following a rate curve. Each run sends (unless the rate is 0 at its intended time) and then
+     * schedules the next, so a change of rate takes effect from the send after it.
+     */
+    private void sendCurveMessage() {
+        long intendedNanos;
+        synchronized (this) {
+            intendedNanos = nextSendNanos;
+        }
+
+        if (schedule.isSending(intendedNanos)) {
+            try {
+                MqttMessage message = newMessage(buildPayload(nextSequence(), schedule.toWallMillis(intendedNanos), pollPendingLatency()));
+                client.publishReport(latencyReportTopic, message);
+            } catch (Exception e) {
+                System.out.println(deviceID + " " + e);
+            }
+        }
+
+        synchronized (this) {
+            if (stopped)
+                return;
+            nextSendNanos = schedule.nextSendNanos(intendedNanos);
+            scheduledSends = engine.scheduleAt(this::sendCurveMessage, nextSendNanos);
+        }
+    }
+
+    /*
+     * Matches a pipelined device's reply to its message and, once the wait period is over, sends a replacement carrying
+     * the round trip. A reply matching nothing in flight (a duplicate, or one given up on) sends nothing, so the window
+     * never grows past its size.
+     */
+    private void replaceInFlight(byte[] payload) throws InvalidMqttMessageException {
+        long receiveNanos = System.nanoTime();
+        long replySequence = readSequence(payload);
+
+        long sendNanos;
+        synchronized (this) {
+            sendNanos = inFlight.take(replySequence);
+        }
+        if (sendNanos < 0) {
+            pipelineMetrics.onUnmatched();
+            return;
+        }
+
+        long roundTrip = receiveNanos - sendNanos;
+        pipelineMetrics.onReply(roundTrip);
+        long lastLatency = TimeUnit.NANOSECONDS.toMillis(roundTrip);
+        recordRoundTrip(lastLatency);
+        engine.schedule(() -> sendInFlight(lastLatency), waitPeriod);
+    }
+
+    // Sends until the window is full. Only the first message carries a latency, the others have no reply to report
+    private void fillWindow(long lastLatency) {
+        while (sendInFlight(lastLatency))
+            lastLatency = -1;
+    }
+
+    // Run by the engine every WINDOW_TIMEOUT_MILLIS: gives up on messages unanswered for that long and refills the
+    // window, which also replaces any messages whose publish failed
+    private void expireInFlight() {
+        int expired;
+        synchronized (this) {
+            expired = inFlight.expire(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(WINDOW_TIMEOUT_MILLIS));
+        }
+        if (expired > 0)
+            pipelineMetrics.onTimedOut(expired);
+        fillWindow(-1);
+    }
+
+    // Sends one more message into the window, returning false if it is full, the device has stopped, or the publish failed
+    private boolean sendInFlight(long lastLatency) {
+        byte[] payload;
+        long sent;
+        synchronized (this) {
+            if (stopped || inFlight.isFull())
+                return false;
+            sent = nextSequence();
+            payload = buildPayload(sent, System.currentTimeMillis(), lastLatency);
+            inFlight.put(sent, System.nanoTime());
+        }
+        pipelineMetrics.onSent(1);
+
+        try {
+            client.publishReport(latencyReportTopic, newMessage(payload));
+            return true;
+        } catch (Exception e) {
+            System.out.println(deviceID + " " + e);
+            boolean freed;
+            synchronized (this) {
+                freed = inFlight.take(sent) >= 0;
+            }
+            if (freed) // Not already cleared by a lost connection
+                pipelineMetrics.onTimedOut(1);
+            return false;
+        }
+    }
+
+    private synchronized void addPendingLatency(long latency) {
+        if (pendingSize == pendingLatencies.length) { // Full, drop the oldest
+            pendingHead = (pendingHead + 1) % pendingLatencies.length;
+            pendingSize--;
+        }
+        pendingLatencies[(pendingHead + pendingSize) % pendingLatencies.length] = latency;
+        pendingSize++;
+    }
+
+    // Returns the oldest unreported latency, or -1 (no previous message) if there is none
+    private synchronized long pollPendingLatency() {
+        if (pendingSize == 0)
+            return -1;
+
+        long latency = pendingLatencies[pendingHead];
+        pendingHead = (pendingHead + 1) % pendingLatencies.length;
+        pendingSize--;
+        return latency;
+    }
+
+    /*
+     * Creates and sends a new message based on the one that was just received.
+     * Gets the timestamp from last message and compares it to the current time, and stores the difference in the last_latency field.
+     * Then hands the message to the engine, which sets a new timestamp and publishes it once the wait period is over.
+     * Timed payloads measure the latency on the monotonic clock instead of the millisecond wall clock.
+     */
+    private void sendNextMessage(MqttMessage message, long receiveNanos) throws InvalidMqttMessageException {
+        long receiveTime = System.currentTimeMillis(); // Set time message was received
+
+        int currentLoop = loop;
+        byte[] payload = message.getPayload();
+        if (BinaryPayload.isBinary(payload)) {
+            // Update the received payload in place. Paho hands over a new array per message and there is only ever one in flight, so only the
+            // MqttMessage wrapping it is new. The received MqttMessage itself can't be sent again: Paho writes the outgoing message ID into it,
+            // which on a connection shared by several devices mixes up acknowledgements until publishes are lost
+            BinaryPayload.validate(payload);
+            boolean timed = BinaryPayload.isTimed(payload);
+            long latency = timed
+                    ? (receiveNanos - BinaryPayload.getSendNanos(payload)) / 1_000_000
+                    : receiveTime - BinaryPayload.getTimestamp(payload);
+            BinaryPayload.setLastLatency(payload, latency);
+            recordRoundTrip(latency);
+
+            engine.schedule(() -> {
+                if (loop != currentLoop)
+                    return;
+                try {
+                    BinaryPayload.setSequence(payload, nextSequence());
+                    BinaryPayload.setTimestamp(payload, System.currentTimeMillis());
+                    if (timed)
+                        BinaryPayload.setSendNanos(payload, PreciseClock.epochNanos());
+                    client.publishReport(latencyReportTopic, newMessage(payload));
+                } catch (Exception e) {
+                    System.out.println(deviceID + " " + e);
+                }
+            }, waitPeriod);
+            return;
+        }
+
+        JsonPayload json = new JsonPayload();
+        json.deserialize(new String(message.getPayload())); // converting byte[] -> String requires passing to String through constructor
+        json.setLastLatency(receiveTime - json.getTimestamp()); // Set new last_latency field
+        recordRoundTrip(json.getLastLatency());
+
+        // Wait before sending next message, without holding on to Paho's callback thread
+        engine.schedule(() -> {
+            if (loop != currentLoop)
+                return;
+            try {
+                json.setSequence(nextSequence());
+                json.setTimestamp(System.currentTimeMillis()); // Set timestamp field
+                client.publishReport(latencyReportTopic, newMessage(json.serialize().getBytes())); // A new message, see above
+            } catch (Exception e) {
+                System.out.println(deviceID + " " + e);
+            }
+        }, waitPeriod);
+    }
+
+    /*
+     * Creates the first message to send the the CSV writer client
+     * We use a JSON or binary payload to organize our data
+     * Sets the device_id, and time of creation in milliseconds
+     * Sets the last_latency field to -1, indicating to the CSV writer that there has been no previous message.
+     */
+    private void sendInitialMessage() {
+        try {
+
+            MqttMessage mqttMessage = newMessage(buildPayload(nextSequence(), System.currentTimeMillis(), -1));
+            client.publishReport(latencyReportTopic, mqttMessage);
+
+        } catch (Exception e) {
+            System.out.println(e);
+        }
+    }
+}
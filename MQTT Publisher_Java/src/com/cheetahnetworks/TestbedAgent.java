@@ -0,0 +1,380 @@
+package com.cheetahnetworks;
+
+import com.github.cliftonlabs.json_simple.JsonException;
+import com.github.cliftonlabs.json_simple.JsonObject;
+import com.github.cliftonlabs.json_simple.Jsoner;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets a Coordinator run this testbed in step with others: the workload waits for a START rather than starting on its
+ * own, open-loop rates follow the coordinator's RAMPs, and a STOP ends every group. Commands are JSON, taken on
+ * CONTROL_TOPIC, sent to every testbed, and on this testbed's own TESTBED_CONTROL_TOPIC:
+ *
+ * <pre>
+ * {"command": "START", "at": 1760000000000}
+ * {"command": "RAMP", "from": 1, "to": 10, "seconds": 60, "at": 1760000030000}
+ * {"command": "STOP", "at": 1760000100000}
+ * </pre>
+ *
+ * Each takes effect at "at", ms since epoch, so testbeds act together however late the command reaches them; testbeds on
+ * different machines need their clocks in sync. Rates are messages per second per open-loop device, stepped every
+ * RAMP_STEP_MILLIS over the ramp's seconds, or set at once if 0.
+ * <p>
+ * Once an interval the agent publishes a TestbedReport on REPORT_TOPIC: its clients' counters, and its devices' round
+ * trips, recorded from the connections' callback threads and the engine's workers into histograms split into stripes
+ * picked by thread, as in EdgeAggregator. Reports start once the agent has subscribed, so a coordinator hearing from a
+ * testbed knows it can be started.
+ */
+public class TestbedAgent {
+    public static final String CONTROL_TOPIC = "/testbeds/control"; // Commands for every testbed
+    public static final String TESTBED_CONTROL_TOPIC = "/testbeds/{testbed}/control"; // Commands for one
+    public static final String REPORT_TOPIC = "/testbeds/{testbed}/metrics"; // The coordinator subscribes to /testbeds/+/metrics
+
+    public static final String START_COMMAND = "START";
+    public static final String RAMP_COMMAND = "RAMP";
+    public static final String STOP_COMMAND = "STOP";
+
+    private static final long INTERVAL_MILLIS = 1000;
+    private static final long RAMP_STEP_MILLIS = 100;
+    private static final int QOS = 1;
+
+    private final String testbedID;
+    private final byte[] encodedTestbedID;
+    private final String controlTopic;
+    private final String reportTopic;
+
+    private final WorkloadRunner runner;
+    private final LoadEngine engine;
+
+    private final LatencyHistogram[] stripes;
+    private final int stripeMask;
+
+    private final MqttAsyncClient client;
+    private volatile boolean subscribed; // Reports wait for it, cleared whenever the connection drops
+
+    // Guarded by this
+    private ScheduledFuture<?> intervals;
+    private ScheduledFuture<?> ramp;
+    private boolean started;
+    private boolean closed;
+    private final LatencyHistogram interval;
+    private final ByteBuffer buffer;
+
+    private volatile long reports;
+    private volatile long skipped;
+    private volatile String last;
+
+    /**
+     * Starts connecting to the broker in the background; Paho reconnects on its own.
+     *
+     * @param testbedID The name of this testbed, unique among the testbeds of the coordinator
+     * @param broker    The URI of the broker
+     * @param stripes   The number of histogram stripes, rounded up to a power of two
+     * @param runner    The testbed's workload, not yet started
+     * @param engine    The engine running the workload
+     * @throws MqttException if the connection can't be created
+     */
+    TestbedAgent(String testbedID, String broker, int stripes, WorkloadRunner runner, LoadEngine engine) throws MqttException {
+        this.testbedID = testbedID;
+        encodedTestbedID = BinaryPayload.encodeDeviceID(testbedID);
+        controlTopic = TESTBED_CONTROL_TOPIC.replace("{testbed}", testbedID);
+        reportTopic = REPORT_TOPIC.replace("{testbed}", testbedID);
+        this.runner = runner;
+        this.engine = engine;
+
+        int numStripes = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripes = new LatencyHistogram[numStripes];
+        for (int i = 0; i < numStripes; i++)
+            this.stripes[i] = new LatencyHistogram(EdgeAggregator.HIGHEST_TRACKABLE_MILLIS, EdgeAggregator.SUB_BUCKET_BITS);
+        stripeMask = numStripes - 1;
+
+        interval = this.stripes[0].copyEmpty();
+        buffer = ByteBuffer.allocate(TestbedReport.maxLength(encodedTestbedID, interval));
+        last = "Testbed " + testbedID + ": waiting for the coordinator on " + CONTROL_TOPIC;
+
+        client = new MqttAsyncClient(broker, testbedID + "-agent-" + System.nanoTime(), new MemoryPersistence());
+        client.setCallback(new MqttCallbackExtended() {
+            @Override
+            public void connectComplete(boolean reconnect, String serverURI) {
+                subscribe();
+            }
+
+            @Override
+            public void connectionLost(Throwable cause) {
+                subscribed = false;
+                System.out.println("Testbed " + testbedID + " lost the coordinator's broker: " + cause);
+            }
+
+            @Override
+            public void messageArrived(String topic, MqttMessage message) {
+                onCommand(new String(message.getPayload(), StandardCharsets.UTF_8));
+            }
+
+            @Override
+            public void deliveryComplete(IMqttDeliveryToken token) {
+            }
+        });
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setAutomaticReconnect(true);
+        client.connect(options);
+    }
+
+    // On every connect, as the session is clean. Runs on Paho's callback thread, so doesn't wait for the SUBACK
+    private void subscribe() {
+        try {
+            client.subscribe(new String[]{CONTROL_TOPIC, controlTopic}, new int[]{QOS, QOS}, null, new IMqttActionListener() {
+                @Override
+                public void onSuccess(IMqttToken token) {
+                    subscribed = true;
+                }
+
+                @Override
+                public void onFailure(IMqttToken token, Throwable exception) {
+                    System.out.println("Testbed " + testbedID + " unable to subscribe to its commands: " + exception);
+                }
+            });
+        } catch (MqttException me) {
+            System.out.println("Testbed " + testbedID + " unable to subscribe to its commands: " + me);
+        }
+    }
+
+    /**
+     * @param atMillis When to start, in ms since epoch
+     * @return the payload of a command starting every group's schedule at the given time
+     */
+    public static String startCommand(long atMillis) {
+        JsonObject command = new JsonObject();
+        command.put("command", START_COMMAND);
+        command.put("at", atMillis);
+        return command.toJson();
+    }
+
+    /**
+     * @param from     The rate of each open-loop device at the start of the ramp, in messages per second
+     * @param to       The rate at the end of the ramp, held from then on
+     * @param seconds  The length of the ramp, 0 to set the rate at once
+     * @param atMillis When to start the ramp, in ms since epoch
+     * @return the payload of a command ramping every open-loop group's rate
+     */
+    public static String rampCommand(double from, double to, double seconds, long atMillis) {
+        JsonObject command = new JsonObject();
+        command.put("command", RAMP_COMMAND);
+        command.put("from", from);
+        command.put("to", to);
+        command.put("seconds", seconds);
+        command.put("at", atMillis);
+        return command.toJson();
+    }
+
+    /**
+     * @param atMillis When to stop, in ms since epoch
+     * @return the payload of a command stopping every group
+     */
+    public static String stopCommand(long atMillis) {
+        JsonObject command = new JsonObject();
+        command.put("command", STOP_COMMAND);
+        command.put("at", atMillis);
+        return command.toJson();
+    }
+
+    // Runs on Paho's callback thread, so only schedules the command on the engine's workers. Anything thrown from here
+    // would make Paho drop the connection, so every bad payload ends in the catch
+    private void onCommand(String payload) {
+        try {
+            Object json = Jsoner.deserialize(payload);
+            if (!(json instanceof JsonObject)) // e.g. null, or an array
+                throw new IllegalArgumentException("Not a command");
+            JsonObject command = (JsonObject) json;
+            String name = (String) command.get("command");
+            long at = command.get("at") == null ? System.currentTimeMillis() : ((BigDecimal) command.get("at")).longValue();
+            long delay = Math.max(0, at - System.currentTimeMillis());
+
+            if (START_COMMAND.equals(name)) {
+                synchronized (this) {
+                    if (started || closed) {
+                        System.out.println("Testbed " + testbedID + " already started, ignoring " + payload);
+                        return;
+                    }
+                    started = true;
+                }
+                engine.schedule(runner::start, delay);
+            } else if (RAMP_COMMAND.equals(name)) {
+                double from = number(command, "from");
+                double to = number(command, "to");
+                double seconds = number(command, "seconds");
+                if (from < 0 || to < 0 || seconds < 0 || Double.isNaN(from + to + seconds))
+                    throw new IllegalArgumentException("Invalid ramp");
+                engine.schedule(() -> startRamp(from, to, seconds), delay);
+            } else if (STOP_COMMAND.equals(name)) {
+                engine.schedule(this::stop, delay);
+            } else {
+                throw new IllegalArgumentException("Unknown command");
+            }
+            System.out.println("Testbed " + testbedID + " " + name + " in " + delay + " ms");
+        } catch (JsonException | RuntimeException e) { // Including ClassCastException, for fields of the wrong type
+            System.out.println("Testbed " + testbedID + " invalid command: " + payload + " (" + e + ")");
+        }
+    }
+
+    private static double number(JsonObject json, String key) {
+        Object value = json.get(key);
+        if (value == null)
+            throw new IllegalArgumentException("Missing " + key);
+        return ((BigDecimal) value).doubleValue();
+    }
+
+    // Replaces any ramp under way
+    private synchronized void startRamp(double from, double to, double seconds) {
+        if (ramp != null)
+            ramp.cancel(false);
+        ramp = null;
+        if (seconds == 0) {
+            runner.setRate(to);
+            return;
+        }
+
+        long startNanos = System.nanoTime();
+        long lengthNanos = (long) (seconds * 1e9);
+        ramp = engine.scheduleAtFixedRate(() -> stepRamp(startNanos, lengthNanos, from, to), startNanos,
+                TimeUnit.MILLISECONDS.toNanos(RAMP_STEP_MILLIS));
+    }
+
+    private synchronized void stepRamp(long startNanos, long lengthNanos, double from, double to) {
+        double done = Math.min(1, (double) (System.nanoTime() - startNanos) / lengthNanos);
+        runner.setRate(from + (to - from) * done);
+        if (done >= 1 && ramp != null) {
+            ramp.cancel(false);
+            ramp = null;
+        }
+    }
+
+    private void stop() {
+        synchronized (this) {
+            started = true; // A START arriving after the STOP has nothing left to run
+            if (ramp != null)
+                ramp.cancel(false);
+            ramp = null;
+        }
+        runner.stop();
+    }
+
+    /**
+     * Starts publishing reports on the engine's workers, at the half-way point of each interval as in EdgeAggregator.
+     */
+    synchronized void start() {
+        long now = System.currentTimeMillis();
+        long firstMillis = now - now % INTERVAL_MILLIS + INTERVAL_MILLIS / 2;
+        if (firstMillis <= now)
+            firstMillis += INTERVAL_MILLIS;
+        intervals = engine.scheduleAtFixedRate(this::publishInterval, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(firstMillis - now),
+                TimeUnit.MILLISECONDS.toNanos(INTERVAL_MILLIS));
+    }
+
+    /**
+     * Records one device's round trip.
+     *
+     * @param roundTripMillis Milliseconds from sending a report to receiving its reply
+     */
+    void record(long roundTripMillis) {
+        LatencyHistogram stripe = stripes[(int) Thread.currentThread().getId() & stripeMask];
+        synchronized (stripe) {
+            stripe.recordValue(roundTripMillis);
+        }
+    }
+
+    // Run by the engine every INTERVAL_MILLIS, and once more on close(): merges the stripes and publishes the report
+    private synchronized IMqttDeliveryToken publishInterval() {
+        long now = System.currentTimeMillis();
+        long intervalEnd = now - Math.floorMod(now - INTERVAL_MILLIS / 2, INTERVAL_MILLIS); // The boundary just passed, despite a late worker
+        interval.reset();
+        for (LatencyHistogram stripe : stripes) {
+            synchronized (stripe) {
+                interval.add(stripe);
+                stripe.reset();
+            }
+        }
+
+        TestbedReport.State state = !started ? TestbedReport.State.READY
+                : runner.isFinished() ? TestbedReport.State.STOPPED : TestbedReport.State.RUNNING;
+        buffer.clear();
+        TestbedReport.encode(buffer, encodedTestbedID, state, intervalEnd, engine.getPublishMetrics(), engine.getNumDevices(),
+                engine.getClients().size(), interval);
+        byte[] payload = new byte[buffer.position()]; // A fresh array, Paho holds on to it until the PUBACK
+        buffer.flip();
+        buffer.get(payload);
+
+        IMqttDeliveryToken token = null;
+        String outcome;
+        if (!client.isConnected() || !subscribed) {
+            skipped++;
+            outcome = "skipped, not subscribed";
+        } else {
+            MqttMessage message = new MqttMessage(payload);
+            message.setQos(QOS);
+            try {
+                token = client.publish(reportTopic, message);
+                reports++;
+                outcome = payload.length + " B";
+            } catch (MqttException e) {
+                skipped++;
+                outcome = "skipped, " + e.getMessage();
+            }
+        }
+
+        last = String.format("Testbed %s: %s | %d round trips, p50/p99/max: %d/%d/%d ms | Report: %s | Published: %d, skipped: %d",
+                testbedID, state, interval.getCount(), interval.getValueAtPercentile(50), interval.getValueAtPercentile(99), interval.getMax(),
+                outcome, reports, skipped);
+        return token;
+    }
+
+    /**
+     * @return a one line summary of the last report
+     */
+    public String report() {
+        return last;
+    }
+
+    /**
+     * @return the name the testbed reports under
+     */
+    public String getTestbedID() {
+        return testbedID;
+    }
+
+    /**
+     * Stops publishing, sends the coordinator a last report with the final counters, and disconnects.
+     */
+    synchronized void close() {
+        if (closed)
+            return;
+        closed = true;
+        if (intervals != null)
+            intervals.cancel(false);
+        if (ramp != null)
+            ramp.cancel(false);
+        try {
+            IMqttDeliveryToken token = publishInterval();
+            if (token != null)
+                token.waitForCompletion(1000);
+            if (client.isConnected())
+                client.disconnect().waitForCompletion(1000);
+            client.close();
+        } catch (MqttException e) {
+            System.out.println("Unable to disconnect testbed agent: " + e);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.cheetahnetworks;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One testbed's counters and round trips, as published by a TestbedAgent once per interval for the Coordinator to merge.
+ * Counters are totals since the testbed started, so a lost or late report only blurs the rates of the interval after
+ * it; the histogram holds the interval's round trips alone, in the shape of EdgeAggregator's. Fixed-size numbers are
+ * big-endian.
+ *
+ * <pre>
+ *  offset  size  field
+ *       0     1  MAGIC
+ *       1     1  VERSION
+ *       2     1  state, see State
+ *       3     8  interval_end (ms since epoch)
+ *      11     8  published, publishes handed to Paho
+ *      19     8  acknowledged
+ *      27     8  failed
+ *      35     4  devices started
+ *      39     4  connections started
+ *      43     8  highest trackable value of the histogram (ms)
+ *      51     1  sub-bucket bits of the histogram
+ *      52     2  testbed_id length in bytes
+ *      54     n  testbed_id (UTF-8)
+ *    54+n     -  histogram of the interval's round trips (ms), see LatencyHistogram.encodeInto()
+ * </pre>
+ */
+public final class TestbedReport {
+    public enum State {
+        READY, // Waiting for a START
+        RUNNING,
+        STOPPED // Every group has been stopped; the last report of the testbed
+    }
+
+    public static final byte MAGIC = (byte) 0xCA;
+    public static final byte VERSION = 1;
+
+    public static final int HEADER_LENGTH = 54;
+
+    private final String testbedID;
+    private final State state;
+    private final long intervalEnd;
+    private final long published;
+    private final long acknowledged;
+    private final long failed;
+    private final int devices;
+    private final int connections;
+    private final LatencyHistogram roundTrips;
+
+    private TestbedReport(String testbedID, State state, long intervalEnd, long published, long acknowledged, long failed, int devices,
+                          int connections, LatencyHistogram roundTrips) {
+        this.testbedID = testbedID;
+        this.state = state;
+        this.intervalEnd = intervalEnd;
+        this.published = published;
+        this.acknowledged = acknowledged;
+        this.failed = failed;
+        this.devices = devices;
+        this.connections = connections;
+        this.roundTrips = roundTrips;
+    }
+
+    /**
+     * @param testbedID  The encoded testbed ID, see BinaryPayload.encodeDeviceID()
+     * @param roundTrips The histogram to be reported
+     * @return the most bytes encode() may write
+     */
+    public static int maxLength(byte[] testbedID, LatencyHistogram roundTrips) {
+        return HEADER_LENGTH + testbedID.length + roundTrips.getMaxEncodedLength();
+    }
+
+    /**
+     * Writes a report at the buffer's position.
+     *
+     * @param buffer      The buffer to write to, with at least maxLength() bytes remaining
+     * @param testbedID   The encoded testbed ID
+     * @param state       What the testbed is doing
+     * @param intervalEnd The end of the interval, in ms since epoch
+     * @param metrics     The counters of the testbed's clients
+     * @param devices     The devices started so far
+     * @param connections The connections started so far
+     * @param roundTrips  The interval's round trips, in ms
+     */
+    public static void encode(ByteBuffer buffer, byte[] testbedID, State state, long intervalEnd, PublishMetrics metrics, int devices,
+                              int connections, LatencyHistogram roundTrips) {
+        buffer.put(MAGIC);
+        buffer.put(VERSION);
+        buffer.put((byte) state.ordinal());
+        buffer.putLong(intervalEnd);
+        buffer.putLong(metrics.getPublishedTotal());
+        buffer.putLong(metrics.getAcknowledgedTotal());
+        buffer.putLong(metrics.getFailedTotal());
+        buffer.putInt(devices);
+        buffer.putInt(connections);
+        buffer.putLong(roundTrips.getHighestTrackableValue());
+        buffer.put((byte) roundTrips.getSubBucketBits());
+        buffer.putShort((short) testbedID.length);
+        buffer.put(testbedID);
+        roundTrips.encodeInto(buffer);
+    }
+
+    /**
+     * Reads a report.
+     *
+     * @param payload A received payload
+     * @return the report
+     * @throws IllegalArgumentException if the payload isn't a complete report of this version and histogram shape
+     */
+    public static TestbedReport decode(byte[] payload) {
+        if (payload.length < HEADER_LENGTH || payload[0] != MAGIC || payload[1] != VERSION)
+            throw new IllegalArgumentException("Not a testbed report");
+
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(payload);
+            buffer.position(2);
+            int state = buffer.get();
+            if (state < 0 || state >= State.values().length)
+                throw new IllegalArgumentException("Unknown testbed state " + state);
+
+            long intervalEnd = buffer.getLong();
+            long published = buffer.getLong();
+            long acknowledged = buffer.getLong();
+            long failed = buffer.getLong();
+            int devices = buffer.getInt();
+            int connections = buffer.getInt();
+            long highestTrackable = buffer.getLong();
+            int subBucketBits = buffer.get();
+            if (highestTrackable != EdgeAggregator.HIGHEST_TRACKABLE_MILLIS || subBucketBits != EdgeAggregator.SUB_BUCKET_BITS)
+                throw new IllegalArgumentException("Unexpected histogram shape [" + highestTrackable + ", " + subBucketBits + "]");
+
+            byte[] testbedID = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(testbedID);
+            LatencyHistogram roundTrips = new LatencyHistogram(highestTrackable, subBucketBits);
+            roundTrips.decodeAndAdd(buffer);
+            return new TestbedReport(new String(testbedID, StandardCharsets.UTF_8), State.values()[state], intervalEnd, published,
+                    acknowledged, failed, devices, connections, roundTrips);
+        } catch (BufferUnderflowException bue) {
+            throw new IllegalArgumentException("Truncated testbed report");
+        }
+    }
+
+    public String getTestbedID() {
+        return testbedID;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public long getIntervalEnd() {
+        return intervalEnd;
+    }
+
+    public long getPublished() {
+        return published;
+    }
+
+    public long getAcknowledged() {
+        return acknowledged;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public int getDevices() {
+        return devices;
+    }
+
+    public int getConnections() {
+        return connections;
+    }
+
+    /**
+     * @return the round trips of the interval, in ms
+     */
+    public LatencyHistogram getRoundTrips() {
+        return roundTrips;
+    }
+}
@@ -0,0 +1,271 @@
+package com.cheetahnetworks;
+
+import com.cheetahnetworks.exceptions.InvalidProfileException;
+import com.github.cliftonlabs.json_simple.JsonArray;
+import com.github.cliftonlabs.json_simple.JsonException;
+import com.github.cliftonlabs.json_simple.JsonObject;
+import com.github.cliftonlabs.json_simple.Jsoner;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Everything a run needs to know about the traffic to generate, so production traffic shapes can be reproduced without
+ * recompiling: where to connect, how fast to ramp up connections, and one or more DeviceGroups. Read from a JSON file,
+ * for example:
+ *
+ * <pre>
+ * {
+ *   "broker": "tcp://localhost:1883",
+ *   "deviceIdPrefix": "testbed-1-",
+ *   "devicesPerConnection": 10,
+ *   "connectsPerSecond": 500,
+ *   "maxConnecting": 100,
+ *   "maxConnectAttempts": 10,
+ *   "testbedId": "testbed-1",
+ *   "edgeAggregation": false,
+ *   "coordinated": false,
+ *   "groups": [
+ *     { "name": "meters", "devices": 10000, "format": "BINARY", "payloadBytes": 256, "qos": 1,
+ *       "rate": { "type": "ramp", "from": 0.1, "to": 1, "seconds": 300 }, "durationSeconds": 900 },
+ *     { "name": "alarms", "devices": 500, "qos": 2, "startSeconds": 120,
+ *       "rate": { "type": "spike", "base": 0.05, "peak": 5, "at": 60, "seconds": 10 } },
+ *     { "name": "gateways", "devices": 100, "waitMillis": 5000, "topicFanOut": 4,
+ *       "reportTopic": "/site-{shard}/devices/{device}/latency/report" },
+ *     { "name": "bulk", "devices": 50, "waitMillis": 0, "window": 16 },
+ *     { "name": "fleet", "devices": 20000, "rate": 2, "batchSize": 50, "lingerMillis": 5 }
+ *   ]
+ * }
+ * </pre>
+ *
+ * A group with a "rate" is open-loop. One without is closed-loop and must have a "waitMillis", the wait between a reply
+ * and the device's next message; 0 has to be asked for, so a group never turns into an unpaced ping-pong by leaving both
+ * out. A closed-loop group's "window" is the number of messages each device keeps in flight, 1 by default. A group's "batchSize" packs up to that many reports of the devices sharing a connection into one
+ * publish, waiting at most "lingerMillis" for a batch to fill; 1, the default, publishes every report on its own. Rates
+ * are messages per second per device:
+ * <ul>
+ * <li>{"type": "constant", "rate": r}</li>
+ * <li>{"type": "ramp", "from": r1, "to": r2, "seconds": s}, holding r2 once the ramp is over</li>
+ * <li>{"type": "step", "steps": [{"at": s1, "rate": r1}, {"at": s2, "rate": r2}, ...]}</li>
+ * <li>{"type": "spike", "base": r1, "peak": r2, "at": s, "seconds": length}</li>
+ * </ul>
+ * A bare number is taken as a constant rate. Times are seconds from the start of the group. A group's other settings
+ * default to 1 device, JSON payloads without padding, QoS 1, the report topic /devices/{device}/latency/report and no
+ * fan-out, starting at once and running until stopped. Settings outside the groups that are left out take the defaults
+ * of Main. Device IDs are the prefix, the group name and an index; none of them may contain '/', '+' or '#', as
+ * the recorder matches IDs with the single-level '+' of /devices/+/latency/report. With "edgeAggregation" the testbed
+ * measures its devices' round trips itself and sends the recorder one summary per interval, named by "testbedId", see
+ * EdgeAggregator. With "coordinated" the workload waits for a Coordinator to start it, and reports to it under
+ * "testbedId", see TestbedAgent.
+ */
+public class WorkloadProfile {
+    private final String broker;
+    private final String deviceIdPrefix;
+    private final int devicesPerConnection;
+    private final double connectsPerSecond;
+    private final int maxConnecting;
+    private final int maxConnectAttempts;
+    private final String testbedId;
+    private final boolean edgeAggregation;
+    private final boolean coordinated;
+    private final List<DeviceGroup> groups;
+
+    /**
+     * @param broker               The URI of the broker
+     * @param deviceIdPrefix       Prepended to every device ID, e.g. the testbed's name
+     * @param devicesPerConnection The devices multiplexed onto each MQTT connection, within a group
+     * @param connectsPerSecond    The average rate new connections are opened at, see ConnectRamp
+     * @param maxConnecting        The most connections waiting for the broker's CONNACK at once
+     * @param maxConnectAttempts   Attempts per connection before giving up on it, 0 to keep trying
+     * @param testbedId            The name of this testbed, unique among the testbeds sharing a recorder
+     * @param edgeAggregation      Whether the testbed aggregates its round trips itself, see EdgeAggregator
+     * @param coordinated          Whether the testbed is started, ramped and stopped by a Coordinator, see TestbedAgent
+     * @param groups               The devices to run
+     */
+    public WorkloadProfile(String broker, String deviceIdPrefix, int devicesPerConnection, double connectsPerSecond, int maxConnecting,
+                           int maxConnectAttempts, String testbedId, boolean edgeAggregation, boolean coordinated, List<DeviceGroup> groups) {
+        if (devicesPerConnection < 1)
+            throw new IllegalArgumentException("Devices per connection must be positive");
+        DeviceGroup.checkDeviceID(deviceIdPrefix);
+
+        this.broker = broker;
+        this.deviceIdPrefix = deviceIdPrefix;
+        this.devicesPerConnection = devicesPerConnection;
+        this.connectsPerSecond = connectsPerSecond;
+        this.maxConnecting = maxConnecting;
+        this.maxConnectAttempts = maxConnectAttempts;
+        this.testbedId = testbedId;
+        this.edgeAggregation = edgeAggregation;
+        this.coordinated = coordinated;
+        this.groups = Collections.unmodifiableList(new ArrayList<DeviceGroup>(groups));
+    }
+
+    /**
+     * Reads a profile from a JSON file.
+     *
+     * @param file     The profile
+     * @param defaults The values of any settings the file leaves out; its groups are ignored
+     * @return the profile
+     * @throws InvalidProfileException if the file can't be read, isn't JSON, or describes an invalid workload
+     */
+    public static WorkloadProfile load(Path file, WorkloadProfile defaults) throws InvalidProfileException {
+        Object json;
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            json = Jsoner.deserialize(reader);
+        } catch (IOException | JsonException e) {
+            throw new InvalidProfileException("Unable to read profile " + file + ": " + e.getMessage(), e);
+        }
+
+        try {
+            JsonObject root = (JsonObject) json;
+            JsonArray groupsJson = (JsonArray) root.get("groups");
+            if (groupsJson == null || groupsJson.isEmpty())
+                throw new IllegalArgumentException("No device groups");
+
+            List<DeviceGroup> groups = new ArrayList<DeviceGroup>();
+            for (Object group : groupsJson)
+                groups.add(parseGroup((JsonObject) group));
+
+            return new WorkloadProfile(
+                    string(root, "broker", defaults.broker),
+                    string(root, "deviceIdPrefix", defaults.deviceIdPrefix),
+                    integer(root, "devicesPerConnection", defaults.devicesPerConnection),
+                    number(root, "connectsPerSecond", defaults.connectsPerSecond),
+                    integer(root, "maxConnecting", defaults.maxConnecting),
+                    integer(root, "maxConnectAttempts", defaults.maxConnectAttempts),
+                    string(root, "testbedId", defaults.testbedId),
+                    bool(root, "edgeAggregation", defaults.edgeAggregation),
+                    bool(root, "coordinated", defaults.coordinated),
+                    groups);
+        } catch (ClassCastException | IllegalArgumentException e) { // Wrong types, bad values, unknown enum names
+            throw new InvalidProfileException("Invalid profile " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static DeviceGroup parseGroup(JsonObject group) {
+        String name = string(group, "name", null);
+        if (!group.containsKey("rate") && !group.containsKey("waitMillis"))
+            throw new IllegalArgumentException("Group " + name + " needs a \"rate\", or a \"waitMillis\" between a reply and the next message");
+
+        return new DeviceGroup(
+                name,
+                integer(group, "devices", 1),
+                integer(group, "payloadBytes", 0),
+                integer(group, "qos", DeviceGroup.DEFAULT_QOS),
+                PayloadFormat.valueOf(string(group, "format", PayloadFormat.JSON.name())),
+                integer(group, "waitMillis", 0),
+                integer(group, "window", 1),
+                group.containsKey("rate") ? parseRate(group.get("rate"), name) : null,
+                string(group, "reportTopic", DeviceGroup.DEFAULT_REPORT_TOPIC),
+                integer(group, "topicFanOut", 1),
+                integer(group, "batchSize", 1),
+                integer(group, "lingerMillis", DeviceGroup.DEFAULT_LINGER_MILLIS),
+                number(group, "startSeconds", 0),
+                number(group, "durationSeconds", 0));
+    }
+
+    private static RateCurve parseRate(Object rate, String group) {
+        if (rate instanceof BigDecimal)
+            return RateCurve.constant(((BigDecimal) rate).doubleValue());
+
+        JsonObject curve = (JsonObject) rate;
+        String type = string(curve, "type", "constant");
+        switch (type) {
+            case "constant":
+                return RateCurve.constant(required(curve, "rate", group));
+            case "ramp":
+                return RateCurve.ramp(required(curve, "from", group), required(curve, "to", group), required(curve, "seconds", group));
+            case "spike":
+                return RateCurve.spike(required(curve, "base", group), required(curve, "peak", group), required(curve, "at", group),
+                        required(curve, "seconds", group));
+            case "step":
+                JsonArray steps = (JsonArray) curve.get("steps");
+                if (steps == null)
+                    throw new IllegalArgumentException("Step rate of group " + group + " has no steps");
+
+                double[] at = new double[steps.size()];
+                double[] rates = new double[steps.size()];
+                for (int i = 0; i < steps.size(); i++) {
+                    JsonObject step = (JsonObject) steps.get(i);
+                    at[i] = required(step, "at", group);
+                    rates[i] = required(step, "rate", group);
+                }
+                return RateCurve.steps(at, rates);
+            default:
+                throw new IllegalArgumentException("Unknown rate type of group " + group + ": " + type);
+        }
+    }
+
+    private static String string(JsonObject json, String key, String orElse) {
+        Object value = json.get(key);
+        return value == null ? orElse : (String) value;
+    }
+
+    private static double number(JsonObject json, String key, double orElse) {
+        Object value = json.get(key);
+        return value == null ? orElse : ((BigDecimal) value).doubleValue();
+    }
+
+    private static int integer(JsonObject json, String key, int orElse) {
+        Object value = json.get(key);
+        return value == null ? orElse : ((BigDecimal) value).intValueExact();
+    }
+
+    private static boolean bool(JsonObject json, String key, boolean orElse) {
+        Object value = json.get(key);
+        return value == null ? orElse : (Boolean) value;
+    }
+
+    private static double required(JsonObject json, String key, String group) {
+        if (json.get(key) == null)
+            throw new IllegalArgumentException("Rate of group " + group + " is missing \"" + key + "\"");
+        return number(json, key, 0);
+    }
+
+    public String getBroker() {
+        return broker;
+    }
+
+    public String getDeviceIdPrefix() {
+        return deviceIdPrefix;
+    }
+
+    public int getDevicesPerConnection() {
+        return devicesPerConnection;
+    }
+
+    public double getConnectsPerSecond() {
+        return connectsPerSecond;
+    }
+
+    public int getMaxConnecting() {
+        return maxConnecting;
+    }
+
+    public int getMaxConnectAttempts() {
+        return maxConnectAttempts;
+    }
+
+    public String getTestbedId() {
+        return testbedId;
+    }
+
+    public boolean isEdgeAggregation() {
+        return edgeAggregation;
+    }
+
+    public boolean isCoordinated() {
+        return coordinated;
+    }
+
+    public List<DeviceGroup> getGroups() {
+        return groups;
+    }
+}
@@ -0,0 +1,179 @@
+package com.cheetahnetworks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a WorkloadProfile on a LoadEngine. Each group is started at its start time, with a schedule and a ConnectRamp
+ * of its own, and its clients are closed once its duration is up. A TestbedAgent may also change the open-loop groups'
+ * rates, and stop every group early.
+ */
+public class WorkloadRunner {
+    private static final long BACKOFF_BASE_MILLIS = 100; // Connect retries, see ConnectRamp
+    private static final long BACKOFF_CAP_MILLIS = 30000;
+
+    private final WorkloadProfile profile;
+    private final LoadEngine engine;
+    private final List<GroupRun> runs = new ArrayList<GroupRun>();
+    private volatile double controlledRate = -1; // Messages per second per open-loop device set by setRate(), -1 until then
+
+    /**
+     * @param profile The workload to run
+     * @param engine  The engine to run it on
+     */
+    public WorkloadRunner(WorkloadProfile profile, LoadEngine engine) {
+        this.profile = profile;
+        this.engine = engine;
+        for (DeviceGroup group : profile.getGroups())
+            runs.add(new GroupRun(group));
+    }
+
+    /**
+     * Schedules every group's start and end, and returns straight away.
+     */
+    public void start() {
+        for (GroupRun run : runs) {
+            DeviceGroup group = run.group;
+            engine.schedule(run::start, (long) (group.getStartSeconds() * 1000));
+            if (group.getDurationSeconds() > 0)
+                engine.schedule(run::stop, (long) ((group.getStartSeconds() + group.getDurationSeconds()) * 1000));
+        }
+    }
+
+    /**
+     * Changes the rate of every open-loop group, started or not: running devices change from their next send, groups
+     * starting later start at this rate instead of their own curve.
+     *
+     * @param msgsPerSecond The number of messages each device sends per second, 0 to pause them
+     */
+    public void setRate(double msgsPerSecond) {
+        if (msgsPerSecond < 0 || Double.isNaN(msgsPerSecond))
+            throw new IllegalArgumentException("Invalid message rate: " + msgsPerSecond);
+
+        controlledRate = msgsPerSecond;
+        for (GroupRun run : runs)
+            run.setRate(msgsPerSecond);
+    }
+
+    /**
+     * Stops every group now, closing the clients of those started and keeping the rest from starting.
+     */
+    public void stop() {
+        for (GroupRun run : runs)
+            run.stop();
+    }
+
+    /**
+     * @return whether every group has run its course, never true if a group runs until the program stops
+     */
+    public boolean isFinished() {
+        for (GroupRun run : runs) {
+            if (!run.stopped)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return whether every group has started and its ramp has connected, or given up on, all of its clients
+     */
+    public boolean isRampedUp() {
+        for (GroupRun run : runs) {
+            ConnectRamp ramp = run.ramp;
+            if (ramp == null || !ramp.isFinished())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return one line per started group, with its connect ramp's summary, for the performance reporting loop
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        for (GroupRun run : runs) {
+            ConnectRamp ramp = run.ramp;
+            if (ramp == null)
+                continue;
+
+            if (report.length() > 0)
+                report.append(System.lineSeparator());
+            report.append(run.group.getName()).append(run.stopped ? " (done)" : "").append(" | ").append(ramp.report());
+        }
+        return report.toString();
+    }
+
+    // One group's clients, from its start to its end
+    private final class GroupRun {
+        final DeviceGroup group;
+        final List<Client> clients = new ArrayList<Client>();
+        SendSchedule schedule; // Null until started, and for closed-loop groups. Guarded by clients
+        volatile ConnectRamp ramp;
+        volatile boolean stopped;
+
+        GroupRun(DeviceGroup group) {
+            this.group = group;
+        }
+
+        void start() {
+            if (stopped) // Stopped before its start time
+                return;
+
+            System.out.println("Starting " + group);
+            SendSchedule schedule = group.newSchedule(); // The group's curve starts now, whether its devices have connected or not
+            synchronized (clients) { // Either this sees a rate being set, or setRate() sees the schedule
+                if (schedule != null && controlledRate >= 0)
+                    schedule.setRate(controlledRate);
+                this.schedule = schedule;
+            }
+            int perConnection = profile.getDevicesPerConnection();
+            ConnectRamp ramp = new ConnectRamp(engine, profile.getConnectsPerSecond(), profile.getMaxConnecting(),
+                    profile.getMaxConnectAttempts(), BACKOFF_BASE_MILLIS, BACKOFF_CAP_MILLIS);
+            this.ramp = ramp;
+
+            // Build clients in parallel, each carrying up to devicesPerConnection devices, and connect them at a controlled rate
+            ramp.start((group.getDevices() + perConnection - 1) / perConnection, index -> {
+                int first = index * perConnection;
+                List<String> deviceIDs = new ArrayList<String>();
+                for (int d = first; d < Math.min(first + perConnection, group.getDevices()); d++)
+                    deviceIDs.add(group.deviceID(profile.getDeviceIdPrefix(), d));
+
+                Client client = new Client(profile.getBroker(), deviceIDs.get(0), deviceIDs, first, group, schedule, engine);
+                synchronized (clients) {
+                    if (stopped) { // Ended while still ramping up
+                        client.close();
+                        return client;
+                    }
+                    clients.add(client);
+                }
+                return client;
+            });
+        }
+
+        void setRate(double msgsPerSecond) {
+            List<Client> toChange;
+            synchronized (clients) {
+                if (schedule == null)
+                    return;
+                schedule.setRate(msgsPerSecond);
+                toChange = new ArrayList<Client>(clients);
+            }
+            // The devices switch their schedule over, fixed-rate ones have a task of their own to replace
+            for (Client client : toChange)
+                client.setRate(msgsPerSecond);
+        }
+
+        void stop() {
+            List<Client> toClose;
+            synchronized (clients) {
+                if (stopped)
+                    return;
+                stopped = true;
+                toClose = new ArrayList<Client>(clients);
+            }
+            System.out.println("Stopping " + group.getName());
+            for (Client client : toClose)
+                client.close();
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.cheetahnetworks.exceptions;
+
+/**
+ * Thrown when a workload profile can't be read or doesn't describe a valid workload
+ */
+public class InvalidProfileException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public InvalidProfileException(String message) {
+        super(message);
+    }
+
+    public InvalidProfileException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
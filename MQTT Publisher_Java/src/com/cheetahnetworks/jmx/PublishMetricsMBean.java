@@ -0,0 +1,35 @@
+package com.cheetahnetworks.jmx;
+
+/**
+ * The JMX view of a PublishMetrics, registered as com.cheetahnetworks:type=PublishMetrics. Totals are live, rates and
+ * percentiles are those of the last complete interval.
+ */
+public interface PublishMetricsMBean {
+    long getReportsTotal();
+
+    long getPublishedTotal();
+
+    long getAcknowledgedTotal();
+
+    long getFailedTotal();
+
+    long getInFlight();
+
+    double getPublishRate();
+
+    double getAcknowledgeRate();
+
+    double getFailureRate();
+
+    long getAckLatencyP50Micros();
+
+    long getAckLatencyP90Micros();
+
+    long getAckLatencyP99Micros();
+
+    long getAckLatencyP999Micros();
+
+    long getAckLatencyMaxMicros();
+
+    long getIntervalMillis();
+}
@@ -0,0 +1,25 @@
+package com.cheetahnetworks.jmx;
+
+/**
+ * The JMX view of a ReconnectMetrics, registered as com.cheetahnetworks:type=ReconnectMetrics. Everything is counted
+ * since the start.
+ */
+public interface ReconnectMetricsMBean {
+    long getOutagesTotal();
+
+    long getReconnectsTotal();
+
+    long getFailedAttemptsTotal();
+
+    int getDisconnected();
+
+    long getLostInFlightTotal();
+
+    long getLostWhileDownTotal();
+
+    long getOutageP50Millis();
+
+    long getOutageP99Millis();
+
+    long getOutageMaxMillis();
+}
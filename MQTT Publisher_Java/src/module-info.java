@@ -1,4 +1,6 @@
 module MqttTester {
+    exports com.cheetahnetworks.jmx; // For JMX, see PublishMetricsMBean
+    requires java.management;
     requires json.simple;
     requires org.eclipse.paho.client.mqttv3;
 }
\ No newline at end of file
@@ -0,0 +1,69 @@
+package com.cheetahnetworks;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Checks the framing BatchPayload writes against the layout the recorder reads, byte by byte.
+ */
+public class BatchPayloadTest {
+
+    @Test
+    public void headerHoldsTheCountBigEndian() {
+        byte[] batch = new byte[BatchPayload.HEADER_LENGTH];
+        BatchPayload.putHeader(batch, 0x1234);
+
+        assertArrayEquals(new byte[]{BatchPayload.MAGIC, BatchPayload.VERSION, 0x12, 0x34}, batch);
+    }
+
+    @Test
+    public void headerTakesTheLargestCount() {
+        byte[] batch = new byte[BatchPayload.HEADER_LENGTH];
+        BatchPayload.putHeader(batch, BatchPayload.MAX_REPORTS);
+
+        assertEquals(BatchPayload.MAX_REPORTS, ByteBuffer.wrap(batch).getShort(2) & 0xFFFF);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void headerRefusesMoreReportsThanTheCountHolds() {
+        BatchPayload.putHeader(new byte[BatchPayload.HEADER_LENGTH], BatchPayload.MAX_REPORTS + 1);
+    }
+
+    @Test
+    public void framesFollowEachOther() {
+        byte[] first = {1, 2, 3};
+        byte[] second = new byte[0];
+        byte[] third = new byte[0x10203];
+        third[third.length - 1] = 9;
+
+        byte[] batch = new byte[BatchPayload.HEADER_LENGTH + 3 * BatchPayload.FRAME_HEADER_LENGTH + first.length + third.length];
+        int offset = BatchPayload.putFrame(batch, BatchPayload.HEADER_LENGTH, first);
+        assertEquals(BatchPayload.HEADER_LENGTH + BatchPayload.FRAME_HEADER_LENGTH + first.length, offset);
+        offset = BatchPayload.putFrame(batch, offset, second);
+        offset = BatchPayload.putFrame(batch, offset, third);
+        BatchPayload.putHeader(batch, 3);
+        assertEquals(batch.length, offset);
+
+        ByteBuffer buffer = ByteBuffer.wrap(batch);
+        buffer.position(BatchPayload.HEADER_LENGTH);
+        for (byte[] report : new byte[][]{first, second, third}) {
+            assertEquals(report.length, buffer.getInt());
+            byte[] read = new byte[report.length];
+            buffer.get(read);
+            assertArrayEquals(report, read);
+        }
+        assertEquals(0, buffer.remaining());
+    }
+
+    @Test
+    public void magicIsNotASingleReport() {
+        assertFalse(BatchPayload.MAGIC == '{');
+        assertFalse(BatchPayload.MAGIC == BinaryPayload.MAGIC);
+        assertFalse(BatchPayload.MAGIC == EdgeSummary.MAGIC);
+    }
+}
@@ -0,0 +1,69 @@
+package com.cheetahnetworks;
+
+import com.cheetahnetworks.exceptions.InvalidProfileException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks how a profile's groups are read: each must say how it is paced, and settings left out take the documented
+ * defaults.
+ */
+public class WorkloadProfileTest {
+    private static final WorkloadProfile DEFAULTS = new WorkloadProfile("tcp://localhost:1883", "default-", 10, 500, 100, 10,
+            "default", false, false, Collections.<DeviceGroup>emptyList());
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void closedLoopGroupTakesItsWait() throws Exception {
+        DeviceGroup group = load("{ \"name\": \"gateways\", \"devices\": 100, \"waitMillis\": 5000 }");
+
+        assertNull(group.getRate());
+        assertEquals(5000, group.getWaitMillis());
+    }
+
+    @Test
+    public void openLoopGroupNeedsNoWait() throws Exception {
+        DeviceGroup group = load("{ \"name\": \"meters\", \"rate\": 2 }");
+
+        assertEquals(2, group.getRate().rateAt(0), 0);
+        assertEquals(1, group.getDevices());
+        assertEquals(PayloadFormat.JSON, group.getFormat());
+        assertEquals(DeviceGroup.DEFAULT_QOS, group.getQos());
+    }
+
+    @Test(expected = InvalidProfileException.class)
+    public void groupWithoutRateOrWaitIsRefused() throws Exception {
+        load("{ \"name\": \"bulk\", \"devices\": 50, \"window\": 16 }");
+    }
+
+    @Test
+    public void settingsLeftOutTakeTheDefaults() throws Exception {
+        WorkloadProfile profile = WorkloadProfile.load(write("{ \"groups\": [ { \"name\": \"a\", \"rate\": 1 } ] }"), DEFAULTS);
+
+        assertEquals(DEFAULTS.getBroker(), profile.getBroker());
+        assertEquals(DEFAULTS.getDeviceIdPrefix(), profile.getDeviceIdPrefix());
+        assertEquals(DEFAULTS.getDevicesPerConnection(), profile.getDevicesPerConnection());
+    }
+
+    private DeviceGroup load(String group) throws InvalidProfileException, IOException {
+        return WorkloadProfile.load(write("{ \"groups\": [ " + group + " ] }"), DEFAULTS).getGroups().get(0);
+    }
+
+    private Path write(String json) throws IOException {
+        Path file = folder.newFile().toPath();
+        Files.write(file, json.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
@@ -0,0 +1,256 @@
+package com.cheetah.recorder;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous, batched alternative to <i>CsvWriter</i>. Results are handed over through a bounded
+ * queue and written by a dedicated writer thread, which keeps a single <i>FileChannel</i> open and
+ * encodes every line into one reusable direct buffer. Appending never blocks: if the disk falls so
+ * far behind that the queue fills up, the record is dropped and counted instead of delaying the
+ * <i>Timer</i> or MQTT callback threads.
+ * <p>
+ * The buffer is written out every <i>flushEveryRecords</i> records or <i>flushIntervalMillis</i>,
+ * whichever comes first, optionally followed by an fsync. Once a file reaches <i>maxFileBytes</i>
+ * it is closed and writing continues in <i>name.1.csv</i>, <i>name.2.csv</i>, etc.
+ * @version 1.0.0, 2026-10-16
+ * @since 1.1.0
+ *
+ */
+public class AsyncCsvWriter implements ResultsSink {
+
+	/** Default number of results which may wait for the writer thread. */
+	public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+	/** Default number of records written between flushes. */
+	public static final int DEFAULT_FLUSH_EVERY_RECORDS = 1;
+	/** Default longest time a record may sit in the buffer. */
+	public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+	/** Default size at which a file is rolled over, 0 to never roll. */
+	public static final long DEFAULT_MAX_FILE_BYTES = 0;
+
+	/** Size of the direct buffer lines are encoded into. */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/** The first output file; rolled files are named after it. */
+	private final File baseFile;
+	private final ArrayBlockingQueue<BucketResults> queue;
+	private final int flushEveryRecords;
+	private final long flushIntervalMillis;
+	private final boolean fsync;
+	private final long maxFileBytes;
+
+	/** Results dropped because the queue was full. */
+	private final AtomicLong dropped = new AtomicLong();
+
+	private final Thread writerThread;
+	private volatile boolean running = true;
+
+	// *** Only touched by the writer thread ***
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final StringBuilder line = new StringBuilder(128);
+	private FileChannel channel;
+	private long fileBytes;
+	private int fileIndex;
+	private int unflushedRecords;
+	private long lastFlush;
+
+	/**
+	 * Initialization constructor using the default queue, flush and rotation settings (flush
+	 * after every record, no fsync, no rotation).
+	 * @param path The CSV file to create and write to.
+	 */
+	public AsyncCsvWriter(File path){
+		this(path, DEFAULT_QUEUE_CAPACITY, DEFAULT_FLUSH_EVERY_RECORDS, DEFAULT_FLUSH_INTERVAL_MILLIS, false, DEFAULT_MAX_FILE_BYTES);
+	}
+
+	/**
+	 * The initialization constructor for this Class. Creates/overwrites the output file and
+	 * starts the writer thread.
+	 * @param path The CSV file to create and write to.
+	 * @param queueCapacity The number of results which may wait for the writer thread.
+	 * @param flushEveryRecords Write the buffer out after this many records.
+	 * @param flushIntervalMillis Write the buffer out at least this often while it holds records.
+	 * @param fsync Force written data to disk on every flush.
+	 * @param maxFileBytes Roll over to a new file once this size is reached, 0 to never roll.
+	 */
+	public AsyncCsvWriter(File path, int queueCapacity, int flushEveryRecords, long flushIntervalMillis, boolean fsync, long maxFileBytes){
+		this.baseFile = path;
+		this.queue = new ArrayBlockingQueue<BucketResults>(queueCapacity);
+		this.flushEveryRecords = Math.max(flushEveryRecords, 1);
+		this.flushIntervalMillis = flushIntervalMillis;
+		this.fsync = fsync;
+		this.maxFileBytes = maxFileBytes;
+
+		try{
+			openFile();
+		}
+		catch(IOException e){
+			e.printStackTrace();
+		}
+
+		this.writerThread = new Thread(new Runnable(){
+			@Override
+			public void run(){
+				writeLoop();
+			}
+		}, "csv-writer");
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+	}
+
+	/**
+	 * Queues the results for the writer thread. Never blocks; if the queue is full the results
+	 * are dropped and counted.
+	 * @param br The results retrieved when emptying a <i>LatencyBucket</i>
+	 */
+	@Override
+	public void appendBucketResults(BucketResults br){
+		System.out.println("\tAverage Lat. = " + br.getAverage() + " ms | p99 = " + br.getP99() + " ms | Max = " + br.getMax() + " ms");
+
+		if(!this.running || !this.queue.offer(br)){
+			long total = this.dropped.incrementAndGet();
+			System.out.println("[ERROR] CSV writer is falling behind - Dropped " + total + " result(s).");
+		}
+	}
+
+	/**
+	 * Returns the number of results dropped because the writer thread could not keep up.
+	 * @return The number of dropped results.
+	 */
+	public long getDropped(){
+		return this.dropped.get();
+	}
+
+	/**
+	 * Returns the number of results waiting for the writer thread.
+	 * @return The queue depth.
+	 */
+	public int getQueueDepth(){
+		return this.queue.size();
+	}
+
+	/**
+	 * Stops accepting results, waits for the writer thread to write out everything already
+	 * queued, and closes the file.
+	 */
+	@Override
+	public void close(){
+		this.running = false;
+		try{
+			this.writerThread.join();
+		}
+		catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * The writer thread's main loop: takes results off the queue, encodes them and flushes
+	 * according to the flush policy until closed and drained.
+	 */
+	private void writeLoop(){
+		this.lastFlush = System.currentTimeMillis();
+
+		while(this.running || !this.queue.isEmpty()){
+			try{
+				BucketResults br = this.queue.poll(Math.max(this.flushIntervalMillis, 1), TimeUnit.MILLISECONDS);
+				if(br != null){
+					write(br);
+				}
+
+				if(this.unflushedRecords >= this.flushEveryRecords
+						|| (this.unflushedRecords > 0 && System.currentTimeMillis() - this.lastFlush >= this.flushIntervalMillis)){
+					flush();
+				}
+			}
+			catch(InterruptedException e){
+				break;
+			}
+			catch(IOException e){
+				e.printStackTrace();
+			}
+		}
+
+		try{
+			flush();
+			if(this.channel != null){
+				this.channel.close();
+			}
+		}
+		catch(IOException e){
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Encodes one record into the buffer, writing the buffer out first if the line won't fit.
+	 */
+	private void write(BucketResults br) throws IOException{
+		this.line.setLength(0);
+		CsvWriter.appendLine(this.line, br);
+
+		if(this.buffer.remaining() < this.line.length()){
+			drainBuffer();
+		}
+		for(int i = 0; i < this.line.length(); i++){
+			this.buffer.put((byte) this.line.charAt(i)); // Lines are plain ASCII
+		}
+		this.unflushedRecords++;
+	}
+
+	/**
+	 * Writes the buffer out, fsyncs if configured, and rolls the file over if it is full.
+	 */
+	private void flush() throws IOException{
+		drainBuffer();
+		if(this.fsync && this.channel != null){
+			this.channel.force(false);
+		}
+		this.unflushedRecords = 0;
+		this.lastFlush = System.currentTimeMillis();
+
+		if(this.maxFileBytes > 0 && this.fileBytes >= this.maxFileBytes){
+			this.channel.close();
+			this.fileIndex++;
+			openFile();
+		}
+	}
+
+	private void drainBuffer() throws IOException{
+		this.buffer.flip();
+		while(this.buffer.hasRemaining() && this.channel != null){
+			this.fileBytes += this.channel.write(this.buffer);
+		}
+		this.buffer.clear();
+	}
+
+	/**
+	 * Creates/overwrites the current output file and writes the CSV header.
+	 */
+	private void openFile() throws IOException{
+		File file = this.baseFile;
+		if(this.fileIndex > 0){
+			String name = this.baseFile.getName();
+			int dot = name.lastIndexOf('.');
+			String rolled = dot > 0
+					? name.substring(0, dot) + "." + this.fileIndex + name.substring(dot)
+					: name + "." + this.fileIndex;
+			file = new File(this.baseFile.getAbsoluteFile().getParentFile(), rolled);
+		}
+		System.out.println("[INFO] Creating file @ '" + file.getAbsolutePath() + "'");
+
+		this.channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		this.fileBytes = 0;
+
+		for(int i = 0; i < CsvWriter.HEADER.length(); i++){
+			this.buffer.put((byte) CsvWriter.HEADER.charAt(i));
+		}
+		drainBuffer();
+	}
+}
@@ -0,0 +1,62 @@
+package com.cheetah.recorder;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retry delays with <i>decorrelated jitter</i>: each delay is drawn at random between the base
+ * delay and three times the previous one, capped. Delays still grow roughly exponentially, but
+ * clients that failed together don't retry together, so a broker coming back up isn't hit by every
+ * connection at the same instant. The publisher uses the same scheme. One instance per retrying
+ * client; not thread-safe.
+ * @version 1.0.0, 2026-10-16
+ * @since 1.1.0
+ *
+ */
+public class Backoff {
+
+	private final long baseMillis;
+	private final long capMillis;
+
+	private long previousMillis;
+	private int attempts;
+
+	/**
+	 * The initialization constructor for the <i>Backoff</i> class.
+	 * @param baseMillis The shortest delay, also the first delay's lower bound.
+	 * @param capMillis The longest delay.
+	 */
+	public Backoff(long baseMillis, long capMillis){
+		if(baseMillis < 1 || capMillis < baseMillis){
+			throw new IllegalArgumentException("Invalid backoff range [" + baseMillis + ", " + capMillis + "]");
+		}
+		this.baseMillis = baseMillis;
+		this.capMillis = capMillis;
+		reset();
+	}
+
+	/**
+	 * Returns the time to wait before the next attempt.
+	 * @return The delay, in milliseconds.
+	 */
+	public long nextDelayMillis(){
+		long upper = Math.min(this.capMillis, this.previousMillis * 3);
+		this.previousMillis = upper <= this.baseMillis ? this.baseMillis : ThreadLocalRandom.current().nextLong(this.baseMillis, upper + 1);
+		this.attempts++;
+		return this.previousMillis;
+	}
+
+	/**
+	 * Returns the number of delays handed out since the last reset.
+	 * @return The number of attempts.
+	 */
+	public int getAttempts(){
+		return this.attempts;
+	}
+
+	/**
+	 * Starts over from the base delay, e.g. once an attempt succeeds.
+	 */
+	public void reset(){
+		this.previousMillis = this.baseMillis;
+		this.attempts = 0;
+	}
+}
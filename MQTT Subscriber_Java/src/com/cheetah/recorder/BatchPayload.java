@@ -0,0 +1,83 @@
+package com.cheetah.recorder;
+
+/**
+ * Reads batches of reports, several complete JSON or <i>BinaryPayload</i> reports framed into one
+ * payload by the publisher's <i>com.cheetahnetworks.ReportBatcher</i>. The layout must match the
+ * publisher's <i>com.cheetahnetworks.BatchPayload</i>; all numbers are big-endian.
+ * <pre>
+ *  offset  size  field
+ *       0     1  MAGIC, neither '{', <i>BinaryPayload.MAGIC</i> nor <i>EdgeSummary.MAGIC</i>
+ *       1     1  VERSION
+ *       2     2  report count
+ *       4        the reports, each:
+ *                    4  length n in bytes
+ *                    n  the report
+ * </pre>
+ * Frames are walked in order with <i>getReportLength()</i>, starting at <i>HEADER_LENGTH</i>.
+ * @version 1.0.0, 2026-10-16
+ * @since 1.1.0
+ *
+ */
+public final class BatchPayload {
+
+	/** First byte of every batch. */
+	public static final byte MAGIC = (byte) 0xC9;
+	/** Layout version. */
+	public static final byte VERSION = 1;
+
+	private static final int COUNT_OFFSET = 2;
+	/** Size of the fixed part of a batch, which the first frame follows. */
+	public static final int HEADER_LENGTH = 4;
+	/** Size of the length preceding every report. */
+	public static final int FRAME_HEADER_LENGTH = 4;
+
+	private BatchPayload(){
+	}
+
+	/**
+	 * Returns whether the payload is a batch, as opposed to a single report.
+	 * @param payload A received payload.
+	 * @return True if the payload starts with <i>MAGIC</i>.
+	 */
+	public static boolean isBatch(byte[] payload){
+		return payload.length > 0 && payload[0] == MAGIC;
+	}
+
+	/**
+	 * Returns whether a batch's header is complete and of a known version. Frames are only
+	 * checked as they are walked.
+	 * @param payload A received payload.
+	 * @return True if the report count may be read.
+	 */
+	public static boolean isValid(byte[] payload){
+		return payload.length >= HEADER_LENGTH && payload[0] == MAGIC && payload[1] == VERSION;
+	}
+
+	/**
+	 * Returns the number of reports in the batch.
+	 * @param payload A valid batch.
+	 * @return The number of frames.
+	 */
+	public static int getReportCount(byte[] payload){
+		return ((payload[COUNT_OFFSET] & 0xFF) << 8) | (payload[COUNT_OFFSET + 1] & 0xFF);
+	}
+
+	/**
+	 * Returns the length of the report framed at <i>offset</i>, which starts
+	 * <i>FRAME_HEADER_LENGTH</i> bytes later.
+	 * @param payload A valid batch.
+	 * @param offset The offset of the frame.
+	 * @return The length of the report, or -1 if the frame runs past the end of the batch.
+	 */
+	public static int getReportLength(byte[] payload, int offset){
+		if(offset < HEADER_LENGTH || offset + FRAME_HEADER_LENGTH > payload.length){
+			return -1;
+		}
+		int length = ((payload[offset] & 0xFF) << 24) | ((payload[offset + 1] & 0xFF) << 16)
+				| ((payload[offset + 2] & 0xFF) << 8) | (payload[offset + 3] & 0xFF);
+		if(length < 0 || length > payload.length - offset - FRAME_HEADER_LENGTH){
+			return -1;
+		}
+		return length;
+	}
+}
@@ -0,0 +1,172 @@
+package com.cheetah.recorder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the publisher's fixed-layout binary payloads in place, and stamps the recorder's times into timed ones. The layout must match the
+ * publisher's <i>com.cheetahnetworks.BinaryPayload</i>; all numbers are big-endian.
+ * <pre>
+ *  offset  size  field
+ *       0     1  MAGIC, never '{' so the format can be told apart from JSON
+ *       1     1  VERSION
+ *       2     8  sequence number
+ *      10     8  timestamp (ms since epoch)
+ *      18     8  last_latency (ms, -1 if there was no previous message)
+ *      26     2  device_id length in bytes
+ *      28     n  device_id (UTF-8)
+ * </pre>
+ * <i>VERSION_TIMED</i> payloads carry three more timestamps before the device ID, in ns since
+ * epoch by each side's <i>PreciseClock</i>. The recorder stamps the last two, in place, as the
+ * report arrives and as the reply leaves:
+ * <pre>
+ *      28     8  send_nanos (publisher)
+ *      36     8  receive_nanos (recorder)
+ *      44     8  reply_nanos (recorder)
+ *      52     n  device_id (UTF-8)
+ * </pre>
+ * The recorder detects the format of every message from its first byte, and replies by echoing
+ * the payload, so publishers in either format can share one recorder.
+ * @version 1.0.0, 2026-10-16
+ * @since 1.1.0
+ *
+ */
+public final class BinaryPayload {
+
+	/** First byte of every binary payload. */
+	public static final byte MAGIC = (byte) 0xC7;
+	/** Layout version of plain payloads. */
+	public static final byte VERSION = 1;
+	/** Layout version of timed payloads. */
+	public static final byte VERSION_TIMED = 2;
+
+	private static final int SEQUENCE_OFFSET = 2;
+	private static final int TIMESTAMP_OFFSET = 10;
+	private static final int LAST_LATENCY_OFFSET = 18;
+	private static final int DEVICE_ID_LENGTH_OFFSET = 26;
+	/** Size of the fixed part of a plain payload, which the device ID follows. */
+	public static final int HEADER_LENGTH = 28;
+	private static final int RECEIVE_NANOS_OFFSET = 36;
+	private static final int REPLY_NANOS_OFFSET = 44;
+	/** Size of the fixed part of a timed payload, which the device ID follows. */
+	public static final int TIMED_HEADER_LENGTH = 52;
+
+	private BinaryPayload(){
+	}
+
+	/**
+	 * Returns whether the payload is binary, as opposed to JSON.
+	 * @param payload A received payload.
+	 * @return True if the payload starts with <i>MAGIC</i>.
+	 */
+	public static boolean isBinary(byte[] payload){
+		return payload.length > 0 && payload[0] == MAGIC;
+	}
+
+	/**
+	 * Returns whether a binary payload is complete and of a known version.
+	 * @param payload A received payload.
+	 * @return True if the fields may be read.
+	 */
+	public static boolean isValid(byte[] payload){
+		if(payload.length < HEADER_LENGTH || payload[0] != MAGIC || (payload[1] != VERSION && payload[1] != VERSION_TIMED)){
+			return false;
+		}
+		// Anything after the device ID is padding, echoed back untouched
+		return payload.length >= getDeviceIdOffset(payload) + getDeviceIdLength(payload);
+	}
+
+	/**
+	 * Returns whether a binary payload carries the nanosecond timestamps of <i>VERSION_TIMED</i>.
+	 * @param payload A binary payload.
+	 * @return True if the receive and reply times should be stamped.
+	 */
+	public static boolean isTimed(byte[] payload){
+		return payload[1] == VERSION_TIMED;
+	}
+
+	/**
+	 * Stamps the time the report was received, see <i>PreciseClock</i>.
+	 * @param payload A valid timed payload.
+	 * @param nanos The receive time, in ns since epoch.
+	 */
+	public static void setReceiveNanos(byte[] payload, long nanos){
+		putLong(payload, RECEIVE_NANOS_OFFSET, nanos);
+	}
+
+	/**
+	 * Stamps the time the reply was sent, see <i>PreciseClock</i>.
+	 * @param payload A valid timed payload.
+	 * @param nanos The reply time, in ns since epoch.
+	 */
+	public static void setReplyNanos(byte[] payload, long nanos){
+		putLong(payload, REPLY_NANOS_OFFSET, nanos);
+	}
+
+	/**
+	 * Returns the sequence number of the message.
+	 * @param payload A valid binary payload.
+	 * @return The sequence number.
+	 */
+	public static long getSequence(byte[] payload){
+		return getLong(payload, SEQUENCE_OFFSET);
+	}
+
+	/**
+	 * Returns the time the message was sent.
+	 * @param payload A valid binary payload.
+	 * @return The send time, in ms since epoch.
+	 */
+	public static long getTimestamp(byte[] payload){
+		return getLong(payload, TIMESTAMP_OFFSET);
+	}
+
+	/**
+	 * Returns the latency measured by the device for its previous message.
+	 * @param payload A valid binary payload.
+	 * @return The last latency in ms, or -1 if there was no previous message.
+	 */
+	public static long getLastLatency(byte[] payload){
+		return getLong(payload, LAST_LATENCY_OFFSET);
+	}
+
+	/**
+	 * Returns the offset of the device ID, which follows the header.
+	 * @param payload A binary payload.
+	 * @return <i>TIMED_HEADER_LENGTH</i> for timed payloads, <i>HEADER_LENGTH</i> otherwise.
+	 */
+	public static int getDeviceIdOffset(byte[] payload){
+		return isTimed(payload) ? TIMED_HEADER_LENGTH : HEADER_LENGTH;
+	}
+
+	/**
+	 * Returns the length in bytes of the device ID, which starts at <i>getDeviceIdOffset()</i>.
+	 * @param payload A binary payload.
+	 * @return The length of the device ID.
+	 */
+	public static int getDeviceIdLength(byte[] payload){
+		return ((payload[DEVICE_ID_LENGTH_OFFSET] & 0xFF) << 8) | (payload[DEVICE_ID_LENGTH_OFFSET + 1] & 0xFF);
+	}
+
+	/**
+	 * Decodes the device ID. Allocates; prefer reading the bytes in place where possible.
+	 * @param payload A valid binary payload.
+	 * @return The device ID.
+	 */
+	public static String getDeviceId(byte[] payload){
+		return new String(payload, getDeviceIdOffset(payload), getDeviceIdLength(payload), StandardCharsets.UTF_8);
+	}
+
+	private static long getLong(byte[] buffer, int offset){
+		long value = 0;
+		for(int i = 0; i < 8; i++){
+			value = (value << 8) | (buffer[offset + i] & 0xFF);
+		}
+		return value;
+	}
+
+	private static void putLong(byte[] buffer, int offset, long value){
+		for(int i = 7; i >= 0; i--){
+			buffer[offset + i] = (byte) value;
+			value >>>= 8;
+		}
+	}
+}
@@ -2,32 +2,163 @@ package com.cheetah.recorder;
 
 /**
  * A simple structure returned whenever the <i>LatencyBucket</i> is emptied. 
- * Contains the average of all entries, as well as the number of entries at the time of 
- * emptying.
+ * Contains the average of all entries, the number of entries at the time of 
+ * emptying, and the minimum, maximum and p50/p90/p99/p99.9 percentiles.
  * @author Alex Gaudreault
- * @version 1.0.0, 2019-12-05
+ * @version 1.1.0, 2026-10-16
  * @since 1.0.0
  *
  */
 public class BucketResults {
 
+	/** The time the bucket was emptied, in ms since epoch. */
+	private long timestamp;
+	/** The same time, in ns since epoch by <i>PreciseClock</i>. */
+	private long timestampNanos;
+	/** The boundary the interval was scheduled to end on, in ms since epoch. */
+	private long intervalEnd;
+	/** A copy of the emptied bucket's distribution, or null if the results were not built from a histogram. */
+	private LatencyHistogram histogram;
+	/** Lost, duplicate and out-of-order messages of the interval, see <i>SequenceTracker</i>. */
+	private SequenceCounts sequenceCounts = new SequenceCounts();
 	/** Contains the calculated average of the bucket contents, when it was emptied. */
 	private Double average;
 	/** Contains the number of entries contained in the bucket, when it was emptied. */
 	private Double numEntries;
+	/** Contains the smallest entry in the bucket, when it was emptied. */
+	private long min;
+	/** Contains the 50th percentile (median) of the bucket entries, when it was emptied. */
+	private long p50;
+	/** Contains the 90th percentile of the bucket entries, when it was emptied. */
+	private long p90;
+	/** Contains the 99th percentile of the bucket entries, when it was emptied. */
+	private long p99;
+	/** Contains the 99.9th percentile of the bucket entries, when it was emptied. */
+	private long p999;
+	/** Contains the largest entry in the bucket, when it was emptied. */
+	private long max;
 	
 	/**
-	 * Initialization constructor for the <i>BucketResults</i> class. Takes the average and 
-	 * number of entries contained in the <i>LatencyBucket</i>.
+	 * Initialization constructor for the <i>BucketResults</i> class. Takes the average, 
+	 * number of entries and percentiles contained in the <i>LatencyBucket</i>.
 	 * @param average The average between all entries in the <i>LatencyBucket</i>.
 	 * @param numEntries The number of entries contained in the <i>LatencyBucket</i>
+	 * @param min The smallest entry in the <i>LatencyBucket</i>.
+	 * @param p50 The 50th percentile of the entries in the <i>LatencyBucket</i>.
+	 * @param p90 The 90th percentile of the entries in the <i>LatencyBucket</i>.
+	 * @param p99 The 99th percentile of the entries in the <i>LatencyBucket</i>.
+	 * @param p999 The 99.9th percentile of the entries in the <i>LatencyBucket</i>.
+	 * @param max The largest entry in the <i>LatencyBucket</i>.
 	 * 
-	 * @version 1.0.0, 2019-12-05
+	 * @version 1.1.0, 2026-10-16
 	 * @since 1.0.0
 	 */
-	public BucketResults(Double average, Double numEntries){
+	public BucketResults(Double average, Double numEntries, long min, long p50, long p90, long p99, long p999, long max){
+		this.timestampNanos = PreciseClock.epochNanos();
+		this.timestamp = this.timestampNanos / 1000000;
+		this.intervalEnd = this.timestamp;
 		this.average = average;
 		this.numEntries = numEntries;
+		this.min = min;
+		this.p50 = p50;
+		this.p90 = p90;
+		this.p99 = p99;
+		this.p999 = p999;
+		this.max = max;
+	}
+	
+	/**
+	 * Builds the results describing the contents of a histogram.
+	 * @param histogram The histogram holding the bucket entries.
+	 * @return The <i>BucketResults</i> describing <i>histogram</i>.
+	 * 
+	 * @since 1.1.0
+	 */
+	public static BucketResults fromHistogram(LatencyHistogram histogram){
+		BucketResults results = new BucketResults(
+				histogram.getMean(),
+				(double) histogram.getCount(),
+				histogram.getMin(),
+				histogram.getValueAtPercentile(50.0),
+				histogram.getValueAtPercentile(90.0),
+				histogram.getValueAtPercentile(99.0),
+				histogram.getValueAtPercentile(99.9),
+				histogram.getMax()
+		);
+		// The bucket reuses its histogram for the next interval, and a sink may still be writing this one out
+		results.histogram = histogram.copyEmpty();
+		results.histogram.add(histogram);
+		return results;
+	}
+	
+	/**
+	 * Returns the time the bucket was emptied.
+	 * @return The time the results were created, in ms since epoch.
+	 */
+	public long getTimestamp(){
+		return this.timestamp;
+	}
+	
+	/**
+	 * Returns the time the bucket was emptied, with the precision of <i>PreciseClock</i>.
+	 * @return The time the results were created, in ns since epoch.
+	 * 
+	 * @since 1.1.0
+	 */
+	public long getTimestampNanos(){
+		return this.timestampNanos;
+	}
+	
+	/**
+	 * Returns the boundary the interval was scheduled to end on. Unlike <i>getTimestamp()</i>, 
+	 * it does not lag behind when the <i>Timer</i> thread runs late, so it tells which window 
+	 * the interval belongs to.
+	 * @return The end of the interval, in ms since epoch; the emptying time if it was not scheduled.
+	 * 
+	 * @since 1.1.0
+	 */
+	public long getIntervalEnd(){
+		return this.intervalEnd;
+	}
+	
+	/**
+	 * Sets the boundary the interval was scheduled to end on.
+	 * @param intervalEnd The end of the interval, in ms since epoch.
+	 * 
+	 * @since 1.1.0
+	 */
+	void setIntervalEnd(long intervalEnd){
+		this.intervalEnd = intervalEnd;
+	}
+	
+	/**
+	 * Returns what the sequence numbers of the interval's messages revealed.
+	 * @return The interval's lost, duplicate and out-of-order message counts; all 0 if unknown.
+	 * 
+	 * @since 1.1.0
+	 */
+	public SequenceCounts getSequenceCounts(){
+		return this.sequenceCounts;
+	}
+	
+	/**
+	 * Sets the interval's lost, duplicate and out-of-order message counts.
+	 * @param sequenceCounts The counts.
+	 * 
+	 * @since 1.1.0
+	 */
+	void setSequenceCounts(SequenceCounts sequenceCounts){
+		this.sequenceCounts = sequenceCounts;
+	}
+	
+	/**
+	 * Returns the full distribution of the bucket entries, e.g. to store or merge it.
+	 * @return A copy of the bucket's histogram, or null if the results were not built from one.
+	 * 
+	 * @since 1.1.0
+	 */
+	public LatencyHistogram getHistogram(){
+		return this.histogram;
 	}
 	
 	/**
@@ -45,4 +176,52 @@ public class BucketResults {
 	public Double getNumEntries(){
 		return this.numEntries;
 	}
+	
+	/**
+	 * Returns the smallest bucket entry.
+	 * @return The smallest entry added to the bucket.
+	 */
+	public long getMin(){
+		return this.min;
+	}
+	
+	/**
+	 * Returns the 50th percentile (median) of the bucket entries.
+	 * @return The 50th percentile of the bucket entries.
+	 */
+	public long getP50(){
+		return this.p50;
+	}
+	
+	/**
+	 * Returns the 90th percentile of the bucket entries.
+	 * @return The 90th percentile of the bucket entries.
+	 */
+	public long getP90(){
+		return this.p90;
+	}
+	
+	/**
+	 * Returns the 99th percentile of the bucket entries.
+	 * @return The 99th percentile of the bucket entries.
+	 */
+	public long getP99(){
+		return this.p99;
+	}
+	
+	/**
+	 * Returns the 99.9th percentile of the bucket entries.
+	 * @return The 99.9th percentile of the bucket entries.
+	 */
+	public long getP999(){
+		return this.p999;
+	}
+	
+	/**
+	 * Returns the largest bucket entry.
+	 * @return The largest entry added to the bucket.
+	 */
+	public long getMax(){
+		return this.max;
+	}
 }
@@ -0,0 +1,101 @@
+package com.cheetah.recorder;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A lock-free latency accumulator which any number of threads may record into while another
+ * thread drains it at interval boundaries. Every recording thread gets its own <i>Cell</i>,
+ * so writers never contend with each other, and each cell holds two <i>LatencyHistogram</i>s:
+ * one being written, one quiescent.
+ * <p>
+ * Draining flips each cell's active histogram with a writer/reader phaser (see <i>PhasedPair</i>):
+ * writers only ever pay for two uncontended atomic increments, and the drainer waits for writers
+ * already inside the old phase to leave before reading it. Every recorded value therefore lands
+ * in exactly one drained interval.
+ * @version 1.0.0, 2026-10-16
+ * @since 1.1.0
+ *
+ */
+public class ConcurrentLatencyRecorder {
+
+	/** Template used to create each cell's histograms, all recorders' histograms share its shape. */
+	private final LatencyHistogram template;
+
+	/** Every cell created so far. Only the drainer iterates it, writers only append their own. */
+	private final CopyOnWriteArrayList<Cell> cells = new CopyOnWriteArrayList<Cell>();
+
+	/** The calling thread's cell, created on its first recording. */
+	private final ThreadLocal<Cell> localCell = new ThreadLocal<Cell>(){
+		@Override
+		protected Cell initialValue(){
+			Cell cell = new Cell(Thread.currentThread());
+			cells.add(cell);
+			return cell;
+		}
+	};
+
+	/**
+	 * The initialization constructor for the <i>ConcurrentLatencyRecorder</i> class.
+	 * @param highestTrackableValue The largest value which should be counted accurately.
+	 * @param subBucketBits log2 of the number of sub-buckets per power of two.
+	 */
+	public ConcurrentLatencyRecorder(long highestTrackableValue, int subBucketBits){
+		this.template = new LatencyHistogram(highestTrackableValue, subBucketBits);
+	}
+
+	/**
+	 * Returns an empty histogram of the right shape to drain this recorder into.
+	 * @return A new, empty <i>LatencyHistogram</i>.
+	 */
+	public LatencyHistogram newIntervalHistogram(){
+		return this.template.copyEmpty();
+	}
+
+	/**
+	 * Records a value into the calling thread's cell. Lock-free and allocation-free after the
+	 * thread's first call.
+	 * @param value The value to record.
+	 */
+	public void recordValue(long value){
+		Cell cell = this.localCell.get();
+
+		long epoch = cell.histograms.enter();
+		cell.histograms.active(epoch).recordValue(value);
+		cell.histograms.exit(epoch);
+	}
+
+	/**
+	 * Moves everything recorded since the last drain into <i>target</i>. Only one thread may
+	 * drain at a time; callers are serialized.
+	 * @param target The histogram to add the drained values to (see <i>newIntervalHistogram()</i>).
+	 */
+	public synchronized void drainInto(LatencyHistogram target){
+		for(Cell cell : this.cells){
+			LatencyHistogram inactive = cell.histograms.flip();
+			target.add(inactive);
+			inactive.reset();
+
+			// Once its thread is gone, nothing can be left in flight, collect the other phase and forget the cell
+			if(!cell.owner.isAlive()){
+				inactive = cell.histograms.flip();
+				target.add(inactive);
+				inactive.reset();
+				this.cells.remove(cell);
+			}
+		}
+	}
+
+	/**
+	 * One writer thread's pair of histograms.
+	 */
+	private final class Cell {
+
+		/** The thread writing to this cell. */
+		private final Thread owner;
+
+		private final PhasedPair<LatencyHistogram> histograms = new PhasedPair<LatencyHistogram>(template.copyEmpty(), template.copyEmpty());
+
+		private Cell(Thread owner){
+			this.owner = owner;
+		}
+	}
+}
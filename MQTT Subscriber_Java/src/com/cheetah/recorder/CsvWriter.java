@@ -1,17 +1,22 @@
 package com.cheetah.recorder;
 import java.io.*;
-import java.sql.Date;
-import java.text.SimpleDateFormat;
+import java.util.TimeZone;
 
 /**
- * This class manages the reading and writing of a CSV file.
+ * This class manages the reading and writing of a CSV file. Every call opens, appends to and 
+ * closes the file on the calling thread; see <i>AsyncCsvWriter</i> for a non-blocking alternative.
  * @author Alex Gaudreault
  * 
- * @version 1.0.3, 2019-12-05
+ * @version 1.1.0, 2026-10-16
  * @since 1.0.0
  *
  */
-public class CsvWriter {
+public class CsvWriter implements ResultsSink {
+
+	/** The first line of every CSV file. */
+	static final String HEADER = "TIME_UTC, LATENCY_AVG, NUM_MESSAGES, LATENCY_MIN, LATENCY_P50, LATENCY_P90, LATENCY_P99, LATENCY_P999, LATENCY_MAX, MESSAGES_LOST, MESSAGES_DUPLICATED, MESSAGES_OUT_OF_ORDER\n";
+	/** Time zone of the TIME_UTC column, looked up once rather than on every line. */
+	private static final TimeZone ZONE = TimeZone.getDefault();
 
 	/** Output file currently being written to by this object. */
 	private File outFile;
@@ -36,7 +41,7 @@ public class CsvWriter {
 		
 		try {
 			out = new FileWriter(path, false);
-			out.write("TIME_UTC, LATENCY_AVG, NUM_MESSAGES\n");
+			out.write(HEADER);
 			out.flush();
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
@@ -46,31 +51,30 @@ public class CsvWriter {
 	}
 	
 	/**
-	 * Appends the passed <i>BucketResults</i> average and number of entries, to the CSV 
+	 * Appends the passed <i>BucketResults</i> average, number of entries and percentiles, to the CSV 
 	 * file. First column is the current time, second column in the bucket average and the 
-	 * third column is the number of entries in the bucket.
+	 * third column is the number of entries in the bucket. The next columns are the 
+	 * minimum, p50, p90, p99, p99.9 and maximum, followed by the interval's lost, duplicate and 
+	 * out-of-order message counts.
 	 * 
 	 * @param br The results retrieved when emptying a <i>LatencyBucket</i>
 	 */
+	@Override
 	public void appendBucketResults(BucketResults br){
 		
 		try{
 		out = new FileWriter(outFile, true);
 		
-		Double average = br.getAverage();
-		Double numMsg = br.getNumEntries();
-		
-		System.out.println("\tAverage Lat. = " + average + " ms");
+		System.out.println("\tAverage Lat. = " + br.getAverage() + " ms | p99 = " + br.getP99() + " ms | Max = " + br.getMax() + " ms");
 		
 		if(!outFile.exists() || !outFile.isFile()){
 			System.out.println("[INFO] Creating file @ '" + outFile.getAbsolutePath() + "'");
 			outFile.mkdirs();
 		}
 		
-		SimpleDateFormat formatter= new SimpleDateFormat("HH:mm:ss");
-		Date date = new Date(System.currentTimeMillis());
-		
-		out.append(formatter.format(date) + ", " + average + ", " + numMsg + "\n");
+		StringBuilder line = new StringBuilder(128);
+		appendLine(line, br);
+		out.append(line);
 		
 		out.flush();
 		out.close();
@@ -79,4 +83,45 @@ public class CsvWriter {
 			e.printStackTrace();
 		}
 	}
+	
+	/**
+	 * Nothing to release, the file is closed after every append.
+	 */
+	@Override
+	public void close(){
+	}
+	
+	/**
+	 * Formats one CSV line (including the line break) describing the passed results. The time 
+	 * column is the time the bucket was emptied, as <i>HH:mm:ss</i>.
+	 * @param line The builder to append the line to.
+	 * @param br The results retrieved when emptying a <i>LatencyBucket</i>
+	 */
+	static void appendLine(StringBuilder line, BucketResults br){
+		long millis = br.getTimestamp();
+		long secondOfDay = Math.floorMod((millis + ZONE.getOffset(millis)) / 1000, 86400L);
+		appendTwoDigits(line, secondOfDay / 3600).append(':');
+		appendTwoDigits(line, secondOfDay / 60 % 60).append(':');
+		appendTwoDigits(line, secondOfDay % 60);
+		
+		line.append(", ").append(br.getAverage())
+			.append(", ").append(br.getNumEntries())
+			.append(", ").append(br.getMin())
+			.append(", ").append(br.getP50())
+			.append(", ").append(br.getP90())
+			.append(", ").append(br.getP99())
+			.append(", ").append(br.getP999())
+			.append(", ").append(br.getMax())
+			.append(", ").append(br.getSequenceCounts().getLost())
+			.append(", ").append(br.getSequenceCounts().getDuplicates())
+			.append(", ").append(br.getSequenceCounts().getOutOfOrder())
+			.append('\n');
+	}
+	
+	private static StringBuilder appendTwoDigits(StringBuilder line, long value){
+		if(value < 10){
+			line.append('0');
+		}
+		return line.append(value);
+	}
 }
@@ -0,0 +1,130 @@
+package com.cheetah.recorder;
+
+/**
+ * A simple structure describing one device's latency, returned by <i>DeviceStatsTable</i> when
+ * an interval ends. Contains the device's statistics for the interval, as well as since the
+ * device was first seen.
+ * @version 1.0.0, 2026-10-16
+ * @since 1.1.0
+ *
+ */
+public class DeviceResults {
+
+	/** The device identifier. */
+	private String deviceId;
+	/** Number of latency entries from the device during the interval. */
+	private long intervalCount;
+	/** Average latency of the device during the interval. */
+	private double intervalAverage;
+	/** Largest latency of the device during the interval. */
+	private long intervalMax;
+	/** Number of latency entries from the device since it was first seen. */
+	private long totalCount;
+	/** Average latency of the device since it was first seen. */
+	private double totalAverage;
+	/** Smallest latency of the device since it was first seen. */
+	private long totalMin;
+	/** Largest latency of the device since it was first seen. */
+	private long totalMax;
+	/** Coarse latency distribution since the device was first seen, see <i>DeviceStatsTable.HISTOGRAM_BUCKETS</i>. */
+	private long[] histogram;
+
+	/**
+	 * Initialization constructor for the <i>DeviceResults</i> class.
+	 * @param deviceId The device identifier.
+	 * @param intervalCount Number of entries during the interval.
+	 * @param intervalAverage Average latency during the interval.
+	 * @param intervalMax Largest latency during the interval.
+	 * @param totalCount Number of entries since the device was first seen.
+	 * @param totalAverage Average latency since the device was first seen.
+	 * @param totalMin Smallest latency since the device was first seen.
+	 * @param totalMax Largest latency since the device was first seen.
+	 * @param histogram Coarse latency distribution since the device was first seen.
+	 */
+	public DeviceResults(String deviceId, long intervalCount, double intervalAverage, long intervalMax,
+			long totalCount, double totalAverage, long totalMin, long totalMax, long[] histogram){
+		this.deviceId = deviceId;
+		this.intervalCount = intervalCount;
+		this.intervalAverage = intervalAverage;
+		this.intervalMax = intervalMax;
+		this.totalCount = totalCount;
+		this.totalAverage = totalAverage;
+		this.totalMin = totalMin;
+		this.totalMax = totalMax;
+		this.histogram = histogram;
+	}
+
+	/**
+	 * Returns the device identifier.
+	 * @return The device identifier.
+	 */
+	public String getDeviceId(){
+		return this.deviceId;
+	}
+
+	/**
+	 * Returns the number of entries from the device during the interval.
+	 * @return The number of entries during the interval.
+	 */
+	public long getIntervalCount(){
+		return this.intervalCount;
+	}
+
+	/**
+	 * Returns the device's average latency during the interval.
+	 * @return The average latency during the interval.
+	 */
+	public double getIntervalAverage(){
+		return this.intervalAverage;
+	}
+
+	/**
+	 * Returns the device's largest latency during the interval.
+	 * @return The largest latency during the interval.
+	 */
+	public long getIntervalMax(){
+		return this.intervalMax;
+	}
+
+	/**
+	 * Returns the number of entries from the device since it was first seen.
+	 * @return The total number of entries.
+	 */
+	public long getTotalCount(){
+		return this.totalCount;
+	}
+
+	/**
+	 * Returns the device's average latency since it was first seen.
+	 * @return The overall average latency.
+	 */
+	public double getTotalAverage(){
+		return this.totalAverage;
+	}
+
+	/**
+	 * Returns the device's smallest latency since it was first seen.
+	 * @return The overall smallest latency.
+	 */
+	public long getTotalMin(){
+		return this.totalMin;
+	}
+
+	/**
+	 * Returns the device's largest latency since it was first seen.
+	 * @return The overall largest latency.
+	 */
+	public long getTotalMax(){
+		return this.totalMax;
+	}
+
+	/**
+	 * Returns the device's coarse latency distribution since it was first seen. Bucket <i>i</i>
+	 * counts latencies below <i>DeviceStatsTable.HISTOGRAM_BUCKET_LIMITS[i]</i>; the last one
+	 * counts everything above.
+	 * @return The bucket counts.
+	 */
+	public long[] getHistogram(){
+		return this.histogram;
+	}
+}
@@ -0,0 +1,456 @@
+package com.cheetah.recorder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Per-device latency statistics with bounded memory. Devices are kept in a primitive,
+ * open-addressing (linear probing) table: every statistic lives inline in a parallel
+ * <i>long[]</i>/<i>int[]</i> column, and a device is found by a 64-bit hash of its ID bytes,
+ * read straight out of the payload. Recording an entry for a known device therefore allocates
+ * nothing; only a device's first entry decodes its ID to a <i>String</i> (kept for reporting).
+ * <p>
+ * For each device the table tracks count, min, max and mean since it was first seen, a coarse
+ * 8-bucket histogram, and count/mean/max for the current interval, from which the top-N slowest
+ * devices are reported when the interval ends. The table grows up to <i>maxDevices</i>; past
+ * that, the least recently seen eighth of the devices is evicted to make room, and devices idle
+ * for longer than a timeout can be evicted at each interval. A table may also be drained into
+ * another, which is how the per-connection tables of <i>StatsShard</i>s are merged.
+ * <p>
+ * Two IDs with the same 64-bit hash are treated as the same device; at a million devices the
+ * odds of that are around one in thirty million. Methods are synchronized: the table is meant
+ * to be written by one message thread and read by the interval <i>Timer</i>, so the lock is
+ * almost never contended.
+ * @version 1.0.0, 2026-10-16
+ * @since 1.1.0
+ *
+ */
+public class DeviceStatsTable {
+
+	/** Upper limits of the histogram buckets (latency units); the last bucket has no limit. */
+	public static final long[] HISTOGRAM_BUCKET_LIMITS = {1, 4, 16, 64, 256, 1024, 4096};
+	/** Number of histogram buckets per device. */
+	public static final int HISTOGRAM_BUCKETS = HISTOGRAM_BUCKET_LIMITS.length + 1;
+
+	/** The table is grown once it is this full. */
+	private static final double LOAD_FACTOR = 0.75;
+	/** Number of occupied slots sampled to pick the cut-off when evicting least recently seen devices. */
+	private static final int EVICTION_SAMPLE = 1024;
+
+	/** Most devices kept at once. */
+	private final int maxDevices;
+	/** Largest number of slots the table may grow to. */
+	private final int maxCapacity;
+
+	private int capacity;
+	private int mask;
+	private int size;
+
+	// *** One entry per slot; a key of 0 marks an empty slot ***
+	private long[] keys;
+	private String[] ids;
+	private long[] lastSeen;
+	private long[] count;
+	private long[] sum;
+	private int[] min;
+	private int[] max;
+	private int[] intervalCount;
+	private long[] intervalSum;
+	private int[] intervalMax;
+	/** <i>HISTOGRAM_BUCKETS</i> consecutive counts per slot. */
+	private int[] histogram;
+
+	/** Devices evicted since the table was created. */
+	private long evicted;
+
+	/**
+	 * The initialization constructor for the <i>DeviceStatsTable</i> class.
+	 * @param maxDevices The most devices to keep statistics for at once.
+	 */
+	public DeviceStatsTable(int maxDevices){
+		if(maxDevices < 1){
+			throw new IllegalArgumentException("Invalid device limit [" + maxDevices + "]");
+		}
+		this.maxDevices = maxDevices;
+		this.maxCapacity = tableSizeFor((int) Math.ceil(maxDevices / LOAD_FACTOR) + 1);
+		allocate(Math.min(1024, this.maxCapacity));
+	}
+
+	private static int tableSizeFor(int n){
+		int size = Integer.highestOneBit(Math.max(n - 1, 1)) << 1;
+		return Math.max(size, 2);
+	}
+
+	private void allocate(int newCapacity){
+		this.capacity = newCapacity;
+		this.mask = newCapacity - 1;
+		this.size = 0;
+		this.keys = new long[newCapacity];
+		this.ids = new String[newCapacity];
+		this.lastSeen = new long[newCapacity];
+		this.count = new long[newCapacity];
+		this.sum = new long[newCapacity];
+		this.min = new int[newCapacity];
+		this.max = new int[newCapacity];
+		this.intervalCount = new int[newCapacity];
+		this.intervalSum = new long[newCapacity];
+		this.intervalMax = new int[newCapacity];
+		this.histogram = new int[newCapacity * HISTOGRAM_BUCKETS];
+	}
+
+	/**
+	 * Hashes a device ID's bytes (FNV-1a, then mixed). Never returns 0, which marks empty slots.
+	 * @param buf The buffer holding the device ID, e.g. a message payload.
+	 * @param offset The offset of the ID's first byte.
+	 * @param length The number of bytes in the ID.
+	 * @return The 64-bit hash of the ID.
+	 */
+	public static long hash(byte[] buf, int offset, int length){
+		long h = 0xcbf29ce484222325L;
+		for(int i = offset; i < offset + length; i++){
+			h ^= buf[i];
+			h *= 0x100000001b3L;
+		}
+		h ^= (h >>> 33);
+		h *= 0xff51afd7ed558ccdL;
+		h ^= (h >>> 33);
+		return h == 0 ? 1 : h;
+	}
+
+	/**
+	 * Records one latency entry for a device. Allocation-free unless the device is new.
+	 * @param buf The buffer holding the device ID, e.g. a message payload.
+	 * @param offset The offset of the ID's first byte.
+	 * @param length The number of bytes in the ID.
+	 * @param latency The latency to record.
+	 * @param now The current time, in ms since epoch.
+	 */
+	public synchronized void record(byte[] buf, int offset, int length, long latency, long now){
+		long key = hash(buf, offset, length);
+		int slot = find(key);
+		if(this.keys[slot] == 0){
+			slot = insert(key, new String(buf, offset, length, StandardCharsets.UTF_8));
+		}
+
+		int value = (int) Math.min(Math.max(latency, 0), Integer.MAX_VALUE);
+		this.lastSeen[slot] = now;
+		this.count[slot]++;
+		this.sum[slot] += value;
+		if(value < this.min[slot]){
+			this.min[slot] = value;
+		}
+		if(value > this.max[slot]){
+			this.max[slot] = value;
+		}
+		this.intervalCount[slot]++;
+		this.intervalSum[slot] += value;
+		if(value > this.intervalMax[slot]){
+			this.intervalMax[slot] = value;
+		}
+
+		int bucket = 0;
+		while(bucket < HISTOGRAM_BUCKET_LIMITS.length && value >= HISTOGRAM_BUCKET_LIMITS[bucket]){
+			bucket++;
+		}
+		this.histogram[slot * HISTOGRAM_BUCKETS + bucket]++;
+	}
+
+	/**
+	 * Returns the slot holding <i>key</i>, or the empty slot where it would be inserted.
+	 */
+	private int find(long key){
+		int slot = (int) key & this.mask;
+		while(this.keys[slot] != 0 && this.keys[slot] != key){
+			slot = (slot + 1) & this.mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Adds a new, empty device, making room first if needed, and returns its slot.
+	 */
+	private int insert(long key, String id){
+		if(this.size >= this.maxDevices){
+			evictLeastRecent();
+		}
+		if(this.size + 1 > this.capacity * LOAD_FACTOR && this.capacity < this.maxCapacity){
+			rehash(this.capacity * 2, Long.MIN_VALUE);
+		}
+
+		int slot = find(key);
+		this.keys[slot] = key;
+		this.ids[slot] = id;
+		this.min[slot] = Integer.MAX_VALUE;
+		this.size++;
+		return slot;
+	}
+
+	/**
+	 * Copies every device seen at or after <i>minLastSeen</i> into a new table of
+	 * <i>newCapacity</i> slots, dropping the rest.
+	 */
+	private void rehash(int newCapacity, long minLastSeen){
+		long[] oldKeys = this.keys;
+		String[] oldIds = this.ids;
+		long[] oldLastSeen = this.lastSeen;
+		long[] oldCount = this.count;
+		long[] oldSum = this.sum;
+		int[] oldMin = this.min;
+		int[] oldMax = this.max;
+		int[] oldIntervalCount = this.intervalCount;
+		long[] oldIntervalSum = this.intervalSum;
+		int[] oldIntervalMax = this.intervalMax;
+		int[] oldHistogram = this.histogram;
+		int oldSize = this.size;
+
+		allocate(newCapacity);
+
+		for(int old = 0; old < oldKeys.length; old++){
+			if(oldKeys[old] == 0 || oldLastSeen[old] < minLastSeen){
+				continue;
+			}
+			int slot = find(oldKeys[old]);
+			this.keys[slot] = oldKeys[old];
+			this.ids[slot] = oldIds[old];
+			this.lastSeen[slot] = oldLastSeen[old];
+			this.count[slot] = oldCount[old];
+			this.sum[slot] = oldSum[old];
+			this.min[slot] = oldMin[old];
+			this.max[slot] = oldMax[old];
+			this.intervalCount[slot] = oldIntervalCount[old];
+			this.intervalSum[slot] = oldIntervalSum[old];
+			this.intervalMax[slot] = oldIntervalMax[old];
+			System.arraycopy(oldHistogram, old * HISTOGRAM_BUCKETS, this.histogram, slot * HISTOGRAM_BUCKETS, HISTOGRAM_BUCKETS);
+			this.size++;
+		}
+
+		this.evicted += oldSize - this.size;
+	}
+
+	/**
+	 * Evicts roughly the least recently seen eighth of the devices. The cut-off is estimated from
+	 * a sample of slots rather than a full sort, and at least one device is always evicted.
+	 */
+	private void evictLeastRecent(){
+		long[] sample = new long[EVICTION_SAMPLE];
+		int sampled = 0;
+		int step = Math.max(1, this.capacity / EVICTION_SAMPLE);
+		for(int slot = 0; slot < this.capacity && sampled < sample.length; slot += step){
+			if(this.keys[slot] != 0){
+				sample[sampled++] = this.lastSeen[slot];
+			}
+		}
+
+		long cutoff = Long.MIN_VALUE;
+		if(sampled > 0){
+			Arrays.sort(sample, 0, sampled);
+			cutoff = sample[sampled / 8] + 1;
+		}
+
+		int before = this.size;
+		rehash(this.capacity, cutoff);
+		if(this.size == before){
+			// Every sampled device was seen at the same time; fall back to evicting the oldest outright
+			long oldest = Long.MAX_VALUE;
+			for(int slot = 0; slot < this.capacity; slot++){
+				if(this.keys[slot] != 0 && this.lastSeen[slot] < oldest){
+					oldest = this.lastSeen[slot];
+				}
+			}
+			rehash(this.capacity, oldest + 1);
+		}
+	}
+
+	/**
+	 * Adds every device's statistics to <i>target</i>, inserting the devices it doesn't know yet,
+	 * then empties this table.
+	 * @param target The table to merge into.
+	 */
+	public synchronized void drainInto(DeviceStatsTable target){
+		if(this.size == 0){
+			return;
+		}
+		for(int slot = 0; slot < this.capacity; slot++){
+			if(this.keys[slot] != 0){
+				target.merge(this, slot);
+			}
+		}
+
+		Arrays.fill(this.keys, 0);
+		Arrays.fill(this.ids, null);
+		Arrays.fill(this.lastSeen, 0);
+		Arrays.fill(this.count, 0);
+		Arrays.fill(this.sum, 0);
+		Arrays.fill(this.max, 0);
+		Arrays.fill(this.intervalCount, 0);
+		Arrays.fill(this.intervalSum, 0);
+		Arrays.fill(this.intervalMax, 0);
+		Arrays.fill(this.histogram, 0);
+		this.size = 0;
+	}
+
+	/**
+	 * Adds the statistics held in slot <i>from</i> of <i>source</i> to the same device in this table.
+	 */
+	private synchronized void merge(DeviceStatsTable source, int from){
+		long key = source.keys[from];
+		int slot = find(key);
+		if(this.keys[slot] == 0){
+			slot = insert(key, source.ids[from]);
+		}
+
+		this.lastSeen[slot] = Math.max(this.lastSeen[slot], source.lastSeen[from]);
+		this.count[slot] += source.count[from];
+		this.sum[slot] += source.sum[from];
+		this.min[slot] = Math.min(this.min[slot], source.min[from]);
+		this.max[slot] = Math.max(this.max[slot], source.max[from]);
+		this.intervalCount[slot] += source.intervalCount[from];
+		this.intervalSum[slot] += source.intervalSum[from];
+		this.intervalMax[slot] = Math.max(this.intervalMax[slot], source.intervalMax[from]);
+		for(int b = 0; b < HISTOGRAM_BUCKETS; b++){
+			this.histogram[slot * HISTOGRAM_BUCKETS + b] += source.histogram[from * HISTOGRAM_BUCKETS + b];
+		}
+	}
+
+	/**
+	 * Evicts every device which hasn't been seen for longer than <i>idleMillis</i>.
+	 * @param now The current time, in ms since epoch.
+	 * @param idleMillis How long a device may go without an entry before it is evicted.
+	 * @return The number of devices evicted.
+	 */
+	public synchronized int evictIdle(long now, long idleMillis){
+		int before = this.size;
+		boolean anyIdle = false;
+		for(int slot = 0; slot < this.capacity && !anyIdle; slot++){
+			anyIdle = this.keys[slot] != 0 && this.lastSeen[slot] < now - idleMillis;
+		}
+		if(anyIdle){
+			rehash(this.capacity, now - idleMillis);
+		}
+		return before - this.size;
+	}
+
+	/**
+	 * Ends the current interval: returns the <i>topN</i> devices with the highest average latency
+	 * during the interval, slowest first, and resets every device's interval statistics.
+	 * @param topN The number of devices to report.
+	 * @return The slowest devices of the interval, at most <i>topN</i>.
+	 */
+	public synchronized List<DeviceResults> endInterval(int topN){
+		// Min-heap of slot indices, ordered by interval average, holding the slowest seen so far
+		int[] heap = new int[Math.max(topN, 0)];
+		int heapSize = 0;
+
+		for(int slot = 0; slot < this.capacity; slot++){
+			if(this.keys[slot] == 0 || this.intervalCount[slot] == 0 || heap.length == 0){
+				continue;
+			}
+			if(heapSize < heap.length){
+				heap[heapSize] = slot;
+				siftUp(heap, heapSize++);
+			}
+			else if(intervalAverage(slot) > intervalAverage(heap[0])){
+				heap[0] = slot;
+				siftDown(heap, heapSize);
+			}
+		}
+
+		List<DeviceResults> slowest = new ArrayList<DeviceResults>(heapSize);
+		while(heapSize > 0){
+			int slot = heap[0];
+			heap[0] = heap[--heapSize];
+			siftDown(heap, heapSize);
+			slowest.add(0, results(slot));
+		}
+
+		Arrays.fill(this.intervalCount, 0);
+		Arrays.fill(this.intervalSum, 0);
+		Arrays.fill(this.intervalMax, 0);
+		return slowest;
+	}
+
+	private double intervalAverage(int slot){
+		return (double) this.intervalSum[slot] / this.intervalCount[slot];
+	}
+
+	private void siftUp(int[] heap, int i){
+		while(i > 0){
+			int parent = (i - 1) / 2;
+			if(intervalAverage(heap[i]) >= intervalAverage(heap[parent])){
+				return;
+			}
+			int tmp = heap[i];
+			heap[i] = heap[parent];
+			heap[parent] = tmp;
+			i = parent;
+		}
+	}
+
+	private void siftDown(int[] heap, int heapSize){
+		int i = 0;
+		while(true){
+			int smallest = i;
+			int left = 2 * i + 1;
+			int right = left + 1;
+			if(left < heapSize && intervalAverage(heap[left]) < intervalAverage(heap[smallest])){
+				smallest = left;
+			}
+			if(right < heapSize && intervalAverage(heap[right]) < intervalAverage(heap[smallest])){
+				smallest = right;
+			}
+			if(smallest == i){
+				return;
+			}
+			int tmp = heap[i];
+			heap[i] = heap[smallest];
+			heap[smallest] = tmp;
+			i = smallest;
+		}
+	}
+
+	private DeviceResults results(int slot){
+		long[] buckets = new long[HISTOGRAM_BUCKETS];
+		for(int b = 0; b < HISTOGRAM_BUCKETS; b++){
+			buckets[b] = this.histogram[slot * HISTOGRAM_BUCKETS + b];
+		}
+		return new DeviceResults(
+				this.ids[slot],
+				this.intervalCount[slot],
+				this.intervalCount[slot] == 0 ? 0.0 : intervalAverage(slot),
+				this.intervalMax[slot],
+				this.count[slot],
+				this.count[slot] == 0 ? 0.0 : (double) this.sum[slot] / this.count[slot],
+				this.count[slot] == 0 ? 0 : this.min[slot],
+				this.max[slot],
+				buckets
+		);
+	}
+
+	/**
+	 * Returns the statistics of one device.
+	 * @param deviceId The device identifier.
+	 * @return The device's statistics, or null if it isn't in the table.
+	 */
+	public synchronized DeviceResults get(String deviceId){
+		byte[] id = deviceId.getBytes(StandardCharsets.UTF_8);
+		int slot = find(hash(id, 0, id.length));
+		return this.keys[slot] == 0 ? null : results(slot);
+	}
+
+	/**
+	 * Returns the number of devices currently in the table.
+	 * @return The number of devices.
+	 */
+	public synchronized int size(){
+		return this.size;
+	}
+
+	/**
+	 * Returns the number of devices evicted so far, idle or to make room.
+	 * @return The number of evicted devices.
+	 */
+	public synchronized long getEvicted(){
+		return this.evicted;
+	}
+}
@@ -0,0 +1,135 @@
+package com.cheetah.recorder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the interval summaries of testbeds aggregating their devices' round trips themselves,
+ * see the publisher's <i>com.cheetahnetworks.EdgeAggregator</i>. The layout must match the
+ * publisher's <i>com.cheetahnetworks.EdgeSummary</i>; all fixed-size numbers are big-endian.
+ * <pre>
+ *  offset  size  field
+ *       0     1  MAGIC, neither '{' nor <i>BinaryPayload.MAGIC</i>
+ *       1     1  VERSION
+ *       2     8  interval_end (ms since epoch)
+ *      10     8  sent, the reports the testbed's devices published during the interval
+ *      18     8  highest trackable value of the histogram (ms)
+ *      26     1  sub-bucket bits of the histogram
+ *      27     2  testbed_id length in bytes
+ *      29     n  testbed_id (UTF-8)
+ *    29+n     -  histogram of the interval's round trips (ms), see <i>LatencyHistogram.encodeInto()</i>
+ * </pre>
+ * @version 1.0.0, 2026-10-16
+ * @since 1.1.0
+ *
+ */
+public final class EdgeSummary {
+
+	/** First byte of every summary. */
+	public static final byte MAGIC = (byte) 0xC8;
+	/** Layout version. */
+	public static final byte VERSION = 1;
+
+	private static final int INTERVAL_END_OFFSET = 2;
+	private static final int SENT_OFFSET = 10;
+	private static final int HIGHEST_TRACKABLE_OFFSET = 18;
+	private static final int SUB_BUCKET_BITS_OFFSET = 26;
+	private static final int TESTBED_ID_LENGTH_OFFSET = 27;
+	/** Size of the fixed part of a summary, which the testbed ID follows. */
+	public static final int HEADER_LENGTH = 29;
+
+	private EdgeSummary(){
+	}
+
+	/**
+	 * Returns whether the payload is a summary, as opposed to a report.
+	 * @param payload A received payload.
+	 * @return True if the payload starts with <i>MAGIC</i>.
+	 */
+	public static boolean isSummary(byte[] payload){
+		return payload.length > 0 && payload[0] == MAGIC;
+	}
+
+	/**
+	 * Returns whether a summary's header is complete and of a known version. The histogram is
+	 * only checked as it is decoded.
+	 * @param payload A received payload.
+	 * @return True if the fields may be read.
+	 */
+	public static boolean isValid(byte[] payload){
+		if(payload.length < HEADER_LENGTH || payload[0] != MAGIC || payload[1] != VERSION){
+			return false;
+		}
+		return payload.length > getHistogramOffset(payload);
+	}
+
+	/**
+	 * Returns the end of the interval the summary covers, by the testbed's clock.
+	 * @param payload A valid summary.
+	 * @return The interval's end, in ms since epoch.
+	 */
+	public static long getIntervalEnd(byte[] payload){
+		return getLong(payload, INTERVAL_END_OFFSET);
+	}
+
+	/**
+	 * Returns the number of reports the testbed's devices published during the interval.
+	 * @param payload A valid summary.
+	 * @return The number of reports sent.
+	 */
+	public static long getSent(byte[] payload){
+		return getLong(payload, SENT_OFFSET);
+	}
+
+	/**
+	 * Returns the highest value the summary's histogram tracks accurately.
+	 * @param payload A valid summary.
+	 * @return The highest trackable value, in ms.
+	 */
+	public static long getHighestTrackableValue(byte[] payload){
+		return getLong(payload, HIGHEST_TRACKABLE_OFFSET);
+	}
+
+	/**
+	 * Returns the precision of the summary's histogram.
+	 * @param payload A valid summary.
+	 * @return The histogram's sub-bucket bits.
+	 */
+	public static int getSubBucketBits(byte[] payload){
+		return payload[SUB_BUCKET_BITS_OFFSET];
+	}
+
+	/**
+	 * Decodes the ID of the testbed which sent the summary.
+	 * @param payload A valid summary.
+	 * @return The testbed ID.
+	 */
+	public static String getTestbedId(byte[] payload){
+		return new String(payload, HEADER_LENGTH, getTestbedIdLength(payload), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Returns the summary's histogram, ready for <i>LatencyHistogram.decodeAndAdd()</i>.
+	 * @param payload A valid summary.
+	 * @return A buffer positioned at the encoded histogram.
+	 */
+	public static ByteBuffer getHistogram(byte[] payload){
+		int offset = getHistogramOffset(payload);
+		return ByteBuffer.wrap(payload, offset, payload.length - offset);
+	}
+
+	private static int getTestbedIdLength(byte[] payload){
+		return ((payload[TESTBED_ID_LENGTH_OFFSET] & 0xFF) << 8) | (payload[TESTBED_ID_LENGTH_OFFSET + 1] & 0xFF);
+	}
+
+	private static int getHistogramOffset(byte[] payload){
+		return HEADER_LENGTH + getTestbedIdLength(payload);
+	}
+
+	private static long getLong(byte[] buffer, int offset){
+		long value = 0;
+		for(int i = 0; i < 8; i++){
+			value = (value << 8) | (buffer[offset + i] & 0xFF);
+		}
+		return value;
+	}
+}
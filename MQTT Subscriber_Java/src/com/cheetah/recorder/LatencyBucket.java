@@ -1,10 +1,24 @@
 package com.cheetah.recorder;
 import java.io.File;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
 import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * <b>LatencyBucket</b> is an extension of the <i>TimerTask</i> class, that way it 
- * may be used as a scheduled <i>Timer</i> task.
+ * may be used as a scheduled <i>Timer</i> task. Entries are counted in a fixed-memory 
+ * <i>LatencyHistogram</i>, so memory use is the same however many messages arrive per interval. 
+ * Entries may be added from any number of threads while the <i>Timer</i> thread empties the bucket; 
+ * see <i>ConcurrentLatencyRecorder</i>. Entries tagged with a device ID are also tracked per device in a 
+ * <i>DeviceStatsTable</i>, whose slowest devices are reported whenever the bucket is emptied. 
+ * When several connections share one bucket, each records into its own <i>StatsShard</i> (see 
+ * <i>newShard()</i>), and the shards are merged into one record whenever the bucket is emptied. 
+ * Testbeds aggregating at the edge send one <i>EdgeSummary</i> per interval instead of a report 
+ * per message; their histograms are merged in too (see <i>addSummary()</i>).
  * @author Alex Gaudreault
  *
  */
@@ -12,13 +26,44 @@ public class LatencyBucket extends TimerTask {
 
 	private final boolean VERBOSE = true;
 	
-	/** The current bucket contents (the sum of all entries). */
-	private Double bucketContents = 0.0;
-	/** The number of entries currently in the bucket. */
-	private Double bucketEntries = 0.0;
+	/** Length of the interval between two emptyings (ms). */
+	public static final long INTERVAL_MILLIS = 1000;
 	
-	/** An instance of our <i>CsvWriter</i> class, to allow logging to a CSV file. */
-	private CsvWriter csvWriter;
+	/** Highest latency (ms) the bucket histogram tracks accurately; larger entries still count towards the maximum. */
+	static final long HIGHEST_TRACKABLE_LATENCY = 3600000;
+	/** Histogram precision, 2^7 sub-buckets keeps reported percentiles within 1% of the recorded values. */
+	static final int HISTOGRAM_SUB_BUCKET_BITS = 7;
+	
+	/** Receives entries from the message threads without locking; drained into <i>bucketContents</i> on every run. */
+	private ConcurrentLatencyRecorder recorder = new ConcurrentLatencyRecorder(HIGHEST_TRACKABLE_LATENCY, HISTOGRAM_SUB_BUCKET_BITS);
+	/** The contents of the interval being emptied (count, sum and distribution of all entries). Only touched by the <i>Timer</i> thread. */
+	private LatencyHistogram bucketContents = recorder.newIntervalHistogram();
+	
+	/** Most devices tracked individually at once; the least recently seen are evicted beyond this. */
+	static final int MAX_DEVICES = 1000000;
+	/** Devices without an entry for this long (ms) are evicted from the per-device statistics. */
+	static final long DEVICE_IDLE_TIMEOUT = 300000;
+	/** Number of slowest devices reported per interval. */
+	static final int TOP_N_DEVICES = 5;
+	
+	/** Per-device statistics, for finding slow devices and testbeds. */
+	private DeviceStatsTable deviceStats = new DeviceStatsTable(MAX_DEVICES);
+	
+	/** Per-device sequence numbers, shared by every connection recording into this bucket. */
+	private SequenceTracker sequences = new SequenceTracker(MAX_DEVICES);
+	
+	/** One shard per connection recording into this bucket, merged on every run. */
+	private CopyOnWriteArrayList<StatsShard> shards = new CopyOnWriteArrayList<StatsShard>();
+	
+	/** The edge summaries received during the interval being filled, merged on every run. Guarded by itself. */
+	private LatencyHistogram edgeContents = this.bucketContents.copyEmpty();
+	/** Each summary is decoded here first, so a malformed one is dropped whole. Guarded by <b>edgeContents</b>. */
+	private LatencyHistogram edgeScratch = this.bucketContents.copyEmpty();
+	/** Summaries, entries and reports sent per testbed during the interval. Guarded by <b>edgeContents</b>. */
+	private Map<String, long[]> edgeTestbeds = new TreeMap<String, long[]>();
+	
+	/** Where emptied bucket results are logged, e.g. a CSV file. */
+	private ResultsSink csvWriter;
 	
 	/**
 	 * The initialization constructor for the <b>LatencyBucket</b> class. Initializes our 
@@ -29,7 +74,42 @@ public class LatencyBucket extends TimerTask {
 	 * @since 1.0.0
 	 */
 	public LatencyBucket(File outFile){
-		csvWriter = new CsvWriter(outFile);
+		this(new CsvWriter(outFile));
+	}
+	
+	/**
+	 * Initialization constructor logging emptied bucket results to the passed sink, e.g. an 
+	 * <i>AsyncCsvWriter</i>.
+	 * @param sink Where the bucket results will be logged.
+	 * 
+	 * @since 1.1.0
+	 */
+	public LatencyBucket(ResultsSink sink){
+		csvWriter = sink;
+	}
+	
+	/**
+	 * Stops the bucket's <i>TimerTask</i> and closes its sink, writing out any buffered results.
+	 * 
+	 * @since 1.1.0
+	 */
+	public void close(){
+		cancel();
+		csvWriter.close();
+	}
+	
+	/**
+	 * Schedules the bucket to be emptied every <b>INTERVAL_MILLIS</b>, on boundaries aligned to 
+	 * whole intervals since epoch. The bucket runs at a fixed rate, so a late run doesn't push 
+	 * back the ones after it, and every interval is stamped with the boundary it ends on (see 
+	 * <i>BucketResults.getIntervalEnd()</i>).
+	 * @param timer The timer to run the bucket on.
+	 * 
+	 * @since 1.1.0
+	 */
+	public void scheduleOn(Timer timer){
+		long now = System.currentTimeMillis();
+		timer.scheduleAtFixedRate(this, new Date(now - now % INTERVAL_MILLIS + INTERVAL_MILLIS), INTERVAL_MILLIS);
 	}
 	
 	/**
@@ -42,48 +122,205 @@ public class LatencyBucket extends TimerTask {
 	@Override
 	public void run() {
 		
-		if(this.bucketEntries == 0){
+		this.recorder.drainInto(this.bucketContents);
+		for(StatsShard shard : this.shards){
+			shard.drainInto(this.bucketContents, this.deviceStats);
+		}
+		drainSummaries();
+		SequenceCounts counts = this.sequences.endInterval();
+		
+		int idle = this.deviceStats.evictIdle(System.currentTimeMillis(), DEVICE_IDLE_TIMEOUT);
+		this.sequences.evictIdle(System.currentTimeMillis(), DEVICE_IDLE_TIMEOUT);
+		if(VERBOSE && idle > 0){
+			System.out.println("[INFO] Evicted " + idle + " idle device(s).");
+		}
+		
+		if(this.bucketContents.getCount() == 0){
 			if(VERBOSE)
 			System.out.println("[INFO] No Entries to Log - Skip Writing to CSV.");
+			if(VERBOSE && counts.getReceived() > 0){
+				System.out.println("\t" + counts);
+			}
+			csvWriter.appendEmptyInterval(intervalEnd(), counts);
 			return;
 		}
 		else{
 			if(VERBOSE){
 			System.out.println("[INFO] Logging Latency to CSV: ");
-			System.out.println("\t Bucket Contents = " + this.bucketContents);
-			System.out.println("\t Bucket Entries = " + this.bucketEntries);
+			System.out.println("\t Bucket Contents = " + this.bucketContents.getSum());
+			System.out.println("\t Bucket Entries = " + this.bucketContents.getCount());
 			}
 		}
 		
-		csvWriter.appendBucketResults(emptyBucket());
+		BucketResults results = emptyBucket(counts);
+		if(VERBOSE && results.getSequenceCounts().getReceived() > 0){
+			System.out.println("\t" + results.getSequenceCounts());
+		}
+		csvWriter.appendBucketResults(results);
+		
+		List<DeviceResults> slowest = this.deviceStats.endInterval(TOP_N_DEVICES);
+		if(VERBOSE && !slowest.isEmpty()){
+			System.out.println("[INFO] Slowest Devices (of " + this.deviceStats.size() + "): ");
+			for(DeviceResults device : slowest){
+				System.out.println("\t" + device.getDeviceId() + " = " + device.getIntervalAverage() + " ms avg, "
+						+ device.getIntervalMax() + " ms max, " + device.getIntervalCount() + " message(s)");
+			}
+		}
 		
 	}
 
 	/**
-	 * Use this method to add a new entry to the bucket. Adds the passed value to 
-	 * <i>bucketContents</i> and increments <i>bucketEntries</i>.
+	 * Use this method to add a new entry to the bucket. Records the passed value without 
+	 * locking or allocating; safe to call from any thread.
 	 * @param value The value to be added to the bucket contents.
 	 */
-	public void addToBucket(double value){
-		bucketEntries++;
-		bucketContents += value;
+	public void addToBucket(long value){
+		recorder.recordValue(value);
 	}
 	
 	/**
-	 * Empties the bucket by resetting <i>bucketContents</i> and <i>bucketEntries</i> to zero. 
-	 * Returns the emptied contents as a <i>BucketResults</i> Object.
-	 * @return The <i>BucketResults</i> object describing the state of the bucket before emptying.
+	 * Adds a new entry to the bucket, and to the per-device statistics of the device whose ID is 
+	 * found at <i>idOffset</i> in <i>buf</i> (e.g. a payload scanned by a <i>PayloadScanner</i>).
+	 * @param value The value to be added to the bucket contents.
+	 * @param buf The buffer holding the device ID.
+	 * @param idOffset The offset of the device ID's first byte.
+	 * @param idLength The number of bytes in the device ID.
+	 * 
+	 * @since 1.1.0
+	 */
+	public void addToBucket(long value, byte[] buf, int idOffset, int idLength){
+		recorder.recordValue(value);
+		deviceStats.record(buf, idOffset, idLength, value, System.currentTimeMillis());
+	}
+	
+	/**
+	 * Records the sequence number of a message, to count lost, duplicate and out-of-order 
+	 * messages; see <i>SequenceTracker</i>. Safe to call from any thread, including the 
+	 * connections of a <i>ShardedRecorder</i>.
+	 * @param buf The buffer holding the device ID.
+	 * @param idOffset The offset of the device ID's first byte.
+	 * @param idLength The number of bytes in the device ID.
+	 * @param sequence The message's sequence number.
+	 * 
+	 * @since 1.1.0
+	 */
+	public void recordSequence(byte[] buf, int idOffset, int idLength, long sequence){
+		sequences.record(buf, idOffset, idLength, sequence, System.currentTimeMillis());
+	}
+	
+	/**
+	 * Merges a testbed's interval summary into the bucket: its histogram is added to the interval 
+	 * being filled, whichever interval the testbed's clock put it in. Summaries whose histogram 
+	 * differs in shape from the bucket's can't be merged without re-binning, and are rejected, 
+	 * as are malformed ones. Safe to call from any thread.
+	 * @param payload A payload for which <i>EdgeSummary.isSummary()</i> is true.
+	 * @return False if the summary was rejected.
+	 * 
+	 * @since 1.1.0
 	 */
-	private BucketResults emptyBucket(){
+	public boolean addSummary(byte[] payload){
+		if(!EdgeSummary.isValid(payload)
+				|| EdgeSummary.getHighestTrackableValue(payload) != HIGHEST_TRACKABLE_LATENCY
+				|| EdgeSummary.getSubBucketBits(payload) != HISTOGRAM_SUB_BUCKET_BITS){
+			return false;
+		}
+		String testbed = EdgeSummary.getTestbedId(payload);
 		
-		Double average = (bucketContents / bucketEntries);
+		synchronized(this.edgeContents){
+			this.edgeScratch.reset();
+			try {
+				this.edgeScratch.decodeAndAdd(EdgeSummary.getHistogram(payload));
+			} catch (RuntimeException e) {
+				// Out-of-range buckets, or a histogram cut short
+				return false;
+			}
+			this.edgeContents.add(this.edgeScratch);
+			
+			long[] counts = this.edgeTestbeds.get(testbed);
+			if(counts == null){
+				counts = new long[3];
+				this.edgeTestbeds.put(testbed, counts);
+			}
+			counts[0]++;
+			counts[1] += this.edgeScratch.getCount();
+			counts[2] += EdgeSummary.getSent(payload);
+		}
+		return true;
+	}
+	
+	/**
+	 * Moves the edge summaries received so far into <b>bucketContents</b>, reporting them per 
+	 * testbed.
+	 * 
+	 * @since 1.1.0
+	 */
+	private void drainSummaries(){
+		synchronized(this.edgeContents){
+			if(this.edgeTestbeds.isEmpty()){
+				return;
+			}
+			this.bucketContents.add(this.edgeContents);
+			this.edgeContents.reset();
+			
+			if(VERBOSE){
+				System.out.println("[INFO] Edge Summaries (" + this.edgeTestbeds.size() + " testbed(s)): ");
+				for(Map.Entry<String, long[]> testbed : this.edgeTestbeds.entrySet()){
+					long[] counts = testbed.getValue();
+					System.out.println("	" + testbed.getKey() + " = " + counts[1] + " entries, " + counts[2]
+							+ " report(s) sent, " + counts[0] + " summar" + (counts[0] == 1 ? "y" : "ies"));
+				}
+			}
+			this.edgeTestbeds.clear();
+		}
+	}
+	
+	/**
+	 * Creates a shard for one connection to record into; its entries are merged into the bucket 
+	 * whenever the bucket is emptied. A shard must only be written by one thread.
+	 * @return The new shard.
+	 * 
+	 * @since 1.1.0
+	 */
+	public StatsShard newShard(){
+		StatsShard shard = new StatsShard(this.bucketContents, MAX_DEVICES);
+		this.shards.add(shard);
+		return shard;
+	}
+	
+	/**
+	 * Returns the per-device statistics.
+	 * @return The bucket's <i>DeviceStatsTable</i>.
+	 * 
+	 * @since 1.1.0
+	 */
+	public DeviceStatsTable getDeviceStats(){
+		return deviceStats;
+	}
+	
+	/**
+	 * Empties the bucket by resetting <i>bucketContents</i>, which must already hold the drained 
+	 * interval. Returns the emptied contents as a <i>BucketResults</i> Object.
+	 * @param counts The interval's sequence counts.
+	 * @return The <i>BucketResults</i> object describing the state of the bucket before emptying.
+	 */
+	private BucketResults emptyBucket(SequenceCounts counts){
 		
-		BucketResults results = new BucketResults(average, this.bucketEntries);
+		BucketResults results = BucketResults.fromHistogram(this.bucketContents);
+		results.setIntervalEnd(intervalEnd());
+		results.setSequenceCounts(counts);
 		
-		this.bucketContents = 0.0;
-		this.bucketEntries = 0.0;
+		this.bucketContents.reset();
 		
 		return results;
 	}
 	
+	/**
+	 * Returns the boundary the current run was scheduled for, or the current time if the 
+	 * bucket is run by hand.
+	 */
+	private long intervalEnd(){
+		long scheduled = scheduledExecutionTime();
+		return scheduled > 0 ? scheduled : System.currentTimeMillis();
+	}
+	
 }
@@ -0,0 +1,319 @@
+package com.cheetah.recorder;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A fixed-memory, log-linear latency histogram in the style of HdrHistogram. Values are counted in
+ * a primitive <i>long[]</i>, so recording never allocates and memory use does not depend on how many
+ * values are recorded.
+ * <p>
+ * Values below <i>2 * 2^subBucketBits</i> are counted exactly. Above that, each power-of-two range is
+ * split into <i>2^subBucketBits</i> equal sub-buckets, so a reported value is always within
+ * <i>1 / 2^subBucketBits</i> of the recorded one. The exact minimum, maximum, count and sum are
+ * tracked alongside the buckets.
+ * @version 1.0.0, 2026-10-16
+ * @since 1.1.0
+ *
+ */
+public class LatencyHistogram {
+
+	/** log2 of the number of sub-buckets each power-of-two range is split into. */
+	private final int subBucketBits;
+	/** Values above this are counted in the last bucket (the exact maximum is still kept). */
+	private final long highestTrackableValue;
+
+	/** Bucket counts, indexed by <i>indexOf(value)</i>. */
+	private final long[] counts;
+
+	/** Total number of recorded values. */
+	private long totalCount;
+	/** Sum of all recorded values, used for the mean. */
+	private long sum;
+	/** Smallest recorded value, or <i>Long.MAX_VALUE</i> when empty. */
+	private long min;
+	/** Largest recorded value, or 0 when empty. */
+	private long max;
+
+	/**
+	 * The initialization constructor for the <i>LatencyHistogram</i> class.
+	 * @param highestTrackableValue The largest value which should be counted accurately.
+	 * @param subBucketBits log2 of the number of sub-buckets per power of two, e.g. 7 for
+	 * 128 sub-buckets (better than 1% precision).
+	 */
+	public LatencyHistogram(long highestTrackableValue, int subBucketBits){
+		if(highestTrackableValue < 1 || subBucketBits < 1 || subBucketBits > 30){
+			throw new IllegalArgumentException("Invalid histogram range [" + highestTrackableValue + ", " + subBucketBits + "]");
+		}
+
+		this.subBucketBits = subBucketBits;
+		this.highestTrackableValue = highestTrackableValue;
+		this.counts = new long[indexOf(highestTrackableValue) + 1];
+
+		reset();
+	}
+
+	/**
+	 * Returns an empty histogram with the same range and precision as this one.
+	 * @return A new, empty <i>LatencyHistogram</i>.
+	 */
+	public LatencyHistogram copyEmpty(){
+		return new LatencyHistogram(this.highestTrackableValue, this.subBucketBits);
+	}
+
+	/**
+	 * Finds the bucket a value falls into. Values within the first <i>2 * 2^subBucketBits</i> map
+	 * one to one; above that, the magnitude selects a range and the top bits select a sub-bucket.
+	 */
+	private int indexOf(long value){
+		int magnitude = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - this.subBucketBits);
+		return (int) ((magnitude << this.subBucketBits) + (value >>> magnitude));
+	}
+
+	/**
+	 * Returns the largest value which would be counted in the bucket at <i>index</i>.
+	 */
+	private long highestValueAt(int index){
+		int magnitude = Math.max(0, (index >> this.subBucketBits) - 1);
+		long lowest = (long) (index - (magnitude << this.subBucketBits)) << magnitude;
+		return lowest + (1L << magnitude) - 1;
+	}
+
+	/**
+	 * Records a single value. Negative values (e.g. from clock skew) are counted as zero, values
+	 * above the trackable range are counted in the last bucket.
+	 * @param value The value to record.
+	 */
+	public void recordValue(long value){
+		if(value < 0){
+			value = 0;
+		}
+
+		this.counts[indexOf(Math.min(value, this.highestTrackableValue))]++;
+
+		this.totalCount++;
+		this.sum += value;
+		if(value < this.min){
+			this.min = value;
+		}
+		if(value > this.max){
+			this.max = value;
+		}
+	}
+
+	/**
+	 * Adds the contents of another histogram to this one. Both must have been created with the
+	 * same range and precision.
+	 * @param other The histogram to add.
+	 */
+	public void add(LatencyHistogram other){
+		if(other.counts.length != this.counts.length || other.subBucketBits != this.subBucketBits){
+			throw new IllegalArgumentException("Cannot add histograms of different shapes.");
+		}
+
+		for(int i = 0; i < this.counts.length; i++){
+			this.counts[i] += other.counts[i];
+		}
+
+		this.totalCount += other.totalCount;
+		this.sum += other.sum;
+		this.min = Math.min(this.min, other.min);
+		this.max = Math.max(this.max, other.max);
+	}
+
+	/**
+	 * Empties the histogram, without releasing its buckets.
+	 */
+	public void reset(){
+		Arrays.fill(this.counts, 0);
+		this.totalCount = 0;
+		this.sum = 0;
+		this.min = Long.MAX_VALUE;
+		this.max = 0;
+	}
+
+	/**
+	 * Returns the value at the given percentile, i.e. the smallest value such that at least
+	 * <i>percentile</i> percent of recorded values are less than or equal to it.
+	 * @param percentile The percentile to look up, between 0 and 100.
+	 * @return The value at the percentile, or 0 when the histogram is empty.
+	 */
+	public long getValueAtPercentile(double percentile){
+		if(this.totalCount == 0){
+			return 0;
+		}
+
+		long countAtPercentile = (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * this.totalCount);
+		countAtPercentile = Math.max(countAtPercentile, 1);
+
+		long seen = 0;
+		for(int i = 0; i < this.counts.length; i++){
+			seen += this.counts[i];
+			if(seen >= countAtPercentile){
+				if(i == this.counts.length - 1){
+					return this.max; // Last bucket also holds anything above the trackable range
+				}
+				return Math.max(this.min, Math.min(highestValueAt(i), this.max));
+			}
+		}
+		return this.max;
+	}
+
+	/**
+	 * Returns the most bytes <i>encodeInto()</i> may write for a histogram of this shape.
+	 * @return The largest encoded length.
+	 * 
+	 * @since 1.1.0
+	 */
+	public int getMaxEncodedLength(){
+		return 5 * 10 + this.counts.length * (5 + 10);
+	}
+
+	/**
+	 * Writes the histogram compactly: the count, sum, minimum and maximum, then only the non-empty 
+	 * buckets, as (index gap, count) pairs. Every number is a variable-length integer, so a 
+	 * typical interval takes a few hundred bytes rather than the full bucket array.
+	 * @param buffer The buffer to write to, with at least <i>getMaxEncodedLength()</i> bytes remaining.
+	 * 
+	 * @since 1.1.0
+	 */
+	public void encodeInto(ByteBuffer buffer){
+		int nonEmpty = 0;
+		for(int i = 0; i < this.counts.length; i++){
+			if(this.counts[i] != 0){
+				nonEmpty++;
+			}
+		}
+
+		putVarLong(buffer, this.totalCount);
+		putVarLong(buffer, this.sum);
+		putVarLong(buffer, getMin());
+		putVarLong(buffer, this.max);
+		putVarLong(buffer, nonEmpty);
+		int previous = 0;
+		for(int i = 0; i < this.counts.length; i++){
+			if(this.counts[i] != 0){
+				putVarLong(buffer, i - previous);
+				putVarLong(buffer, this.counts[i]);
+				previous = i;
+			}
+		}
+	}
+
+	/**
+	 * Adds a histogram written by <i>encodeInto()</i> to this one, which must have the same range 
+	 * and precision as the encoded histogram.
+	 * @param buffer The buffer to read from, positioned at the encoded histogram.
+	 * @throws IllegalArgumentException If the encoded histogram does not fit this one.
+	 * 
+	 * @since 1.1.0
+	 */
+	public void decodeAndAdd(ByteBuffer buffer){
+		long count = getVarLong(buffer);
+		long encodedSum = getVarLong(buffer);
+		long encodedMin = getVarLong(buffer);
+		long encodedMax = getVarLong(buffer);
+		long nonEmpty = getVarLong(buffer);
+
+		int index = 0;
+		for(long i = 0; i < nonEmpty; i++){
+			index += (int) getVarLong(buffer);
+			if(index < 0 || index >= this.counts.length){
+				throw new IllegalArgumentException("Encoded bucket " + index + " is out of range.");
+			}
+			this.counts[index] += getVarLong(buffer);
+		}
+
+		if(count > 0){
+			this.totalCount += count;
+			this.sum += encodedSum;
+			this.min = Math.min(this.min, encodedMin);
+			this.max = Math.max(this.max, encodedMax);
+		}
+	}
+
+	/**
+	 * Writes a non-negative number in 7-bit groups, low first, the top bit marking more to come.
+	 */
+	static void putVarLong(ByteBuffer buffer, long value){
+		while((value & ~0x7FL) != 0){
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	/**
+	 * Reads a number written by <i>putVarLong()</i>.
+	 */
+	static long getVarLong(ByteBuffer buffer){
+		long value = 0;
+		for(int shift = 0; shift < 64; shift += 7){
+			byte b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			if(b >= 0){
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed variable-length integer.");
+	}
+
+	/**
+	 * Returns the largest value counted accurately.
+	 * @return The highest trackable value the histogram was created with.
+	 * 
+	 * @since 1.1.0
+	 */
+	public long getHighestTrackableValue(){
+		return this.highestTrackableValue;
+	}
+
+	/**
+	 * Returns the histogram's precision.
+	 * @return log2 of the number of sub-buckets per power of two.
+	 * 
+	 * @since 1.1.0
+	 */
+	public int getSubBucketBits(){
+		return this.subBucketBits;
+	}
+
+	/**
+	 * Returns the number of recorded values.
+	 * @return The number of recorded values.
+	 */
+	public long getCount(){
+		return this.totalCount;
+	}
+
+	/**
+	 * Returns the sum of all recorded values.
+	 * @return The sum of all recorded values.
+	 */
+	public long getSum(){
+		return this.sum;
+	}
+
+	/**
+	 * Returns the mean of all recorded values.
+	 * @return The mean, or 0 when the histogram is empty.
+	 */
+	public double getMean(){
+		return this.totalCount == 0 ? 0.0 : (double) this.sum / this.totalCount;
+	}
+
+	/**
+	 * Returns the smallest recorded value.
+	 * @return The smallest recorded value, or 0 when the histogram is empty.
+	 */
+	public long getMin(){
+		return this.totalCount == 0 ? 0 : this.min;
+	}
+
+	/**
+	 * Returns the largest recorded value.
+	 * @return The largest recorded value, or 0 when the histogram is empty.
+	 */
+	public long getMax(){
+		return this.max;
+	}
+}
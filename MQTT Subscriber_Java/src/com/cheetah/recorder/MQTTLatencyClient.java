@@ -1,20 +1,25 @@
 package com.cheetah.recorder;
 import java.io.File;
+import java.util.Arrays;
 import java.util.Timer;
+import java.util.TimerTask;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
 import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
 import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
 
 /**
  * <b>MQTTLatencyClient</b> is a wrapper class for Paho's <i>MqttAsyncClient</i> Class. 
  * Initializes and defines the callbacks for an <i>MqttAsyncClient</i> Object, and stores the 
  * subscribe topic, broker address and client ID.
  * @author Alex Gaudreault
- * @version 1.0.0, 2019-12-04
+ * @version 1.1.0, 2026-10-16
  * @since 1.0.0
  *
  */
@@ -23,6 +28,22 @@ public class MQTTLatencyClient{
 	/** Defines the degree of information printed to the console. Change to true to use Verbose behaviour. */
 	private final boolean VERBOSE = false;
 	
+	/** Number of replies which may wait for the reply publisher before new ones are dropped. */
+	public static final int REPLY_QUEUE_CAPACITY = 65536;
+	/** Most replies in flight at once; also the client's max in-flight setting. */
+	public static final int REPLY_WINDOW = 1000;
+	/** Where testbeds aggregating at the edge publish their interval summaries, see <i>EdgeSummary</i>. */
+	public static final String EDGE_SUMMARY_TOPIC = "/testbeds/+/latency/summary";
+	/** QoS of the summary subscription; a lost summary is a whole testbed's interval. */
+	public static final int EDGE_SUMMARY_QOS = 1;
+	/** Shortest wait between connection attempts (ms). */
+	public static final long RECONNECT_BASE_MILLIS = 500;
+	/** Longest wait between connection attempts (ms). */
+	public static final long RECONNECT_CAP_MILLIS = 30000;
+	
+	/** Schedules the reconnect attempts of every client; attempts themselves are asynchronous. */
+	private static final Timer RECONNECT_TIMER = new Timer("mqtt-reconnect", true);
+	
 	/** The wrapped instance of <i>MqttAsyncClient</i>. Initialized in the Class constructor. */
 	protected MqttAsyncClient client;
 	/** Memory persistence structure for <b>client</b> */
@@ -46,6 +67,24 @@ public class MQTTLatencyClient{
 	
 	/** Instance of our <i>LatencyBucket</i> class, used to store and report latency information. */
 	private LatencyBucket bucket;
+	/** This connection's shard of <b>bucket</b>, written only by <b>msgProcessor</b>. */
+	private StatsShard shard;
+	
+	/** Publishes replies on its own thread, so a slow broker can't stall <b>msgProcessor</b>. */
+	private ReplyPublisher replies;
+	
+	/** The options of every connection attempt. */
+	private MqttConnectOptions options;
+	/** Spaces out connection attempts; only used by one attempt at a time. */
+	private final Backoff backoff = new Backoff(RECONNECT_BASE_MILLIS, RECONNECT_CAP_MILLIS);
+	/** Where lost connections are counted, possibly shared with other clients. */
+	private ReconnectMetrics reconnects;
+	/** When the connection was lost (<i>System.nanoTime()</i>). */
+	private volatile long lostAt;
+	/** Failed and dropped replies when the connection was lost. */
+	private volatile long repliesLostBefore;
+	/** Set by <i>close()</i>, after which a lost connection is not recovered. */
+	private volatile boolean closed;
 	
 	/**
 	 * <b><u>Unimplemented/Unused</u></b>
@@ -70,67 +109,285 @@ public class MQTTLatencyClient{
 	 * @since 1.0.0
 	 */
 	public MQTTLatencyClient(String broker, String id, String topic, int qos, File outFile){
+		// Results are written on a dedicated thread, so a slow disk can't delay the bucket Timer or this client's callbacks
+		this(broker, id, topic, qos, new AsyncCsvWriter(outFile));
+	}
+	
+	/**
+	 * Initialization constructor logging the latency results to any <i>ResultsSink</i>, e.g. a 
+	 * <i>ResultsStore</i>. Schedules the <b>emptyBucket</b> <i>Timer</i> object, and closes the 
+	 * sink on shutdown.
+	 * 
+	 * @param broker The address of the MQTT broker to subscribe to.
+	 * @param id The Identifier to be used by this client.
+	 * @param topic The topic which will be subscribed to with QoS [qos].
+	 * @param qos The QoS level which will be used when subscribing/publishing to the broker.
+	 * @param sink Where the latency results will be logged.
+	 * 
+	 * @since 1.1.0
+	 */
+	public MQTTLatencyClient(String broker, String id, String topic, int qos, ResultsSink sink){
+		this(broker, id, topic, qos, new LatencyBucket(sink));
+		
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
+			@Override
+			public void run(){
+				bucket.close();
+				replies.close();
+			}
+		}));
+		
+		emptyBucket = new Timer();
+		bucket.scheduleOn(emptyBucket);
+		emptyBucket.schedule(new TimerTask(){
+			@Override
+			public void run(){
+				System.out.println("\t" + replies.report());
+				String outages = reconnects.report();
+				if(outages != null){
+					System.out.println("\t" + outages);
+				}
+			}
+		}, 1000, 1000);
+	}
+	
+	/**
+	 * Initialization constructor for a client recording into a <i>LatencyBucket</i> shared with 
+	 * other clients, e.g. the connections of a <i>ShardedRecorder</i>. Connects to the broker and 
+	 * subscribes to [topic], recording into a shard of its own (see <i>LatencyBucket.newShard()</i>); 
+	 * scheduling and closing the bucket is left to the caller.
+	 * 
+	 * @param broker The address of the MQTT broker to subscribe to.
+	 * @param id The Identifier to be used by this client.
+	 * @param topic The topic which will be subscribed to with QoS [qos], may be a <i>$share/</i> topic.
+	 * @param qos The QoS level which will be used when subscribing/publishing to the broker.
+	 * @param bucket The bucket to record latencies into.
+	 * 
+	 * @since 1.1.0
+	 */
+	public MQTTLatencyClient(String broker, String id, String topic, int qos, LatencyBucket bucket){
+		this(broker, id, topic, qos, bucket, new ReconnectMetrics());
+	}
+	
+	/**
+	 * Initialization constructor for a client recording into a shared <i>LatencyBucket</i>, and 
+	 * counting its lost connections into shared <i>ReconnectMetrics</i>. Waits until the first 
+	 * connection succeeds, retrying with a jittered backoff; a connection lost afterwards is 
+	 * re-established in the background, and [topic] subscribed to again.
+	 * 
+	 * @param broker The address of the MQTT broker to subscribe to.
+	 * @param id The Identifier to be used by this client.
+	 * @param topic The topic which will be subscribed to with QoS [qos], may be a <i>$share/</i> topic.
+	 * @param qos The QoS level which will be used when subscribing/publishing to the broker.
+	 * @param bucket The bucket to record latencies into.
+	 * @param reconnects Where lost connections are counted.
+	 * 
+	 * @since 1.1.0
+	 */
+	public MQTTLatencyClient(String broker, String id, String topic, int qos, LatencyBucket bucket, ReconnectMetrics reconnects){
 		this.brokerAddress = broker;
 		this.clientID = id;
 		this.subscribeTopic = topic;
 		this.qos = qos;
 		
 		this.msgProcessor = new MessageProcessor();
-		this.bucket = new LatencyBucket(outFile);
+		this.bucket = bucket;
+		this.shard = bucket.newShard();
+		this.reconnects = reconnects;
 		
-		do{
-			
-			try {
-				if(qos == 1 || qos == 2){
-					this.persistence = new MemoryPersistence();
-					this.client = new MqttAsyncClient(this.brokerAddress, this.clientID, this.persistence);
-				}
-				else{
-					this.client = new MqttAsyncClient(broker, id);
-				}
+		try {
+			if(qos == 1 || qos == 2){
+				this.persistence = new MemoryPersistence();
+				this.client = new MqttAsyncClient(this.brokerAddress, this.clientID, this.persistence);
+			}
+			else{
+				this.client = new MqttAsyncClient(broker, id);
+			}
+		} catch (MqttException e) {
+			throw new IllegalArgumentException("Invalid client '" + id + "' for broker '" + broker + "'", e);
+		}
+		// Paho only hands messages to a subscription's listener if the topic matches its filter, which a $share/ filter never does
+		this.client.setCallback(this.msgProcessor);
 
+		this.options = new MqttConnectOptions();
+		this.options.setMaxInflight(REPLY_WINDOW);
+		
+		// Retried with a growing, jittered delay rather than in a tight loop, so recorders started 
+		// before their broker don't hammer it, nor all reconnect to it at once
+		while(!this.client.isConnected()){
+			try {
 				System.out.print("Connecting... ");
-				this.client.connect().waitForCompletion();
+				this.client.connect(this.options).waitForCompletion();
 				System.out.println("Connected! ");
-				this.client.subscribe(this.subscribeTopic, this.qos, this.msgProcessor);
-				
 			} catch (MqttException e) {
-				System.out.println("Failed to Connect! Retrying...");
+				long delay = this.backoff.nextDelayMillis();
+				System.out.println("Failed to Connect! Retrying in " + delay + " ms...");
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted while connecting '" + id + "'", ie);
+				}
 			}
-			
-		}while(!this.client.isConnected());
-		
-		emptyBucket = new Timer();
-		emptyBucket.schedule(bucket, 0, 1000);
+		}
+		this.backoff.reset();
+		this.replies = new ReplyPublisher(this.client, this.qos, REPLY_QUEUE_CAPACITY, REPLY_WINDOW);
+		subscribe();
+	}
+	
+	/**
+	 * Subscribes to <b>subscribeTopic</b> and to the testbeds' edge summaries; called after every 
+	 * successful connection, as the broker forgets a clean session's subscriptions with the connection.
+	 * 
+	 * @since 1.1.0
+	 */
+	private void subscribe(){
+		try {
+			this.client.subscribe(new String[]{this.subscribeTopic, summaryTopic()}, new int[]{this.qos, EDGE_SUMMARY_QOS});
+		} catch (MqttException e) {
+			System.out.println("[ERROR] Failed to subscribe '" + this.clientID + "' to '" + this.subscribeTopic + "': " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Returns the topic edge summaries are subscribed to: <i>EDGE_SUMMARY_TOPIC</i>, in the same 
+	 * shared subscription group as <b>subscribeTopic</b> if it has one, so each summary is merged once.
+	 * @return The summary topic.
+	 * 
+	 * @since 1.1.0
+	 */
+	private String summaryTopic(){
+		if(this.subscribeTopic.startsWith("$share/")){
+			int groupEnd = this.subscribeTopic.indexOf('/', "$share/".length());
+			return this.subscribeTopic.substring(0, groupEnd + 1) + EDGE_SUMMARY_TOPIC;
+		}
+		return EDGE_SUMMARY_TOPIC;
+	}
+	
+	/**
+	 * Schedules the next reconnect attempt, after the backoff's next delay.
+	 * 
+	 * @since 1.1.0
+	 */
+	private void scheduleReconnect(){
+		if(this.closed){
+			return;
+		}
+		RECONNECT_TIMER.schedule(new TimerTask(){
+			@Override
+			public void run(){
+				reconnect();
+			}
+		}, this.backoff.nextDelayMillis());
+	}
+	
+	/**
+	 * Makes one asynchronous reconnect attempt. On success, the subscription is restored and the 
+	 * outage recorded; on failure, the next attempt is scheduled.
+	 * 
+	 * @since 1.1.0
+	 */
+	private void reconnect(){
+		if(this.closed){
+			return;
+		}
+		try {
+			this.client.connect(this.options, null, new IMqttActionListener(){
+				@Override
+				public void onSuccess(IMqttToken token){
+					backoff.reset();
+					subscribe();
+					reconnects.onReconnected((System.nanoTime() - lostAt) / 1000000, repliesLost() - repliesLostBefore);
+					System.out.println("[INFO] Reconnected '" + clientID + "'.");
+				}
+
+				@Override
+				public void onFailure(IMqttToken token, Throwable exception){
+					reconnects.onReconnectFailed();
+					scheduleReconnect();
+				}
+			});
+		} catch (MqttException e) {
+			// E.g. a connect still in progress
+			this.reconnects.onReconnectFailed();
+			scheduleReconnect();
+		}
+	}
+	
+	/**
+	 * Returns the replies which failed or were dropped so far.
+	 * @return The number of lost replies.
+	 */
+	private long repliesLost(){
+		return this.replies.getFailed() + this.replies.getDropped();
+	}
+	
+	/**
+	 * Returns where this client's lost connections are counted, e.g. to report them.
+	 * @return The client's <i>ReconnectMetrics</i>.
+	 * 
+	 * @since 1.1.0
+	 */
+	public ReconnectMetrics getReconnectMetrics(){
+		return this.reconnects;
+	}
+	
+	/**
+	 * Returns the publisher this client's replies go through, e.g. to report its metrics.
+	 * @return The client's <i>ReplyPublisher</i>.
+	 * 
+	 * @since 1.1.0
+	 */
+	public ReplyPublisher getReplyPublisher(){
+		return this.replies;
+	}
+	
+	/**
+	 * Stops publishing replies and disconnects from the broker. The bucket is left open.
+	 * 
+	 * @since 1.1.0
+	 */
+	public void close(){
+		this.closed = true;
+		this.replies.close();
+		try{
+			this.client.disconnect().waitForCompletion(1000);
+			this.client.close();
+		}
+		catch(MqttException e){
+			System.out.println("[ERROR] Failed to disconnect '" + this.clientID + "': " + e.getMessage());
+		}
 	}
 	
 	/**
 	 * <b>MessageProcessor</b> class implements the <i>IMqttMessageListener</i> interface from the 
 	 * Paho library. An object of this class may be bound to an <i>MqttAsyncClient</i>, which will 
-	 * enable this class as the message processor for that client.
+	 * enable this class as the message processor for that client. It is also the client's 
+	 * <i>MqttCallback</i>, which receives the messages of subscriptions without a listener.
 	 * @author Alex Gaudreault
-	 * @version 1.0.0, 2019-12-04
+	 * @version 1.1.0, 2026-10-16
 	 * @since 1.0.0
 	 *
 	 */
-	public class MessageProcessor implements IMqttMessageListener{
+	public class MessageProcessor implements IMqttMessageListener, MqttCallback{
+
+		/** Reused for every message; Paho calls <i>messageArrived()</i> from a single thread per client. */
+		private final PayloadScanner scanner = new PayloadScanner();
 
 		/**
 		 * Overrides the abstract <i>messageArrived()</i> method defined in the <i>IMqttMessageListener</i> 
 		 * interface. This overriden method is called whenever the binding <i>MqttAsyncClient</i> object receives a 
-		 * message on a topic it's subscribed to.
-		 * @version 1.0.0, 2019-12-04
+		 * message on a topic it's subscribed to. Payloads may be JSON or <i>BinaryPayload</i>; the 
+		 * fields are read straight from the payload bytes by a <i>PayloadScanner</i>, and the reply 
+		 * echoes the payload, with the receive time stamped into timed payloads. Replies are only queued 
+		 * here; <b>replies</b> publishes them. Edge summaries are merged into the bucket, and not replied to. 
+		 * Batches are unpacked in one pass, each report handled and replied to as if it had come alone.
+		 * @version 1.1.0, 2026-10-16
 		 * @since 1.0.0
 		 */
 		@Override
 		public void messageArrived(String topic, MqttMessage message) throws Exception {
-			
-			// JSON parser and JSON object
-			JSONParser parser = new JSONParser();
-			JSONObject msgJson = new JSONObject();
-			
-			// Parse JSON String into [msgJson] Object
-			msgJson = (JSONObject) parser.parse(message.toString());
+			long receivedAt = PreciseClock.epochNanos();
 			
 			if(VERBOSE){
 				System.out.println("Received Message:");
@@ -140,29 +397,115 @@ public class MQTTLatencyClient{
 				System.out.println("\t** END PAYLOAD **");
 			}
 			
-			// *** Retrieve last_latency ***
-			Long lastLatency = (Long) msgJson.get("last_latency");
-			String deviceId = (String) msgJson.get("device_id");
+			// A whole interval of one testbed, already aggregated
+			if(EdgeSummary.isSummary(message.getPayload())){
+				if(!bucket.addSummary(message.getPayload())){
+					System.out.println("[ERROR] Malformed or mismatched edge summary on '" + topic + "' - Ignoring message.");
+				}
+				return;
+			}
+			
+			// Many devices' reports in one message, each copied out as the payload of its own reply
+			if(BatchPayload.isBatch(message.getPayload())){
+				byte[] batch = message.getPayload();
+				if(!BatchPayload.isValid(batch)){
+					System.out.println("[ERROR] Malformed batch on '" + topic + "' - Ignoring message.");
+					return;
+				}
+				int count = BatchPayload.getReportCount(batch);
+				int offset = BatchPayload.HEADER_LENGTH;
+				for(int i = 0; i < count; i++){
+					int length = BatchPayload.getReportLength(batch, offset);
+					if(length < 0){
+						System.out.println("[ERROR] Batch on '" + topic + "' cut short after " + i + " of " + count + " report(s) - Ignoring the rest.");
+						return;
+					}
+					offset += BatchPayload.FRAME_HEADER_LENGTH;
+					byte[] report = Arrays.copyOfRange(batch, offset, offset + length);
+					processReport(new MqttMessage(report), receivedAt);
+					offset += length;
+				}
+				return;
+			}
+			
+			processReport(message, receivedAt);
+		}
+		
+		/**
+		 * Records one report and queues its reply, which echoes the report.
+		 * @param message The report, on its own or copied out of a batch.
+		 * @param receivedAt When the message carrying it arrived, in ns since epoch.
+		 * 
+		 * @since 1.1.0
+		 */
+		private void processReport(MqttMessage message, long receivedAt){
+			// *** Retrieve last_latency and device_id, in place ***
+			if(!scanner.scan(message.getPayload())){
+				System.out.println("[ERROR] Malformed payload - Ignoring message.");
+				return;
+			}
+			
+			// Timed reports carry our receive time back to the publisher, for its clock offset estimate
+			if(BinaryPayload.isBinary(message.getPayload()) && BinaryPayload.isTimed(message.getPayload())){
+				BinaryPayload.setReceiveNanos(message.getPayload(), receivedAt);
+			}
 			
-			if(lastLatency == null){
+			if(!scanner.hasLastLatency()){
 				System.out.println("[ERROR] Last Latency is NULL - Ignoring message.");
 				return;
 			}
 			
+			long lastLatency = scanner.getLastLatency();
+			
+			// Every message counts towards loss, duplicates and ordering, the first of a device included
+			if(scanner.hasSequence()){
+				bucket.recordSequence(message.getPayload(), scanner.getDeviceIdOffset(), scanner.getDeviceIdLength(), scanner.getSequence());
+			}
+			
 			// Check for presence of last latency
 			// 	-> Exists: Increment messages received and add to bucket
 			//  -> Doesn't: Ignore the message (treat as first message from device)
 			if(lastLatency >= 0){
-				bucket.addToBucket(lastLatency);
+				shard.record(lastLatency, message.getPayload(), scanner.getDeviceIdOffset(), scanner.getDeviceIdLength());
 			}
 			else{
-				System.out.println("[INFO] Detected first message from ID = '" + msgJson.get("device_id") + "'.");
+				System.out.println("[INFO] Detected first message from ID = '" + scanner.getDeviceId() + "'.");
 			}
 			
-			//System.out.print("Replying on '/devices/" + deviceId + "/latency/reply'... ");
-			message.setQos(qos);
-			client.publish("/devices/" + deviceId + "/latency/reply", message);
-			//System.out.println("Success!");
+			// The reply topic is cached per device, and the publish itself happens on the reply publisher's thread
+			String replyTopic = replies.topicFor(message.getPayload(), scanner.getDeviceIdOffset(), scanner.getDeviceIdLength());
+			if(!replies.offer(replyTopic, message)){
+				System.out.println("[ERROR] Reply queue is full - Dropped reply to ID = '" + scanner.getDeviceId() + "'.");
+			}
+		}
+
+		/**
+		 * Called by Paho when the connection to the broker is lost. Reconnects in the background, 
+		 * after a jittered delay; replies fail until then.
+		 * @param cause The reason the connection was lost.
+		 * 
+		 * @since 1.1.0
+		 */
+		@Override
+		public void connectionLost(Throwable cause){
+			System.out.println("[ERROR] Connection lost for '" + clientID + "': " + cause.getMessage());
+			if(closed){
+				return;
+			}
+			lostAt = System.nanoTime();
+			repliesLostBefore = repliesLost();
+			reconnects.onConnectionLost();
+			scheduleReconnect();
+		}
+
+		/**
+		 * Called by Paho when a reply has been delivered; nothing to do.
+		 * @param token The delivered reply's token.
+		 * 
+		 * @since 1.1.0
+		 */
+		@Override
+		public void deliveryComplete(IMqttDeliveryToken token){
 		}
 
 	}
@@ -7,7 +7,7 @@ import java.util.Scanner;
  * The <b>main</b> class contains our main() method. This class also contains 
  * the default configuration parameters (Broker Address, Client ID, Subscr. Topic, etc).
  * @author Alex Gaudreault
- * @version 1.0.0, 2019-12-04
+ * @version 1.1.0, 2026-10-16
  * @since 1.0.0
  *
  */
@@ -21,8 +21,18 @@ public class Main {
 	static String SUB_TOPIC = "/devices/+/latency/report";
 	/** Default MQTT QoS used when no command-line arguments are defined. */
 	static int QOS = 0;
-	/** Default output file (.csv) used when no command-line arguments are defined. */
+	/** Default output file (.csv) used when no command-line arguments are defined. A directory 
+	 * selects the binary <i>ResultsStore</i> instead. */
 	static File OUT_FILE = new File("latency_aggregation.csv");
+	/** Coarser windows (ms) aggregated alongside every interval, each logged next to <b>OUT_FILE</b>, 
+	 * e.g. <i>latency_aggregation.10s.csv</i>, or in a sub-directory of a results store. */
+	static long[] WINDOWS = WindowedAggregator.DEFAULT_RESOLUTIONS;
+	/** Number of connections sharing the subscription; 1 keeps a single, unshared connection. */
+	static int CONNECTIONS = 1;
+	/** Shared subscription group joined by the connections when <b>CONNECTIONS</b> is above 1. */
+	static final String SHARE_GROUP = "latency-recorders";
+	/** Topic a summary of every interval is published to, see <i>StatsPublisher</i>; null to publish none. */
+	static final String STATS_TOPIC = "/latency/stats";
 	
 	/** Scanner used to retrieve user input. */
 	static Scanner input = new Scanner(System.in);
@@ -30,14 +40,16 @@ public class Main {
 	/**
 	 * Our main() method is the entry point for this project. It reads the command-line 
 	 * arguments defined by the user, and assigns them to the <i>MQTTLatencyClient</i> instance.
-	 * @param args Command-line arguments passed by the user, [SUB_TOPIC] [QOS] [OUT_FILE].
-	 * @version 1.0.2, 2019-12-04
+	 * @param args Command-line arguments passed by the user, [SUB_TOPIC] [QOS] [OUT_FILE] [CONNECTIONS]. 
+	 * [OUT_FILE] may be a directory, to keep the results in a <i>ResultsStore</i> (see <i>ResultsStoreReader</i>). 
+	 * [CONNECTIONS] is optional; 0 opens one connection per core.
+	 * @version 1.1.0, 2026-10-16
 	 * @since 1.0.0
 	 */
 	public static void main(String[] args){
 		
 		// If arguments 3 command-line arguments are present, use them to initialize our MQTTLatencyClient
-		if(args.length == 3){
+		if(args.length == 3 || args.length == 4){
 			// Read Subscription Topic from args[0]
 			SUB_TOPIC = args[0];
 			
@@ -47,6 +59,7 @@ public class Main {
 					System.out.println("Invalid QoS specified [" + args[1] + "]... Aborting!");
 					System.exit(1);
 				}
+				QOS = Integer.parseInt(args[1]);
 			}
 			catch(NumberFormatException e){
 				System.out.println("Specified QoS is not an integer [" + args[1] + "]... Aborting!");
@@ -70,8 +83,24 @@ public class Main {
 				}
 			}
 			else if(OUT_FILE.isDirectory()){
-				System.out.println("Specified file is a directory... Aborting!");
-				System.exit(1);
+				System.out.println("[INFO] Specified file is a directory, results will be added to the binary results store there.");
+			}
+			
+			// Read number of connections from args[3] & validate
+			if(args.length == 4){
+				try{
+					CONNECTIONS = Integer.parseInt(args[3]);
+				}
+				catch(NumberFormatException e){
+					CONNECTIONS = -1;
+				}
+				if(CONNECTIONS < 0){
+					System.out.println("Invalid number of connections specified [" + args[3] + "]... Aborting!");
+					System.exit(1);
+				}
+				if(CONNECTIONS == 0){
+					CONNECTIONS = ShardedRecorder.DEFAULT_CONNECTIONS;
+				}
 			}
 			
 		}
@@ -81,8 +110,41 @@ public class Main {
 		System.out.println("Topic = " + SUB_TOPIC);
 		System.out.println("QoS = " + QOS);
 		System.out.println("Output File = " + OUT_FILE);
+		System.out.println("Connections = " + CONNECTIONS);
 		System.out.println("************************************");
 		
+		// Log every interval, and the coarser windows built from them
+		ResultsSink[] windowSinks = new ResultsSink[WINDOWS.length];
+		for(int i = 0; i < WINDOWS.length; i++){
+			windowSinks[i] = newSink(OUT_FILE, WindowedAggregator.label(WINDOWS[i]));
+		}
+		ResultsSink sink = new WindowedAggregator(newSink(OUT_FILE, null), WINDOWS, windowSinks);
+		
+		// Follow the intervals live over MQTT, e.g. for the publisher's saturation search
+		if(STATS_TOPIC != null){
+			sink = new StatsPublisher(sink, BROKER_ADDRESS, CLIENT_ID + "-stats", STATS_TOPIC);
+		}
+		
+		// Spread the subscription over several connections, merging their results
+		if(CONNECTIONS > 1){
+			final ShardedRecorder recorder = new ShardedRecorder(
+					BROKER_ADDRESS,
+					CLIENT_ID,
+					SHARE_GROUP,
+					SUB_TOPIC,
+					QOS,
+					CONNECTIONS,
+					sink
+			);
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
+				@Override
+				public void run(){
+					recorder.close();
+				}
+			}));
+			return;
+		}
+		
 		// Initialize our MQTTLatencyClient Object
 		@SuppressWarnings("unused")
 		MQTTLatencyClient client = new MQTTLatencyClient(
@@ -90,9 +152,32 @@ public class Main {
 				CLIENT_ID,
 				SUB_TOPIC,
 				QOS,
-				OUT_FILE
+				sink
 		);
 		
 	}
 	
+	/**
+	 * Creates the sink logging one resolution's results: a binary results store if [out] is a 
+	 * directory, a CSV file otherwise.
+	 * @param out The output file or directory.
+	 * @param window The name of the window (e.g. <i>10s</i>), or null for the bucket's own intervals.
+	 * @return The sink.
+	 * 
+	 * @since 1.1.0
+	 */
+	private static ResultsSink newSink(File out, String window){
+		if(out.isDirectory()){
+			return new ResultsStore(window == null ? out : new File(out, window));
+		}
+		if(window == null){
+			return new AsyncCsvWriter(out);
+		}
+		
+		String name = out.getName();
+		int dot = name.lastIndexOf('.');
+		String windowName = dot > 0 ? name.substring(0, dot) + "." + window + name.substring(dot) : name + "." + window;
+		return new AsyncCsvWriter(new File(out.getAbsoluteFile().getParentFile(), windowName));
+	}
+	
 }
@@ -0,0 +1,413 @@
+package com.cheetah.recorder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A single-pass, allocation-free field extractor for the recorder's message hot path. Reads
+ * <i>last_latency</i>, <i>timestamp</i>, <i>sequence</i> and the position of <i>device_id</i> straight out of the
+ * raw payload bytes, without building a <i>String</i> or a map; every other field is skipped.
+ * Both JSON and <i>BinaryPayload</i> payloads are accepted.
+ * <p>
+ * One scanner should be kept per message thread and reused: the results of the last call to
+ * <i>scan()</i> are held in its fields. Malformed payloads are rejected as soon as the first
+ * unexpected byte is seen.
+ * @version 1.0.0, 2026-10-16
+ * @since 1.1.0
+ *
+ */
+public class PayloadScanner {
+
+	private static final byte[] KEY_DEVICE_ID = "device_id".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] KEY_LAST_LATENCY = "last_latency".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] KEY_TIMESTAMP = "timestamp".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] KEY_SEQUENCE = "sequence".getBytes(StandardCharsets.US_ASCII);
+
+	/** Nesting limit for skipped values, anything deeper is treated as malformed. */
+	private static final int MAX_DEPTH = 16;
+
+	/** The payload being scanned. */
+	private byte[] buf;
+	/** Read position in <i>buf</i>. */
+	private int pos;
+
+	/** Scratch result of <i>parseLong()</i>. */
+	private long number;
+
+	private byte[] payload;
+	private boolean hasLastLatency;
+	private long lastLatency;
+	private boolean hasTimestamp;
+	private long timestamp;
+	private boolean hasSequence;
+	private long sequence;
+	private int deviceIdOffset;
+	private int deviceIdLength;
+
+	/**
+	 * Scans a payload. On success the extracted fields may be read from the getters until the
+	 * next call.
+	 * @param payload The raw message payload, as returned by <i>MqttMessage.getPayload()</i>.
+	 * @return False if the payload is malformed or has no <i>device_id</i>.
+	 */
+	public boolean scan(byte[] payload){
+		this.payload = payload;
+		this.hasLastLatency = false;
+		this.hasTimestamp = false;
+		this.hasSequence = false;
+		this.deviceIdOffset = -1;
+		this.deviceIdLength = 0;
+
+		if(BinaryPayload.isBinary(payload)){
+			if(!BinaryPayload.isValid(payload)){
+				return false;
+			}
+			this.hasLastLatency = true;
+			this.lastLatency = BinaryPayload.getLastLatency(payload);
+			this.hasTimestamp = true;
+			this.timestamp = BinaryPayload.getTimestamp(payload);
+			this.hasSequence = true;
+			this.sequence = BinaryPayload.getSequence(payload);
+			this.deviceIdOffset = BinaryPayload.getDeviceIdOffset(payload);
+			this.deviceIdLength = BinaryPayload.getDeviceIdLength(payload);
+			return true;
+		}
+
+		this.buf = payload;
+		this.pos = 0;
+		return scanObject() && this.deviceIdOffset >= 0;
+	}
+
+	/**
+	 * Walks the top-level object, picking out the known keys.
+	 */
+	private boolean scanObject(){
+		skipWhitespace();
+		if(!expect('{')){
+			return false;
+		}
+		skipWhitespace();
+		if(peek() == '}'){
+			this.pos++;
+			return trailingWhitespaceOnly();
+		}
+
+		while(true){
+			skipWhitespace();
+			if(peek() != '"'){
+				return false;
+			}
+			int keyStart = this.pos + 1;
+			if(!skipString()){
+				return false;
+			}
+			int keyLength = this.pos - 1 - keyStart;
+
+			skipWhitespace();
+			if(!expect(':')){
+				return false;
+			}
+			skipWhitespace();
+
+			if(keyEquals(keyStart, keyLength, KEY_LAST_LATENCY)){
+				if(!parseLong()){
+					return false;
+				}
+				this.lastLatency = this.number;
+				this.hasLastLatency = true;
+			}
+			else if(keyEquals(keyStart, keyLength, KEY_TIMESTAMP)){
+				if(!parseLong()){
+					return false;
+				}
+				this.timestamp = this.number;
+				this.hasTimestamp = true;
+			}
+			else if(keyEquals(keyStart, keyLength, KEY_SEQUENCE)){
+				if(!parseLong()){
+					return false;
+				}
+				this.sequence = this.number;
+				this.hasSequence = true;
+			}
+			else if(keyEquals(keyStart, keyLength, KEY_DEVICE_ID)){
+				if(peek() != '"'){
+					return false;
+				}
+				int valueStart = this.pos + 1;
+				if(!skipString()){
+					return false;
+				}
+				// Escaped IDs would need decoding before use as a topic; device IDs never contain them
+				for(int i = valueStart; i < this.pos - 1; i++){
+					if(this.buf[i] == '\\'){
+						return false;
+					}
+				}
+				this.deviceIdOffset = valueStart;
+				this.deviceIdLength = this.pos - 1 - valueStart;
+			}
+			else if(!skipValue(0)){
+				return false;
+			}
+
+			skipWhitespace();
+			int c = next();
+			if(c == '}'){
+				return trailingWhitespaceOnly();
+			}
+			if(c != ','){
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Parses a JSON number into <i>number</i>. Fractions are truncated towards zero (the initial
+	 * message reports <i>-1.0</i>); exponents and values beyond 18 digits are rejected.
+	 */
+	private boolean parseLong(){
+		boolean negative = false;
+		if(peek() == '-'){
+			negative = true;
+			this.pos++;
+		}
+
+		int digits = 0;
+		long value = 0;
+		int c;
+		while((c = peek()) >= '0' && c <= '9'){
+			if(++digits > 18){
+				return false;
+			}
+			value = value * 10 + (c - '0');
+			this.pos++;
+		}
+		if(digits == 0){
+			return false;
+		}
+
+		if(peek() == '.'){
+			this.pos++;
+			int fractionDigits = 0;
+			while((c = peek()) >= '0' && c <= '9'){
+				fractionDigits++;
+				this.pos++;
+			}
+			if(fractionDigits == 0){
+				return false;
+			}
+		}
+		if(peek() == 'e' || peek() == 'E'){
+			return false;
+		}
+
+		this.number = negative ? -value : value;
+		return true;
+	}
+
+	/**
+	 * Skips any JSON value without looking at it.
+	 */
+	private boolean skipValue(int depth){
+		if(depth > MAX_DEPTH){
+			return false;
+		}
+
+		int c = peek();
+		if(c == '"'){
+			return skipString();
+		}
+		if(c == '-' || (c >= '0' && c <= '9')){
+			this.pos++;
+			while((c = peek()) == '.' || c == 'e' || c == 'E' || c == '+' || c == '-' || (c >= '0' && c <= '9')){
+				this.pos++;
+			}
+			return true;
+		}
+		if(c == 't'){
+			return skipLiteral("true");
+		}
+		if(c == 'f'){
+			return skipLiteral("false");
+		}
+		if(c == 'n'){
+			return skipLiteral("null");
+		}
+		if(c == '{' || c == '['){
+			int close = c == '{' ? '}' : ']';
+			this.pos++;
+			skipWhitespace();
+			if(peek() == close){
+				this.pos++;
+				return true;
+			}
+			while(true){
+				skipWhitespace();
+				if(c == '{'){
+					if(peek() != '"' || !skipString()){
+						return false;
+					}
+					skipWhitespace();
+					if(!expect(':')){
+						return false;
+					}
+					skipWhitespace();
+				}
+				if(!skipValue(depth + 1)){
+					return false;
+				}
+				skipWhitespace();
+				int n = next();
+				if(n == close){
+					return true;
+				}
+				if(n != ','){
+					return false;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Skips a string, leaving <i>pos</i> just after its closing quote.
+	 */
+	private boolean skipString(){
+		this.pos++; // Opening quote
+		while(this.pos < this.buf.length){
+			byte b = this.buf[this.pos++];
+			if(b == '"'){
+				return true;
+			}
+			if(b == '\\'){
+				this.pos++;
+			}
+		}
+		return false;
+	}
+
+	private boolean skipLiteral(String literal){
+		for(int i = 0; i < literal.length(); i++){
+			if(next() != literal.charAt(i)){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean keyEquals(int start, int length, byte[] key){
+		if(length != key.length){
+			return false;
+		}
+		for(int i = 0; i < length; i++){
+			if(this.buf[start + i] != key[i]){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean trailingWhitespaceOnly(){
+		skipWhitespace();
+		return this.pos == this.buf.length;
+	}
+
+	private void skipWhitespace(){
+		while(this.pos < this.buf.length){
+			byte b = this.buf[this.pos];
+			if(b != ' ' && b != '\t' && b != '\n' && b != '\r'){
+				return;
+			}
+			this.pos++;
+		}
+	}
+
+	private boolean expect(char c){
+		return next() == c;
+	}
+
+	/** Returns the current byte without consuming it, or -1 at the end of the payload. */
+	private int peek(){
+		return this.pos < this.buf.length ? this.buf[this.pos] : -1;
+	}
+
+	/** Returns and consumes the current byte, or -1 at the end of the payload. */
+	private int next(){
+		return this.pos < this.buf.length ? this.buf[this.pos++] : -1;
+	}
+
+	/**
+	 * Returns whether the last payload carried a <i>last_latency</i> field.
+	 * @return True if <i>getLastLatency()</i> is valid.
+	 */
+	public boolean hasLastLatency(){
+		return this.hasLastLatency;
+	}
+
+	/**
+	 * Returns the <i>last_latency</i> of the last payload.
+	 * @return The last latency, or -1 if there was no previous message.
+	 */
+	public long getLastLatency(){
+		return this.lastLatency;
+	}
+
+	/**
+	 * Returns whether the last payload carried a <i>timestamp</i> field.
+	 * @return True if <i>getTimestamp()</i> is valid.
+	 */
+	public boolean hasTimestamp(){
+		return this.hasTimestamp;
+	}
+
+	/**
+	 * Returns the <i>timestamp</i> of the last payload.
+	 * @return The send time, in ms since epoch.
+	 */
+	public long getTimestamp(){
+		return this.timestamp;
+	}
+
+	/**
+	 * Returns whether the last payload carried a <i>sequence</i> number; binary payloads always do.
+	 * @return True if <i>getSequence()</i> is valid.
+	 * 
+	 * @since 1.1.0
+	 */
+	public boolean hasSequence(){
+		return this.hasSequence;
+	}
+
+	/**
+	 * Returns the <i>sequence</i> number of the last payload.
+	 * @return The device's count of messages sent, starting at 1.
+	 * 
+	 * @since 1.1.0
+	 */
+	public long getSequence(){
+		return this.sequence;
+	}
+
+	/**
+	 * Returns the offset of the device ID's bytes within the last payload.
+	 * @return The offset of the first byte of the device ID.
+	 */
+	public int getDeviceIdOffset(){
+		return this.deviceIdOffset;
+	}
+
+	/**
+	 * Returns the length of the device ID's bytes within the last payload.
+	 * @return The number of bytes in the device ID.
+	 */
+	public int getDeviceIdLength(){
+		return this.deviceIdLength;
+	}
+
+	/**
+	 * Decodes the device ID of the last payload. Allocates a new <i>String</i>.
+	 * @return The device ID.
+	 */
+	public String getDeviceId(){
+		return new String(this.payload, this.deviceIdOffset, this.deviceIdLength, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,33 @@
+package com.cheetah.recorder;
+
+/**
+ * Wall-clock time with nanosecond resolution, matching the publisher's <i>PreciseClock</i>. The
+ * wall clock is read once, and time then advances with the monotonic <i>System.nanoTime()</i>, so
+ * the time a report was held here is measured exactly. The publisher estimates the offset
+ * between its clock and this one from the timestamps the recorder stamps into timed replies.
+ * @version 1.0.0, 2026-10-16
+ * @since 1.1.0
+ *
+ */
+public final class PreciseClock {
+
+	private static final long BASE_NANO_TIME;
+	private static final long BASE_EPOCH_NANOS;
+
+	static{
+		long millis = System.currentTimeMillis();
+		BASE_NANO_TIME = System.nanoTime();
+		BASE_EPOCH_NANOS = millis * 1000000L;
+	}
+
+	private PreciseClock(){
+	}
+
+	/**
+	 * Returns the current time.
+	 * @return The current time, in nanoseconds since epoch.
+	 */
+	public static long epochNanos(){
+		return BASE_EPOCH_NANOS + (System.nanoTime() - BASE_NANO_TIME);
+	}
+}
@@ -0,0 +1,97 @@
+package com.cheetah.recorder;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts a recorder's lost connections and how they were recovered: the number of outages, how
+ * long each lasted from <i>connectionLost()</i> until the reconnect's CONNACK, failed reconnect
+ * attempts, and the replies lost to the outage (refused or failed while the connection was down).
+ * May be shared by every connection of a <i>ShardedRecorder</i>.
+ * @version 1.0.0, 2026-10-16
+ * @since 1.1.0
+ *
+ */
+public class ReconnectMetrics {
+
+	/** Highest outage (ms) tracked accurately by the outage histogram. */
+	private static final long HIGHEST_TRACKABLE_OUTAGE = 3600000;
+
+	private final AtomicLong outages = new AtomicLong();
+	private final AtomicLong reconnects = new AtomicLong();
+	private final AtomicLong failedAttempts = new AtomicLong();
+	private final AtomicLong lostReplies = new AtomicLong();
+	private final AtomicInteger disconnected = new AtomicInteger();
+	/** Outage lengths in ms; guarded by itself. */
+	private final LatencyHistogram outageMillis = new LatencyHistogram(HIGHEST_TRACKABLE_OUTAGE, LatencyBucket.HISTOGRAM_SUB_BUCKET_BITS);
+
+	/**
+	 * Counts a lost connection.
+	 */
+	public void onConnectionLost(){
+		this.outages.incrementAndGet();
+		this.disconnected.incrementAndGet();
+	}
+
+	/**
+	 * Counts a reconnect attempt that failed.
+	 */
+	public void onReconnectFailed(){
+		this.failedAttempts.incrementAndGet();
+	}
+
+	/**
+	 * Counts a recovered connection.
+	 * @param outageMillis The time since the connection was lost, in milliseconds.
+	 * @param lostReplies The replies which failed or were dropped while it was down.
+	 */
+	public void onReconnected(long outageMillis, long lostReplies){
+		this.reconnects.incrementAndGet();
+		this.disconnected.decrementAndGet();
+		this.lostReplies.addAndGet(lostReplies);
+		synchronized(this.outageMillis){
+			this.outageMillis.recordValue(outageMillis);
+		}
+	}
+
+	/**
+	 * Returns the number of connections currently down.
+	 * @return The number of lost connections not yet recovered.
+	 */
+	public int getDisconnected(){
+		return this.disconnected.get();
+	}
+
+	/**
+	 * Returns the number of connections lost since the start.
+	 * @return The number of outages.
+	 */
+	public long getOutages(){
+		return this.outages.get();
+	}
+
+	/**
+	 * Returns the number of replies lost to outages since the start.
+	 * @return The number of lost replies.
+	 */
+	public long getLostReplies(){
+		return this.lostReplies.get();
+	}
+
+	/**
+	 * Summarizes every outage since the start.
+	 * @return A one line summary for the console, or null if no connection has been lost.
+	 */
+	public String report(){
+		if(this.outages.get() == 0){
+			return null;
+		}
+		synchronized(this.outageMillis){
+			return "Outages = " + this.outages.get() + " | Down = " + this.disconnected.get()
+					+ " | Reconnects = " + this.reconnects.get() + " | Failed Attempts = " + this.failedAttempts.get()
+					+ " | Outage p50 = " + this.outageMillis.getValueAtPercentile(50.0) + " ms"
+					+ ", p99 = " + this.outageMillis.getValueAtPercentile(99.0) + " ms"
+					+ ", max = " + this.outageMillis.getMax() + " ms"
+					+ " | Lost Replies = " + this.lostReplies.get();
+		}
+	}
+}
@@ -0,0 +1,257 @@
+package com.cheetah.recorder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+/**
+ * Publishes replies to the devices off Paho's callback thread. The message thread only looks up
+ * the device's reply topic in a cache and drops the reply into a bounded, lock-free
+ * single-producer/single-consumer ring; a dedicated worker thread takes replies off the ring and
+ * publishes them, never keeping more than <i>window</i> publishes in flight, so the broker pushing
+ * back on publishes no longer stalls receiving (and inflates every measured latency).
+ * <p>
+ * If the ring is full the reply is dropped and counted rather than blocking the message thread;
+ * a closed-loop device whose reply is dropped stops sending. Queue depth, dropped and failed
+ * replies, and the lag from hand-off to publish are reported by <i>report()</i>.
+ * @version 1.0.0, 2026-10-16
+ * @since 1.1.0
+ *
+ */
+public class ReplyPublisher {
+
+	/** Prefix and suffix of the per-device reply topic, "/devices/[ID]/latency/reply". */
+	private static final String TOPIC_PREFIX = "/devices/";
+	private static final String TOPIC_SUFFIX = "/latency/reply";
+	/** Number of reply topics cached; a direct-mapped cache, so colliding devices replace each other. */
+	private static final int TOPIC_CACHE_SIZE = 1 << 16;
+	/** Highest lag (us) tracked accurately by the lag histogram. */
+	private static final long HIGHEST_TRACKABLE_LAG = 60000000;
+
+	/** The client replies are published through. */
+	private final MqttAsyncClient client;
+	/** QoS level of published replies. */
+	private final int qos;
+
+	// *** Reply topic cache, keyed by DeviceStatsTable.hash() of the device ID ***
+	private final long[] topicKeys = new long[TOPIC_CACHE_SIZE];
+	private final String[] topics = new String[TOPIC_CACHE_SIZE];
+
+	// *** Ring of pending replies: the message thread writes at tail, the worker reads at head ***
+	private final int mask;
+	private final String[] ringTopics;
+	private final MqttMessage[] ringMessages;
+	private final long[] ringEnqueuedAt;
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+
+	/** Limits the publishes Paho holds in flight; released when a publish completes. */
+	private final Semaphore window;
+	/** Releases a permit of <i>window</i> for every completed publish. */
+	private final IMqttActionListener windowListener = new IMqttActionListener(){
+		@Override
+		public void onSuccess(IMqttToken token){
+			window.release();
+		}
+
+		@Override
+		public void onFailure(IMqttToken token, Throwable exception){
+			failed.incrementAndGet();
+			window.release();
+		}
+	};
+
+	// *** Metrics ***
+	private final ConcurrentLatencyRecorder lag = new ConcurrentLatencyRecorder(HIGHEST_TRACKABLE_LAG, LatencyBucket.HISTOGRAM_SUB_BUCKET_BITS);
+	private final LatencyHistogram intervalLag = lag.newIntervalHistogram();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private volatile long peakDepth;
+
+	private final Thread worker;
+	private volatile boolean running = true;
+	/** Set while the worker is parked waiting for replies, so the producer knows to wake it. */
+	private volatile boolean waiting;
+
+	/**
+	 * The initialization constructor for the <i>ReplyPublisher</i> class. Starts the worker thread.
+	 * @param client The connected client to publish replies through.
+	 * @param qos The QoS level of published replies.
+	 * @param queueCapacity The most replies which may wait for the worker (rounded up to a power of two).
+	 * @param window The most publishes which may be in flight at once, at most the client's max in-flight setting; 
+	 * always 1 at QoS 0.
+	 */
+	public ReplyPublisher(MqttAsyncClient client, int qos, int queueCapacity, int window){
+		this.client = client;
+		this.qos = qos;
+		// Paho 1.2.0 keys every QoS 0 publish's token by message ID 0, so a second one in flight loses the first's token
+		// and leaks an in-flight slot for good (until "Too many publishes in progress"); QoS 0 replies go one at a time
+		this.window = new Semaphore(qos == 0 ? 1 : window);
+
+		int capacity = Integer.highestOneBit(Math.max(queueCapacity - 1, 1)) << 1;
+		this.mask = capacity - 1;
+		this.ringTopics = new String[capacity];
+		this.ringMessages = new MqttMessage[capacity];
+		this.ringEnqueuedAt = new long[capacity];
+
+		this.worker = new Thread(new Runnable(){
+			@Override
+			public void run(){
+				publishLoop();
+			}
+		}, "reply-publisher-" + client.getClientId());
+		this.worker.setDaemon(true);
+		this.worker.start();
+	}
+
+	/**
+	 * Returns the reply topic of the device whose ID is found at <i>offset</i> in <i>buf</i>. The
+	 * topic is built once per device and cached; a cached lookup does not allocate.
+	 * @param buf The buffer holding the device ID, e.g. a message payload.
+	 * @param offset The offset of the ID's first byte.
+	 * @param length The number of bytes in the ID.
+	 * @return The device's reply topic.
+	 */
+	public String topicFor(byte[] buf, int offset, int length){
+		long key = DeviceStatsTable.hash(buf, offset, length);
+		int index = (int) key & (TOPIC_CACHE_SIZE - 1);
+		if(this.topicKeys[index] != key){
+			this.topics[index] = TOPIC_PREFIX + new String(buf, offset, length, StandardCharsets.UTF_8) + TOPIC_SUFFIX;
+			this.topicKeys[index] = key;
+		}
+		return this.topics[index];
+	}
+
+	/**
+	 * Hands a reply over to the worker thread. Must only be called from one thread (the client's
+	 * message thread). Never blocks.
+	 * @param topic The topic to publish to, see <i>topicFor()</i>.
+	 * @param message The reply to publish.
+	 * @return False if the queue was full and the reply was dropped.
+	 */
+	public boolean offer(String topic, MqttMessage message){
+		long t = this.tail.get();
+		long depth = t - this.head.get();
+		if(depth > this.mask){
+			this.dropped.incrementAndGet();
+			return false;
+		}
+		if(depth + 1 > this.peakDepth){
+			this.peakDepth = depth + 1;
+		}
+
+		int i = (int) t & this.mask;
+		message.setQos(this.qos);
+		this.ringTopics[i] = topic;
+		this.ringMessages[i] = message;
+		this.ringEnqueuedAt[i] = System.nanoTime();
+		this.tail.lazySet(t + 1);
+
+		if(this.waiting){
+			LockSupport.unpark(this.worker);
+		}
+		return true;
+	}
+
+	/**
+	 * The worker thread's main loop: publishes queued replies in order, waiting for a free slot
+	 * in the in-flight window before each one.
+	 */
+	private void publishLoop(){
+		while(this.running){
+			long h = this.head.get();
+			if(h == this.tail.get()){
+				this.waiting = true;
+				if(h == this.tail.get()){
+					LockSupport.parkNanos(1000000);
+				}
+				this.waiting = false;
+				continue;
+			}
+
+			int i = (int) h & this.mask;
+			String topic = this.ringTopics[i];
+			MqttMessage message = this.ringMessages[i];
+			long enqueuedAt = this.ringEnqueuedAt[i];
+			this.ringTopics[i] = null;
+			this.ringMessages[i] = null;
+			this.head.lazySet(h + 1);
+
+			try{
+				this.window.acquire();
+			}
+			catch(InterruptedException e){
+				return;
+			}
+
+			// Stamped as late as possible, so the publisher sees how long the reply really waited here
+			byte[] payload = message.getPayload();
+			if(BinaryPayload.isBinary(payload) && BinaryPayload.isTimed(payload)){
+				BinaryPayload.setReplyNanos(payload, PreciseClock.epochNanos());
+			}
+
+			try{
+				this.client.publish(topic, message, null, this.windowListener);
+				this.lag.recordValue((System.nanoTime() - enqueuedAt) / 1000);
+			}
+			catch(MqttException e){
+				this.failed.incrementAndGet();
+				this.window.release();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of replies waiting for the worker thread.
+	 * @return The current queue depth.
+	 */
+	public long getQueueDepth(){
+		return this.tail.get() - this.head.get();
+	}
+
+	/**
+	 * Returns the number of replies dropped because the queue was full.
+	 * @return The number of dropped replies.
+	 */
+	public long getDropped(){
+		return this.dropped.get();
+	}
+
+	/**
+	 * Returns the number of replies Paho refused or failed to deliver.
+	 * @return The number of failed replies.
+	 */
+	public long getFailed(){
+		return this.failed.get();
+	}
+
+	/**
+	 * Summarizes the reply pipeline since the last call: queue depth (current and peak), dropped
+	 * and failed replies, and the hand-off to publish lag. Resets the peak depth and lag.
+	 * @return A one line summary, for the console.
+	 */
+	public synchronized String report(){
+		this.lag.drainInto(this.intervalLag);
+		String summary = "Reply Queue = " + getQueueDepth() + " (peak " + this.peakDepth + ")"
+				+ " | Dropped = " + getDropped() + " | Failed = " + getFailed()
+				+ " | Publish Lag p50 = " + this.intervalLag.getValueAtPercentile(50.0) + " us"
+				+ ", p99 = " + this.intervalLag.getValueAtPercentile(99.0) + " us"
+				+ ", max = " + this.intervalLag.getMax() + " us";
+		this.intervalLag.reset();
+		this.peakDepth = getQueueDepth();
+		return summary;
+	}
+
+	/**
+	 * Stops the worker thread. Replies still queued are discarded.
+	 */
+	public void close(){
+		this.running = false;
+		LockSupport.unpark(this.worker);
+	}
+}
@@ -0,0 +1,35 @@
+package com.cheetah.recorder;
+
+/**
+ * Destination for the <i>BucketResults</i> produced each time a <i>LatencyBucket</i> is emptied.
+ * Implementations are called from the bucket's <i>Timer</i> thread, so they should return quickly.
+ * @version 1.0.0, 2026-10-16
+ * @since 1.1.0
+ *
+ */
+public interface ResultsSink {
+
+	/**
+	 * Records the results of one interval.
+	 * @param br The results retrieved when emptying a <i>LatencyBucket</i>
+	 */
+	void appendBucketResults(BucketResults br);
+
+	/**
+	 * Called instead of <i>appendBucketResults()</i> when an interval had no entries, so sinks 
+	 * tracking time (e.g. a <i>WindowedAggregator</i>) can close their windows. Its messages may 
+	 * still have been counted, e.g. lost during an outage or all without a latency. Ignored by default.
+	 * @param intervalEnd The boundary the interval was scheduled to end on, in ms since epoch.
+	 * @param counts The interval's sequenced, lost, duplicate and out-of-order message counts.
+	 * 
+	 * @since 1.1.0
+	 */
+	default void appendEmptyInterval(long intervalEnd, SequenceCounts counts){
+	}
+
+	/**
+	 * Writes out anything still buffered and releases the sink's resources. Results appended 
+	 * afterwards are ignored.
+	 */
+	void close();
+}
@@ -0,0 +1,317 @@
+package com.cheetah.recorder;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Compact, append-only binary alternative to <i>CsvWriter</i> for long runs. Every interval is
+ * stored with its epoch-nanos timestamp and its full histogram (count, sum, minimum, maximum and
+ * the non-empty buckets), so any time range can be looked up and merged later by
+ * <i>ResultsStoreReader</i> without losing the percentiles. An interval without entries is only
+ * stored if its messages were counted, e.g. lost during an outage, with an empty histogram.
+ * <p>
+ * Results go to a directory, into segment files named after the time of their first record,
+ * <i>results-&lt;epoch ms&gt;.lts</i>. A segment is closed once it reaches <i>maxFileBytes</i> or
+ * <i>maxFileNanos</i>, and the next record starts a new one. Existing files are never overwritten,
+ * so a restarted recorder carries on next to the previous run's segments.
+ * <p>
+ * Layout of a segment, all numbers big-endian:
+ * <ul>
+ * <li>Header: magic <i>LTS1</i>, format version, histogram sub-bucket bits, highest trackable
+ * value and creation time in ns since epoch (28 bytes).</li>
+ * <li>Records: length of the body, then the body: timestamp in ns since epoch, histogram as
+ * written by <i>LatencyHistogram.encodeInto()</i>, and the interval's sequenced, lost, duplicate
+ * and out-of-order message counts as variable-length integers (see <i>SequenceCounts</i>); then
+ * a CRC32 of the body. Readers treat missing counts as 0.</li>
+ * </ul>
+ * Each segment has a sparse index next to it, <i>results-&lt;epoch ms&gt;.lts.idx</i>, holding a
+ * (timestamp, file offset) pair for the first record and every <i>indexEveryRecords</i> records
+ * after it, so a reader can seek close to a point in time instead of scanning the segment.
+ * <p>
+ * Records are a few hundred bytes, one per interval, so they are written straight through on the
+ * bucket's <i>Timer</i> thread; the page cache absorbs them, and segments are only forced to disk
+ * when they are closed.
+ * @version 1.0.0, 2026-10-16
+ * @since 1.1.0
+ *
+ */
+public class ResultsStore implements ResultsSink {
+
+	/** First bytes of every segment, "LTS1". */
+	static final int MAGIC = 0x4C545331;
+	/** Version of the segment layout. */
+	static final int VERSION = 1;
+	/** Size of the segment header. */
+	static final int HEADER_BYTES = 4 + 4 + 4 + 8 + 8;
+	/** Size of an index entry, a timestamp and an offset. */
+	static final int INDEX_ENTRY_BYTES = 8 + 8;
+	/** Most bytes taken by a record's sequence counts, four variable-length integers. */
+	static final int MAX_COUNTS_BYTES = 4 * 10;
+	/** Name prefix of the segments. */
+	static final String SEGMENT_PREFIX = "results-";
+	/** Name suffix of the segments. */
+	static final String SEGMENT_SUFFIX = ".lts";
+	/** Name suffix of the index files, after the segment's name. */
+	static final String INDEX_SUFFIX = ".idx";
+
+	/** Default size at which a segment is closed. */
+	public static final long DEFAULT_MAX_FILE_BYTES = 64L * 1024 * 1024;
+	/** Default age at which a segment is closed. */
+	public static final long DEFAULT_MAX_FILE_NANOS = 3600L * 1000000000L;
+	/** Default number of records between index entries. */
+	public static final int DEFAULT_INDEX_EVERY_RECORDS = 60;
+
+	private final File directory;
+	private final long maxFileBytes;
+	private final long maxFileNanos;
+	private final int indexEveryRecords;
+
+	private final CRC32 crc = new CRC32();
+	private final ByteBuffer index = ByteBuffer.allocateDirect(INDEX_ENTRY_BYTES);
+	private ByteBuffer record;
+
+	// *** The open segment, null between segments ***
+	private FileChannel segment;
+	private FileChannel segmentIndex;
+	private long segmentBytes;
+	private long segmentStartNanos;
+	private int segmentRecords;
+	/** Shape of the histograms in the open segment. */
+	private int subBucketBits;
+	private long highestTrackableValue;
+
+	private boolean closed;
+
+	/**
+	 * Initialization constructor using the default rollover and index settings (64 MB or one
+	 * hour per segment, an index entry every 60 records).
+	 * @param directory The directory to write the segments to; created if missing.
+	 */
+	public ResultsStore(File directory){
+		this(directory, DEFAULT_MAX_FILE_BYTES, DEFAULT_MAX_FILE_NANOS, DEFAULT_INDEX_EVERY_RECORDS);
+	}
+
+	/**
+	 * The initialization constructor for this Class. Segments are only created once results
+	 * arrive.
+	 * @param directory The directory to write the segments to; created if missing.
+	 * @param maxFileBytes Close a segment once it reaches this size, 0 for no limit.
+	 * @param maxFileNanos Close a segment once its first record is this old, 0 for no limit.
+	 * @param indexEveryRecords The number of records between index entries.
+	 */
+	public ResultsStore(File directory, long maxFileBytes, long maxFileNanos, int indexEveryRecords){
+		if(!directory.isDirectory() && !directory.mkdirs()){
+			throw new IllegalArgumentException("Unable to create results directory '" + directory + "'");
+		}
+
+		this.directory = directory;
+		this.maxFileBytes = maxFileBytes;
+		this.maxFileNanos = maxFileNanos;
+		this.indexEveryRecords = Math.max(indexEveryRecords, 1);
+	}
+
+	/**
+	 * Appends the results' timestamp and histogram to the open segment, first closing it if it
+	 * is full or too old, or holds histograms of a different shape.
+	 * @param br The results retrieved when emptying a <i>LatencyBucket</i>
+	 */
+	@Override
+	public synchronized void appendBucketResults(BucketResults br){
+		System.out.println("\tAverage Lat. = " + br.getAverage() + " ms | p99 = " + br.getP99() + " ms | Max = " + br.getMax() + " ms");
+
+		LatencyHistogram histogram = br.getHistogram();
+		if(this.closed){
+			return;
+		}
+		if(histogram == null){
+			System.out.println("[ERROR] Results without a histogram can't be stored.");
+			return;
+		}
+		store(br.getTimestampNanos(), histogram, br.getSequenceCounts());
+	}
+
+	/**
+	 * Appends an interval without entries, with an empty histogram of the open segment's shape, 
+	 * if any of its messages were counted; otherwise there is nothing to store.
+	 * @param intervalEnd The boundary the interval was scheduled to end on, in ms since epoch.
+	 * @param counts The interval's sequence counts.
+	 */
+	@Override
+	public synchronized void appendEmptyInterval(long intervalEnd, SequenceCounts counts){
+		if(this.closed || (counts.getReceived() == 0 && counts.getLost() == 0)){
+			return;
+		}
+		LatencyHistogram empty = this.segment != null
+				? new LatencyHistogram(this.highestTrackableValue, this.subBucketBits)
+				: new LatencyHistogram(LatencyBucket.HIGHEST_TRACKABLE_LATENCY, LatencyBucket.HISTOGRAM_SUB_BUCKET_BITS);
+		store(PreciseClock.epochNanos(), empty, counts);
+	}
+
+	/**
+	 * Writes one record, first closing the open segment if it is full or too old, or holds 
+	 * histograms of a different shape.
+	 */
+	private void store(long timestamp, LatencyHistogram histogram, SequenceCounts counts){
+		try{
+			if(this.segment != null && (isFull(timestamp)
+					|| histogram.getSubBucketBits() != this.subBucketBits
+					|| histogram.getHighestTrackableValue() != this.highestTrackableValue)){
+				closeSegment();
+			}
+			if(this.segment == null){
+				openSegment(timestamp, histogram);
+			}
+
+			write(timestamp, histogram, counts);
+		}
+		catch(IOException e){
+			e.printStackTrace();
+			// Start over in a fresh segment rather than appending after a partial record
+			try{
+				closeSegment();
+			}
+			catch(IOException ignored){
+				this.segment = null;
+			}
+		}
+	}
+
+	/**
+	 * Closes the open segment; results appended afterwards are ignored.
+	 */
+	@Override
+	public synchronized void close(){
+		this.closed = true;
+		try{
+			closeSegment();
+		}
+		catch(IOException e){
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Returns the directory the segments are written to.
+	 * @return The store's directory.
+	 */
+	public File getDirectory(){
+		return this.directory;
+	}
+
+	private boolean isFull(long timestamp){
+		return (this.maxFileBytes > 0 && this.segmentBytes >= this.maxFileBytes)
+				|| (this.maxFileNanos > 0 && timestamp - this.segmentStartNanos >= this.maxFileNanos);
+	}
+
+	/**
+	 * Encodes one record, writes it out, and adds it to the index if it is due.
+	 */
+	private void write(long timestamp, LatencyHistogram histogram, SequenceCounts counts) throws IOException{
+		ByteBuffer record = this.record;
+		record.clear();
+		record.putInt(0); // Length, filled in below
+		record.putLong(timestamp);
+		histogram.encodeInto(record);
+		LatencyHistogram.putVarLong(record, counts.getReceived());
+		LatencyHistogram.putVarLong(record, counts.getLost());
+		LatencyHistogram.putVarLong(record, counts.getDuplicates());
+		LatencyHistogram.putVarLong(record, counts.getOutOfOrder());
+		int length = record.position() - 4;
+		record.putInt(0, length);
+
+		this.crc.reset();
+		this.crc.update(record.array(), 4, length);
+		record.putInt((int) this.crc.getValue());
+		record.flip();
+
+		long offset = this.segmentBytes;
+		while(record.hasRemaining()){
+			this.segmentBytes += this.segment.write(record);
+		}
+
+		if(this.segmentRecords % this.indexEveryRecords == 0){
+			this.index.clear();
+			this.index.putLong(timestamp);
+			this.index.putLong(offset);
+			this.index.flip();
+			while(this.index.hasRemaining()){
+				this.segmentIndex.write(this.index);
+			}
+		}
+		this.segmentRecords++;
+	}
+
+	/**
+	 * Creates a segment named after its first record, and its index, and writes the header.
+	 */
+	private void openSegment(long timestamp, LatencyHistogram histogram) throws IOException{
+		long millis = timestamp / 1000000;
+		File file;
+		while(true){
+			file = new File(this.directory, segmentName(millis));
+			try{
+				this.segment = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+				break;
+			}
+			catch(FileAlreadyExistsException e){
+				millis++; // Never overwrite an earlier run's segment
+			}
+		}
+		System.out.println("[INFO] Creating file @ '" + file.getAbsolutePath() + "'");
+		this.segmentIndex = FileChannel.open(new File(this.directory, file.getName() + INDEX_SUFFIX).toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+		this.subBucketBits = histogram.getSubBucketBits();
+		this.highestTrackableValue = histogram.getHighestTrackableValue();
+		int capacity = 4 + 8 + histogram.getMaxEncodedLength() + MAX_COUNTS_BYTES + 4;
+		if(this.record == null || this.record.capacity() < capacity){
+			this.record = ByteBuffer.allocate(capacity);
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putInt(this.subBucketBits);
+		header.putLong(this.highestTrackableValue);
+		header.putLong(PreciseClock.epochNanos());
+		header.flip();
+		while(header.hasRemaining()){
+			this.segment.write(header);
+		}
+
+		this.segmentBytes = HEADER_BYTES;
+		this.segmentStartNanos = timestamp;
+		this.segmentRecords = 0;
+	}
+
+	private void closeSegment() throws IOException{
+		FileChannel segment = this.segment;
+		FileChannel segmentIndex = this.segmentIndex;
+		this.segment = null;
+		this.segmentIndex = null;
+
+		try{
+			if(segment != null){
+				segment.force(false);
+				segment.close();
+			}
+		}
+		finally{
+			if(segmentIndex != null){
+				segmentIndex.close();
+			}
+		}
+	}
+
+	/**
+	 * Returns the name of the segment starting at the given time. The time is zero-padded, so
+	 * sorting the names sorts the segments by time.
+	 */
+	static String segmentName(long millis){
+		return String.format("%s%013d%s", SEGMENT_PREFIX, millis, SEGMENT_SUFFIX);
+	}
+}
@@ -0,0 +1,353 @@
+package com.cheetah.recorder;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Reads back the intervals written by a <i>ResultsStore</i>. Only the segments overlapping the
+ * requested time range are opened, and each one is entered through its sparse index, so querying
+ * an hour of a week-long run reads about an hour's worth of records. A record cut short by a crash,
+ * or failing its checksum, ends its segment.
+ * <p>
+ * Run on its own, it prints a time range, one line per interval or merged into larger windows:
+ * <pre>
+ * ResultsStoreReader &lt;directory&gt; &lt;from&gt; &lt;to&gt; [list | merge [seconds]]
+ * </pre>
+ * Times are ISO-8601 instants (e.g. <i>2026-10-16T08:00:00Z</i>), ms since epoch, or <i>-</i>
+ * for an open end. <i>merge</i> without a window length merges the whole range.
+ * @version 1.0.0, 2026-10-16
+ * @since 1.1.0
+ *
+ */
+public class ResultsStoreReader {
+
+	/**
+	 * Receives the intervals found by <i>read()</i>, in time order.
+	 */
+	public interface Visitor {
+
+		/**
+		 * Called for every interval in the requested range.
+		 * @param timestampNanos The time the interval ended, in ns since epoch.
+		 * @param histogram The interval's latencies; reused for the next interval, so copy it to keep it.
+		 * @param counts The interval's lost, duplicate and out-of-order message counts; also reused.
+		 */
+		void interval(long timestampNanos, LatencyHistogram histogram, SequenceCounts counts);
+	}
+
+	/** Size of the read buffer used after seeking into a segment. */
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+	private final File directory;
+
+	/**
+	 * The initialization constructor for this Class.
+	 * @param directory The directory the <i>ResultsStore</i> wrote to.
+	 */
+	public ResultsStoreReader(File directory){
+		this.directory = directory;
+	}
+
+	/**
+	 * Visits every interval stamped between <i>fromNanos</i> and <i>toNanos</i>, inclusive.
+	 * @param fromNanos The start of the range, in ns since epoch.
+	 * @param toNanos The end of the range, in ns since epoch.
+	 * @param visitor Receives the intervals.
+	 * @throws IOException If a segment or index can't be read.
+	 */
+	public void read(long fromNanos, long toNanos, Visitor visitor) throws IOException{
+		File[] segments = listSegments();
+		for(int i = 0; i < segments.length; i++){
+			long start = segmentMillis(segments[i]) * 1000000;
+			if(start > toNanos){
+				break;
+			}
+			// Every record of a segment is older than the first record of the next one
+			if(i + 1 < segments.length && (segmentMillis(segments[i + 1]) + 1) * 1000000 <= fromNanos){
+				continue;
+			}
+
+			readSegment(segments[i], fromNanos, toNanos, visitor);
+		}
+	}
+
+	/**
+	 * Merges every interval stamped between <i>fromNanos</i> and <i>toNanos</i>, inclusive.
+	 * @param fromNanos The start of the range, in ns since epoch.
+	 * @param toNanos The end of the range, in ns since epoch.
+	 * @return The merged histogram, or null if the range holds no intervals.
+	 * @throws IOException If a segment or index can't be read.
+	 */
+	public LatencyHistogram merge(long fromNanos, long toNanos) throws IOException{
+		final LatencyHistogram[] merged = new LatencyHistogram[1];
+		read(fromNanos, toNanos, new Visitor(){
+			@Override
+			public void interval(long timestampNanos, LatencyHistogram histogram, SequenceCounts counts){
+				if(merged[0] == null){
+					merged[0] = histogram.copyEmpty();
+				}
+				merged[0].add(histogram);
+			}
+		});
+		return merged[0];
+	}
+
+	/**
+	 * Returns the segments of the store, oldest first.
+	 */
+	private File[] listSegments(){
+		File[] segments = this.directory.listFiles();
+		if(segments == null){
+			return new File[0];
+		}
+
+		List<File> found = new ArrayList<File>();
+		for(File file : segments){
+			String name = file.getName();
+			if(name.startsWith(ResultsStore.SEGMENT_PREFIX) && name.endsWith(ResultsStore.SEGMENT_SUFFIX)){
+				found.add(file);
+			}
+		}
+		File[] sorted = found.toArray(new File[found.size()]);
+		Arrays.sort(sorted); // The zero-padded start time sorts by name
+		return sorted;
+	}
+
+	private static long segmentMillis(File segment){
+		String name = segment.getName();
+		return Long.parseLong(name.substring(ResultsStore.SEGMENT_PREFIX.length(), name.length() - ResultsStore.SEGMENT_SUFFIX.length()));
+	}
+
+	/**
+	 * Seeks to the last indexed record at or before <i>fromNanos</i> and reads forward until the
+	 * end of the range, the end of the segment, or a damaged record.
+	 */
+	private void readSegment(File file, long fromNanos, long toNanos, Visitor visitor) throws IOException{
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+			ByteBuffer header = ByteBuffer.allocate(ResultsStore.HEADER_BYTES);
+			while(header.hasRemaining()){
+				if(channel.read(header) < 0){
+					return; // Created, but nothing written yet
+				}
+			}
+			header.flip();
+			if(header.getInt() != ResultsStore.MAGIC || header.getInt() != ResultsStore.VERSION){
+				System.out.println("[ERROR] '" + file + "' is not a results segment this version can read, skipping it.");
+				return;
+			}
+			int subBucketBits = header.getInt();
+			long highestTrackableValue = header.getLong();
+			LatencyHistogram histogram = new LatencyHistogram(highestTrackableValue, subBucketBits);
+			SequenceCounts counts = new SequenceCounts();
+			int maxLength = 8 + histogram.getMaxEncodedLength() + ResultsStore.MAX_COUNTS_BYTES;
+
+			channel.position(Math.max(seek(new File(file.getPath() + ResultsStore.INDEX_SUFFIX), fromNanos), ResultsStore.HEADER_BYTES));
+			InputStream stream = new BufferedInputStream(Channels.newInputStream(channel), READ_BUFFER_SIZE);
+			DataInputStream in = new DataInputStream(stream);
+			CRC32 crc = new CRC32();
+			byte[] record = new byte[maxLength];
+
+			while(true){
+				int length;
+				try{
+					length = in.readInt();
+					if(length < 8 || length > maxLength){
+						System.out.println("[ERROR] Damaged record in '" + file + "', skipping the rest of the segment.");
+						return;
+					}
+					in.readFully(record, 0, length);
+					crc.reset();
+					crc.update(record, 0, length);
+					if(in.readInt() != (int) crc.getValue()){
+						System.out.println("[ERROR] Checksum mismatch in '" + file + "', skipping the rest of the segment.");
+						return;
+					}
+				}
+				catch(EOFException e){
+					return; // The end of the segment, or a record cut short
+				}
+
+				ByteBuffer buffer = ByteBuffer.wrap(record, 0, length);
+				long timestamp = buffer.getLong();
+				if(timestamp > toNanos){
+					return;
+				}
+				if(timestamp >= fromNanos){
+					histogram.reset();
+					histogram.decodeAndAdd(buffer);
+					counts.reset();
+					if(buffer.hasRemaining()){
+						counts.add(new SequenceCounts(LatencyHistogram.getVarLong(buffer), LatencyHistogram.getVarLong(buffer),
+								LatencyHistogram.getVarLong(buffer), LatencyHistogram.getVarLong(buffer)));
+					}
+					visitor.interval(timestamp, histogram, counts);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the offset of the last indexed record stamped at or before <i>fromNanos</i>, or 0
+	 * if there is none or the index is missing.
+	 */
+	private static long seek(File indexFile, long fromNanos) throws IOException{
+		if(!indexFile.isFile()){
+			return 0;
+		}
+
+		ByteBuffer index;
+		try(FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)){
+			index = ByteBuffer.allocate((int) (channel.size() / ResultsStore.INDEX_ENTRY_BYTES * ResultsStore.INDEX_ENTRY_BYTES));
+			while(index.hasRemaining() && channel.read(index) >= 0);
+		}
+
+		// Binary search over the (timestamp, offset) entries
+		int entries = index.position() / ResultsStore.INDEX_ENTRY_BYTES;
+		int low = 0;
+		int high = entries - 1;
+		long offset = 0;
+		while(low <= high){
+			int mid = (low + high) >>> 1;
+			if(index.getLong(mid * ResultsStore.INDEX_ENTRY_BYTES) <= fromNanos){
+				offset = index.getLong(mid * ResultsStore.INDEX_ENTRY_BYTES + 8);
+				low = mid + 1;
+			}
+			else{
+				high = mid - 1;
+			}
+		}
+		return offset;
+	}
+
+	/**
+	 * Prints the intervals of a time range, or merges them.
+	 * @param args &lt;directory&gt; &lt;from&gt; &lt;to&gt; [list | merge [seconds]]
+	 */
+	public static void main(String[] args){
+		if(args.length < 3 || args.length > 5){
+			System.out.println("Usage: ResultsStoreReader <directory> <from> <to> [list | merge [seconds]]");
+			System.out.println("Times are ISO-8601 instants, ms since epoch, or - for an open end.");
+			System.exit(1);
+		}
+
+		File directory = new File(args[0]);
+		if(!directory.isDirectory()){
+			System.out.println("Specified results directory '" + args[0] + "' does not exist... Aborting!");
+			System.exit(1);
+		}
+
+		long from = 0;
+		long to = Long.MAX_VALUE;
+		long windowNanos = 0;
+		String mode = args.length > 3 ? args[3] : "list";
+		try{
+			from = parseTime(args[1], 0);
+			to = parseTime(args[2], Long.MAX_VALUE);
+			if(args.length > 4){
+				windowNanos = (long) (Double.parseDouble(args[4]) * 1000000000L);
+			}
+		}
+		catch(NumberFormatException | DateTimeParseException e){
+			System.out.println("Invalid time or window length [" + e.getMessage() + "]... Aborting!");
+			System.exit(1);
+		}
+		if(!mode.equals("list") && !mode.equals("merge")){
+			System.out.println("Unknown mode [" + mode + "]... Aborting!");
+			System.exit(1);
+		}
+
+		System.out.println(CsvWriter.HEADER.trim());
+		try{
+			if(mode.equals("list")){
+				new ResultsStoreReader(directory).read(from, to, new Visitor(){
+					@Override
+					public void interval(long timestampNanos, LatencyHistogram histogram, SequenceCounts counts){
+						System.out.println(line(timestampNanos, histogram, counts));
+					}
+				});
+			}
+			else{
+				mergeWindows(directory, from, to, windowNanos);
+			}
+		}
+		catch(IOException e){
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Prints one merged line per window of the range, stamped with the end of the window, or a
+	 * single line for the whole range, stamped with its last interval, if <i>windowNanos</i> is 0.
+	 * Windows are aligned to multiples of their length since epoch.
+	 */
+	private static void mergeWindows(File directory, long from, long to, final long windowNanos) throws IOException{
+		final LatencyHistogram[] window = new LatencyHistogram[1];
+		final SequenceCounts windowCounts = new SequenceCounts();
+		final long[] windowEnd = new long[1];
+		final long[] last = new long[1];
+		new ResultsStoreReader(directory).read(from, to, new Visitor(){
+			@Override
+			public void interval(long timestampNanos, LatencyHistogram histogram, SequenceCounts counts){
+				long end = windowNanos > 0 ? (timestampNanos - 1) / windowNanos * windowNanos + windowNanos : Long.MAX_VALUE;
+				if(window[0] == null){
+					window[0] = histogram.copyEmpty();
+				}
+				else if(end != windowEnd[0]){
+					System.out.println(line(windowEnd[0], window[0], windowCounts));
+					window[0].reset();
+					windowCounts.reset();
+				}
+				windowEnd[0] = end;
+				last[0] = timestampNanos;
+				window[0].add(histogram);
+				windowCounts.add(counts);
+			}
+		});
+		if(window[0] != null){
+			System.out.println(line(windowNanos > 0 ? windowEnd[0] : last[0], window[0], windowCounts));
+		}
+	}
+
+	private static String line(long timestampNanos, LatencyHistogram histogram, SequenceCounts counts){
+		return Instant.ofEpochSecond(timestampNanos / 1000000000L, timestampNanos % 1000000000L)
+				+ ", " + histogram.getMean()
+				+ ", " + histogram.getCount()
+				+ ", " + histogram.getMin()
+				+ ", " + histogram.getValueAtPercentile(50.0)
+				+ ", " + histogram.getValueAtPercentile(90.0)
+				+ ", " + histogram.getValueAtPercentile(99.0)
+				+ ", " + histogram.getValueAtPercentile(99.9)
+				+ ", " + histogram.getMax()
+				+ ", " + counts.getLost()
+				+ ", " + counts.getDuplicates()
+				+ ", " + counts.getOutOfOrder();
+	}
+
+	/**
+	 * Parses an ISO-8601 instant, ms since epoch, or <i>-</i> for an open end.
+	 */
+	private static long parseTime(String value, long open){
+		if(value.equals("-")){
+			return open;
+		}
+		if(value.matches("\\d+")){
+			return Long.parseLong(value) * 1000000;
+		}
+		Instant instant = Instant.parse(value);
+		return instant.getEpochSecond() * 1000000000L + instant.getNano();
+	}
+}
@@ -0,0 +1,130 @@
+package com.cheetah.recorder;
+
+/**
+ * A simple structure holding what the sequence numbers of one interval's messages revealed, see
+ * <i>SequenceTracker</i>: how many messages carried one, and how many messages were lost,
+ * duplicated or arrived out of order. Counts of several intervals may be added together.
+ * @version 1.0.0, 2026-10-16
+ * @since 1.1.0
+ *
+ */
+public class SequenceCounts {
+
+	/** Messages which carried a sequence number. */
+	private long received;
+	/** Sequence numbers never received, once 64 later messages of their device arrived. */
+	private long lost;
+	/** Messages whose sequence number had already been received. */
+	private long duplicates;
+	/** Messages arriving after a later message of their device. */
+	private long outOfOrder;
+
+	/**
+	 * Initialization constructor for empty counts.
+	 */
+	public SequenceCounts(){
+	}
+
+	/**
+	 * Initialization constructor for the <i>SequenceCounts</i> class.
+	 * @param received Messages which carried a sequence number.
+	 * @param lost Sequence numbers never received.
+	 * @param duplicates Messages received more than once.
+	 * @param outOfOrder Messages arriving after a later message of their device.
+	 */
+	public SequenceCounts(long received, long lost, long duplicates, long outOfOrder){
+		this.received = received;
+		this.lost = lost;
+		this.duplicates = duplicates;
+		this.outOfOrder = outOfOrder;
+	}
+
+	/**
+	 * Adds other counts to these.
+	 * @param other The counts to add.
+	 */
+	public void add(SequenceCounts other){
+		this.received += other.received;
+		this.lost += other.lost;
+		this.duplicates += other.duplicates;
+		this.outOfOrder += other.outOfOrder;
+	}
+
+	/**
+	 * Sets every count back to 0.
+	 */
+	public void reset(){
+		this.received = 0;
+		this.lost = 0;
+		this.duplicates = 0;
+		this.outOfOrder = 0;
+	}
+
+	/**
+	 * Returns the number of messages which carried a sequence number.
+	 * @return The number of sequenced messages.
+	 */
+	public long getReceived(){
+		return this.received;
+	}
+
+	/**
+	 * Returns the number of sequence numbers never received.
+	 * @return The number of lost messages.
+	 */
+	public long getLost(){
+		return this.lost;
+	}
+
+	/**
+	 * Returns the number of messages whose sequence number had already been received.
+	 * @return The number of duplicates.
+	 */
+	public long getDuplicates(){
+		return this.duplicates;
+	}
+
+	/**
+	 * Returns the number of messages which arrived after a later message of their device.
+	 * @return The number of out-of-order messages.
+	 */
+	public long getOutOfOrder(){
+		return this.outOfOrder;
+	}
+
+	/**
+	 * Returns the share of the messages sent which were lost.
+	 * @return Lost messages over lost and distinct received messages, 0 if there were none.
+	 */
+	public double getLossRate(){
+		long sent = this.received - this.duplicates + this.lost;
+		return sent <= 0 ? 0.0 : (double) this.lost / sent;
+	}
+
+	/**
+	 * Returns the share of the messages received which were duplicates.
+	 * @return Duplicates over received messages, 0 if there were none.
+	 */
+	public double getDuplicateRate(){
+		return this.received == 0 ? 0.0 : (double) this.duplicates / this.received;
+	}
+
+	/**
+	 * Returns the share of the messages received which arrived out of order.
+	 * @return Out-of-order messages over received messages, 0 if there were none.
+	 */
+	public double getOutOfOrderRate(){
+		return this.received == 0 ? 0.0 : (double) this.outOfOrder / this.received;
+	}
+
+	/**
+	 * Returns a one-line summary of the counts.
+	 * @return The rates and counts of lost, duplicate and out-of-order messages.
+	 */
+	@Override
+	public String toString(){
+		return String.format("Lost = %.3f%% (%d) | Duplicates = %.3f%% (%d) | Out of Order = %.3f%% (%d) | Sequenced = %d",
+				getLossRate() * 100, this.lost, getDuplicateRate() * 100, this.duplicates,
+				getOutOfOrderRate() * 100, this.outOfOrder, this.received);
+	}
+}
@@ -0,0 +1,267 @@
+package com.cheetah.recorder;
+
+/**
+ * Tracks the sequence numbers of every device's messages to count lost, duplicate and
+ * out-of-order messages. Per device, only the highest sequence number seen and a 64-bit sliding
+ * window are kept: bit <i>i</i> of the window is set once <i>highest - i</i> has been received.
+ * <ul>
+ * <li>A number above the highest slides the window up. A number sliding out of the window
+ * without having been received is counted as lost, so losses are confirmed 64 messages late.</li>
+ * <li>A number within the window whose bit is set is a duplicate; if not, it arrived out of
+ * order and its bit is set.</li>
+ * <li>A number below the window is counted as out of order only: it was already counted as lost,
+ * and may as well be a duplicate.</li>
+ * <li>Sequence number 1 below the window means the device started over, e.g. the publisher was
+ * restarted, and sets a new starting point.</li>
+ * </ul>
+ * Messages sent before a device's first received message are not counted as lost.
+ * <p>
+ * The connections of a <i>ShardedRecorder</i> can receive messages of the same device, so the
+ * tracker is shared between them rather than split per connection. Devices are spread over
+ * striped, lock-protected open-addressing tables (keyed by <i>DeviceStatsTable.hash()</i>), so
+ * connections rarely wait on each other; recording allocates nothing. Out-of-order counts
+ * therefore include messages reordered between the recorder's own connections.
+ * @version 1.0.0, 2026-10-16
+ * @since 1.1.0
+ *
+ */
+public class SequenceTracker {
+
+	/** Number of stripes, a power of two. */
+	private static final int STRIPES = 64;
+	/** A stripe's table is grown once it is this full. */
+	private static final double LOAD_FACTOR = 0.75;
+	/** Width of the sliding window, the bits of a <i>long</i>. */
+	static final int WINDOW = 64;
+
+	private final Stripe[] stripes = new Stripe[STRIPES];
+
+	/**
+	 * The initialization constructor for the <i>SequenceTracker</i> class.
+	 * @param maxDevices The most devices to track at once. A stripe which fills up forgets its
+	 * devices, which then start over from their next message.
+	 */
+	public SequenceTracker(int maxDevices){
+		int maxPerStripe = Math.max(2 * maxDevices / STRIPES, 16); // Room for stripes getting more than their share
+		for(int i = 0; i < STRIPES; i++){
+			this.stripes[i] = new Stripe(maxPerStripe);
+		}
+	}
+
+	/**
+	 * Records the sequence number of a message, for the device whose ID is found at
+	 * <i>offset</i> in <i>buf</i>. Safe to call from any thread.
+	 * @param buf The buffer holding the device ID, e.g. a message payload.
+	 * @param offset The offset of the ID's first byte.
+	 * @param length The number of bytes in the ID.
+	 * @param sequence The message's sequence number, counting from 1.
+	 * @param now The current time, in ms since epoch.
+	 */
+	public void record(byte[] buf, int offset, int length, long sequence, long now){
+		if(sequence < 1){
+			return;
+		}
+		long key = DeviceStatsTable.hash(buf, offset, length);
+		Stripe stripe = this.stripes[(int) (key >>> 58) & (STRIPES - 1)]; // Top bits; the table slot uses the bottom ones
+		synchronized(stripe){
+			stripe.record(key, sequence, now);
+		}
+	}
+
+	/**
+	 * Ends the current interval, returning its counts and starting new ones.
+	 * @return The counts of every device since the last call.
+	 */
+	public SequenceCounts endInterval(){
+		long received = 0;
+		long lost = 0;
+		long duplicates = 0;
+		long outOfOrder = 0;
+		for(Stripe stripe : this.stripes){
+			synchronized(stripe){
+				received += stripe.received;
+				lost += stripe.lost;
+				duplicates += stripe.duplicates;
+				outOfOrder += stripe.outOfOrder;
+				stripe.received = 0;
+				stripe.lost = 0;
+				stripe.duplicates = 0;
+				stripe.outOfOrder = 0;
+			}
+		}
+		return new SequenceCounts(received, lost, duplicates, outOfOrder);
+	}
+
+	/**
+	 * Forgets every device which hasn't sent a message for longer than <i>idleMillis</i>.
+	 * @param now The current time, in ms since epoch.
+	 * @param idleMillis How long a device may stay quiet before it is forgotten.
+	 * @return The number of devices forgotten.
+	 */
+	public int evictIdle(long now, long idleMillis){
+		int evicted = 0;
+		for(Stripe stripe : this.stripes){
+			synchronized(stripe){
+				evicted += stripe.evictIdle(now - idleMillis);
+			}
+		}
+		return evicted;
+	}
+
+	/**
+	 * Returns the number of devices being tracked.
+	 * @return The number of devices.
+	 */
+	public int size(){
+		int size = 0;
+		for(Stripe stripe : this.stripes){
+			synchronized(stripe){
+				size += stripe.size;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * One stripe's devices, in parallel columns, and its share of the interval's counts.
+	 * Guarded by the stripe itself.
+	 */
+	private static final class Stripe {
+
+		private final int maxDevices;
+
+		private int mask;
+		private int size;
+		// *** One entry per slot; a key of 0 marks an empty slot ***
+		private long[] keys;
+		private long[] highest;
+		private long[] window;
+		private long[] lastSeen;
+
+		private long received;
+		private long lost;
+		private long duplicates;
+		private long outOfOrder;
+
+		Stripe(int maxDevices){
+			this.maxDevices = maxDevices;
+			allocate(16);
+		}
+
+		private void allocate(int capacity){
+			this.mask = capacity - 1;
+			this.size = 0;
+			this.keys = new long[capacity];
+			this.highest = new long[capacity];
+			this.window = new long[capacity];
+			this.lastSeen = new long[capacity];
+		}
+
+		void record(long key, long sequence, long now){
+			int slot = find(key);
+			this.received++;
+			if(this.keys[slot] == 0){
+				insert(key, sequence, now);
+				return;
+			}
+			this.lastSeen[slot] = now;
+
+			long highest = this.highest[slot];
+			long window = this.window[slot];
+			if(sequence > highest){
+				long shift = sequence - highest;
+				if(shift >= WINDOW){
+					// Every number left in the window slides out, and so do the numbers of the gap above it
+					this.lost += shift - Long.bitCount(window);
+					window = 1;
+				}
+				else{
+					this.lost += shift - Long.bitCount(window >>> (WINDOW - shift));
+					window = (window << shift) | 1;
+				}
+				this.highest[slot] = sequence;
+				this.window[slot] = window;
+			}
+			else if(sequence == 1 && highest - sequence >= WINDOW){
+				// The device started over; a 1 still within the window is more likely a redelivery
+				this.highest[slot] = 1;
+				this.window[slot] = -1L;
+			}
+			else{
+				long age = highest - sequence;
+				if(age >= WINDOW){
+					this.outOfOrder++;
+				}
+				else if((window & (1L << age)) != 0){
+					this.duplicates++;
+				}
+				else{
+					this.outOfOrder++;
+					this.window[slot] = window | (1L << age);
+				}
+			}
+		}
+
+		private int find(long key){
+			int slot = (int) key & this.mask;
+			while(this.keys[slot] != 0 && this.keys[slot] != key){
+				slot = (slot + 1) & this.mask;
+			}
+			return slot;
+		}
+
+		private void insert(long key, long sequence, long now){
+			if(this.size >= this.maxDevices){
+				allocate(this.keys.length); // Full; forget everyone rather than grow past the limit
+			}
+			else if(this.size + 1 > this.keys.length * LOAD_FACTOR){
+				rehash(this.keys.length * 2, Long.MIN_VALUE);
+			}
+
+			int slot = find(key);
+			this.keys[slot] = key;
+			this.highest[slot] = sequence;
+			this.window[slot] = -1L; // Nothing before the first message counts as lost
+			this.lastSeen[slot] = now;
+			this.size++;
+		}
+
+		/**
+		 * Copies every device seen at or after <i>minLastSeen</i> into new columns of
+		 * <i>capacity</i> slots, dropping the rest.
+		 */
+		private void rehash(int capacity, long minLastSeen){
+			long[] oldKeys = this.keys;
+			long[] oldHighest = this.highest;
+			long[] oldWindow = this.window;
+			long[] oldLastSeen = this.lastSeen;
+
+			allocate(capacity);
+			for(int old = 0; old < oldKeys.length; old++){
+				if(oldKeys[old] == 0 || oldLastSeen[old] < minLastSeen){
+					continue;
+				}
+				int slot = find(oldKeys[old]);
+				this.keys[slot] = oldKeys[old];
+				this.highest[slot] = oldHighest[old];
+				this.window[slot] = oldWindow[old];
+				this.lastSeen[slot] = oldLastSeen[old];
+				this.size++;
+			}
+		}
+
+		int evictIdle(long minLastSeen){
+			boolean anyIdle = false;
+			for(int slot = 0; slot < this.keys.length && !anyIdle; slot++){
+				anyIdle = this.keys[slot] != 0 && this.lastSeen[slot] < minLastSeen;
+			}
+			if(!anyIdle){
+				return 0;
+			}
+
+			int before = this.size;
+			rehash(this.keys.length, minLastSeen);
+			return before - this.size;
+		}
+	}
+}
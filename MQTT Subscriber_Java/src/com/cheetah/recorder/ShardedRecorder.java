@@ -0,0 +1,121 @@
+package com.cheetah.recorder;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Runs the recorder over several connections at once, so that one Paho callback thread no
+ * longer has to handle all of the traffic. Every connection subscribes to the same
+ * <i>$share/[GROUP]/[TOPIC]</i> shared subscription, letting the broker spread the reports
+ * across them, and records into its own <i>StatsShard</i> of one common <i>LatencyBucket</i>;
+ * the shards are merged into a single output record every interval.
+ * @version 1.0.0, 2026-10-16
+ * @since 1.1.0
+ *
+ */
+public class ShardedRecorder {
+
+	/** Default number of connections, one per core. */
+	public static final int DEFAULT_CONNECTIONS = Runtime.getRuntime().availableProcessors();
+
+	/** The shared bucket every connection records into. */
+	private final LatencyBucket bucket;
+	/** One client per connection. */
+	private final List<MQTTLatencyClient> clients = new ArrayList<MQTTLatencyClient>();
+	/** Counts the lost connections of every client. */
+	private final ReconnectMetrics reconnects = new ReconnectMetrics();
+	/** Schedules the bucket emptying interval. */
+	private final Timer emptyBucket = new Timer();
+
+	/**
+	 * The initialization constructor for the <i>ShardedRecorder</i> class. Connects every client,
+	 * named [id]-0 to [id]-[connections - 1], then schedules the bucket.
+	 * @param broker The address of the MQTT broker to subscribe to.
+	 * @param id The Identifier prefix of the clients.
+	 * @param group The shared subscription group the clients join.
+	 * @param topic The topic to subscribe to, without the <i>$share/</i> prefix.
+	 * @param qos The QoS level used when subscribing/publishing to the broker.
+	 * @param connections The number of connections to open.
+	 * @param sink Where the merged results will be logged.
+	 */
+	public ShardedRecorder(String broker, String id, String group, String topic, int qos, int connections, ResultsSink sink){
+		this.bucket = new LatencyBucket(sink);
+
+		String sharedTopic = "$share/" + group + "/" + topic;
+		for(int i = 0; i < connections; i++){
+			this.clients.add(new MQTTLatencyClient(broker, id + "-" + i, sharedTopic, qos, this.bucket, this.reconnects));
+		}
+
+		this.bucket.scheduleOn(this.emptyBucket);
+		this.emptyBucket.schedule(new TimerTask(){
+			@Override
+			public void run(){
+				for(MQTTLatencyClient client : clients){
+					System.out.println("\t" + client.getReplyPublisher().report());
+				}
+				String outages = reconnects.report();
+				if(outages != null){
+					System.out.println("\t" + outages);
+				}
+			}
+		}, 1000, 1000);
+	}
+
+	/**
+	 * Initialization constructor logging the merged results to a CSV file through an
+	 * <i>AsyncCsvWriter</i>, and closing everything on shutdown.
+	 * @param broker The address of the MQTT broker to subscribe to.
+	 * @param id The Identifier prefix of the clients.
+	 * @param group The shared subscription group the clients join.
+	 * @param topic The topic to subscribe to, without the <i>$share/</i> prefix.
+	 * @param qos The QoS level used when subscribing/publishing to the broker.
+	 * @param connections The number of connections to open.
+	 * @param outFile The output file where the latency results will be logged (.csv).
+	 */
+	public ShardedRecorder(String broker, String id, String group, String topic, int qos, int connections, File outFile){
+		this(broker, id, group, topic, qos, connections, new AsyncCsvWriter(outFile));
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
+			@Override
+			public void run(){
+				close();
+			}
+		}));
+	}
+
+	/**
+	 * Returns the shared bucket, e.g. to look at its per-device statistics.
+	 * @return The bucket every connection records into.
+	 */
+	public LatencyBucket getBucket(){
+		return this.bucket;
+	}
+
+	/**
+	 * Returns where the lost connections of every client are counted.
+	 * @return The shared <i>ReconnectMetrics</i>.
+	 */
+	public ReconnectMetrics getReconnectMetrics(){
+		return this.reconnects;
+	}
+
+	/**
+	 * Returns the number of open connections.
+	 * @return The number of clients.
+	 */
+	public int getConnectionCount(){
+		return this.clients.size();
+	}
+
+	/**
+	 * Disconnects every client, then stops the bucket and closes its sink.
+	 */
+	public void close(){
+		this.emptyBucket.cancel();
+		for(MQTTLatencyClient client : this.clients){
+			client.close();
+		}
+		this.bucket.close();
+	}
+}
@@ -0,0 +1,146 @@
+package com.cheetah.recorder;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+/**
+ * Publishes a summary of every interval on an MQTT topic, so tools running elsewhere can follow
+ * the recorder live, e.g. the publisher's saturation search. Every result is passed on to a base
+ * sink unchanged. Summaries are small JSON objects, published at QoS 0 on their own connection:
+ * <pre>
+ * {"interval_end":1760650000000,"interval_ms":1000,"entries":1500,"mean":12.5,"p50":11,"p90":18,
+ *  "p99":40,"p999":52,"max":60,"sequenced":1500,"lost":0,"duplicates":0,"out_of_order":0}
+ * </pre>
+ * Latencies are in ms, as recorded. An interval without entries is summarised by its end, length,
+ * <i>"entries":0</i> and its sequence counts. A summary is skipped, and counted, while disconnected or
+ * while the previous one is still being written.
+ * @version 1.0.0, 2026-10-16
+ * @since 1.1.0
+ *
+ */
+public class StatsPublisher implements ResultsSink {
+
+	/** Receives every result. */
+	private final ResultsSink base;
+	/** The topic summaries are published to. */
+	private final String topic;
+	/** The connection summaries are published through. */
+	private final MqttAsyncClient client;
+	/** The last summary's token; Paho 1.2.0 can only track one QoS 0 publish at a time. */
+	private IMqttDeliveryToken lastToken;
+	/** Summaries not published. */
+	private long skipped;
+
+	/**
+	 * The initialization constructor for the <i>StatsPublisher</i> class. Starts connecting in the
+	 * background; Paho reconnects on its own.
+	 * @param base The sink receiving every result.
+	 * @param broker The address of the MQTT broker to publish to.
+	 * @param id The Identifier of the publishing connection.
+	 * @param topic The topic summaries are published to.
+	 */
+	public StatsPublisher(ResultsSink base, String broker, String id, String topic){
+		this.base = base;
+		this.topic = topic;
+		try {
+			this.client = new MqttAsyncClient(broker, id, new MemoryPersistence());
+			MqttConnectOptions options = new MqttConnectOptions();
+			options.setAutomaticReconnect(true);
+			this.client.connect(options);
+		} catch (MqttException e) {
+			throw new IllegalArgumentException("Invalid client '" + id + "' for broker '" + broker + "'", e);
+		}
+	}
+
+	/**
+	 * Passes the interval on to the base sink, then publishes its summary.
+	 * @param br The results retrieved when emptying a <i>LatencyBucket</i>
+	 */
+	@Override
+	public void appendBucketResults(BucketResults br){
+		this.base.appendBucketResults(br);
+		SequenceCounts counts = br.getSequenceCounts();
+		publish(appendCounts(new StringBuilder(256)
+				.append("{\"interval_end\":").append(br.getIntervalEnd())
+				.append(",\"interval_ms\":").append(LatencyBucket.INTERVAL_MILLIS)
+				.append(",\"entries\":").append(br.getNumEntries().longValue())
+				.append(",\"mean\":").append(br.getAverage())
+				.append(",\"p50\":").append(br.getP50())
+				.append(",\"p90\":").append(br.getP90())
+				.append(",\"p99\":").append(br.getP99())
+				.append(",\"p999\":").append(br.getP999())
+				.append(",\"max\":").append(br.getMax()), counts)
+				.append('}').toString());
+	}
+
+	/**
+	 * Passes the empty interval on to the base sink, then publishes a summary with no entries, 
+	 * but with the interval's sequence counts.
+	 * @param intervalEnd The boundary the interval was scheduled to end on, in ms since epoch.
+	 * @param counts The interval's sequence counts.
+	 */
+	@Override
+	public void appendEmptyInterval(long intervalEnd, SequenceCounts counts){
+		this.base.appendEmptyInterval(intervalEnd, counts);
+		publish(appendCounts(new StringBuilder(128)
+				.append("{\"interval_end\":").append(intervalEnd)
+				.append(",\"interval_ms\":").append(LatencyBucket.INTERVAL_MILLIS)
+				.append(",\"entries\":0"), counts)
+				.append('}').toString());
+	}
+
+	/**
+	 * Appends the sequence counts' fields to a summary being built.
+	 */
+	private static StringBuilder appendCounts(StringBuilder json, SequenceCounts counts){
+		return json.append(",\"sequenced\":").append(counts.getReceived())
+				.append(",\"lost\":").append(counts.getLost())
+				.append(",\"duplicates\":").append(counts.getDuplicates())
+				.append(",\"out_of_order\":").append(counts.getOutOfOrder());
+	}
+
+	/**
+	 * Publishes one summary, unless disconnected or the last one is still being written.
+	 * @param json The summary.
+	 */
+	private synchronized void publish(String json){
+		if(!this.client.isConnected() || (this.lastToken != null && !this.lastToken.isComplete())){
+			this.skipped++;
+			return;
+		}
+		MqttMessage message = new MqttMessage(json.getBytes());
+		message.setQos(0);
+		try {
+			this.lastToken = this.client.publish(this.topic, message);
+		} catch (MqttException e) {
+			this.skipped++;
+		}
+	}
+
+	/**
+	 * Returns the number of summaries not published.
+	 * @return The number of skipped summaries.
+	 */
+	public synchronized long getSkipped(){
+		return this.skipped;
+	}
+
+	/**
+	 * Closes the base sink and disconnects.
+	 */
+	@Override
+	public void close(){
+		this.base.close();
+		try {
+			if(this.client.isConnected()){
+				this.client.disconnect().waitForCompletion(1000);
+			}
+			this.client.close();
+		} catch (MqttException e) {
+			System.out.println("[ERROR] Failed to disconnect stats publisher: " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package com.cheetah.recorder;
+
+/**
+ * One connection's share of a <i>LatencyBucket</i>: the latency histogram and per-device
+ * statistics of the messages received by a single connection since the last interval. Each
+ * connection records into its own shard, so connections never contend with each other, and
+ * the bucket merges every shard into one record at the interval boundary.
+ * <p>
+ * A shard holds two halves, one being written and one quiescent, flipped with a
+ * <i>PhasedPair</i> like a <i>ConcurrentLatencyRecorder</i> cell: recording costs the writer two
+ * uncontended atomic increments and never waits for the merge. A shard has a single writer,
+ * the connection's message thread.
+ * @version 1.0.0, 2026-10-16
+ * @since 1.1.0
+ *
+ */
+public class StatsShard {
+
+	private final PhasedPair<Half> halves;
+
+	/**
+	 * The initialization constructor for the <i>StatsShard</i> class. Shards are created by
+	 * <i>LatencyBucket.newShard()</i>.
+	 * @param template Histogram whose shape the shard's histograms copy.
+	 * @param maxDevices The most devices the shard tracks within one interval.
+	 */
+	StatsShard(LatencyHistogram template, int maxDevices){
+		this.halves = new PhasedPair<Half>(new Half(template.copyEmpty(), new DeviceStatsTable(maxDevices)),
+				new Half(template.copyEmpty(), new DeviceStatsTable(maxDevices)));
+	}
+
+	/**
+	 * Records one latency entry for the device whose ID is found at <i>idOffset</i> in <i>buf</i>.
+	 * Must only be called from the shard's connection thread.
+	 * @param value The latency to record.
+	 * @param buf The buffer holding the device ID, e.g. a message payload.
+	 * @param idOffset The offset of the device ID's first byte.
+	 * @param idLength The number of bytes in the device ID.
+	 */
+	public void record(long value, byte[] buf, int idOffset, int idLength){
+		long now = System.currentTimeMillis();
+		long epoch = this.halves.enter();
+		Half active = this.halves.active(epoch);
+		active.histogram.recordValue(value);
+		active.devices.record(buf, idOffset, idLength, value, now);
+		this.halves.exit(epoch);
+	}
+
+	/**
+	 * Moves everything recorded since the last call into the bucket's interval histogram and
+	 * device table. Only called by the bucket, from its <i>Timer</i> thread.
+	 * @param histogram The interval histogram to add the shard's entries to.
+	 * @param devices The device table to merge the shard's devices into.
+	 */
+	void drainInto(LatencyHistogram histogram, DeviceStatsTable devices){
+		Half inactive = this.halves.flip();
+		histogram.add(inactive.histogram);
+		inactive.histogram.reset();
+		inactive.devices.drainInto(devices);
+	}
+
+	/**
+	 * One interval's worth of a shard's statistics.
+	 */
+	private static final class Half {
+
+		private final LatencyHistogram histogram;
+		private final DeviceStatsTable devices;
+
+		private Half(LatencyHistogram histogram, DeviceStatsTable devices){
+			this.histogram = histogram;
+			this.devices = devices;
+		}
+	}
+}
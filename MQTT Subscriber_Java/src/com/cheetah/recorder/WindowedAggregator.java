@@ -0,0 +1,290 @@
+package com.cheetah.recorder;
+
+/**
+ * Aggregates the one-interval results of a <i>LatencyBucket</i> into coarser windows, e.g. 10 s,
+ * 1 min and 5 min, so one run shows both short spikes and long trends. Every result is passed
+ * on to a base sink unchanged.
+ * <p>
+ * Each resolution is a level built only from the histograms (and lost, duplicate and out-of-order
+ * counts) of the level below it, never from the samples: the 10 s level from the bucket's intervals, the 1 min level from 10 s windows, and
+ * so on. A level keeps a ring of the last windows of the level below, and merges them into:
+ * <ul>
+ * <li>A sliding window covering the last <i>resolution</i>, moving on each time the level below
+ * completes a window (every interval for 10 s, every 10 s for 1 min, ...), see <i>getSliding()</i>.</li>
+ * <li>A tumbling window, written to the level's sink whenever the sliding window ends on a whole
+ * multiple of the resolution since epoch, and passed up to the next level.</li>
+ * </ul>
+ * Windows follow the boundaries the bucket was scheduled on (see <i>LatencyBucket.scheduleOn()</i>),
+ * not the time results arrive, so they stay aligned however late the <i>Timer</i> thread runs.
+ * A window still open when the aggregator is closed is not written.
+ * @version 1.0.0, 2026-10-16
+ * @since 1.1.0
+ *
+ */
+public class WindowedAggregator implements ResultsSink {
+
+	/** Default resolutions (ms): 10 s, 1 min and 5 min. */
+	public static final long[] DEFAULT_RESOLUTIONS = {10000, 60000, 300000};
+
+	private final boolean VERBOSE = true;
+
+	/** Receives the bucket's own intervals. */
+	private final ResultsSink base;
+	/** One level per resolution, finest first. */
+	private final Level[] levels;
+
+	private boolean closed;
+
+	/**
+	 * The initialization constructor for this Class.
+	 * @param base The sink receiving the bucket's own intervals.
+	 * @param resolutions The window lengths (ms), finest first. Each must be a multiple of the
+	 * one before it, the first of <i>LatencyBucket.INTERVAL_MILLIS</i>.
+	 * @param sinks The sink receiving each resolution's tumbling windows, null to keep only its
+	 * sliding window.
+	 */
+	public WindowedAggregator(ResultsSink base, long[] resolutions, ResultsSink[] sinks){
+		if(resolutions.length != sinks.length){
+			throw new IllegalArgumentException("Need one sink per resolution.");
+		}
+
+		this.base = base;
+		this.levels = new Level[resolutions.length];
+		long step = LatencyBucket.INTERVAL_MILLIS;
+		for(int i = 0; i < resolutions.length; i++){
+			if(resolutions[i] <= step || resolutions[i] % step != 0){
+				throw new IllegalArgumentException("Window of " + resolutions[i] + " ms is not a multiple of " + step + " ms.");
+			}
+			this.levels[i] = new Level(resolutions[i], step, sinks[i]);
+			step = resolutions[i];
+		}
+	}
+
+	/**
+	 * Passes the interval on to the base sink, then adds it to the finest level.
+	 * @param br The results retrieved when emptying a <i>LatencyBucket</i>
+	 */
+	@Override
+	public void appendBucketResults(BucketResults br){
+		this.base.appendBucketResults(br);
+		synchronized(this){
+			if(this.closed){
+				return;
+			}
+			// A missing histogram only happens for hand-made results, which are counted as empty
+			push(0, alignedEnd(br.getIntervalEnd()), br.getHistogram(), br.getSequenceCounts());
+			if(VERBOSE){
+				String report = report();
+				if(!report.isEmpty()){
+					System.out.println("\t" + report);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Passes the empty interval on to the base sink, then adds it to the finest level, closing
+	 * any window ending with it.
+	 * @param intervalEnd The boundary the interval was scheduled to end on, in ms since epoch.
+	 * @param counts The interval's sequence counts.
+	 */
+	@Override
+	public void appendEmptyInterval(long intervalEnd, SequenceCounts counts){
+		this.base.appendEmptyInterval(intervalEnd, counts);
+		synchronized(this){
+			if(!this.closed){
+				push(0, alignedEnd(intervalEnd), null, counts);
+			}
+		}
+	}
+
+	/**
+	 * Closes the base sink and every level's sink.
+	 */
+	@Override
+	public void close(){
+		synchronized(this){
+			this.closed = true;
+		}
+		this.base.close();
+		for(Level level : this.levels){
+			if(level.sink != null){
+				level.sink.close();
+			}
+		}
+	}
+
+	/**
+	 * Returns the latest sliding window of a resolution.
+	 * @param level The index of the resolution, as passed to the constructor.
+	 * @return The results of the last <i>resolution</i> ms, or null if nothing was recorded in them.
+	 */
+	public synchronized BucketResults getSliding(int level){
+		Level l = this.levels[level];
+		if(l.merged == null || l.merged.getCount() == 0){
+			return null;
+		}
+		BucketResults results = BucketResults.fromHistogram(l.merged);
+		results.setIntervalEnd(l.lastEnd);
+		results.setSequenceCounts(copy(l.mergedCounts));
+		return results;
+	}
+
+	/**
+	 * Returns a one-line summary of every sliding window holding entries.
+	 * @return The average, p99, maximum and count of each sliding window.
+	 */
+	public synchronized String report(){
+		StringBuilder report = new StringBuilder();
+		for(Level level : this.levels){
+			LatencyHistogram merged = level.merged;
+			if(merged == null || merged.getCount() == 0){
+				continue;
+			}
+			if(report.length() > 0){
+				report.append(" | ");
+			}
+			report.append("Last ").append(label(level.resolution)).append(" = ")
+					.append(String.format("%.2f", merged.getMean())).append(" ms avg, p99 = ")
+					.append(merged.getValueAtPercentile(99.0)).append(" ms, Max = ")
+					.append(merged.getMax()).append(" ms, ")
+					.append(merged.getCount()).append(" message(s)");
+			if(level.mergedCounts.getLost() > 0){
+				report.append(String.format(", %.3f%% lost", level.mergedCounts.getLossRate() * 100));
+			}
+		}
+		return report.toString();
+	}
+
+	/**
+	 * Returns a short name for a window length, e.g. <i>10s</i>, <i>5m</i> or <i>1h</i>.
+	 * @param millis The window length (ms).
+	 * @return The window's name.
+	 */
+	public static String label(long millis){
+		if(millis % 3600000 == 0){
+			return (millis / 3600000) + "h";
+		}
+		if(millis % 60000 == 0){
+			return (millis / 60000) + "m";
+		}
+		if(millis % 1000 == 0){
+			return (millis / 1000) + "s";
+		}
+		return millis + "ms";
+	}
+
+	/**
+	 * Rounds an interval's end to the nearest interval boundary, in case the bucket was not
+	 * scheduled on aligned boundaries.
+	 */
+	private static long alignedEnd(long intervalEnd){
+		long interval = LatencyBucket.INTERVAL_MILLIS;
+		return (intervalEnd + interval / 2) / interval * interval;
+	}
+
+	/**
+	 * Adds a window of the level below, ending at <i>end</i>, to a level's ring, and refreshes
+	 * the level's sliding window. If that window ends on the level's boundary, it is written to
+	 * the level's sink and passed up to the next level.
+	 * @param histogram The window's entries, or null if it had none.
+	 * @param counts The window's sequence counts, or null if it had none.
+	 */
+	private void push(int index, long end, LatencyHistogram histogram, SequenceCounts counts){
+		Level level = this.levels[index];
+		if(end <= level.lastEnd){
+			return; // Already counted, e.g. after the clock was set back
+		}
+
+		int slot = (int) ((end / level.step) % level.ring.length);
+		level.ringEnds[slot] = end;
+		if(histogram != null){
+			if(level.merged == null){
+				level.merged = histogram.copyEmpty();
+			}
+			if(level.ring[slot] == null){
+				level.ring[slot] = histogram.copyEmpty();
+			}
+			level.ring[slot].reset();
+			level.ring[slot].add(histogram);
+		}
+		else if(level.ring[slot] != null){
+			level.ring[slot].reset();
+		}
+		level.ringCounts[slot].reset();
+		if(counts != null){
+			level.ringCounts[slot].add(counts);
+		}
+		level.lastEnd = end;
+
+		// The sliding window is the slots that ended within the last resolution; counts are kept
+		// for windows without entries too, e.g. messages lost during an outage
+		if(level.merged != null){
+			level.merged.reset();
+		}
+		level.mergedCounts.reset();
+		for(int i = 0; i < level.ring.length; i++){
+			if(level.ringEnds[i] > end - level.resolution){
+				if(level.ring[i] != null){
+					level.merged.add(level.ring[i]);
+				}
+				level.mergedCounts.add(level.ringCounts[i]);
+			}
+		}
+
+		if(end % level.resolution == 0){
+			boolean empty = level.merged == null || level.merged.getCount() == 0;
+			if(level.sink != null){
+				if(empty){
+					level.sink.appendEmptyInterval(end, copy(level.mergedCounts));
+				}
+				else{
+					BucketResults results = BucketResults.fromHistogram(level.merged);
+					results.setIntervalEnd(end);
+					results.setSequenceCounts(copy(level.mergedCounts));
+					level.sink.appendBucketResults(results);
+				}
+			}
+			if(index + 1 < this.levels.length){
+				push(index + 1, end, empty ? null : level.merged, level.mergedCounts);
+			}
+		}
+	}
+
+	private static SequenceCounts copy(SequenceCounts counts){
+		SequenceCounts copy = new SequenceCounts();
+		copy.add(counts);
+		return copy;
+	}
+
+	/**
+	 * One resolution: the last <i>resolution / step</i> windows of the level below, and their merge.
+	 */
+	private static final class Level {
+		final long resolution;
+		/** Length of the windows of the level below. */
+		final long step;
+		final ResultsSink sink;
+		/** Windows of the level below, by <i>(end / step) % length</i>; allocated once entries arrive. */
+		final LatencyHistogram[] ring;
+		final long[] ringEnds;
+		final SequenceCounts[] ringCounts;
+		/** The sliding window, the merge of the current slots. */
+		LatencyHistogram merged;
+		final SequenceCounts mergedCounts = new SequenceCounts();
+		/** End of the latest window added. */
+		long lastEnd;
+
+		Level(long resolution, long step, ResultsSink sink){
+			this.resolution = resolution;
+			this.step = step;
+			this.sink = sink;
+			this.ring = new LatencyHistogram[(int) (resolution / step)];
+			this.ringEnds = new long[this.ring.length];
+			this.ringCounts = new SequenceCounts[this.ring.length];
+			for(int i = 0; i < this.ringCounts.length; i++){
+				this.ringCounts[i] = new SequenceCounts();
+			}
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package com.cheetah.recorder;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of <i>BatchPayload</i>'s framing: the header, walking the frames, and
+ * <i>getReportLength()</i> refusing any frame which runs past the end of the batch.
+ * @version 1.0.0, 2026-10-16
+ * @since 1.1.0
+ *
+ */
+public class BatchPayloadTest {
+
+	@Test
+	public void headerIsRecognised(){
+		byte[] batch = batch(new byte[]{ 1 }, new byte[]{ 2, 3 });
+
+		assertTrue(BatchPayload.isBatch(batch));
+		assertTrue(BatchPayload.isValid(batch));
+		assertEquals(2, BatchPayload.getReportCount(batch));
+	}
+
+	@Test
+	public void singleReportsAreNotBatches(){
+		assertFalse(BatchPayload.isBatch(new byte[0]));
+		assertFalse(BatchPayload.isBatch("{\"id\":\"device-1\"}".getBytes()));
+		assertFalse(BatchPayload.isBatch(new byte[]{ BinaryPayload.MAGIC }));
+		assertFalse(BatchPayload.isBatch(new byte[]{ EdgeSummary.MAGIC }));
+	}
+
+	@Test
+	public void incompleteOrUnknownHeaderIsInvalid(){
+		assertFalse(BatchPayload.isValid(new byte[]{ BatchPayload.MAGIC, BatchPayload.VERSION, 0 }));
+		assertFalse(BatchPayload.isValid(new byte[]{ BatchPayload.MAGIC, BatchPayload.VERSION + 1, 0, 0 }));
+	}
+
+	@Test
+	public void reportCountIsUnsigned(){
+		byte[] batch = new byte[BatchPayload.HEADER_LENGTH];
+		batch[0] = BatchPayload.MAGIC;
+		batch[1] = BatchPayload.VERSION;
+		batch[2] = (byte) 0xFF;
+		batch[3] = (byte) 0xFE;
+
+		assertEquals(0xFFFE, BatchPayload.getReportCount(batch));
+	}
+
+	@Test
+	public void framesAreWalkedInOrder(){
+		byte[][] reports = { "{\"id\":\"a\"}".getBytes(), new byte[0], new byte[300] };
+		reports[2][299] = 7;
+		byte[] batch = batch(reports);
+
+		int offset = BatchPayload.HEADER_LENGTH;
+		for(int i = 0; i < BatchPayload.getReportCount(batch); i++){
+			int length = BatchPayload.getReportLength(batch, offset);
+			int start = offset + BatchPayload.FRAME_HEADER_LENGTH;
+			assertArrayEquals(reports[i], Arrays.copyOfRange(batch, start, start + length));
+			offset = start + length;
+		}
+		assertEquals(batch.length, offset);
+		assertEquals(-1, BatchPayload.getReportLength(batch, offset));
+	}
+
+	@Test
+	public void frameBeforeTheFirstIsRefused(){
+		byte[] batch = batch(new byte[]{ 1 });
+
+		assertEquals(-1, BatchPayload.getReportLength(batch, BatchPayload.HEADER_LENGTH - 1));
+		assertEquals(-1, BatchPayload.getReportLength(batch, -1));
+	}
+
+	@Test
+	public void frameHeaderCutShortIsRefused(){
+		byte[] batch = Arrays.copyOf(batch(new byte[]{ 1, 2 }), BatchPayload.HEADER_LENGTH + BatchPayload.FRAME_HEADER_LENGTH - 1);
+
+		assertEquals(-1, BatchPayload.getReportLength(batch, BatchPayload.HEADER_LENGTH));
+	}
+
+	@Test
+	public void reportCutShortIsRefused(){
+		byte[] whole = batch(new byte[]{ 1, 2, 3 });
+		assertEquals(3, BatchPayload.getReportLength(whole, BatchPayload.HEADER_LENGTH));
+
+		byte[] batch = Arrays.copyOf(whole, whole.length - 1);
+		assertEquals(-1, BatchPayload.getReportLength(batch, BatchPayload.HEADER_LENGTH));
+	}
+
+	@Test
+	public void lengthsWhichWouldOverflowAreRefused(){
+		byte[] batch = batch(new byte[]{ 1 });
+		// Negative as an int, and large enough for offset + length to wrap around
+		for(int length : new int[]{ -1, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE - BatchPayload.HEADER_LENGTH }){
+			ByteBuffer.wrap(batch).putInt(BatchPayload.HEADER_LENGTH, length);
+			assertEquals(-1, BatchPayload.getReportLength(batch, BatchPayload.HEADER_LENGTH));
+		}
+	}
+
+	/**
+	 * Frames the reports the way the publisher's <i>com.cheetahnetworks.BatchPayload</i> does.
+	 */
+	private static byte[] batch(byte[]... reports){
+		int length = BatchPayload.HEADER_LENGTH;
+		for(byte[] report : reports){
+			length += BatchPayload.FRAME_HEADER_LENGTH + report.length;
+		}
+
+		ByteBuffer batch = ByteBuffer.allocate(length);
+		batch.put(BatchPayload.MAGIC);
+		batch.put(BatchPayload.VERSION);
+		batch.putShort((short) reports.length);
+		for(byte[] report : reports){
+			batch.putInt(report.length);
+			batch.put(report);
+		}
+		return batch.array();
+	}
+}
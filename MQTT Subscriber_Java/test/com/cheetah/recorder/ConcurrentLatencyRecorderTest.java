@@ -0,0 +1,77 @@
+package com.cheetah.recorder;
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Stress test of <i>ConcurrentLatencyRecorder</i>. Several writer threads record a known
+ * sequence of values as fast as they can while the test thread drains the recorder over and
+ * over; the drained totals must match what was written exactly, with nothing lost or counted
+ * twice.
+ * @version 1.0.0, 2026-10-16
+ * @since 1.1.0
+ *
+ */
+public class ConcurrentLatencyRecorderTest {
+
+	/** Values recorded by each writer, 0 to 999 over and over. */
+	private static final long VALUES_PER_WRITER = 2000000L;
+
+	@Test
+	public void drainsEveryValueExactlyOnce() throws InterruptedException{
+		final int writers = Math.max(2, Runtime.getRuntime().availableProcessors());
+		final ConcurrentLatencyRecorder recorder = new ConcurrentLatencyRecorder(
+				LatencyBucket.HIGHEST_TRACKABLE_LATENCY, LatencyBucket.HISTOGRAM_SUB_BUCKET_BITS);
+		LatencyHistogram total = recorder.newIntervalHistogram();
+		LatencyHistogram interval = recorder.newIntervalHistogram();
+
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(writers);
+		for(int w = 0; w < writers; w++){
+			Thread writer = new Thread(new Runnable(){
+				@Override
+				public void run(){
+					try{
+						start.await();
+						for(long i = 0; i < VALUES_PER_WRITER; i++){
+							recorder.recordValue(i % 1000);
+						}
+					}
+					catch(InterruptedException e){
+						Thread.currentThread().interrupt();
+					}
+					finally{
+						done.countDown();
+					}
+				}
+			}, "stress-writer-" + w);
+			writer.setDaemon(true);
+			writer.start();
+		}
+
+		start.countDown();
+		// Drain continuously while the writers run, the way the Timer thread would at each interval
+		while(!done.await(100, TimeUnit.MICROSECONDS)){
+			recorder.drainInto(interval);
+			total.add(interval);
+			interval.reset();
+		}
+		recorder.drainInto(interval);
+		total.add(interval);
+
+		long fullCycles = VALUES_PER_WRITER / 1000;
+		long remainder = VALUES_PER_WRITER % 1000;
+		assertEquals(writers * VALUES_PER_WRITER, total.getCount());
+		assertEquals(writers * (fullCycles * (999L * 1000 / 2) + (remainder - 1) * remainder / 2), total.getSum());
+		assertEquals(0, total.getMin());
+		assertEquals(999, total.getMax());
+
+		// Nothing is left behind for the next interval
+		interval.reset();
+		recorder.drainInto(interval);
+		assertEquals(0, interval.getCount());
+	}
+}
@@ -0,0 +1,74 @@
+package com.cheetah.recorder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of how <i>LatencyBucket</i> hands each interval's sequence counts to its sink, with
+ * or without latency entries.
+ * @version 1.0.0, 2026-10-16
+ * @since 1.1.0
+ *
+ */
+public class LatencyBucketTest {
+
+	private static final byte[] DEVICE = "device-1".getBytes(StandardCharsets.UTF_8);
+
+	private final CapturingSink sink = new CapturingSink();
+	private final LatencyBucket bucket = new LatencyBucket(this.sink);
+
+	@Test
+	public void emptyIntervalCarriesItsSequenceCounts(){
+		this.bucket.recordSequence(DEVICE, 0, DEVICE.length, 1);
+		this.bucket.recordSequence(DEVICE, 0, DEVICE.length, 2);
+		this.bucket.recordSequence(DEVICE, 0, DEVICE.length, 2);
+		this.bucket.run();
+
+		assertNull(this.sink.results);
+		assertNotNull(this.sink.emptyCounts);
+		assertEquals(3, this.sink.emptyCounts.getReceived());
+		assertEquals(1, this.sink.emptyCounts.getDuplicates());
+	}
+
+	@Test
+	public void emptyIntervalCountsDoNotRollIntoTheNext(){
+		this.bucket.recordSequence(DEVICE, 0, DEVICE.length, 1);
+		this.bucket.recordSequence(DEVICE, 0, DEVICE.length, 1);
+		this.bucket.run();
+
+		this.bucket.addToBucket(10);
+		this.bucket.recordSequence(DEVICE, 0, DEVICE.length, 2);
+		this.bucket.run();
+
+		assertNotNull(this.sink.results);
+		SequenceCounts counts = this.sink.results.getSequenceCounts();
+		assertEquals(1, counts.getReceived());
+		assertEquals(0, counts.getDuplicates());
+	}
+
+	/**
+	 * Keeps the last results and the last empty interval's counts handed to it.
+	 */
+	private static final class CapturingSink implements ResultsSink {
+		BucketResults results;
+		SequenceCounts emptyCounts;
+
+		@Override
+		public void appendBucketResults(BucketResults br){
+			this.results = br;
+		}
+
+		@Override
+		public void appendEmptyInterval(long intervalEnd, SequenceCounts counts){
+			this.emptyCounts = counts;
+		}
+
+		@Override
+		public void close(){
+		}
+	}
+}
@@ -0,0 +1,225 @@
+package com.cheetah.recorder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests of the segment layout shared by <i>ResultsStore</i> and <i>ResultsStoreReader</i>:
+ * records read back as written, range queries, rollover, and a record cut short or failing its
+ * checksum ending its segment without losing the records before it.
+ * @version 1.0.0, 2026-10-16
+ * @since 1.1.0
+ *
+ */
+public class ResultsStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File directory;
+	/** Timestamps of the results appended by <i>append()</i>, in order. */
+	private final List<Long> timestamps = new ArrayList<Long>();
+	/** Length of the open segment after each result appended by <i>append()</i>. */
+	private final List<Long> segmentLengths = new ArrayList<Long>();
+
+	@Before
+	public void setUp(){
+		this.directory = new File(this.folder.getRoot(), "results");
+	}
+
+	@Test
+	public void readsBackWhatWasWritten() throws Exception{
+		ResultsStore store = new ResultsStore(this.directory);
+		append(store, 3);
+		store.close();
+
+		List<long[]> read = readAll();
+		assertEquals(3, read.size());
+		for(int i = 0; i < 3; i++){
+			long[] interval = read.get(i);
+			assertEquals((long) this.timestamps.get(i), interval[0]);
+			assertEquals(i + 1, interval[1]); // count
+			assertEquals(10 * (i + 1), interval[2]); // max
+			assertEquals(100 + i, interval[3]); // received
+			assertEquals(i, interval[4]); // lost
+			assertEquals(2 * i, interval[5]); // duplicates
+			assertEquals(3 * i, interval[6]); // out of order
+		}
+	}
+
+	@Test
+	public void readsOnlyTheRequestedRange() throws Exception{
+		ResultsStore store = new ResultsStore(this.directory, 0, 0, 1);
+		append(store, 5);
+		store.close();
+
+		List<long[]> read = read(this.timestamps.get(1), this.timestamps.get(3));
+		assertEquals(3, read.size());
+		assertEquals((long) this.timestamps.get(1), read.get(0)[0]);
+		assertEquals((long) this.timestamps.get(3), read.get(2)[0]);
+
+		LatencyHistogram merged = new ResultsStoreReader(this.directory).merge(this.timestamps.get(1), this.timestamps.get(3));
+		assertEquals(2 + 3 + 4, merged.getCount());
+		assertEquals(40, merged.getMax());
+		assertNull(new ResultsStoreReader(this.directory).merge(0, this.timestamps.get(0) - 1));
+	}
+
+	@Test
+	public void readsAcrossRolledOverSegments() throws Exception{
+		// Every record fills its segment, so each one starts a new segment
+		ResultsStore store = new ResultsStore(this.directory, 1, 0, 1);
+		append(store, 4);
+		store.close();
+
+		assertEquals(4, segments().length);
+		assertEquals(4, readAll().size());
+		assertEquals(2, read(this.timestamps.get(2), Long.MAX_VALUE).size());
+	}
+
+	@Test
+	public void tornRecordEndsTheSegment() throws Exception{
+		ResultsStore store = new ResultsStore(this.directory);
+		append(store, 3);
+		store.close();
+
+		// A crash part-way through writing the last record
+		File segment = segments()[0];
+		try(RandomAccessFile file = new RandomAccessFile(segment, "rw")){
+			file.setLength(this.segmentLengths.get(2) - 3);
+		}
+		assertEquals(2, readAll().size());
+
+		// ... or part-way through its length
+		try(RandomAccessFile file = new RandomAccessFile(segment, "rw")){
+			file.setLength(this.segmentLengths.get(1) + 2);
+		}
+		assertEquals(2, readAll().size());
+	}
+
+	@Test
+	public void checksumMismatchEndsTheSegment() throws Exception{
+		ResultsStore store = new ResultsStore(this.directory);
+		append(store, 3);
+		store.close();
+
+		// Flip a bit of the second record's timestamp
+		long timestampOffset = this.segmentLengths.get(0) + 4;
+		corrupt(segments()[0], timestampOffset + 7);
+
+		List<long[]> read = readAll();
+		assertEquals(1, read.size());
+		assertEquals((long) this.timestamps.get(0), read.get(0)[0]);
+	}
+
+	@Test
+	public void damagedLengthEndsTheSegment() throws Exception{
+		ResultsStore store = new ResultsStore(this.directory);
+		append(store, 3);
+		store.close();
+
+		// The second record's length, now far longer than any record
+		corrupt(segments()[0], this.segmentLengths.get(0));
+
+		assertEquals(1, readAll().size());
+	}
+
+	@Test
+	public void storesEmptyIntervalsOnlyIfCounted() throws Exception{
+		ResultsStore store = new ResultsStore(this.directory);
+		append(store, 1);
+		store.appendEmptyInterval(0, new SequenceCounts());
+		store.appendEmptyInterval(0, new SequenceCounts(0, 7, 0, 0));
+		store.close();
+
+		List<long[]> read = readAll();
+		assertEquals(2, read.size());
+		assertEquals(0, read.get(1)[1]); // count
+		assertEquals(7, read.get(1)[4]); // lost
+	}
+
+	@Test
+	public void skipsFilesWhichAreNotSegments() throws Exception{
+		ResultsStore store = new ResultsStore(this.directory);
+		append(store, 2);
+		store.close();
+
+		File other = new File(this.directory, ResultsStore.segmentName(0));
+		try(RandomAccessFile file = new RandomAccessFile(other, "rw")){
+			file.write(new byte[ResultsStore.HEADER_BYTES]);
+		}
+		assertEquals(2, readAll().size());
+	}
+
+	/**
+	 * Appends <i>n</i> results, the i-th holding i + 1 latencies of 10 to 10 * (i + 1) ms and
+	 * counts derived from i, recording their timestamps and the segment's length after each.
+	 * Results are a few ms apart, so each one starts a segment of its own name when rolling over.
+	 */
+	private void append(ResultsStore store, int n) throws InterruptedException{
+		for(int i = 0; i < n; i++){
+			Thread.sleep(2);
+			LatencyHistogram histogram = new LatencyHistogram(LatencyBucket.HIGHEST_TRACKABLE_LATENCY, LatencyBucket.HISTOGRAM_SUB_BUCKET_BITS);
+			for(int j = 1; j <= i + 1; j++){
+				histogram.recordValue(10 * j);
+			}
+			BucketResults results = BucketResults.fromHistogram(histogram);
+			results.setSequenceCounts(new SequenceCounts(100 + i, i, 2 * i, 3 * i));
+			store.appendBucketResults(results);
+
+			File[] segments = segments();
+			this.timestamps.add(results.getTimestampNanos());
+			this.segmentLengths.add(segments[segments.length - 1].length());
+		}
+	}
+
+	private File[] segments(){
+		File[] segments = this.directory.listFiles(new FilenameFilter(){
+			@Override
+			public boolean accept(File dir, String name){
+				return name.endsWith(ResultsStore.SEGMENT_SUFFIX);
+			}
+		});
+		Arrays.sort(segments);
+		return segments;
+	}
+
+	private static void corrupt(File segment, long offset) throws IOException{
+		try(RandomAccessFile file = new RandomAccessFile(segment, "rw")){
+			file.seek(offset);
+			int b = file.read();
+			file.seek(offset);
+			file.write(b ^ 0x40);
+		}
+	}
+
+	private List<long[]> readAll() throws IOException{
+		return read(0, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Reads a range, each interval as { timestamp, count, max, received, lost, duplicates, out of order }.
+	 */
+	private List<long[]> read(long from, long to) throws IOException{
+		final List<long[]> read = new ArrayList<long[]>();
+		new ResultsStoreReader(this.directory).read(from, to, new ResultsStoreReader.Visitor(){
+			@Override
+			public void interval(long timestampNanos, LatencyHistogram histogram, SequenceCounts counts){
+				read.add(new long[]{ timestampNanos, histogram.getCount(), histogram.getMax(), counts.getReceived(),
+						counts.getLost(), counts.getDuplicates(), counts.getOutOfOrder() });
+			}
+		});
+		return read;
+	}
+}
@@ -0,0 +1,157 @@
+package com.cheetah.recorder;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of <i>SequenceTracker</i>'s sliding window: when losses are confirmed, how
+ * duplicates and out-of-order messages are told apart, and restarts of a device.
+ * @version 1.0.0, 2026-10-16
+ * @since 1.1.0
+ *
+ */
+public class SequenceTrackerTest {
+
+	private static final byte[] DEVICE = "device-1".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] OTHER_DEVICE = "device-2".getBytes(StandardCharsets.UTF_8);
+
+	private final SequenceTracker tracker = new SequenceTracker(100);
+
+	@Test
+	public void inOrderMessagesCountNothing(){
+		recordRange(DEVICE, 1, 200);
+
+		assertCounts(200, 0, 0, 0, this.tracker.endInterval());
+	}
+
+	@Test
+	public void messagesBeforeTheFirstAreNotLost(){
+		recordRange(DEVICE, 500, 700);
+
+		assertCounts(201, 0, 0, 0, this.tracker.endInterval());
+	}
+
+	@Test
+	public void lossIsConfirmedOnceItSlidesOutOfTheWindow(){
+		recordRange(DEVICE, 1, 3);
+		recordRange(DEVICE, 5, 4 + SequenceTracker.WINDOW - 1);
+		assertCounts(SequenceTracker.WINDOW + 2, 0, 0, 0, this.tracker.endInterval());
+
+		record(DEVICE, 4 + SequenceTracker.WINDOW);
+		assertCounts(1, 1, 0, 0, this.tracker.endInterval());
+	}
+
+	@Test
+	public void gapWiderThanTheWindowIsCountedInFull(){
+		record(DEVICE, 1);
+		record(DEVICE, 100);
+		// 2 to 36 slide out at once; 37 to 99 are still in the window
+		assertCounts(2, 35, 0, 0, this.tracker.endInterval());
+
+		recordRange(DEVICE, 101, 100 + SequenceTracker.WINDOW - 1);
+		assertCounts(SequenceTracker.WINDOW - 1, 99 - 37 + 1, 0, 0, this.tracker.endInterval());
+	}
+
+	@Test
+	public void lateMessageWithinTheWindowIsOutOfOrderNotLost(){
+		record(DEVICE, 1);
+		record(DEVICE, 3);
+		record(DEVICE, 2);
+		recordRange(DEVICE, 4, 200);
+
+		assertCounts(200, 0, 0, 1, this.tracker.endInterval());
+	}
+
+	@Test
+	public void repeatWithinTheWindowIsADuplicate(){
+		recordRange(DEVICE, 1, 10);
+		record(DEVICE, 10);
+		record(DEVICE, 3);
+		record(DEVICE, 1); // Still within the window, so a redelivery rather than a restart
+
+		assertCounts(13, 0, 3, 0, this.tracker.endInterval());
+	}
+
+	@Test
+	public void messageBelowTheWindowIsOutOfOrderOnly(){
+		recordRange(DEVICE, 1, 9);
+		recordRange(DEVICE, 11, 100);
+		this.tracker.endInterval();
+
+		record(DEVICE, 10); // Already counted as lost
+		record(DEVICE, 20); // Received before, but no longer remembered
+		assertCounts(2, 0, 0, 2, this.tracker.endInterval());
+	}
+
+	@Test
+	public void restartBelowTheWindowSetsANewStartingPoint(){
+		recordRange(DEVICE, 1, 100);
+		this.tracker.endInterval();
+
+		recordRange(DEVICE, 1, 200);
+		assertCounts(200, 0, 0, 0, this.tracker.endInterval());
+	}
+
+	@Test
+	public void devicesAreTrackedSeparately(){
+		recordRange(DEVICE, 1, 10);
+		recordRange(OTHER_DEVICE, 1, 5);
+		recordRange(DEVICE, 11, 20);
+		record(OTHER_DEVICE, 5);
+
+		assertCounts(26, 0, 1, 0, this.tracker.endInterval());
+		assertEquals(2, this.tracker.size());
+	}
+
+	@Test
+	public void invalidSequenceNumbersAreIgnored(){
+		record(DEVICE, 0);
+		record(DEVICE, -1);
+
+		assertCounts(0, 0, 0, 0, this.tracker.endInterval());
+		assertEquals(0, this.tracker.size());
+	}
+
+	@Test
+	public void idleDevicesAreForgottenAndStartOver(){
+		this.tracker.record(DEVICE, 0, DEVICE.length, 1, 0);
+		this.tracker.record(OTHER_DEVICE, 0, OTHER_DEVICE.length, 1, 1000);
+
+		assertEquals(1, this.tracker.evictIdle(1000, 500));
+		assertEquals(1, this.tracker.size());
+
+		// A new starting point, not 999 lost messages
+		this.tracker.endInterval();
+		this.tracker.record(DEVICE, 0, DEVICE.length, 1000, 1000);
+		assertCounts(1, 0, 0, 0, this.tracker.endInterval());
+	}
+
+	@Test
+	public void deviceIdIsReadAtItsOffset(){
+		byte[] payload = "{\"id\":\"device-1\"}".getBytes(StandardCharsets.UTF_8);
+		this.tracker.record(payload, 7, DEVICE.length, 1, 0);
+		record(DEVICE, 1);
+
+		assertCounts(2, 0, 1, 0, this.tracker.endInterval());
+		assertEquals(1, this.tracker.size());
+	}
+
+	private void record(byte[] device, long sequence){
+		this.tracker.record(device, 0, device.length, sequence, 0);
+	}
+
+	private void recordRange(byte[] device, long first, long last){
+		for(long sequence = first; sequence <= last; sequence++){
+			record(device, sequence);
+		}
+	}
+
+	private static void assertCounts(long received, long lost, long duplicates, long outOfOrder, SequenceCounts counts){
+		assertEquals("received", received, counts.getReceived());
+		assertEquals("lost", lost, counts.getLost());
+		assertEquals("duplicates", duplicates, counts.getDuplicates());
+		assertEquals("out of order", outOfOrder, counts.getOutOfOrder());
+	}
+}